@@ -0,0 +1,23 @@
+package net.gotev.speech;
+
+/**
+ * Speech delegate which is also notified about the arbitration of its
+ * {@link ListeningRequest} by the {@link SpeechArbiter}.
+ */
+public interface ArbitratedSpeechDelegate extends SpeechDelegate {
+
+    /**
+     * Invoked when the request has to wait for another session to end.
+     * {@link SpeechDelegate#onStartOfSpeech()} is invoked when its session starts.
+     * @param ticket ticket of the request
+     */
+    void onSpeechRequestQueued(ListeningTicket ticket);
+
+    /**
+     * Invoked when the session of the request is interrupted by a request with a higher
+     * priority. The partial results are then delivered in
+     * {@link SpeechDelegate#onSpeechResult(String)}.
+     * @param ticket ticket of the request
+     */
+    void onSpeechPreempted(ListeningTicket ticket);
+}
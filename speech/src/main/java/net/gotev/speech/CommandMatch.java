@@ -0,0 +1,64 @@
+package net.gotev.speech;
+
+/**
+ * Command of a catalog which best matches the recognized speech.
+ */
+public class CommandMatch {
+
+    private final String mCommand;
+    private final int mCommandIndex;
+    private final int mHypothesisIndex;
+    private final int mDistance;
+    private final float mScore;
+
+    public CommandMatch(final String command, final int commandIndex, final int hypothesisIndex,
+                        final int distance, final float score) {
+        mCommand = command;
+        mCommandIndex = commandIndex;
+        mHypothesisIndex = hypothesisIndex;
+        mDistance = distance;
+        mScore = score;
+    }
+
+    /**
+     * @return the matched command, as it was given in the catalog
+     */
+    public String getCommand() {
+        return mCommand;
+    }
+
+    /**
+     * @return position of the command in the catalog
+     */
+    public int getCommandIndex() {
+        return mCommandIndex;
+    }
+
+    /**
+     * @return position of the recognition hypothesis which matched the command
+     */
+    public int getHypothesisIndex() {
+        return mHypothesisIndex;
+    }
+
+    /**
+     * @return edit distance in characters between the hypothesis and the command
+     */
+    public int getDistance() {
+        return mDistance;
+    }
+
+    /**
+     * @return match score between 0 and 1, given by the text similarity multiplied by the
+     * confidence of the hypothesis
+     */
+    public float getScore() {
+        return mScore;
+    }
+
+    @Override
+    public String toString() {
+        return "CommandMatch{command='" + mCommand + "', hypothesis=" + mHypothesisIndex
+                + ", distance=" + mDistance + ", score=" + mScore + "}";
+    }
+}
@@ -0,0 +1,16 @@
+package net.gotev.speech;
+
+/**
+ * Speech delegate which is also notified with the command of the catalog set with
+ * {@link Speech#setCommands(java.util.Collection, float)} which best matches the speech.
+ */
+public interface CommandSpeechDelegate extends SpeechDelegate {
+
+    /**
+     * Invoked before {@link SpeechDelegate#onSpeechResult(String)} with the best matching command.
+     * @param match best matching command, or null if no command is similar enough
+     * @param early true if the match comes from the partial results and the session has been
+     *              ended early because its score reached the early stop threshold
+     */
+    void onSpeechCommand(CommandMatch match, boolean early);
+}
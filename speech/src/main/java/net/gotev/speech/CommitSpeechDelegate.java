@@ -0,0 +1,18 @@
+package net.gotev.speech;
+
+/**
+ * Speech delegate which also receives the words of the partial results as soon as they
+ * become stable, so they can be processed before the final result arrives.
+ */
+public interface CommitSpeechDelegate extends SpeechDelegate {
+
+    /**
+     * Invoked once for every committed word, in order. Committed words are never retracted,
+     * so if the recognizer later revises them, the final result is the authoritative text.
+     * @param word committed word
+     * @param index position of the word among the ones committed in the session, starting
+     *              from 0. It keeps growing across the segments of a segmented session, and
+     *              restarts from 0 when the recognizer is ready for a new session
+     */
+    void onSpeechWordCommitted(String word, int index);
+}
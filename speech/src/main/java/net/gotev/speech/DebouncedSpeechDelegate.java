@@ -0,0 +1,16 @@
+package net.gotev.speech;
+
+/**
+ * Speech delegate which is also notified when a start or stop listening request
+ * has been held because it arrived within the transition minimum delay, and has
+ * been executed later. It's used only when transitions debouncing is enabled.
+ */
+public interface DebouncedSpeechDelegate extends SpeechDelegate {
+
+    /**
+     * Invoked when a held request has been executed.
+     * @param start true if the request was to start listening, false if it was to stop
+     * @param heldMilliseconds time for which the request has been held
+     */
+    void onSpeechRequestDebounced(boolean start, long heldMilliseconds);
+}
@@ -2,11 +2,16 @@ package net.gotev.speech;
 
 import android.content.Context;
 import android.os.Handler;
+import android.os.SystemClock;
 
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
+ * Executes an operation on the main thread after a delay, which can be postponed by
+ * resetting the timer. All the operations share the same main thread handler, so no
+ * threads are created. Resetting the timer only moves the deadline forward, so it's
+ * an O(1) operation which does not allocate memory.
+ *
  * @author Aleksandar Gotev
  */
 public class DelayedOperation {
@@ -18,12 +23,41 @@ public class DelayedOperation {
         boolean shouldExecuteDelayedOperation();
     }
 
-    private long mDelay;
-    private Operation mOperation;
-    private Timer mTimer;
-    private boolean started;
-    private Context mContext;
-    private String mTag;
+    private final long mDelay;
+    private final String mTag;
+    private final Handler mHandler;
+    private volatile Operation mOperation;
+    private volatile long mDeadline;
+    private final AtomicBoolean mStarted = new AtomicBoolean(false);
+    private final AtomicBoolean mPosted = new AtomicBoolean(false);
+
+    private final Runnable mRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mPosted.set(false);
+
+            if (!mStarted.get()) return;
+
+            final long deadline = mDeadline;
+
+            if (SystemClock.uptimeMillis() < deadline) {
+                // the timer has been reset in the meantime, so wait for the new deadline
+                if (mPosted.compareAndSet(false, true)) {
+                    mHandler.postAtTime(mRunnable, deadline);
+                }
+                return;
+            }
+
+            if (!mStarted.compareAndSet(true, false)) return;
+
+            final Operation operation = mOperation;
+
+            if (operation != null && operation.shouldExecuteDelayedOperation()) {
+                Logger.debug(LOG_TAG, "executing delayed operation with tag: " + mTag);
+                operation.onDelayedOperation();
+            }
+        }
+    };
 
     public DelayedOperation(Context context, String tag, long delayInMilliseconds) {
         if (context == null) {
@@ -34,9 +68,9 @@ public class DelayedOperation {
             throw new IllegalArgumentException("The delay in milliseconds must be > 0");
         }
 
-        mContext = context;
         mTag = tag;
         mDelay = delayInMilliseconds;
+        mHandler = SharedHandler.get();
         Logger.debug(LOG_TAG, "created delayed operation with tag: " + mTag);
     }
 
@@ -48,41 +82,31 @@ public class DelayedOperation {
         Logger.debug(LOG_TAG, "starting delayed operation with tag: " + mTag);
         mOperation = operation;
         cancel();
-        started = true;
+        mStarted.set(true);
         resetTimer();
     }
 
     public void resetTimer() {
-        if (!started) return;
-
-        if (mTimer != null) mTimer.cancel();
-
-        Logger.debug(LOG_TAG, "resetting delayed operation with tag: " + mTag);
-        mTimer = new Timer();
-        mTimer.schedule(new TimerTask() {
-            @Override
-            public void run() {
-                if (mOperation.shouldExecuteDelayedOperation()) {
-                    Logger.debug(LOG_TAG, "executing delayed operation with tag: " + mTag);
-                    new Handler(mContext.getMainLooper()).post(new Runnable() {
-                        @Override
-                        public void run() {
-                            mOperation.onDelayedOperation();
-                        }
-                    });
-                }
-                cancel();
-            }
-        }, mDelay);
+        if (!mStarted.get()) return;
+
+        mDeadline = SystemClock.uptimeMillis() + mDelay;
+
+        if (mPosted.compareAndSet(false, true)) {
+            mHandler.postAtTime(mRunnable, mDeadline);
+        }
     }
 
     public void cancel() {
-        if (mTimer != null) {
+        if (mStarted.getAndSet(false)) {
             Logger.debug(LOG_TAG, "cancelled delayed operation with tag: " + mTag);
-            mTimer.cancel();
-            mTimer = null;
         }
 
-        started = false;
+        if (mPosted.compareAndSet(true, false)) {
+            mHandler.removeCallbacks(mRunnable);
+        }
+    }
+
+    public boolean isStarted() {
+        return mStarted.get();
     }
 }
@@ -0,0 +1,15 @@
+package net.gotev.speech;
+
+/**
+ * Speech delegate which also receives the partial results as compact deltas of the
+ * text recognized so far, so that only the changed words have to be processed.
+ */
+public interface DeltaSpeechDelegate extends SpeechDelegate {
+
+    /**
+     * Invoked when the partial results text changed.
+     * Partial results producing the same text of the previous ones are not notified.
+     * @param delta changes since the previous partial results
+     */
+    void onSpeechPartialDelta(SpeechPartialDelta delta);
+}
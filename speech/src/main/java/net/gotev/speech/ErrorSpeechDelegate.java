@@ -0,0 +1,16 @@
+package net.gotev.speech;
+
+/**
+ * Speech delegate which is also notified about recognition errors
+ * and how the engine recovered from them.
+ */
+public interface ErrorSpeechDelegate extends SpeechDelegate {
+
+    /**
+     * Invoked when the speech recognizer reports an error, before the recovery action is
+     * carried out. When the action is a retry, no result is delivered for the failed attempt.
+     * @param code error code, one of the SpeechRecognizer ERROR_ constants
+     * @param action recovery action taken by the engine
+     */
+    void onSpeechError(int code, RecoveryAction action);
+}
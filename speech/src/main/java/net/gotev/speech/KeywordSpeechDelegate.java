@@ -0,0 +1,15 @@
+package net.gotev.speech;
+
+/**
+ * Speech delegate which is also notified when one of the keywords set with
+ * {@link Speech#setKeywords(java.util.Collection, boolean)} is spotted in the partial results.
+ */
+public interface KeywordSpeechDelegate extends SpeechDelegate {
+
+    /**
+     * Invoked as soon as a keyword appears in the partial results.
+     * Every occurrence is notified only once.
+     * @param keyword spotted keyword, lowercase and with single spaces between words
+     */
+    void onSpeechKeywordSpotted(String keyword);
+}
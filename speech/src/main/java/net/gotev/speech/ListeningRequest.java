@@ -0,0 +1,151 @@
+package net.gotev.speech;
+
+import net.gotev.speech.ui.SpeechProgressView;
+
+/**
+ * Immutable request to listen, submitted by an app component to the {@link SpeechArbiter}.
+ */
+public final class ListeningRequest {
+
+    private final String mCallerId;
+    private final SpeechDelegate mDelegate;
+    private final RecognitionProfile mProfile;
+    private final SpeechProgressView mProgressView;
+    private final int mPriority;
+    private final boolean mPreemptive;
+    private final boolean mShareable;
+
+    private ListeningRequest(final Builder builder) {
+        mCallerId = builder.mCallerId;
+        mDelegate = builder.mDelegate;
+        mProfile = builder.mProfile;
+        mProgressView = builder.mProgressView;
+        mPriority = builder.mPriority;
+        mPreemptive = builder.mPreemptive;
+        mShareable = builder.mShareable;
+    }
+
+    public String getCallerId() {
+        return mCallerId;
+    }
+
+    public SpeechDelegate getDelegate() {
+        return mDelegate;
+    }
+
+    public RecognitionProfile getProfile() {
+        return mProfile;
+    }
+
+    public SpeechProgressView getProgressView() {
+        return mProgressView;
+    }
+
+    public int getPriority() {
+        return mPriority;
+    }
+
+    /**
+     * @return true if the request interrupts an active session with a lower priority
+     */
+    public boolean isPreemptive() {
+        return mPreemptive;
+    }
+
+    /**
+     * @return true if the request can share its session with other shareable requests
+     * having the same profile
+     */
+    public boolean isShareable() {
+        return mShareable;
+    }
+
+    /**
+     * @param other another request
+     * @return true if the two requests can be served by the same session
+     */
+    boolean canShareWith(final ListeningRequest other) {
+        return mShareable && other.mShareable && mProfile.equals(other.mProfile);
+    }
+
+    public static class Builder {
+        private final String mCallerId;
+        private final SpeechDelegate mDelegate;
+        private RecognitionProfile mProfile = RecognitionProfile.DEFAULT;
+        private SpeechProgressView mProgressView;
+        private int mPriority = 0;
+        private boolean mPreemptive = false;
+        private boolean mShareable = false;
+
+        /**
+         * @param callerId identifier of the app component making the request, used to
+         *                 serve the components fairly
+         * @param delegate delegate which receives the events of the session
+         */
+        public Builder(final String callerId, final SpeechDelegate delegate) {
+            if (callerId == null || callerId.isEmpty())
+                throw new IllegalArgumentException("callerId must be defined!");
+
+            if (delegate == null)
+                throw new IllegalArgumentException("delegate must be defined!");
+
+            mCallerId = callerId;
+            mDelegate = delegate;
+        }
+
+        /**
+         * @param profile recognition profile (default is {@link RecognitionProfile#DEFAULT})
+         * @return builder instance
+         */
+        public Builder setProfile(final RecognitionProfile profile) {
+            if (profile == null)
+                throw new IllegalArgumentException("profile must be defined!");
+
+            mProfile = profile;
+            return this;
+        }
+
+        /**
+         * @param progressView view in which to draw speech animation, or null (default)
+         * @return builder instance
+         */
+        public Builder setProgressView(final SpeechProgressView progressView) {
+            mProgressView = progressView;
+            return this;
+        }
+
+        /**
+         * @param priority requests with a higher priority are served first (default is 0)
+         * @return builder instance
+         */
+        public Builder setPriority(final int priority) {
+            mPriority = priority;
+            return this;
+        }
+
+        /**
+         * @param preemptive true to interrupt an active session with a lower priority,
+         *                   which receives its partial results (default is false)
+         * @return builder instance
+         */
+        public Builder setPreemptive(final boolean preemptive) {
+            mPreemptive = preemptive;
+            return this;
+        }
+
+        /**
+         * @param shareable true if the request is a one-shot which can share its session and
+         *                  its result with other shareable requests having the same profile
+         *                  (default is false)
+         * @return builder instance
+         */
+        public Builder setShareable(final boolean shareable) {
+            mShareable = shareable;
+            return this;
+        }
+
+        public ListeningRequest build() {
+            return new ListeningRequest(this);
+        }
+    }
+}
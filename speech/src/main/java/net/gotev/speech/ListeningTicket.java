@@ -0,0 +1,96 @@
+package net.gotev.speech;
+
+import android.os.SystemClock;
+
+/**
+ * Handle of a {@link ListeningRequest} submitted to the {@link SpeechArbiter}.
+ * It has to be used on the main thread.
+ */
+public final class ListeningTicket {
+
+    public enum State {
+        /**
+         * Waiting for another session to end.
+         */
+        QUEUED,
+
+        /**
+         * Receiving the events of a session.
+         */
+        ACTIVE,
+
+        /**
+         * The session ended, was preempted or the request was cancelled.
+         */
+        FINISHED
+    }
+
+    private final SpeechArbiter mArbiter;
+    private final ListeningRequest mRequest;
+    private final long mSequence;
+    private final long mSubmitTimestamp;
+    private long mStartTimestamp;
+    private long mFinishTimestamp;
+    private State mState = State.QUEUED;
+
+    ListeningTicket(final SpeechArbiter arbiter, final ListeningRequest request, final long sequence) {
+        mArbiter = arbiter;
+        mRequest = request;
+        mSequence = sequence;
+        mSubmitTimestamp = SystemClock.elapsedRealtime();
+    }
+
+    public ListeningRequest getRequest() {
+        return mRequest;
+    }
+
+    public State getState() {
+        return mState;
+    }
+
+    /**
+     * @return milliseconds for which the request waited for its session to start, or has been
+     * waiting so far if it's still queued
+     */
+    public long getQueueWaitTime() {
+        final long end;
+
+        if (mStartTimestamp > 0) {
+            end = mStartTimestamp;
+        } else if (mFinishTimestamp > 0) {
+            end = mFinishTimestamp;
+        } else {
+            end = SystemClock.elapsedRealtime();
+        }
+
+        return end - mSubmitTimestamp;
+    }
+
+    /**
+     * Withdraws the request. If it's active and its session is not shared with other
+     * requests, listening is stopped. No more events are delivered to its delegate.
+     */
+    public void cancel() {
+        mArbiter.cancel(this);
+    }
+
+    long getSequence() {
+        return mSequence;
+    }
+
+    void markStarted() {
+        mState = State.ACTIVE;
+        mStartTimestamp = SystemClock.elapsedRealtime();
+    }
+
+    void markFinished() {
+        mState = State.FINISHED;
+        mFinishTimestamp = SystemClock.elapsedRealtime();
+    }
+
+    @Override
+    public String toString() {
+        return "ListeningTicket{caller=" + mRequest.getCallerId() + ", priority=" + mRequest.getPriority()
+                + ", state=" + mState + ", queueWaitTime=" + getQueueWaitTime() + "}";
+    }
+}
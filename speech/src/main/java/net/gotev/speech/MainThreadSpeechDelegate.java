@@ -0,0 +1,10 @@
+package net.gotev.speech;
+
+/**
+ * Speech delegate which always receives the callbacks on the main thread, also when
+ * a delegate executor has been set with {@link Speech#setDelegateExecutor}. It's meant for
+ * delegates which drive the engine from the callbacks, like the ones of
+ * {@link SpeechArbiter} and of {@link net.gotev.speech.batch.BatchTranscriber}.
+ */
+public interface MainThreadSpeechDelegate extends SpeechDelegate {
+}
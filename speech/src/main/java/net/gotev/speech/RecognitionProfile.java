@@ -0,0 +1,247 @@
+package net.gotev.speech;
+
+import android.content.Intent;
+import android.speech.RecognizerIntent;
+
+/**
+ * Immutable set of speech recognizer settings to use for a listening session, such as the
+ * language model, the maximum number of results and the endpointing silence lengths.
+ * Every profile builds its recognizer intent template only once, and hands out copies of it.
+ * <p>
+ * Bear in mind that the speech recognizer is free to ignore the silence lengths.
+ */
+public final class RecognitionProfile {
+
+    /**
+     * Free form language model with a single result and the recognizer's own endpointing.
+     */
+    public static final RecognitionProfile DEFAULT = new Builder("default").build();
+
+    /**
+     * Short voice commands: ends the utterance quickly and returns multiple hypotheses.
+     */
+    public static final RecognitionProfile COMMAND = new Builder("command")
+            .setMaxResults(5)
+            .setCompleteSilenceLength(600)
+            .setPossiblyCompleteSilenceLength(400)
+            .build();
+
+    /**
+     * Long dictation: tolerates long pauses while the user thinks.
+     */
+    public static final RecognitionProfile DICTATION = new Builder("dictation")
+            .setCompleteSilenceLength(3000)
+            .setPossiblyCompleteSilenceLength(2000)
+            .setMinimumLength(5000)
+            .build();
+
+    /**
+     * Search queries: web search language model and a few hypotheses.
+     */
+    public static final RecognitionProfile SEARCH = new Builder("search")
+            .setLanguageModel(RecognizerIntent.LANGUAGE_MODEL_WEB_SEARCH)
+            .setMaxResults(3)
+            .setCompleteSilenceLength(1000)
+            .setPossiblyCompleteSilenceLength(700)
+            .build();
+
+    private static final long UNSET = -1;
+
+    private final String mName;
+    private final String mLanguageModel;
+    private final int mMaxResults;
+    private final long mCompleteSilenceLength;
+    private final long mPossiblyCompleteSilenceLength;
+    private final long mMinimumLength;
+    private volatile Intent mIntentTemplate;
+
+    private RecognitionProfile(final Builder builder) {
+        mName = builder.mName;
+        mLanguageModel = builder.mLanguageModel;
+        mMaxResults = builder.mMaxResults;
+        mCompleteSilenceLength = builder.mCompleteSilenceLength;
+        mPossiblyCompleteSilenceLength = builder.mPossiblyCompleteSilenceLength;
+        mMinimumLength = builder.mMinimumLength;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public String getLanguageModel() {
+        return mLanguageModel;
+    }
+
+    public int getMaxResults() {
+        return mMaxResults;
+    }
+
+    /**
+     * @return silence in milliseconds after which the input is considered complete,
+     * or -1 if not set
+     */
+    public long getCompleteSilenceLength() {
+        return mCompleteSilenceLength;
+    }
+
+    /**
+     * @return silence in milliseconds after which the input is considered possibly complete,
+     * or -1 if not set
+     */
+    public long getPossiblyCompleteSilenceLength() {
+        return mPossiblyCompleteSilenceLength;
+    }
+
+    /**
+     * @return minimum length of the recording in milliseconds, or -1 if not set
+     */
+    public long getMinimumLength() {
+        return mMinimumLength;
+    }
+
+    /**
+     * Creates a recognizer intent which contains only the profile settings, to which other
+     * extras can be added. The template is built once, and every call returns a copy of it,
+     * so the profile stays immutable.
+     * @return new recognizer intent
+     */
+    public Intent createRecognizerIntent() {
+        if (mIntentTemplate == null) {
+            final Intent intent = new Intent(RecognizerIntent.ACTION_RECOGNIZE_SPEECH)
+                    .putExtra(RecognizerIntent.EXTRA_MAX_RESULTS, mMaxResults)
+                    .putExtra(RecognizerIntent.EXTRA_LANGUAGE_MODEL, mLanguageModel);
+
+            if (mCompleteSilenceLength != UNSET) {
+                intent.putExtra(RecognizerIntent.EXTRA_SPEECH_INPUT_COMPLETE_SILENCE_LENGTH_MILLIS,
+                        mCompleteSilenceLength);
+            }
+
+            if (mPossiblyCompleteSilenceLength != UNSET) {
+                intent.putExtra(RecognizerIntent.EXTRA_SPEECH_INPUT_POSSIBLY_COMPLETE_SILENCE_LENGTH_MILLIS,
+                        mPossiblyCompleteSilenceLength);
+            }
+
+            if (mMinimumLength != UNSET) {
+                intent.putExtra(RecognizerIntent.EXTRA_SPEECH_INPUT_MINIMUM_LENGTH_MILLIS, mMinimumLength);
+            }
+
+            mIntentTemplate = intent;
+        }
+
+        return new Intent(mIntentTemplate);
+    }
+
+    /**
+     * Profiles are equal when they have the same name and settings, also when they have been
+     * built separately.
+     */
+    @Override
+    public boolean equals(final Object other) {
+        if (this == other)
+            return true;
+
+        if (!(other instanceof RecognitionProfile))
+            return false;
+
+        final RecognitionProfile profile = (RecognitionProfile) other;
+
+        return mName.equals(profile.mName)
+                && (mLanguageModel == null ? profile.mLanguageModel == null
+                        : mLanguageModel.equals(profile.mLanguageModel))
+                && mMaxResults == profile.mMaxResults
+                && mCompleteSilenceLength == profile.mCompleteSilenceLength
+                && mPossiblyCompleteSilenceLength == profile.mPossiblyCompleteSilenceLength
+                && mMinimumLength == profile.mMinimumLength;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = mName.hashCode();
+        result = 31 * result + (mLanguageModel == null ? 0 : mLanguageModel.hashCode());
+        result = 31 * result + mMaxResults;
+        result = 31 * result + Long.valueOf(mCompleteSilenceLength).hashCode();
+        result = 31 * result + Long.valueOf(mPossiblyCompleteSilenceLength).hashCode();
+        result = 31 * result + Long.valueOf(mMinimumLength).hashCode();
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "RecognitionProfile{" + mName + "}";
+    }
+
+    /**
+     * Builds recognition profiles. Settings which are not set are left to the speech recognizer.
+     */
+    public static class Builder {
+        private final String mName;
+        private String mLanguageModel = RecognizerIntent.LANGUAGE_MODEL_FREE_FORM;
+        private int mMaxResults = 1;
+        private long mCompleteSilenceLength = UNSET;
+        private long mPossiblyCompleteSilenceLength = UNSET;
+        private long mMinimumLength = UNSET;
+
+        /**
+         * @param name profile name, used for logging
+         */
+        public Builder(final String name) {
+            if (name == null || name.isEmpty())
+                throw new IllegalArgumentException("name must be defined!");
+
+            mName = name;
+        }
+
+        /**
+         * @param languageModel {@link RecognizerIntent#LANGUAGE_MODEL_FREE_FORM} (default)
+         *                      or {@link RecognizerIntent#LANGUAGE_MODEL_WEB_SEARCH}
+         * @return builder instance
+         */
+        public Builder setLanguageModel(final String languageModel) {
+            mLanguageModel = languageModel;
+            return this;
+        }
+
+        /**
+         * @param maxResults maximum number of hypotheses to return (default is 1)
+         * @return builder instance
+         */
+        public Builder setMaxResults(final int maxResults) {
+            if (maxResults <= 0)
+                throw new IllegalArgumentException("maxResults must be > 0");
+
+            mMaxResults = maxResults;
+            return this;
+        }
+
+        /**
+         * @param milliseconds silence after which the input is considered complete
+         * @return builder instance
+         */
+        public Builder setCompleteSilenceLength(final long milliseconds) {
+            mCompleteSilenceLength = milliseconds;
+            return this;
+        }
+
+        /**
+         * @param milliseconds silence after which the input is considered possibly complete
+         * @return builder instance
+         */
+        public Builder setPossiblyCompleteSilenceLength(final long milliseconds) {
+            mPossiblyCompleteSilenceLength = milliseconds;
+            return this;
+        }
+
+        /**
+         * @param milliseconds minimum length of the recording
+         * @return builder instance
+         */
+        public Builder setMinimumLength(final long milliseconds) {
+            mMinimumLength = milliseconds;
+            return this;
+        }
+
+        public RecognitionProfile build() {
+            return new RecognitionProfile(this);
+        }
+    }
+}
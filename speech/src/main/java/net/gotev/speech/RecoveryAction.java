@@ -0,0 +1,42 @@
+package net.gotev.speech;
+
+/**
+ * Action taken by the speech recognition engine after a recognition error.
+ */
+public enum RecoveryAction {
+
+    /**
+     * The partial results are delivered to the delegate and the session ends.
+     */
+    DELIVER,
+
+    /**
+     * The session is restarted immediately, without delivering results.
+     */
+    RETRY_IMMEDIATELY,
+
+    /**
+     * The session is restarted after an exponentially increasing delay,
+     * without delivering results.
+     */
+    RETRY_WITH_BACKOFF,
+
+    /**
+     * The session is restarted immediately, asking the recognizer to prefer offline recognition
+     * until the next user initiated session.
+     */
+    PREFER_OFFLINE_AND_RETRY,
+
+    /**
+     * Too many consecutive failures happened, so no automatic retries are made until
+     * the circuit breaker closes. The partial results are delivered and the session ends.
+     */
+    CIRCUIT_OPEN;
+
+    /**
+     * @return true if the session is restarted without delivering results
+     */
+    public boolean isRetry() {
+        return this == RETRY_IMMEDIATELY || this == RETRY_WITH_BACKOFF || this == PREFER_OFFLINE_AND_RETRY;
+    }
+}
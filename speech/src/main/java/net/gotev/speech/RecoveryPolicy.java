@@ -0,0 +1,182 @@
+package net.gotev.speech;
+
+import android.speech.SpeechRecognizer;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Immutable policy which tells the speech recognition engine how to recover from every
+ * recognition error code, how many times a session can be retried, the backoff delays
+ * and when to stop retrying because the recognizer keeps failing.
+ * <p>
+ * The circuit breaker counts consecutive errors, except no match and speech timeout which
+ * depend on the user. When the threshold is reached, automatic retries and the chaining of
+ * continuous sessions are suspended for the configured time or until a session succeeds.
+ */
+public final class RecoveryPolicy {
+
+    /**
+     * Delivers the partial results for every error, like the engine always did.
+     */
+    public static final RecoveryPolicy DEFAULT = new Builder().build();
+
+    /**
+     * Retries connectivity errors preferring offline recognition,
+     * backs off when the recognizer is busy and retries client errors once.
+     */
+    public static final RecoveryPolicy RESILIENT = new Builder()
+            .setAction(SpeechRecognizer.ERROR_NETWORK, RecoveryAction.PREFER_OFFLINE_AND_RETRY)
+            .setAction(SpeechRecognizer.ERROR_NETWORK_TIMEOUT, RecoveryAction.PREFER_OFFLINE_AND_RETRY)
+            .setAction(SpeechRecognizer.ERROR_SERVER, RecoveryAction.RETRY_WITH_BACKOFF)
+            .setAction(SpeechRecognizer.ERROR_RECOGNIZER_BUSY, RecoveryAction.RETRY_WITH_BACKOFF)
+            .setAction(SpeechRecognizer.ERROR_CLIENT, RecoveryAction.RETRY_IMMEDIATELY)
+            .setMaxRetries(3)
+            .setBackoff(250, 4000)
+            .setCircuitBreaker(5, 30000)
+            .build();
+
+    private final Map<Integer, RecoveryAction> mActions;
+    private final RecoveryAction mDefaultAction;
+    private final int mMaxRetries;
+    private final long mInitialBackoff;
+    private final long mMaxBackoff;
+    private final int mFailureThreshold;
+    private final long mOpenCircuitDuration;
+
+    private RecoveryPolicy(final Builder builder) {
+        mActions = new HashMap<>(builder.mActions);
+        mDefaultAction = builder.mDefaultAction;
+        mMaxRetries = builder.mMaxRetries;
+        mInitialBackoff = builder.mInitialBackoff;
+        mMaxBackoff = builder.mMaxBackoff;
+        mFailureThreshold = builder.mFailureThreshold;
+        mOpenCircuitDuration = builder.mOpenCircuitDuration;
+    }
+
+    /**
+     * @param code error code
+     * @return configured action for the error code
+     */
+    public RecoveryAction getAction(final int code) {
+        final RecoveryAction action = mActions.get(code);
+        return action == null ? mDefaultAction : action;
+    }
+
+    /**
+     * @return maximum number of consecutive retries of the same session
+     */
+    public int getMaxRetries() {
+        return mMaxRetries;
+    }
+
+    /**
+     * @param attempt retry attempt, starting from 1
+     * @return delay in milliseconds before the given retry attempt
+     */
+    public long getBackoffDelay(final int attempt) {
+        final int shift = Math.min(Math.max(attempt - 1, 0), 20);
+        return Math.min(mInitialBackoff << shift, mMaxBackoff);
+    }
+
+    /**
+     * @return number of consecutive errors which open the circuit breaker, 0 if disabled
+     */
+    public int getFailureThreshold() {
+        return mFailureThreshold;
+    }
+
+    /**
+     * @return milliseconds for which the circuit breaker stays open
+     */
+    public long getOpenCircuitDuration() {
+        return mOpenCircuitDuration;
+    }
+
+    public static final class Builder {
+        private final Map<Integer, RecoveryAction> mActions = new HashMap<>();
+        private RecoveryAction mDefaultAction = RecoveryAction.DELIVER;
+        private int mMaxRetries = 3;
+        private long mInitialBackoff = 500;
+        private long mMaxBackoff = 8000;
+        private int mFailureThreshold = 0;
+        private long mOpenCircuitDuration = 30000;
+
+        /**
+         * Sets the action to take for an error code.
+         * @param code error code, one of the SpeechRecognizer ERROR_ constants
+         * @param action action to take. {@link RecoveryAction#CIRCUIT_OPEN} is not allowed
+         * @return builder
+         */
+        public Builder setAction(final int code, final RecoveryAction action) {
+            if (action == null || action == RecoveryAction.CIRCUIT_OPEN)
+                throw new IllegalArgumentException("invalid recovery action: " + action);
+
+            mActions.put(code, action);
+            return this;
+        }
+
+        /**
+         * Sets the action to take for the error codes without a specific action.
+         * By default it's {@link RecoveryAction#DELIVER}.
+         * @param action action to take. {@link RecoveryAction#CIRCUIT_OPEN} is not allowed
+         * @return builder
+         */
+        public Builder setDefaultAction(final RecoveryAction action) {
+            if (action == null || action == RecoveryAction.CIRCUIT_OPEN)
+                throw new IllegalArgumentException("invalid recovery action: " + action);
+
+            mDefaultAction = action;
+            return this;
+        }
+
+        /**
+         * Sets the maximum number of consecutive retries of the same session, after which
+         * the partial results are delivered. By default it's 3.
+         * @param maxRetries maximum retries
+         * @return builder
+         */
+        public Builder setMaxRetries(final int maxRetries) {
+            if (maxRetries < 0)
+                throw new IllegalArgumentException("maxRetries must not be negative");
+
+            mMaxRetries = maxRetries;
+            return this;
+        }
+
+        /**
+         * Sets the backoff delays, which double at every retry.
+         * By default they start from 500ms up to 8 seconds.
+         * @param initialMillis delay before the first retry
+         * @param maxMillis maximum delay
+         * @return builder
+         */
+        public Builder setBackoff(final long initialMillis, final long maxMillis) {
+            if (initialMillis < 0 || maxMillis < initialMillis)
+                throw new IllegalArgumentException("invalid backoff delays");
+
+            mInitialBackoff = initialMillis;
+            mMaxBackoff = maxMillis;
+            return this;
+        }
+
+        /**
+         * Enables the circuit breaker. By default it's disabled.
+         * @param failureThreshold consecutive errors which open the circuit, 0 to disable it
+         * @param openMillis milliseconds for which the circuit stays open
+         * @return builder
+         */
+        public Builder setCircuitBreaker(final int failureThreshold, final long openMillis) {
+            if (failureThreshold < 0 || openMillis < 0)
+                throw new IllegalArgumentException("invalid circuit breaker settings");
+
+            mFailureThreshold = failureThreshold;
+            mOpenCircuitDuration = openMillis;
+            return this;
+        }
+
+        public RecoveryPolicy build() {
+            return new RecoveryPolicy(this);
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package net.gotev.speech;
+
+/**
+ * Stage of a recognition session in which the speech recognizer stopped responding.
+ */
+public enum SessionTimeout {
+
+    /**
+     * The speech recognizer didn't become ready for speech after the start listening request.
+     */
+    READY_FOR_SPEECH,
+
+    /**
+     * The speech recognizer was ready for speech, but it didn't deliver any audio.
+     */
+    FIRST_AUDIO,
+
+    /**
+     * The speech recognizer detected the end of speech, but it didn't deliver the final results.
+     */
+    RESULT
+}
@@ -0,0 +1,32 @@
+package net.gotev.speech;
+
+import android.os.Handler;
+import android.os.Looper;
+
+/**
+ * Main thread handler shared by the whole library to schedule delayed operations and
+ * to post callbacks, so that no timers, threads or handlers are created on the fly.
+ */
+public final class SharedHandler {
+
+    private static volatile Handler instance;
+
+    // private constructor to avoid instantiation
+    private SharedHandler() {}
+
+    /**
+     * Gets the shared main thread handler.
+     * @return handler bound to the main looper
+     */
+    public static Handler get() {
+        if (instance == null) {
+            synchronized (SharedHandler.class) {
+                if (instance == null) {
+                    instance = new Handler(Looper.getMainLooper());
+                }
+            }
+        }
+
+        return instance;
+    }
+}
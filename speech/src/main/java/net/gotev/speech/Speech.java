@@ -4,21 +4,37 @@ import android.app.Activity;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
-import android.content.pm.PackageInfo;
-import android.content.pm.PackageManager;
 import android.os.Bundle;
 import android.speech.RecognizerIntent;
 import android.speech.tts.TextToSpeech;
 import android.speech.tts.Voice;
 
+import net.gotev.speech.audio.AudioTap;
+import net.gotev.speech.audio.PreRollRecorder;
+import net.gotev.speech.batch.BatchTranscriber;
+import net.gotev.speech.dictation.DictationDocument;
 import net.gotev.speech.engine.BaseSpeechRecognitionEngine;
+import net.gotev.speech.engine.CommandMatcher;
 import net.gotev.speech.engine.DummyOnInitListener;
+import net.gotev.speech.engine.EndpointDetector;
+import net.gotev.speech.engine.KeywordSpotter;
+import net.gotev.speech.engine.RecognitionServiceSelector;
+import net.gotev.speech.engine.RecognitionState;
+import net.gotev.speech.engine.RecognitionStateListener;
 import net.gotev.speech.engine.SpeechRecognitionEngine;
 import net.gotev.speech.engine.BaseTextToSpeechEngine;
 import net.gotev.speech.engine.TextToSpeechEngine;
+import net.gotev.speech.journal.RecoveredTranscript;
+import net.gotev.speech.journal.RecoveredTranscriptListener;
+import net.gotev.speech.journal.TranscriptJournal;
 import net.gotev.speech.ui.SpeechProgressView;
 
+import java.io.File;
 import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
 
 /**
  * Helper class to easily work with Android speech recognition.
@@ -29,8 +45,13 @@ public class Speech {
 
     private static Speech instance = null;
     protected static String GOOGLE_APP_PACKAGE = "com.google.android.googlequicksearchbox";
+    private static final String JOURNAL_DIRECTORY = "speech-journal";
 
     private Context mContext;
+    private TranscriptJournal mTranscriptJournal;
+    private Future<RecoveredTranscript> mTranscriptRecovery;
+    private boolean mRecoveredTranscriptCleared;
+    private SpeechArbiter mArbiter;
 
     private TextToSpeechEngine textToSpeechEngine;
     private SpeechRecognitionEngine speechRecognitionEngine;
@@ -91,6 +112,19 @@ public class Speech {
         return instance;
     }
 
+    /**
+     * Initializes speech recognition with custom engines.
+     * The speech recognition engine has to extend {@link BaseSpeechRecognitionEngine} to support
+     * the features beyond the {@link SpeechRecognitionEngine} interface, otherwise they throw
+     * {@link UnsupportedOperationException}.
+     *
+     * @param context                  application context
+     * @param callingPackage           calling package, see {@link #init(Context, String)}
+     * @param onInitListener           text to speech initialization listener
+     * @param speechRecognitionEngine  speech recognition engine
+     * @param textToSpeechEngine       text to speech engine
+     * @return speech instance
+     */
     public static Speech init(final Context context, final String callingPackage, TextToSpeech.OnInitListener onInitListener, SpeechRecognitionEngine speechRecognitionEngine, TextToSpeechEngine textToSpeechEngine) {
         if (instance == null) {
             instance = new Speech(context, callingPackage, onInitListener, speechRecognitionEngine, textToSpeechEngine);
@@ -106,6 +140,12 @@ public class Speech {
         speechRecognitionEngine.shutdown();
         textToSpeechEngine.shutdown();
 
+        if (mTranscriptJournal != null) {
+            getBaseEngine().setTranscriptJournal(null);
+            mTranscriptJournal.close();
+            mTranscriptJournal = null;
+        }
+
         instance = null;
     }
 
@@ -148,6 +188,92 @@ public class Speech {
         speechRecognitionEngine.startListening(progressView, delegate);
     }
 
+    /**
+     * Starts voice recognition with the given recognition profile.
+     *
+     * @param delegate delegate which will receive speech recognition events and status
+     * @param profile  recognition profile, e.g. {@link RecognitionProfile#COMMAND}
+     * @throws SpeechRecognitionNotAvailable      when speech recognition is not available on the device
+     * @throws GoogleVoiceTypingDisabledException when google voice typing is disabled on the device
+     */
+    public void startListening(final SpeechDelegate delegate, final RecognitionProfile profile)
+            throws SpeechRecognitionNotAvailable, GoogleVoiceTypingDisabledException {
+        startListening(null, delegate, profile);
+    }
+
+    /**
+     * Starts voice recognition with the given recognition profile.
+     *
+     * @param progressView view in which to draw speech animation
+     * @param delegate     delegate which will receive speech recognition events and status
+     * @param profile      recognition profile, e.g. {@link RecognitionProfile#COMMAND}
+     * @throws SpeechRecognitionNotAvailable      when speech recognition is not available on the device
+     * @throws GoogleVoiceTypingDisabledException when google voice typing is disabled on the device
+     */
+    public void startListening(final SpeechProgressView progressView, final SpeechDelegate delegate,
+                               final RecognitionProfile profile)
+            throws SpeechRecognitionNotAvailable, GoogleVoiceTypingDisabledException {
+
+        if (RecognitionProfile.DEFAULT.equals(profile)
+                && !(speechRecognitionEngine instanceof BaseSpeechRecognitionEngine)) {
+            speechRecognitionEngine.startListening(progressView, delegate);
+            return;
+        }
+
+        getBaseEngine().startListening(progressView, delegate, profile);
+    }
+
+    /**
+     * Gets the arbiter through which multiple app components can request to listen,
+     * with priorities, preemption and fairness, instead of calling
+     * {@link #startListening(SpeechDelegate)} directly.
+     *
+     * @return speech arbiter of this instance
+     */
+    public SpeechArbiter getArbiter() {
+        if (mArbiter == null) {
+            mArbiter = new SpeechArbiter(getBaseEngine());
+        }
+
+        return mArbiter;
+    }
+
+    /**
+     * Prepares the speech recognizer for a session which is about to start, e.g. on the
+     * touch down of a push-to-talk button or when the microphone button appears.
+     * The speech recognizer is created or switched if needed and the recognizer intent is
+     * built ahead of time, so the next {@link #startListening(SpeechDelegate)} has less work
+     * to do. If a {@link PreRollRecorder} is set, it starts recording right away.
+     * The preparation expires if no session starts in time, see
+     * {@link #setPreparedListeningTimeout(long)}.
+     */
+    public void prepareListening() {
+        prepareListening(RecognitionProfile.DEFAULT);
+    }
+
+    /**
+     * Prepares the speech recognizer for a session with the given recognition profile,
+     * which is about to start. See {@link #prepareListening()}.
+     *
+     * @param profile recognition profile of the next session
+     */
+    public void prepareListening(final RecognitionProfile profile) {
+        getBaseEngine().prepareListening(profile);
+    }
+
+    /**
+     * Sets how long a {@link #prepareListening()} call stays valid without a session
+     * starting. When it expires, the pre-roll recording started by it is stopped.
+     * Defaults to 5 seconds.
+     *
+     * @param milliseconds timeout in milliseconds
+     * @return speech instance
+     */
+    public Speech setPreparedListeningTimeout(final long milliseconds) {
+        getBaseEngine().setPreparedListeningTimeout(milliseconds);
+        return this;
+    }
+
     /**
      * Stops voice recognition listening.
      * This method does nothing if voice listening is not active
@@ -165,6 +291,26 @@ public class Speech {
         return speechRecognitionEngine.isListening();
     }
 
+    /**
+     * Gets the current lifecycle state of voice recognition.
+     *
+     * @return recognition state
+     */
+    public RecognitionState getRecognitionState() {
+        return getBaseEngine().getState();
+    }
+
+    /**
+     * Sets a listener which receives all the voice recognition lifecycle state transitions.
+     *
+     * @param listener state listener, or null to remove it
+     * @return speech instance
+     */
+    public Speech setRecognitionStateListener(final RecognitionStateListener listener) {
+        getBaseEngine().setStateListener(listener);
+        return this;
+    }
+
     /**
      * Check if text to speak is currently speaking.
      *
@@ -212,6 +358,287 @@ public class Speech {
         return this;
     }
 
+    /**
+     * Set whether to perform speech recognition entirely on the device (default is false).
+     * This requires Android 12 or newer and a device which provides an on-device recognizer.
+     * On Android 13 and newer, the availability of the model for the current locale is checked
+     * and cached, and the model is downloaded in advance if missing. Until the model is
+     * installed, or if it's not supported, the network speech recognizer is used.
+     *
+     * @param onDevice true to use the on-device speech recognizer when possible
+     * @return speech instance
+     */
+    public Speech setOnDeviceRecognition(final boolean onDevice) {
+        getBaseEngine().setOnDeviceRecognition(onDevice);
+        return this;
+    }
+
+    /**
+     * Starts downloading the on-device speech recognition model for the given locale,
+     * if it's supported and not already installed. Requires Android 13 or newer,
+     * otherwise it does nothing.
+     *
+     * @param locale locale for which to download the model
+     * @return speech instance
+     */
+    public Speech prefetchOnDeviceModel(final Locale locale) {
+        getBaseEngine().prefetchOnDeviceModel(locale);
+        return this;
+    }
+
+    /**
+     * Enables long-form dictation: the results of all the following sessions are collected
+     * in the given document, and the partial results of the current session are shown as
+     * provisional text at its end. Register a {@link net.gotev.speech.dictation.DocumentChangeListener}
+     * to receive the incremental changes. Combine it with {@link #setContinuousListening(boolean)}
+     * and {@link RecognitionProfile#DICTATION} to dictate without interruptions.
+     *
+     * @param document document which collects the results, or null to disable dictation
+     * @return speech instance
+     */
+    public Speech setDictationDocument(final DictationDocument document) {
+        getBaseEngine().setDictationDocument(document);
+        return this;
+    }
+
+    /**
+     * Delivers the delegate callbacks on the given executor instead of the main thread,
+     * so that a delegate doing heavy work doesn't slow down the recognition and the UI.
+     * The callbacks are delivered one at a time and in the same order as on the main thread,
+     * even with a thread pool. The delegate must post its calls to {@link Speech} back to the
+     * main thread. A {@link MainThreadSpeechDelegate}, like the ones of {@link SpeechArbiter}
+     * and of {@link net.gotev.speech.batch.BatchTranscriber}, keeps receiving the callbacks on
+     * the main thread, while the arbiter forwards the callbacks to the delegates of its
+     * requests on the executor.
+     * Call it while not listening.
+     *
+     * @param executor executor on which to deliver the callbacks, or null to deliver them
+     *                 on the main thread (default)
+     * @param coalesceRms true to deliver only the latest sound level when the delegate falls
+     *                    behind, instead of every queued one
+     * @param coalescePartialResults true to deliver only the latest partial results when the
+     *                               delegate falls behind. The final result, errors and the
+     *                               other callbacks are never dropped, and values are never
+     *                               coalesced across them
+     * @return speech instance
+     */
+    public Speech setDelegateExecutor(final Executor executor, final boolean coalesceRms,
+                                      final boolean coalescePartialResults) {
+        getBaseEngine().setDelegateExecutor(executor, coalesceRms, coalescePartialResults);
+        return this;
+    }
+
+    /**
+     * Enables or disables the transcript journal. When enabled, partial and final results
+     * are appended to a memory-mapped log in the app files directory, from a background
+     * thread, so that the transcript can be recovered with {@link #getRecoveredTranscript()}
+     * after the process gets killed. The new journal replaces the previous one only after
+     * the previous transcript has been recovered, so it can be enabled right away.
+     *
+     * @param enabled true to enable the journal, false to close it. The journaled
+     *                transcript is kept until {@link #clearTranscriptJournal()} is called
+     * @return speech instance
+     */
+    public synchronized Speech setTranscriptJournalEnabled(final boolean enabled) {
+        if (enabled == (mTranscriptJournal != null))
+            return this;
+
+        if (enabled) {
+            // it starts writing only when the previous transcript has been recovered
+            mTranscriptJournal = new TranscriptJournal(getJournalDirectory(), getTranscriptRecovery());
+            getBaseEngine().setTranscriptJournal(mTranscriptJournal);
+        } else {
+            getBaseEngine().setTranscriptJournal(null);
+            mTranscriptJournal.close();
+            mTranscriptJournal = null;
+        }
+
+        return this;
+    }
+
+    /**
+     * Gets the transcript journaled by a previous process, which is read on a background
+     * thread when the journal is enabled or the recovered transcript is first requested.
+     * It waits for the recovery to complete, so on the main thread use
+     * {@link #getRecoveredTranscript(RecoveredTranscriptListener)}.
+     *
+     * @return recovered transcript, or null if there was nothing to recover
+     */
+    public RecoveredTranscript getRecoveredTranscript() {
+        final Future<RecoveredTranscript> recovery;
+
+        synchronized (this) {
+            if (mRecoveredTranscriptCleared)
+                return null;
+
+            recovery = getTranscriptRecovery();
+        }
+
+        try {
+            return recovery.get();
+        } catch (final InterruptedException exc) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (final ExecutionException | CancellationException exc) {
+            Logger.error(Speech.class.getSimpleName(), "Unable to recover the transcript", exc);
+            return null;
+        }
+    }
+
+    /**
+     * Gets the transcript journaled by a previous process, without waiting for the recovery.
+     *
+     * @param listener listener which receives the recovered transcript on the main thread,
+     *                 or right away if the recovery is already complete
+     */
+    public void getRecoveredTranscript(final RecoveredTranscriptListener listener) {
+        if (getTranscriptRecovery().isDone()) {
+            listener.onTranscriptRecovered(getRecoveredTranscript());
+            return;
+        }
+
+        final Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                final RecoveredTranscript transcript = getRecoveredTranscript();
+
+                SharedHandler.get().post(new Runnable() {
+                    @Override
+                    public void run() {
+                        listener.onTranscriptRecovered(transcript);
+                    }
+                });
+            }
+        }, "speech-transcript-recovery-listener");
+
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Forgets the journaled and the recovered transcripts, for example after the app saved them.
+     *
+     * @return speech instance
+     */
+    public synchronized Speech clearTranscriptJournal() {
+        mRecoveredTranscriptCleared = true;
+
+        if (mTranscriptJournal != null) {
+            mTranscriptJournal.clear();
+        } else {
+            TranscriptJournal.delete(getJournalDirectory());
+        }
+
+        return this;
+    }
+
+    /**
+     * Starts reading the transcript journaled by a previous process, if not already started.
+     * @return pending recovery
+     */
+    private synchronized Future<RecoveredTranscript> getTranscriptRecovery() {
+        if (mTranscriptRecovery == null)
+            mTranscriptRecovery = TranscriptJournal.recoverInBackground(getJournalDirectory());
+
+        return mTranscriptRecovery;
+    }
+
+    private File getJournalDirectory() {
+        return new File(mContext.getFilesDir(), JOURNAL_DIRECTORY);
+    }
+
+    /**
+     * Sets the catalog of voice commands to match against the recognized speech, tolerating
+     * recognition errors. The recognizer is asked for multiple hypotheses, and delegates
+     * implementing {@link CommandSpeechDelegate} receive the best matching command with its score.
+     * The commands are indexed once, so set them only when they change.
+     *
+     * @param commands commands catalog, or null to disable command matching
+     * @param earlyStopScore score between 0 and 1 which, when reached by the partial results,
+     *                       ends the session early. Use a value greater than 1 to always wait
+     *                       for the final results
+     * @return speech instance
+     */
+    public Speech setCommands(final Collection<String> commands, final float earlyStopScore) {
+        getBaseEngine().setCommandMatcher(commands == null || commands.isEmpty()
+                ? null : new CommandMatcher(commands), earlyStopScore);
+        return this;
+    }
+
+    /**
+     * Sets the keywords or phrases to spot in the partial results while the user is still
+     * speaking. Delegates implementing {@link KeywordSpeechDelegate} are notified as soon as
+     * a keyword is recognized. The keywords are compiled once, so set them only when they change.
+     *
+     * @param keywords keywords or phrases to spot, or null to disable keyword spotting
+     * @param stopOnMatch true to stop listening and deliver the results when a keyword is spotted
+     * @return speech instance
+     */
+    public Speech setKeywords(final Collection<String> keywords, final boolean stopOnMatch) {
+        getBaseEngine().setKeywordSpotter(keywords == null || keywords.isEmpty()
+                ? null : new KeywordSpotter(keywords), stopOnMatch);
+        return this;
+    }
+
+    /**
+     * Sets in how many consecutive partial results a word has to be seen at the same position
+     * to be committed to delegates implementing {@link CommitSpeechDelegate}. Words which the
+     * recognizer doesn't mark as unstable need one repetition less.
+     * By default it's 2.
+     *
+     * @param repetitions number of consecutive partial results, at least 1
+     * @return speech instance
+     */
+    public Speech setWordCommitRepetitions(final int repetitions) {
+        getBaseEngine().setWordCommitRepetitions(repetitions);
+        return this;
+    }
+
+    /**
+     * Sets how long the session watchdog waits for the speech recognizer to complete a stage
+     * of the session. When a deadline expires, the speech recognizer is recreated, the partial
+     * results are delivered and delegates implementing {@link TimeoutSpeechDelegate} are notified.
+     * By default, the deadlines are 8 seconds for {@link SessionTimeout#READY_FOR_SPEECH},
+     * 5 seconds for {@link SessionTimeout#FIRST_AUDIO} and 8 seconds for {@link SessionTimeout#RESULT}.
+     *
+     * @param stage session stage
+     * @param milliseconds deadline in milliseconds, 0 to disable it
+     * @return speech instance
+     */
+    public Speech setSessionTimeout(final SessionTimeout stage, final long milliseconds) {
+        getBaseEngine().setSessionTimeout(stage, milliseconds);
+        return this;
+    }
+
+    /**
+     * Sets how the speech recognition engine recovers from every recognition error code:
+     * delivering the partial results, retrying the session immediately, with exponential
+     * backoff or preferring offline recognition. Delegates implementing
+     * {@link ErrorSpeechDelegate} are notified about the error and the action taken.
+     * By default it's {@link RecoveryPolicy#DEFAULT}, which always delivers the partial results.
+     *
+     * @param policy recovery policy, e.g. {@link RecoveryPolicy#RESILIENT}
+     * @return speech instance
+     */
+    public Speech setRecoveryPolicy(final RecoveryPolicy policy) {
+        getBaseEngine().setRecoveryPolicy(policy);
+        return this;
+    }
+
+    /**
+     * Sets a selector which chooses which of the installed recognition services to use,
+     * based on their recorded startup time and error rate, instead of the system default one.
+     * The selection is applied when the next session starts. Pass null to use the system
+     * default recognition service (which is the default).
+     *
+     * @param selector recognition service selector, e.g. {@code new RecognitionServiceSelector(context)}
+     * @return speech instance
+     */
+    public Speech setRecognitionServiceSelector(final RecognitionServiceSelector selector) {
+        getBaseEngine().setRecognitionServiceSelector(selector);
+        return this;
+    }
+
     /**
      * Set whether partial results should be returned by the recognizer as the user speaks
      * (default is true). The server may ignore a request for partial results in some or all cases.
@@ -287,6 +714,108 @@ public class Speech {
         return this;
     }
 
+    /**
+     * Set whether to keep the same speech recognizer bound across sessions, instead of
+     * destroying and recreating it after every result (default is false).
+     * When enabled, the speech recognizer gets recreated only after errors from which
+     * it can't recover. This reduces the time needed to be ready for speech for
+     * back-to-back sessions, which can be checked with {@link #getSpeechMetrics()}.
+     *
+     * @param reuse true to reuse the speech recognizer, false to recreate it after every session
+     * @return speech instance
+     */
+    public Speech setRecognizerReuse(final boolean reuse) {
+        getBaseEngine().setRecognizerReuse(reuse);
+        return this;
+    }
+
+    /**
+     * Set whether voice recognition should keep listening after a result (default is false).
+     * When enabled, as soon as a session delivers its result, the next session is started
+     * with the same delegate, until {@link #stopListening()} is called or an unrecoverable
+     * error happens. The speech recognizer is kept bound between the chained sessions.
+     * On Android 13 and newer, a single segmented session is used, which delivers a result
+     * for every utterance and ends after the inactivity timeout of silence
+     * (see {@link #setStopListeningAfterInactivity(long)}). The gap between sessions is
+     * reported in {@link SpeechMetrics#getSessionGap()}.
+     *
+     * @param continuous true to keep listening, false to stop after every result
+     * @return speech instance
+     */
+    public Speech setContinuousListening(final boolean continuous) {
+        getBaseEngine().setContinuousListening(continuous);
+        return this;
+    }
+
+    /**
+     * Gets the timing statistics of the speech recognition sessions.
+     *
+     * @return speech metrics
+     */
+    public SpeechMetrics getSpeechMetrics() {
+        return getBaseEngine().getMetrics();
+    }
+
+    /**
+     * Sets a detector which ends the utterance as soon as the user stops speaking, based on
+     * the sound level, instead of waiting for the speech recognizer or for the inactivity timeout.
+     * Pass null to disable it (which is the default).
+     *
+     * @param detector endpoint detector, e.g. {@code new EndpointDetector(EndpointDetector.SENSITIVITY_HIGH)}
+     *                 for short commands
+     * @return speech instance
+     */
+    public Speech setEndpointDetector(final EndpointDetector detector) {
+        getBaseEngine().setEndpointDetector(detector);
+        return this;
+    }
+
+    /**
+     * Sets an audio tap which receives the raw audio provided by the speech recognizer,
+     * on a background thread. For example, to save every session in a WAV file:
+     * {@code new AudioTap(new AudioFileSink(directory, 16000, 1))}.
+     * Pass null to remove it (which is the default). The previous audio tap is closed when
+     * replaced, and the current one on {@link #shutdown()}.
+     *
+     * @param audioTap audio tap
+     * @return speech instance
+     */
+    public Speech setAudioTap(final AudioTap audioTap) {
+        getBaseEngine().setAudioTap(audioTap);
+        return this;
+    }
+
+    /**
+     * Sets a pre-roll recorder, which records the microphone from the start listening request
+     * (or from {@link PreRollRecorder#arm()}) and feeds the audio to the speech recognizer,
+     * so that the words said before it's ready for speech are not cut off. The pre-roll of
+     * every session is collected in {@link SpeechMetrics#getPreRollDuration()}.
+     * If the recorder can't record the microphone, the session is started again with the
+     * speech recognizer recording it by itself.
+     * It requires Android 13 or newer and it's ignored on older versions.
+     * Pass null to remove it (which is the default). The previous recorder is not closed.
+     *
+     * @param recorder pre-roll recorder, e.g. {@code new PreRollRecorder(16000, 1000)}
+     * @return speech instance
+     */
+    public Speech setPreRollRecorder(final PreRollRecorder recorder) {
+        getBaseEngine().setPreRollRecorder(recorder);
+        return this;
+    }
+
+    /**
+     * Creates a batch transcriber, which transcribes recorded audio files with the speech
+     * recognizer of this instance, waiting for the live sessions to end. It requires
+     * Android 13 or newer. Call {@link BatchTranscriber#shutdown()} when done.
+     *
+     * @param profile recognition profile of the sessions
+     * @param rawSampleRate sample rate of raw PCM files, which are assumed to be mono
+     * @return batch transcriber
+     */
+    public BatchTranscriber newBatchTranscriber(final RecognitionProfile profile, final int rawSampleRate) {
+        return new BatchTranscriber(getBaseEngine(), profile, rawSampleRate);
+    }
+
     /**
      * Sets the minimum interval between start/stop events. This is useful to prevent
      * monkey input from users.
@@ -299,6 +828,20 @@ public class Speech {
         return this;
     }
 
+    /**
+     * Set whether start/stop events received within the transition minimum delay should be
+     * held and executed as soon as the delay expires, instead of being ignored (default is false).
+     * Only the latest held event gets executed. If the delegate implements
+     * {@link DebouncedSpeechDelegate}, it's notified of how long the event has been held.
+     *
+     * @param debounce true to hold the events, false to ignore them
+     * @return speech instance
+     */
+    public Speech setDebounceTransitions(final boolean debounce) {
+        getBaseEngine().setDebounceTransitions(debounce);
+        return this;
+    }
+
     /**
      * Sets the text to speech queue mode.
      * By default is TextToSpeech.QUEUE_FLUSH, which is faster, because it clears all the
@@ -328,15 +871,7 @@ public class Speech {
     }
 
     private boolean isGoogleAppInstalled() {
-        PackageManager packageManager = mContext.getPackageManager();
-
-        for (PackageInfo packageInfo: packageManager.getInstalledPackages(0)) {
-            if (packageInfo.packageName.contains(GOOGLE_APP_PACKAGE)) {
-                return true;
-            }
-        }
-
-        return false;
+        return SpeechCapabilities.get(mContext).isGoogleAppInstalled();
     }
 
     /**
@@ -349,6 +884,17 @@ public class Speech {
             return;
         }
 
+        final List<String> cachedLanguages = SpeechCapabilities.get(mContext).getSupportedLanguages();
+
+        if (cachedLanguages != null) {
+            if (cachedLanguages.isEmpty()) {
+                listener.onNotSupported(UnsupportedReason.EMPTY_SUPPORTED_LANGUAGES);
+            } else {
+                listener.onSupportedLanguages(new ArrayList<>(cachedLanguages));
+            }
+            return;
+        }
+
         Intent intent = RecognizerIntent.getVoiceDetailsIntent(mContext);
 
         if (intent == null) {
@@ -364,9 +910,11 @@ public class Speech {
                 if (extras != null && extras.containsKey(RecognizerIntent.EXTRA_SUPPORTED_LANGUAGES)) {
                     List<String> languages = extras.getStringArrayList(RecognizerIntent.EXTRA_SUPPORTED_LANGUAGES);
                     if (languages == null || languages.isEmpty()) {
+                        SpeechCapabilities.get(context).setSupportedLanguages(new ArrayList<String>());
                         listener.onNotSupported(UnsupportedReason.EMPTY_SUPPORTED_LANGUAGES);
                     } else {
                         Collections.sort(languages);
+                        SpeechCapabilities.get(context).setSupportedLanguages(languages);
                         listener.onSupportedLanguages(languages);
                     }
                 } else {
@@ -406,4 +954,19 @@ public class Speech {
         return textToSpeechEngine.getCurrentVoice();
     }
 
+    /**
+     * Gets the speech recognition engine as a {@link BaseSpeechRecognitionEngine}, which
+     * provides the features beyond the {@link SpeechRecognitionEngine} interface.
+     *
+     * @return speech recognition engine
+     * @throws UnsupportedOperationException if the engine doesn't extend {@link BaseSpeechRecognitionEngine}
+     */
+    private BaseSpeechRecognitionEngine getBaseEngine() {
+        if (!(speechRecognitionEngine instanceof BaseSpeechRecognitionEngine)) {
+            throw new UnsupportedOperationException("This feature requires a speech recognition engine which extends BaseSpeechRecognitionEngine");
+        }
+
+        return (BaseSpeechRecognitionEngine) speechRecognitionEngine;
+    }
+
 }
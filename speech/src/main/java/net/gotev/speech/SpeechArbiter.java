@@ -0,0 +1,487 @@
+package net.gotev.speech;
+
+import android.speech.SpeechRecognizer;
+
+import net.gotev.speech.engine.BaseSpeechRecognitionEngine;
+import net.gotev.speech.engine.DelegateDispatcher;
+import net.gotev.speech.engine.RecognitionState;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Arbitrates the access to the speech recognizer between multiple app components.
+ * <p>
+ * The components submit {@link ListeningRequest}s instead of starting to listen directly.
+ * When the speech recognizer is busy, the requests wait in a queue, from which they are
+ * served by priority. Among requests with the same priority, the component which has been
+ * served least recently goes first, so a component submitting many requests can't starve
+ * the others, and the requests of the same component are served in order.
+ * A preemptive request interrupts an active session with a lower priority.
+ * Shareable requests with the same profile are served by a single session, whose events
+ * are delivered to all of them.
+ * <p>
+ * All the methods have to be called on the main thread. The events of a session are delivered
+ * to the delegates of its requests like to any other delegate, so on the delegate executor
+ * when one is set with {@link Speech#setDelegateExecutor}. The sessions end at the first result,
+ * so don't combine the arbiter with continuous listening.
+ */
+public class SpeechArbiter {
+
+    private static final String LOG_TAG = SpeechArbiter.class.getSimpleName();
+
+    private static final long START_RETRY_DELAY = 250;
+
+    private static final Platform ANDROID = new Platform() {
+        @Override
+        public void post(final Runnable runnable, final long delayMillis) {
+            SharedHandler.get().postDelayed(runnable, delayMillis);
+        }
+
+        @Override
+        public void removeCallbacks(final Runnable runnable) {
+            SharedHandler.get().removeCallbacks(runnable);
+        }
+    };
+
+    private final BaseSpeechRecognitionEngine mEngine;
+    private final Platform mPlatform;
+    private final ArrayList<ListeningTicket> mQueued = new ArrayList<>();
+    private final CopyOnWriteArrayList<ListeningTicket> mActive = new CopyOnWriteArrayList<>();
+    private final HashMap<String, Long> mLastServed = new HashMap<>();
+    private long mSequence;
+    private boolean mSessionStarted = false;
+
+    private final Runnable mStartRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (mActive.isEmpty()) {
+                startNext();
+            } else {
+                tryStart();
+            }
+        }
+    };
+
+    private final Dispatcher mDispatcher = new Dispatcher();
+
+    public SpeechArbiter(final BaseSpeechRecognitionEngine engine) {
+        this(engine, ANDROID);
+    }
+
+    SpeechArbiter(final BaseSpeechRecognitionEngine engine, final Platform platform) {
+        if (engine == null)
+            throw new IllegalArgumentException("engine must be defined!");
+
+        mEngine = engine;
+        mPlatform = platform;
+    }
+
+    /**
+     * Submits a request to listen. It's served immediately if the speech recognizer is free,
+     * otherwise it's queued.
+     * @param request request to listen
+     * @return ticket of the request
+     */
+    public ListeningTicket request(final ListeningRequest request) {
+        if (request == null)
+            throw new IllegalArgumentException("request must be defined!");
+
+        final ListeningTicket ticket = new ListeningTicket(this, request, mSequence++);
+
+        if (!mActive.isEmpty() && canJoin(request)) {
+            Logger.debug(LOG_TAG, "Request of " + request.getCallerId() + " joins the active session");
+            mActive.add(ticket);
+            markStarted(ticket);
+            mDispatcher.forwardStartOfSpeech(ticket);
+            return ticket;
+        }
+
+        mQueued.add(ticket);
+
+        if (mActive.isEmpty()) {
+            startNext();
+        } else if (request.isPreemptive() && request.getPriority() > getActivePriority()) {
+            preempt();
+        }
+
+        if (ticket.getState() == ListeningTicket.State.QUEUED) {
+            final SpeechDelegate delegate = request.getDelegate();
+
+            try {
+                if (delegate instanceof ArbitratedSpeechDelegate)
+                    ((ArbitratedSpeechDelegate) delegate).onSpeechRequestQueued(ticket);
+            } catch (final Throwable exc) {
+                Logger.error(LOG_TAG, "Unhandled exception in delegate onSpeechRequestQueued", exc);
+            }
+        }
+
+        return ticket;
+    }
+
+    /**
+     * @return number of requests waiting in the queue
+     */
+    public int getQueueSize() {
+        return mQueued.size();
+    }
+
+    void cancel(final ListeningTicket ticket) {
+        if (ticket.getState() == ListeningTicket.State.FINISHED)
+            return;
+
+        if (mQueued.remove(ticket)) {
+            ticket.markFinished();
+            return;
+        }
+
+        if (!mActive.remove(ticket))
+            return;
+
+        ticket.markFinished();
+
+        if (!mActive.isEmpty())
+            return;
+
+        if (mSessionStarted) {
+            // the session result ends it and starts the next request
+            mEngine.stopListening();
+        } else {
+            startNext();
+        }
+    }
+
+    /**
+     * A shareable request can join a session of the same profile which has not heard
+     * any speech yet.
+     */
+    private boolean canJoin(final ListeningRequest request) {
+        if (!mSessionStarted || !request.canShareWith(mActive.get(0).getRequest()))
+            return false;
+
+        final RecognitionState state = mEngine.getState();
+        return state == RecognitionState.STARTING || state == RecognitionState.READY;
+    }
+
+    private int getActivePriority() {
+        int priority = Integer.MIN_VALUE;
+
+        for (final ListeningTicket ticket : mActive) {
+            priority = Math.max(priority, ticket.getRequest().getPriority());
+        }
+
+        return priority;
+    }
+
+    private void preempt() {
+        if (!mSessionStarted) {
+            // not started yet, so the requests simply wait for their turn again
+            mQueued.addAll(mActive);
+            mActive.clear();
+            startNext();
+            return;
+        }
+
+        for (final ListeningTicket ticket : mActive) {
+            final SpeechDelegate delegate = ticket.getRequest().getDelegate();
+
+            try {
+                if (delegate instanceof ArbitratedSpeechDelegate)
+                    ((ArbitratedSpeechDelegate) delegate).onSpeechPreempted(ticket);
+            } catch (final Throwable exc) {
+                Logger.error(LOG_TAG, "Unhandled exception in delegate onSpeechPreempted", exc);
+            }
+        }
+
+        // stopping is not throttled here, since the user didn't ask for it.
+        // The partial results end the session and start the preempting request
+        if (mEngine.isListening()) {
+            mEngine.returnPartialResultsAndRecreateSpeechRecognizer();
+        } else {
+            mEngine.stopListening();
+        }
+    }
+
+    /**
+     * Moves the next request, and the queued requests which can share its session,
+     * to the active session and starts it.
+     */
+    private void startNext() {
+        mPlatform.removeCallbacks(mStartRunnable);
+
+        // a started session without requests is still ending
+        if (!mActive.isEmpty() || mSessionStarted || mQueued.isEmpty())
+            return;
+
+        final ListeningTicket next = selectNext();
+        mQueued.remove(next);
+        mActive.add(next);
+
+        for (int i = 0; i < mQueued.size(); i++) {
+            final ListeningTicket ticket = mQueued.get(i);
+
+            if (ticket.getRequest().canShareWith(next.getRequest())) {
+                mActive.add(ticket);
+                mQueued.remove(i--);
+            }
+        }
+
+        tryStart();
+    }
+
+    /**
+     * Highest priority first, then the caller served least recently, then the oldest request.
+     */
+    private ListeningTicket selectNext() {
+        ListeningTicket best = null;
+        long bestServed = 0;
+
+        for (final ListeningTicket ticket : mQueued) {
+            final Long served = mLastServed.get(ticket.getRequest().getCallerId());
+            final long lastServed = served == null ? -1 : served;
+
+            if (best == null || isBefore(ticket, lastServed, best, bestServed)) {
+                best = ticket;
+                bestServed = lastServed;
+            }
+        }
+
+        return best;
+    }
+
+    private static boolean isBefore(final ListeningTicket ticket, final long lastServed,
+                                    final ListeningTicket other, final long otherLastServed) {
+        final int priority = ticket.getRequest().getPriority();
+        final int otherPriority = other.getRequest().getPriority();
+
+        if (priority != otherPriority)
+            return priority > otherPriority;
+
+        if (lastServed != otherLastServed)
+            return lastServed < otherLastServed;
+
+        return ticket.getSequence() < other.getSequence();
+    }
+
+    private void tryStart() {
+        if (mActive.isEmpty() || mSessionStarted)
+            return;
+
+        // a session not started by the arbiter is in progress
+        if (mEngine.getState() != RecognitionState.IDLE) {
+            mPlatform.post(mStartRunnable, START_RETRY_DELAY);
+            return;
+        }
+
+        final ListeningRequest leader = mActive.get(0).getRequest();
+
+        try {
+            mEngine.startListening(leader.getProgressView(), mDispatcher, leader.getProfile());
+        } catch (final SpeechRecognitionNotAvailable | GoogleVoiceTypingDisabledException exc) {
+            Logger.error(LOG_TAG, "Unable to start listening for " + leader.getCallerId(), exc);
+            failActive();
+            return;
+        }
+
+        // the start has been throttled by the transition minimum delay
+        if (!mSessionStarted)
+            mPlatform.post(mStartRunnable, START_RETRY_DELAY);
+    }
+
+    private void markStarted(final ListeningTicket ticket) {
+        ticket.markStarted();
+        mLastServed.put(ticket.getRequest().getCallerId(), ticket.getSequence());
+        mEngine.getMetrics().getQueueWaitTime().record(ticket.getQueueWaitTime());
+    }
+
+    private void failActive() {
+        final DelegateDispatcher dispatcher = mEngine.getDelegateDispatcher();
+
+        for (final ListeningTicket ticket : mActive) {
+            final SpeechDelegate delegate = ticket.getRequest().getDelegate();
+            ticket.markFinished();
+
+            if (delegate instanceof ErrorSpeechDelegate)
+                dispatcher.onSpeechError((ErrorSpeechDelegate) delegate, SpeechRecognizer.ERROR_CLIENT, RecoveryAction.DELIVER);
+
+            dispatcher.onSpeechResult(delegate, "");
+        }
+
+        mActive.clear();
+        mPlatform.post(mStartRunnable, START_RETRY_DELAY);
+    }
+
+    private void onSessionEnded() {
+        for (final ListeningTicket ticket : mActive) {
+            ticket.markFinished();
+        }
+
+        mActive.clear();
+        mSessionStarted = false;
+        startNext();
+    }
+
+    /**
+     * Main thread used by the arbiter, which the tests replace with a manual one.
+     */
+    interface Platform {
+
+        /**
+         * Runs the given runnable on the main thread.
+         * @param runnable runnable to run
+         * @param delayMillis delay in milliseconds
+         */
+        void post(Runnable runnable, long delayMillis);
+
+        /**
+         * Removes the pending posts of the given runnable.
+         * @param runnable runnable to remove
+         */
+        void removeCallbacks(Runnable runnable);
+    }
+
+    /**
+     * Engine delegate which forwards the events of the session to all its requests.
+     * <p>
+     * It receives the events on the main thread, where it keeps the bookkeeping of the
+     * session, and forwards them to the delegates of the requests through the dispatcher
+     * of the engine, so they are delivered on the delegate executor, if any, with the same
+     * ordering and coalescing as the engine delegate.
+     */
+    private final class Dispatcher implements ErrorSpeechDelegate, TimeoutSpeechDelegate,
+            DeltaSpeechDelegate, CommitSpeechDelegate, KeywordSpeechDelegate, CommandSpeechDelegate,
+            DebouncedSpeechDelegate, MainThreadSpeechDelegate {
+
+        @Override
+        public void onStartOfSpeech() {
+            if (mSessionStarted)
+                return;
+
+            mSessionStarted = true;
+
+            for (final ListeningTicket ticket : mActive) {
+                markStarted(ticket);
+                forwardStartOfSpeech(ticket);
+            }
+        }
+
+        void forwardStartOfSpeech(final ListeningTicket ticket) {
+            mEngine.getDelegateDispatcher().onStartOfSpeech(ticket.getRequest().getDelegate());
+        }
+
+        @Override
+        public void onSpeechRmsChanged(final float value) {
+            final DelegateDispatcher dispatcher = mEngine.getDelegateDispatcher();
+
+            for (final ListeningTicket ticket : mActive) {
+                dispatcher.onSpeechRmsChanged(ticket.getRequest().getDelegate(), value);
+            }
+        }
+
+        @Override
+        public void onSpeechPartialResults(final List<String> results) {
+            final DelegateDispatcher dispatcher = mEngine.getDelegateDispatcher();
+
+            for (final ListeningTicket ticket : mActive) {
+                dispatcher.onSpeechPartialResults(ticket.getRequest().getDelegate(), results);
+            }
+        }
+
+        @Override
+        public void onSpeechResult(final String result) {
+            final DelegateDispatcher dispatcher = mEngine.getDelegateDispatcher();
+
+            for (final ListeningTicket ticket : mActive) {
+                dispatcher.onSpeechResult(ticket.getRequest().getDelegate(), result);
+            }
+
+            onSessionEnded();
+        }
+
+        @Override
+        public void onSpeechError(final int code, final RecoveryAction action) {
+            final DelegateDispatcher dispatcher = mEngine.getDelegateDispatcher();
+
+            for (final ListeningTicket ticket : mActive) {
+                final SpeechDelegate delegate = ticket.getRequest().getDelegate();
+
+                if (delegate instanceof ErrorSpeechDelegate)
+                    dispatcher.onSpeechError((ErrorSpeechDelegate) delegate, code, action);
+            }
+        }
+
+        @Override
+        public void onSpeechTimeout(final SessionTimeout timeout, final long elapsedMillis) {
+            final DelegateDispatcher dispatcher = mEngine.getDelegateDispatcher();
+
+            for (final ListeningTicket ticket : mActive) {
+                final SpeechDelegate delegate = ticket.getRequest().getDelegate();
+
+                if (delegate instanceof TimeoutSpeechDelegate)
+                    dispatcher.onSpeechTimeout((TimeoutSpeechDelegate) delegate, timeout, elapsedMillis);
+            }
+        }
+
+        @Override
+        public void onSpeechPartialDelta(final SpeechPartialDelta delta) {
+            final DelegateDispatcher dispatcher = mEngine.getDelegateDispatcher();
+
+            for (final ListeningTicket ticket : mActive) {
+                final SpeechDelegate delegate = ticket.getRequest().getDelegate();
+
+                if (delegate instanceof DeltaSpeechDelegate)
+                    dispatcher.onSpeechPartialDelta((DeltaSpeechDelegate) delegate, delta);
+            }
+        }
+
+        @Override
+        public void onSpeechWordCommitted(final String word, final int index) {
+            final DelegateDispatcher dispatcher = mEngine.getDelegateDispatcher();
+
+            for (final ListeningTicket ticket : mActive) {
+                final SpeechDelegate delegate = ticket.getRequest().getDelegate();
+
+                if (delegate instanceof CommitSpeechDelegate)
+                    dispatcher.onSpeechWordCommitted((CommitSpeechDelegate) delegate, word, index);
+            }
+        }
+
+        @Override
+        public void onSpeechKeywordSpotted(final String keyword) {
+            final DelegateDispatcher dispatcher = mEngine.getDelegateDispatcher();
+
+            for (final ListeningTicket ticket : mActive) {
+                final SpeechDelegate delegate = ticket.getRequest().getDelegate();
+
+                if (delegate instanceof KeywordSpeechDelegate)
+                    dispatcher.onSpeechKeywordSpotted((KeywordSpeechDelegate) delegate, keyword);
+            }
+        }
+
+        @Override
+        public void onSpeechCommand(final CommandMatch match, final boolean early) {
+            final DelegateDispatcher dispatcher = mEngine.getDelegateDispatcher();
+
+            for (final ListeningTicket ticket : mActive) {
+                final SpeechDelegate delegate = ticket.getRequest().getDelegate();
+
+                if (delegate instanceof CommandSpeechDelegate)
+                    dispatcher.onSpeechCommand((CommandSpeechDelegate) delegate, match, early);
+            }
+        }
+
+        @Override
+        public void onSpeechRequestDebounced(final boolean start, final long heldMilliseconds) {
+            final DelegateDispatcher dispatcher = mEngine.getDelegateDispatcher();
+
+            for (final ListeningTicket ticket : mActive) {
+                final SpeechDelegate delegate = ticket.getRequest().getDelegate();
+
+                if (delegate instanceof DebouncedSpeechDelegate)
+                    dispatcher.onSpeechRequestDebounced((DebouncedSpeechDelegate) delegate, start, heldMilliseconds);
+            }
+        }
+    }
+}
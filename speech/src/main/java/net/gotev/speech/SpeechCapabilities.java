@@ -0,0 +1,290 @@
+package net.gotev.speech;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.SharedPreferences;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.content.pm.ResolveInfo;
+import android.os.Build;
+import android.speech.RecognitionService;
+import android.speech.SpeechRecognizer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Caches the speech recognition capabilities of the device: whether speech recognition is
+ * available, whether the Google app is installed and the supported speech to text languages.
+ * <p>
+ * The values are kept in memory and in shared preferences, so they survive process restarts.
+ * They are loaded on a background thread as soon as the cache is created, so that the main
+ * thread only waits for them if it needs them before they are ready.
+ * They are invalidated and loaded again when the Google app or a recognition service package
+ * is installed, replaced, changed or removed while the process is running. Packages changed
+ * while the process was not running are detected at startup by comparing the system build,
+ * the Google app update time and the packages providing a recognition service with the ones
+ * stored with the cache.
+ */
+public class SpeechCapabilities {
+
+    private static final String LOG_TAG = SpeechCapabilities.class.getSimpleName();
+    private static final String PREFERENCES = "net.gotev.speech.capabilities";
+    private static final String KEY_STAMP = "stamp";
+    private static final String KEY_RECOGNITION_AVAILABLE = "recognition_available";
+    private static final String KEY_SUPPORTED_LANGUAGES = "supported_languages";
+
+    private static volatile SpeechCapabilities instance = null;
+
+    private final Context mContext;
+    private final SharedPreferences mPreferences;
+
+    private String mStamp;
+    private boolean mGoogleAppInstalled;
+    private Boolean mRecognitionAvailable;
+    private List<String> mSupportedLanguages;
+    private Set<String> mRecognizerPackages;
+    private boolean mPackageReceiverRegistered;
+
+    private final BroadcastReceiver mPackageReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(final Context context, final Intent intent) {
+            final String packageName = intent.getData() == null
+                    ? null : intent.getData().getSchemeSpecificPart();
+
+            if (packageName == null)
+                return;
+
+            inBackground(new Runnable() {
+                @Override
+                public void run() {
+                    onPackageChanged(packageName);
+                }
+            });
+        }
+    };
+
+    private SpeechCapabilities(final Context context) {
+        mContext = context.getApplicationContext() == null ? context : context.getApplicationContext();
+        mPreferences = mContext.getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE);
+        loadInBackground();
+    }
+
+    /**
+     * Gets the capabilities cache.
+     * @param context context
+     * @return capabilities cache instance
+     */
+    public static SpeechCapabilities get(final Context context) {
+        if (instance == null) {
+            synchronized (SpeechCapabilities.class) {
+                if (instance == null) {
+                    if (context == null)
+                        throw new IllegalArgumentException("context must be defined!");
+
+                    instance = new SpeechCapabilities(context);
+                }
+            }
+        }
+
+        return instance;
+    }
+
+    /**
+     * @return true if the Google app is installed on the device
+     */
+    public synchronized boolean isGoogleAppInstalled() {
+        if (mStamp == null)
+            load();
+
+        return mGoogleAppInstalled;
+    }
+
+    /**
+     * @return true if a speech recognition service is available on the device
+     */
+    public synchronized boolean isRecognitionAvailable() {
+        if (mStamp == null)
+            load();
+
+        if (mRecognitionAvailable == null) {
+            mRecognitionAvailable = SpeechRecognizer.isRecognitionAvailable(mContext);
+            mPreferences.edit().putBoolean(KEY_RECOGNITION_AVAILABLE, mRecognitionAvailable).apply();
+        }
+
+        return mRecognitionAvailable;
+    }
+
+    /**
+     * @return sorted list of supported speech to text languages, which is empty if no languages
+     * are supported, or null if they are not known yet
+     */
+    public synchronized List<String> getSupportedLanguages() {
+        if (mStamp == null)
+            load();
+
+        return mSupportedLanguages;
+    }
+
+    /**
+     * Stores the supported speech to text languages.
+     * @param languages supported languages, or an empty list if no languages are supported
+     */
+    public synchronized void setSupportedLanguages(final List<String> languages) {
+        final List<String> sorted = new ArrayList<>(languages);
+        Collections.sort(sorted);
+        mSupportedLanguages = Collections.unmodifiableList(sorted);
+        mPreferences.edit().putStringSet(KEY_SUPPORTED_LANGUAGES, new HashSet<>(sorted)).apply();
+    }
+
+    /**
+     * Forgets all the cached capabilities. They will be queried again when needed.
+     */
+    public synchronized void invalidate() {
+        mStamp = null;
+        mRecognitionAvailable = null;
+        mSupportedLanguages = null;
+        mPreferences.edit().clear().apply();
+    }
+
+    /**
+     * Invalidates the capabilities if the package provided speech recognition before the
+     * change or provides it now, e.g. because it has just been installed.
+     * @param packageName name of the installed, replaced, changed or removed package
+     */
+    private void onPackageChanged(final String packageName) {
+        final Set<String> packages = queryRecognizerPackages();
+        final boolean recognizer;
+
+        synchronized (this) {
+            recognizer = (mRecognizerPackages != null && mRecognizerPackages.contains(packageName))
+                    || packages.contains(packageName);
+            mRecognizerPackages = packages;
+        }
+
+        if (!recognizer)
+            return;
+
+        Logger.debug(LOG_TAG, "Package change detected for " + packageName + ", invalidating capabilities");
+        invalidate();
+        isRecognitionAvailable();
+    }
+
+    private void loadInBackground() {
+        inBackground(new Runnable() {
+            @Override
+            public void run() {
+                isRecognitionAvailable();
+            }
+        });
+    }
+
+    private void inBackground(final Runnable runnable) {
+        final Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    runnable.run();
+                } catch (final Throwable exc) {
+                    Logger.error(LOG_TAG, "Unable to load capabilities", exc);
+                }
+            }
+        }, "speech-capabilities");
+
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * @return the Google app and the packages which provide a speech recognition service
+     */
+    private Set<String> queryRecognizerPackages() {
+        final Set<String> packages = new HashSet<>();
+        packages.add(Speech.GOOGLE_APP_PACKAGE);
+
+        final List<ResolveInfo> infos = mContext.getPackageManager()
+                .queryIntentServices(new Intent(RecognitionService.SERVICE_INTERFACE), 0);
+
+        if (infos != null) {
+            for (final ResolveInfo info : infos) {
+                if (info.serviceInfo != null)
+                    packages.add(info.serviceInfo.packageName);
+            }
+        }
+
+        return packages;
+    }
+
+    /**
+     * Listens for the changes of all the packages, since any installed package may provide
+     * a speech recognition service.
+     */
+    private void registerPackageReceiver() {
+        final IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_PACKAGE_ADDED);
+        filter.addAction(Intent.ACTION_PACKAGE_REPLACED);
+        filter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+        filter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        filter.addDataScheme("package");
+
+        mContext.registerReceiver(mPackageReceiver, filter);
+        mPackageReceiverRegistered = true;
+    }
+
+    private void load() {
+        if (!mPackageReceiverRegistered)
+            registerPackageReceiver();
+
+        mRecognizerPackages = queryRecognizerPackages();
+
+        long googleAppUpdateTime = -1;
+
+        try {
+            final PackageInfo info = mContext.getPackageManager()
+                    .getPackageInfo(Speech.GOOGLE_APP_PACKAGE, 0);
+            googleAppUpdateTime = info.lastUpdateTime;
+        } catch (final PackageManager.NameNotFoundException exc) {
+            Logger.debug(LOG_TAG, "Google app not installed");
+        }
+
+        mGoogleAppInstalled = googleAppUpdateTime >= 0;
+
+        // a recognition service installed or removed changes the availability
+        final List<String> recognizers = new ArrayList<>(mRecognizerPackages);
+        Collections.sort(recognizers);
+
+        final StringBuilder stamp = new StringBuilder(Build.FINGERPRINT)
+                .append('/').append(googleAppUpdateTime);
+
+        for (final String packageName : recognizers) {
+            stamp.append('/').append(packageName);
+        }
+
+        mStamp = stamp.toString();
+
+        if (!mStamp.equals(mPreferences.getString(KEY_STAMP, null))) {
+            mRecognitionAvailable = null;
+            mSupportedLanguages = null;
+            mPreferences.edit().clear().putString(KEY_STAMP, mStamp).apply();
+            return;
+        }
+
+        mRecognitionAvailable = mPreferences.contains(KEY_RECOGNITION_AVAILABLE)
+                ? mPreferences.getBoolean(KEY_RECOGNITION_AVAILABLE, false) : null;
+
+        final Set<String> languages = mPreferences.getStringSet(KEY_SUPPORTED_LANGUAGES, null);
+
+        if (languages == null) {
+            mSupportedLanguages = null;
+        } else {
+            final List<String> sorted = new ArrayList<>(languages);
+            Collections.sort(sorted);
+            mSupportedLanguages = Collections.unmodifiableList(sorted);
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package net.gotev.speech;
+
+import java.util.Arrays;
+
+/**
+ * Collects timing statistics of the speech recognition sessions.
+ * All the times are measured with a monotonic clock and expressed in milliseconds.
+ * This class is thread safe, so it can be read from any thread.
+ */
+public class SpeechMetrics {
+
+    private final TimingStats mReadyForSpeechLatency = new TimingStats();
+    private final TimingStats mSessionGap = new TimingStats();
+    private final TimingStats mFirstAudioLatency = new TimingStats();
+    private final TimingStats mResultLatency = new TimingStats();
+    private final TimingStats mPreRollDuration = new TimingStats();
+    private final TimingStats mQueueWaitTime = new TimingStats();
+    private final long[] mSessionTimeouts = new long[SessionTimeout.values().length];
+
+    private long mRecognizerCreations;
+    private long mRecognizerReuses;
+    private long mPreparationsUsed;
+    private long mPreparationsExpired;
+
+    /**
+     * Records that a new speech recognizer has been bound.
+     */
+    public synchronized void recordRecognizerCreation() {
+        mRecognizerCreations++;
+    }
+
+    /**
+     * Records that a session has been started on an already bound speech recognizer.
+     */
+    public synchronized void recordRecognizerReuse() {
+        mRecognizerReuses++;
+    }
+
+    /**
+     * Records the outcome of a prepareListening call.
+     * @param used true if a session started before the preparation expired
+     */
+    public synchronized void recordPreparation(final boolean used) {
+        if (used) {
+            mPreparationsUsed++;
+        } else {
+            mPreparationsExpired++;
+        }
+    }
+
+    /**
+     * Records that a session got stuck and has been recycled by the session watchdog.
+     * @param timeout stage in which the session got stuck
+     */
+    public synchronized void recordSessionTimeout(final SessionTimeout timeout) {
+        mSessionTimeouts[timeout.ordinal()]++;
+    }
+
+    /**
+     * @return time elapsed between a start listening request and onReadyForSpeech
+     */
+    public TimingStats getReadyForSpeechLatency() {
+        return mReadyForSpeechLatency;
+    }
+
+    /**
+     * @return time elapsed between the end of a session and the moment in which the next
+     * chained session is ready for speech, in continuous listening mode
+     */
+    public TimingStats getSessionGap() {
+        return mSessionGap;
+    }
+
+    /**
+     * @return time elapsed between onReadyForSpeech and the first audio level received
+     */
+    public TimingStats getFirstAudioLatency() {
+        return mFirstAudioLatency;
+    }
+
+    /**
+     * @return time elapsed between onEndOfSpeech and the final results
+     */
+    public TimingStats getResultLatency() {
+        return mResultLatency;
+    }
+
+    /**
+     * @return milliseconds of audio recorded before onReadyForSpeech and fed to the
+     * speech recognizer by the {@link net.gotev.speech.audio.PreRollRecorder}
+     */
+    public TimingStats getPreRollDuration() {
+        return mPreRollDuration;
+    }
+
+    /**
+     * @return time for which the requests submitted to the {@link SpeechArbiter} waited
+     * for their session to start
+     */
+    public TimingStats getQueueWaitTime() {
+        return mQueueWaitTime;
+    }
+
+    /**
+     * @param timeout session stage
+     * @return number of sessions which got stuck in the given stage
+     */
+    public synchronized long getSessionTimeouts(final SessionTimeout timeout) {
+        return mSessionTimeouts[timeout.ordinal()];
+    }
+
+    /**
+     * @return number of speech recognizers which have been created
+     */
+    public synchronized long getRecognizerCreations() {
+        return mRecognizerCreations;
+    }
+
+    /**
+     * @return number of sessions started on an already bound speech recognizer
+     */
+    public synchronized long getRecognizerReuses() {
+        return mRecognizerReuses;
+    }
+
+    /**
+     * @return number of prepareListening calls followed by a session
+     */
+    public synchronized long getPreparationsUsed() {
+        return mPreparationsUsed;
+    }
+
+    /**
+     * @return number of prepareListening calls which expired without a session
+     */
+    public synchronized long getPreparationsExpired() {
+        return mPreparationsExpired;
+    }
+
+    /**
+     * Resets all the collected statistics.
+     */
+    public void reset() {
+        mReadyForSpeechLatency.reset();
+        mSessionGap.reset();
+        mFirstAudioLatency.reset();
+        mResultLatency.reset();
+        mPreRollDuration.reset();
+        mQueueWaitTime.reset();
+
+        synchronized (this) {
+            mRecognizerCreations = 0;
+            mRecognizerReuses = 0;
+            mPreparationsUsed = 0;
+            mPreparationsExpired = 0;
+            Arrays.fill(mSessionTimeouts, 0);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package net.gotev.speech;
+
+/**
+ * Describes how the partial speech recognition text changed since the previous partial result.
+ * The new text is made of the first {@link #getStablePrefixLength()} characters of the
+ * previous text, followed by {@link #getText()}. The stable prefix always ends on a word
+ * boundary, so the text contains only whole words.
+ */
+public class SpeechPartialDelta {
+
+    private final int mStablePrefixLength;
+    private final int mRemovedLength;
+    private final String mText;
+    private final long mFingerprint;
+
+    public SpeechPartialDelta(final int stablePrefixLength, final int removedLength,
+                              final String text, final long fingerprint) {
+        mStablePrefixLength = stablePrefixLength;
+        mRemovedLength = removedLength;
+        mText = text;
+        mFingerprint = fingerprint;
+    }
+
+    /**
+     * @return number of characters at the beginning of the previous text which did not change
+     */
+    public int getStablePrefixLength() {
+        return mStablePrefixLength;
+    }
+
+    /**
+     * @return number of characters of the previous text, after the stable prefix,
+     * which have been replaced
+     */
+    public int getRemovedLength() {
+        return mRemovedLength;
+    }
+
+    /**
+     * @return the words appended after the stable prefix. This is ensured to be non null.
+     */
+    public String getText() {
+        return mText;
+    }
+
+    /**
+     * @return true if the words have been only appended to the previous text,
+     * false if some words of the previous text have been replaced
+     */
+    public boolean isAppend() {
+        return mRemovedLength == 0;
+    }
+
+    /**
+     * @return total length of the new text
+     */
+    public int getLength() {
+        return mStablePrefixLength + mText.length();
+    }
+
+    /**
+     * @return 64 bit hash of the whole new text, which can be used to detect duplicates
+     */
+    public long getFingerprint() {
+        return mFingerprint;
+    }
+
+    @Override
+    public String toString() {
+        return "SpeechPartialDelta{stablePrefixLength=" + mStablePrefixLength
+                + ", removedLength=" + mRemovedLength + ", text='" + mText + "'}";
+    }
+}
@@ -0,0 +1,17 @@
+package net.gotev.speech;
+
+/**
+ * Speech delegate which is also notified when a session gets stuck and is recycled
+ * by the session watchdog.
+ */
+public interface TimeoutSpeechDelegate extends SpeechDelegate {
+
+    /**
+     * Invoked when the speech recognizer didn't call back within the configured deadline.
+     * After this call, the speech recognizer is recreated and the partial results received
+     * so far are delivered in {@link SpeechDelegate#onSpeechResult(String)}.
+     * @param timeout stage in which the session got stuck
+     * @param elapsedMillis milliseconds elapsed since the stage began
+     */
+    void onSpeechTimeout(SessionTimeout timeout, long elapsedMillis);
+}
@@ -0,0 +1,75 @@
+package net.gotev.speech;
+
+/**
+ * Thread safe accumulator of durations, which keeps count, last, average, minimum and maximum.
+ * All the durations are expressed in milliseconds.
+ */
+public class TimingStats {
+
+    private long mCount;
+    private long mTotal;
+    private long mMin = Long.MAX_VALUE;
+    private long mMax;
+    private long mLast = -1;
+
+    public synchronized void record(final long milliseconds) {
+        mCount++;
+        mTotal += milliseconds;
+        mLast = milliseconds;
+
+        if (milliseconds < mMin)
+            mMin = milliseconds;
+
+        if (milliseconds > mMax)
+            mMax = milliseconds;
+    }
+
+    /**
+     * @return number of recorded durations
+     */
+    public synchronized long getCount() {
+        return mCount;
+    }
+
+    /**
+     * @return last recorded duration, or -1 if nothing has been recorded yet
+     */
+    public synchronized long getLast() {
+        return mLast;
+    }
+
+    /**
+     * @return average duration, or -1 if nothing has been recorded yet
+     */
+    public synchronized long getAverage() {
+        return mCount == 0 ? -1 : mTotal / mCount;
+    }
+
+    /**
+     * @return minimum duration, or -1 if nothing has been recorded yet
+     */
+    public synchronized long getMin() {
+        return mCount == 0 ? -1 : mMin;
+    }
+
+    /**
+     * @return maximum duration, or -1 if nothing has been recorded yet
+     */
+    public synchronized long getMax() {
+        return mCount == 0 ? -1 : mMax;
+    }
+
+    public synchronized void reset() {
+        mCount = 0;
+        mTotal = 0;
+        mMin = Long.MAX_VALUE;
+        mMax = 0;
+        mLast = -1;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "count=" + mCount + ", last=" + mLast + "ms, avg=" + getAverage()
+                + "ms, min=" + getMin() + "ms, max=" + getMax() + "ms";
+    }
+}
@@ -1,7 +1,6 @@
 package net.gotev.speech;
 
 import android.content.Context;
-import android.os.Handler;
 import android.speech.tts.UtteranceProgressListener;
 
 import java.lang.ref.WeakReference;
@@ -27,7 +26,7 @@ public class TtsProgressListener extends UtteranceProgressListener {
         final Context context = contextWeakReference.get();
 
         if (callback != null && context != null) {
-            new Handler(context.getMainLooper()).post(new Runnable() {
+            SharedHandler.get().post(new Runnable() {
                 @Override
                 public void run() {
                     callback.onStart();
@@ -41,7 +40,7 @@ public class TtsProgressListener extends UtteranceProgressListener {
         final TextToSpeechCallback callback = mTtsCallbacks.get(utteranceId);
         final Context context = contextWeakReference.get();
         if (callback != null && context != null) {
-            new Handler(context.getMainLooper()).post(new Runnable() {
+            SharedHandler.get().post(new Runnable() {
                 @Override
                 public void run() {
                     callback.onCompleted();
@@ -57,7 +56,7 @@ public class TtsProgressListener extends UtteranceProgressListener {
         final Context context = contextWeakReference.get();
 
         if (callback != null && context != null) {
-            new Handler(context.getMainLooper()).post(new Runnable() {
+            SharedHandler.get().post(new Runnable() {
                 @Override
                 public void run() {
                     callback.onError();
@@ -0,0 +1,171 @@
+package net.gotev.speech.audio;
+
+import net.gotev.speech.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Audio tap listener which streams every session to a new file, through a {@link FileChannel}.
+ * The audio buffers are written directly, so the memory in use is bounded by the audio tap pool.
+ * The files can be either raw 16 bit PCM or WAV, in which case the header gets completed with
+ * the data size when the session ends.
+ */
+public class AudioFileSink implements AudioTapListener {
+
+    private static final String LOG_TAG = AudioFileSink.class.getSimpleName();
+    private static final int WAV_HEADER_SIZE = 44;
+    private static final int BITS_PER_SAMPLE = 16;
+
+    private final File mDirectory;
+    private final int mSampleRate;
+    private final int mChannels;
+    private final boolean mWav;
+    private final ByteBuffer mHeader = ByteBuffer.allocateDirect(WAV_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+    private RandomAccessFile mFile;
+    private FileChannel mChannel;
+    private long mDataSize;
+    private int mSessions;
+    private volatile File mLastFile;
+
+    /**
+     * Creates a sink which writes WAV files.
+     * @param directory directory in which to create the files
+     * @param sampleRate sample rate of the audio, in Hz
+     * @param channels number of audio channels
+     */
+    public AudioFileSink(final File directory, final int sampleRate, final int channels) {
+        this(directory, sampleRate, channels, true);
+    }
+
+    /**
+     * Creates a new sink.
+     * @param directory directory in which to create the files
+     * @param sampleRate sample rate of the audio, in Hz
+     * @param channels number of audio channels
+     * @param wav true to write WAV files, false to write raw PCM files
+     */
+    public AudioFileSink(final File directory, final int sampleRate, final int channels, final boolean wav) {
+        if (directory == null)
+            throw new IllegalArgumentException("directory must be defined!");
+
+        mDirectory = directory;
+        mSampleRate = sampleRate;
+        mChannels = channels;
+        mWav = wav;
+    }
+
+    /**
+     * @return the file of the last session, or null if no session has been recorded yet
+     */
+    public File getLastFile() {
+        return mLastFile;
+    }
+
+    @Override
+    public void onAudioSessionStarted() {
+        closeFile();
+
+        if (!mDirectory.exists() && !mDirectory.mkdirs()) {
+            Logger.error(LOG_TAG, "Unable to create directory " + mDirectory.getAbsolutePath());
+            return;
+        }
+
+        // the counter keeps apart the sessions started within the same millisecond
+        mSessions++;
+        final File file = new File(mDirectory, "speech-" + System.currentTimeMillis() + "-" + mSessions
+                + (mWav ? ".wav" : ".pcm"));
+
+        try {
+            mFile = new RandomAccessFile(file, "rw");
+            mFile.setLength(0);
+            mChannel = mFile.getChannel();
+            mDataSize = 0;
+
+            if (mWav) {
+                writeHeader();
+            }
+
+            mLastFile = file;
+        } catch (final IOException exc) {
+            Logger.error(LOG_TAG, "Unable to open " + file.getAbsolutePath(), exc);
+            closeFile();
+        }
+    }
+
+    @Override
+    public void onAudioBuffer(final ByteBuffer buffer) {
+        if (mChannel == null)
+            return;
+
+        try {
+            while (buffer.hasRemaining()) {
+                mDataSize += mChannel.write(buffer);
+            }
+        } catch (final IOException exc) {
+            Logger.error(LOG_TAG, "Unable to write audio", exc);
+            closeFile();
+        }
+    }
+
+    @Override
+    public void onAudioSessionEnded() {
+        closeFile();
+    }
+
+    private void writeHeader() throws IOException {
+        final int byteRate = mSampleRate * mChannels * BITS_PER_SAMPLE / 8;
+        final long dataSize = Math.min(mDataSize, 0xffffffffL - 36);
+
+        mHeader.clear();
+        mHeader.put((byte) 'R').put((byte) 'I').put((byte) 'F').put((byte) 'F');
+        mHeader.putInt((int) (36 + dataSize));
+        mHeader.put((byte) 'W').put((byte) 'A').put((byte) 'V').put((byte) 'E');
+        mHeader.put((byte) 'f').put((byte) 'm').put((byte) 't').put((byte) ' ');
+        mHeader.putInt(16);
+        mHeader.putShort((short) 1);
+        mHeader.putShort((short) mChannels);
+        mHeader.putInt(mSampleRate);
+        mHeader.putInt(byteRate);
+        mHeader.putShort((short) (mChannels * BITS_PER_SAMPLE / 8));
+        mHeader.putShort((short) BITS_PER_SAMPLE);
+        mHeader.put((byte) 'd').put((byte) 'a').put((byte) 't').put((byte) 'a');
+        mHeader.putInt((int) dataSize);
+        mHeader.flip();
+
+        long position = 0;
+        while (mHeader.hasRemaining()) {
+            position += mChannel.write(mHeader, position);
+        }
+
+        if (mChannel.position() < WAV_HEADER_SIZE) {
+            mChannel.position(WAV_HEADER_SIZE);
+        }
+    }
+
+    private void closeFile() {
+        if (mChannel != null && mWav) {
+            try {
+                writeHeader();
+            } catch (final IOException exc) {
+                Logger.error(LOG_TAG, "Unable to complete WAV header", exc);
+            }
+        }
+
+        if (mFile != null) {
+            try {
+                mFile.close();
+            } catch (final IOException exc) {
+                Logger.error(LOG_TAG, "Unable to close audio file", exc);
+            }
+        }
+
+        mFile = null;
+        mChannel = null;
+    }
+}
@@ -0,0 +1,200 @@
+package net.gotev.speech.audio;
+
+import net.gotev.speech.Logger;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Copies the audio received from the speech recognizer into a fixed pool of direct buffers
+ * and delivers them to an {@link AudioTapListener} on a background thread.
+ * Writing never blocks the caller: when all the buffers are in use, the audio is dropped
+ * and counted in {@link #getDroppedBytes()}. The session markers are never dropped: when
+ * the queue is full, they are kept in an unbounded overflow queue, which the background
+ * thread drains after the buffers queued before them.
+ * <p>
+ * Bear in mind that the speech recognizer is not required to provide the audio, and many
+ * recognition services never call {@link android.speech.RecognitionListener#onBufferReceived(byte[])}.
+ */
+public class AudioTap {
+
+    private static final String LOG_TAG = AudioTap.class.getSimpleName();
+
+    private static final ByteBuffer SESSION_STARTED = ByteBuffer.allocate(0);
+    private static final ByteBuffer SESSION_ENDED = ByteBuffer.allocate(0);
+    private static final ByteBuffer CLOSE = ByteBuffer.allocate(0);
+
+    private final AudioTapListener mListener;
+    private final ArrayBlockingQueue<ByteBuffer> mFreeBuffers;
+    private final ArrayBlockingQueue<ByteBuffer> mFilledBuffers;
+    // markers and buffers enqueued while the filled buffers queue was full
+    private final ConcurrentLinkedQueue<ByteBuffer> mOverflowBuffers = new ConcurrentLinkedQueue<>();
+    private final AtomicLong mDroppedBytes = new AtomicLong();
+    private final Thread mThread;
+    private volatile boolean mClosed;
+
+    /**
+     * Creates an audio tap with 32 buffers of 4KB each.
+     * @param listener listener which receives the audio
+     */
+    public AudioTap(final AudioTapListener listener) {
+        this(listener, 32, 4096);
+    }
+
+    /**
+     * Creates a new audio tap.
+     * @param listener listener which receives the audio
+     * @param buffers number of pooled buffers, which bounds the memory in use
+     * @param bufferSize size in bytes of each pooled buffer
+     */
+    public AudioTap(final AudioTapListener listener, final int buffers, final int bufferSize) {
+        if (listener == null)
+            throw new IllegalArgumentException("listener must be defined!");
+
+        if (buffers <= 0 || bufferSize <= 0)
+            throw new IllegalArgumentException("buffers and bufferSize must be > 0");
+
+        mListener = listener;
+        mFreeBuffers = new ArrayBlockingQueue<>(buffers);
+        // leave room for the session markers, so that the overflow queue is rarely needed
+        mFilledBuffers = new ArrayBlockingQueue<>(buffers + 16);
+
+        for (int i = 0; i < buffers; i++) {
+            mFreeBuffers.add(ByteBuffer.allocateDirect(bufferSize));
+        }
+
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                dispatchLoop();
+            }
+        }, "speech-audio-tap");
+        mThread.setDaemon(true);
+        mThread.start();
+    }
+
+    /**
+     * Marks the beginning of a new session.
+     */
+    public void startSession() {
+        enqueueMarker(SESSION_STARTED);
+    }
+
+    /**
+     * Marks the end of the current session.
+     */
+    public void endSession() {
+        enqueueMarker(SESSION_ENDED);
+    }
+
+    /**
+     * Copies the given audio into pooled buffers. It never blocks.
+     * @param bytes audio data
+     */
+    public void write(final byte[] bytes) {
+        if (bytes == null || mClosed)
+            return;
+
+        int offset = 0;
+
+        while (offset < bytes.length) {
+            final ByteBuffer buffer = mFreeBuffers.poll();
+
+            if (buffer == null) {
+                mDroppedBytes.addAndGet(bytes.length - offset);
+                return;
+            }
+
+            final int length = Math.min(buffer.capacity(), bytes.length - offset);
+            buffer.clear();
+            buffer.put(bytes, offset, length);
+            buffer.flip();
+            offset += length;
+
+            // the pooled buffers are bounded, so they never pile up in the overflow queue
+            enqueue(buffer);
+        }
+    }
+
+    /**
+     * @return number of bytes which have been dropped because all the buffers were in use
+     */
+    public long getDroppedBytes() {
+        return mDroppedBytes.get();
+    }
+
+    /**
+     * Stops the background thread after all the pending audio has been delivered.
+     */
+    public void close() {
+        if (mClosed)
+            return;
+
+        mClosed = true;
+        enqueueMarker(CLOSE);
+    }
+
+    private void enqueueMarker(final ByteBuffer marker) {
+        if (mClosed && marker != CLOSE)
+            return;
+
+        enqueue(marker);
+    }
+
+    /**
+     * Enqueues a buffer or a marker without blocking. While there are overflow buffers,
+     * the new ones follow them, to keep the order.
+     */
+    private void enqueue(final ByteBuffer buffer) {
+        if (!mOverflowBuffers.isEmpty() || !mFilledBuffers.offer(buffer))
+            mOverflowBuffers.offer(buffer);
+    }
+
+    /**
+     * Waits for the next buffer. The overflow buffers always follow the filled ones, since
+     * they are enqueued only while the filled buffers queue is full or other overflow buffers
+     * are waiting, and this never waits while there are overflow buffers.
+     */
+    private ByteBuffer nextBuffer() throws InterruptedException {
+        final ByteBuffer buffer = mFilledBuffers.poll();
+
+        if (buffer != null)
+            return buffer;
+
+        final ByteBuffer overflow = mOverflowBuffers.poll();
+        return overflow != null ? overflow : mFilledBuffers.take();
+    }
+
+    private void dispatchLoop() {
+        while (true) {
+            final ByteBuffer buffer;
+
+            try {
+                buffer = nextBuffer();
+            } catch (final InterruptedException exc) {
+                return;
+            }
+
+            if (buffer == CLOSE)
+                return;
+
+            try {
+                if (buffer == SESSION_STARTED) {
+                    mListener.onAudioSessionStarted();
+                } else if (buffer == SESSION_ENDED) {
+                    mListener.onAudioSessionEnded();
+                } else {
+                    mListener.onAudioBuffer(buffer);
+                }
+            } catch (final Throwable exc) {
+                Logger.error(LOG_TAG, "Unhandled exception in audio tap listener", exc);
+            }
+
+            if (buffer != SESSION_STARTED && buffer != SESSION_ENDED) {
+                mFreeBuffers.offer(buffer);
+            }
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package net.gotev.speech.audio;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Receives the raw audio captured during speech recognition sessions.
+ * All the methods are invoked in order on the audio tap background thread.
+ */
+public interface AudioTapListener {
+
+    /**
+     * Invoked when a new speech recognition session starts.
+     */
+    void onAudioSessionStarted();
+
+    /**
+     * Invoked when new audio is available.
+     * @param buffer audio data between position and limit. The buffer gets recycled after
+     *               this method returns, so it must not be retained.
+     */
+    void onAudioBuffer(ByteBuffer buffer);
+
+    /**
+     * Invoked when the speech recognition session ends.
+     */
+    void onAudioSessionEnded();
+}
@@ -0,0 +1,14 @@
+package net.gotev.speech.audio;
+
+/**
+ * Receives the failures of a pre-roll recorder session.
+ */
+public interface PreRollListener {
+
+    /**
+     * Invoked on the capture thread when the microphone can't be recorded for the session.
+     * The audio pipe of the session has already been closed, so the recognizer reading it
+     * gets no audio.
+     */
+    void onRecordingFailed();
+}
@@ -0,0 +1,425 @@
+package net.gotev.speech.audio;
+
+import android.annotation.SuppressLint;
+import android.media.AudioFormat;
+import android.media.AudioRecord;
+import android.media.MediaRecorder;
+import android.os.ParcelFileDescriptor;
+
+import net.gotev.speech.Logger;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records the microphone into a fixed-size ring buffer of 16 bit mono samples and feeds it
+ * to the speech recognizer through a pipe, so that what the user says before the recognizer
+ * is ready is not lost.
+ * <p>
+ * When a session starts, the pipe receives the last pre-roll milliseconds of audio followed
+ * by the live audio. The capture thread never blocks on the pipe: while the recognizer is not
+ * reading, the audio keeps accumulating in the ring buffer, which has room for the pre-roll
+ * and two more seconds. Audio overwritten before being read is counted in
+ * {@link #getDroppedSamples()}.
+ * <p>
+ * Feeding the audio to the recognizer requires Android 13 (API 33) and the
+ * {@code RECORD_AUDIO} permission. Call {@link #arm()} ahead of time (e.g. when the user
+ * touches the microphone button) to also keep the audio preceding the start of the session.
+ */
+public class PreRollRecorder {
+
+    private static final String LOG_TAG = PreRollRecorder.class.getSimpleName();
+
+    private static final int CHUNK_MILLIS = 20;
+    private static final int BACKLOG_MILLIS = 2000;
+
+    private final int mSampleRate;
+    private final int mPreRollSamples;
+    private final int mChunkSamples;
+    private final short[] mRing;
+    private final AtomicLong mDroppedSamples = new AtomicLong();
+
+    // all the following fields are guarded by mLock
+    private final Object mLock = new Object();
+    private long mWritten;
+    // ring positions where the current capture run started and where the last session stopped
+    // reading, a new session never reads the audio before them
+    private long mCaptureStart;
+    private long mSessionEnd;
+    private boolean mCapturing;
+    private boolean mArmed;
+    private boolean mClosed;
+    private Thread mCaptureThread;
+    private Session mSession;
+
+    /**
+     * Creates a recorder at 16KHz with one second of pre-roll.
+     */
+    public PreRollRecorder() {
+        this(16000, 1000);
+    }
+
+    /**
+     * Creates a new recorder.
+     * @param sampleRate sample rate in Hz
+     * @param preRollMillis milliseconds of audio preceding the session to feed to the recognizer
+     */
+    public PreRollRecorder(final int sampleRate, final long preRollMillis) {
+        if (sampleRate <= 0 || preRollMillis < 0)
+            throw new IllegalArgumentException("invalid sample rate or pre-roll");
+
+        mSampleRate = sampleRate;
+        mPreRollSamples = (int) (sampleRate * preRollMillis / 1000);
+        mChunkSamples = Math.max(1, sampleRate * CHUNK_MILLIS / 1000);
+        mRing = new short[mPreRollSamples + sampleRate * BACKLOG_MILLIS / 1000];
+    }
+
+    public int getSampleRate() {
+        return mSampleRate;
+    }
+
+    /**
+     * @return number of samples overwritten before the recognizer could read them
+     */
+    public long getDroppedSamples() {
+        return mDroppedSamples.get();
+    }
+
+    /**
+     * Starts recording into the ring buffer, so that the next session receives the audio
+     * preceding its start. The recording continues until {@link #disarm()} is called.
+     */
+    public void arm() {
+        synchronized (mLock) {
+            if (mClosed)
+                return;
+
+            mArmed = true;
+            startCapture();
+        }
+    }
+
+    /**
+     * Stops the recording started with {@link #arm()}, once the current session has ended.
+     */
+    public void disarm() {
+        synchronized (mLock) {
+            mArmed = false;
+
+            if (mSession == null)
+                mCapturing = false;
+        }
+    }
+
+    /**
+     * Starts feeding the audio to a new session, starting from the pre-roll. The pre-roll
+     * never includes audio of a previous capture run or audio already fed to the previous
+     * session. The microphone is opened on the capture thread: if it can't be recorded, the
+     * pipe gets closed and the listener is notified.
+     * @param listener listener notified if the microphone can't be recorded for the session
+     * @return read side of the pipe to pass to the recognizer, or null if the pipe
+     * can't be created, in which case the recognizer has to record the microphone by itself
+     */
+    public ParcelFileDescriptor startSession(final PreRollListener listener) {
+        synchronized (mLock) {
+            if (mClosed)
+                return null;
+
+            endSession(true);
+            startCapture();
+
+            final ParcelFileDescriptor[] pipe;
+            try {
+                pipe = ParcelFileDescriptor.createPipe();
+            } catch (final IOException exc) {
+                Logger.error(LOG_TAG, "Unable to create the audio pipe", exc);
+
+                if (!mArmed)
+                    mCapturing = false;
+
+                return null;
+            }
+
+            final long start = Math.max(Math.max(mCaptureStart, mSessionEnd), mWritten - mPreRollSamples);
+            mSession = new Session(pipe[0], pipe[1], start, listener);
+            final Thread thread = new Thread(mSession, "speech-pre-roll");
+            thread.setDaemon(true);
+            thread.start();
+
+            return pipe[0];
+        }
+    }
+
+    /**
+     * Marks that the recognizer is ready for speech.
+     * @return milliseconds of audio captured before the recognizer was ready and fed to it,
+     * or -1 if there isn't a session or it has already been marked as ready
+     */
+    public long markReady() {
+        synchronized (mLock) {
+            if (mSession == null || mSession.mReady)
+                return -1;
+
+            mSession.mReady = true;
+            final long samples = Math.min(mWritten - mSession.mStart, mRing.length);
+            return samples * 1000 / mSampleRate;
+        }
+    }
+
+    /**
+     * Stops feeding the audio to the current session.
+     * @param keepRecording true to keep recording into the ring buffer, e.g. because another
+     *                      session is going to start right away
+     */
+    public void endSession(final boolean keepRecording) {
+        synchronized (mLock) {
+            if (mSession != null) {
+                mSessionEnd = mSession.mPosition;
+                mSession.mStopped = true;
+                mSession.closeReadSide();
+                mSession = null;
+                mLock.notifyAll();
+            }
+
+            if (!keepRecording && !mArmed)
+                mCapturing = false;
+        }
+    }
+
+    /**
+     * Ends the current session and stops recording.
+     */
+    public void close() {
+        synchronized (mLock) {
+            endSession(false);
+            mArmed = false;
+            mCapturing = false;
+            mClosed = true;
+        }
+    }
+
+    /**
+     * Starts recording, if it's not already recording. The microphone is opened on the
+     * capture thread, to not block the calling thread.
+     */
+    private void startCapture() {
+        // the audio recorded so far belongs to a capture run which has been stopped
+        if (!mCapturing)
+            mCaptureStart = mWritten;
+
+        mCapturing = true;
+
+        // a capture thread which is stopping checks mCapturing again before exiting
+        if (mCaptureThread != null)
+            return;
+
+        mCaptureThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                captureLoop();
+            }
+        }, "speech-pre-roll-capture");
+        mCaptureThread.setDaemon(true);
+        mCaptureThread.start();
+    }
+
+    private void captureLoop() {
+        while (true) {
+            final AudioRecord record = openRecord();
+            final boolean stopped = record != null && capture(record);
+            PreRollListener failed = null;
+
+            synchronized (mLock) {
+                // when capture has been requested again while releasing the microphone,
+                // keep recording on this thread
+                if (stopped && mCapturing)
+                    continue;
+
+                mCaptureThread = null;
+                mCapturing = false;
+
+                // the session gets the end of the audio, instead of waiting for it forever
+                if (!stopped && mSession != null) {
+                    if (record == null)
+                        failed = mSession.mListener;
+
+                    mSession.mStopped = true;
+                    mLock.notifyAll();
+                }
+            }
+
+            if (failed != null)
+                failed.onRecordingFailed();
+
+            return;
+        }
+    }
+
+    /**
+     * Opens and starts recording the microphone.
+     * @return audio record, or null if it can't be opened
+     */
+    @SuppressLint("MissingPermission")
+    private AudioRecord openRecord() {
+        final int minBufferSize = AudioRecord.getMinBufferSize(mSampleRate,
+                AudioFormat.CHANNEL_IN_MONO, AudioFormat.ENCODING_PCM_16BIT);
+
+        AudioRecord record = null;
+
+        try {
+            record = new AudioRecord(MediaRecorder.AudioSource.VOICE_RECOGNITION, mSampleRate,
+                    AudioFormat.CHANNEL_IN_MONO, AudioFormat.ENCODING_PCM_16BIT,
+                    Math.max(minBufferSize, mChunkSamples * 2 * 4));
+
+            if (record.getState() != AudioRecord.STATE_INITIALIZED) {
+                Logger.error(LOG_TAG, "Unable to initialize audio recording");
+                record.release();
+                return null;
+            }
+
+            record.startRecording();
+
+            if (record.getRecordingState() != AudioRecord.RECORDSTATE_RECORDING) {
+                Logger.error(LOG_TAG, "Unable to start audio recording");
+                record.release();
+                return null;
+            }
+
+            return record;
+        } catch (final Exception exc) {
+            Logger.error(LOG_TAG, "Unable to start audio recording", exc);
+
+            if (record != null)
+                record.release();
+
+            return null;
+        }
+    }
+
+    /**
+     * Records into the ring buffer until the capture is stopped, then releases the microphone.
+     * @param record audio record which is recording
+     * @return true if the capture has been stopped, false if recording failed
+     */
+    private boolean capture(final AudioRecord record) {
+        try {
+            final short[] chunk = new short[mChunkSamples];
+
+            while (true) {
+                synchronized (mLock) {
+                    if (!mCapturing)
+                        return true;
+                }
+
+                final int read = record.read(chunk, 0, chunk.length);
+
+                if (read < 0) {
+                    Logger.error(LOG_TAG, "Audio recording error: " + read);
+                    return false;
+                }
+
+                synchronized (mLock) {
+                    for (int i = 0; i < read; i++) {
+                        mRing[(int) ((mWritten + i) % mRing.length)] = chunk[i];
+                    }
+
+                    mWritten += read;
+                    mLock.notifyAll();
+                }
+            }
+        } catch (final Exception exc) {
+            Logger.error(LOG_TAG, "Audio recording error", exc);
+            return false;
+        } finally {
+            try {
+                record.stop();
+            } catch (final Exception exc) {
+                // already stopped
+            }
+
+            record.release();
+        }
+    }
+
+    /**
+     * Copies the audio from the ring buffer to the pipe of a session, on its own thread,
+     * since writing blocks while the recognizer is not reading.
+     */
+    private final class Session implements Runnable {
+        private final ParcelFileDescriptor mReadSide;
+        private final ParcelFileDescriptor mWriteSide;
+        private final long mStart;
+        private final PreRollListener mListener;
+        private long mPosition;
+        private boolean mReady;
+        private boolean mStopped;
+
+        Session(final ParcelFileDescriptor readSide, final ParcelFileDescriptor writeSide,
+                final long start, final PreRollListener listener) {
+            mReadSide = readSide;
+            mWriteSide = writeSide;
+            mStart = start;
+            mListener = listener;
+            mPosition = start;
+        }
+
+        @Override
+        public void run() {
+            final byte[] bytes = new byte[mChunkSamples * 2];
+
+            try (OutputStream out = new ParcelFileDescriptor.AutoCloseOutputStream(mWriteSide)) {
+                while (true) {
+                    final int count;
+
+                    synchronized (mLock) {
+                        while (!mStopped && mWritten == mPosition) {
+                            mLock.wait();
+                        }
+
+                        if (mStopped)
+                            return;
+
+                        if (mWritten - mPosition > mRing.length) {
+                            mDroppedSamples.addAndGet(mWritten - mPosition - mRing.length);
+                            mPosition = mWritten - mRing.length;
+                        }
+
+                        count = (int) Math.min(mWritten - mPosition, mChunkSamples);
+
+                        // 16 bit little endian PCM
+                        for (int i = 0; i < count; i++) {
+                            final short sample = mRing[(int) ((mPosition + i) % mRing.length)];
+                            bytes[i * 2] = (byte) sample;
+                            bytes[i * 2 + 1] = (byte) (sample >> 8);
+                        }
+
+                        mPosition += count;
+                    }
+
+                    out.write(bytes, 0, count * 2);
+                }
+            } catch (final InterruptedException exc) {
+                // stopped
+            } catch (final IOException exc) {
+                // the recognizer closed the pipe
+                if (!isStopped())
+                    Logger.debug(LOG_TAG, "Audio pipe closed by the recognizer");
+            }
+        }
+
+        private boolean isStopped() {
+            synchronized (mLock) {
+                return mStopped;
+            }
+        }
+
+        void closeReadSide() {
+            try {
+                mReadSide.close();
+            } catch (final IOException exc) {
+                Logger.error(LOG_TAG, "Unable to close the audio pipe", exc);
+            }
+        }
+    }
+}
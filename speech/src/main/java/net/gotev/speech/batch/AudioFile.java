@@ -0,0 +1,105 @@
+package net.gotev.speech.batch;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Location and format of the 16 bit PCM samples in a WAV or raw audio file.
+ */
+final class AudioFile {
+
+    private static final int RIFF_HEADER_SIZE = 12;
+    private static final int CHUNK_HEADER_SIZE = 8;
+    private static final int FORMAT_PCM = 1;
+    private static final int BITS_PER_SAMPLE = 16;
+
+    final int sampleRate;
+    final int channels;
+    final long dataOffset;
+    final long dataLength;
+
+    private AudioFile(final int sampleRate, final int channels, final long dataOffset, final long dataLength) {
+        this.sampleRate = sampleRate;
+        this.channels = channels;
+        this.dataOffset = dataOffset;
+        this.dataLength = dataLength;
+    }
+
+    /**
+     * @return duration of the audio in milliseconds
+     */
+    long getDurationMillis() {
+        return dataLength * 1000 / ((long) sampleRate * channels * (BITS_PER_SAMPLE / 8));
+    }
+
+    /**
+     * Reads the format of the given file. Files without a RIFF header are treated as raw PCM.
+     * @param channel open file
+     * @param rawSampleRate sample rate of raw PCM files, which are assumed to be mono
+     * @return audio file
+     * @throws IOException if the file can't be read or its format is not supported
+     */
+    static AudioFile read(final FileChannel channel, final int rawSampleRate) throws IOException {
+        final long size = channel.size();
+        final ByteBuffer header = ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN);
+
+        if (!readFully(channel, header, 0, RIFF_HEADER_SIZE)
+                || header.getInt(0) != 0x46464952 /* RIFF */ || header.getInt(8) != 0x45564157 /* WAVE */) {
+            return new AudioFile(rawSampleRate, 1, 0, size - size % 2);
+        }
+
+        int sampleRate = 0;
+        int channels = 0;
+        long position = RIFF_HEADER_SIZE;
+
+        while (readFully(channel, header, position, CHUNK_HEADER_SIZE)) {
+            final int id = header.getInt(0);
+            final long length = header.getInt(4) & 0xFFFFFFFFL;
+            final long body = position + CHUNK_HEADER_SIZE;
+
+            if (id == 0x20746d66 /* fmt */) {
+                if (length < 16 || !readFully(channel, header, body, 16))
+                    throw new IOException("Invalid WAV format chunk");
+
+                if (header.getShort(0) != FORMAT_PCM || header.getShort(14) != BITS_PER_SAMPLE)
+                    throw new IOException("Only 16 bit PCM WAV files are supported");
+
+                channels = header.getShort(2);
+                sampleRate = header.getInt(4);
+            } else if (id == 0x61746164 /* data */) {
+                if (sampleRate <= 0 || channels <= 0)
+                    throw new IOException("WAV data chunk before format chunk");
+
+                // the length of files which haven't been completed is not reliable
+                final long dataLength = Math.min(length, size - body);
+                return new AudioFile(sampleRate, channels, body, dataLength - dataLength % 2);
+            }
+
+            // chunks are word aligned
+            position = body + length + (length & 1);
+        }
+
+        throw new IOException("WAV data chunk not found");
+    }
+
+    private static boolean readFully(final FileChannel channel, final ByteBuffer buffer,
+                                     final long position, final int length) throws IOException {
+        buffer.clear();
+        buffer.limit(length);
+
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0)
+                return false;
+        }
+
+        return true;
+    }
+
+    static FileChannel open(final File file) throws IOException {
+        return new RandomAccessFile(file, "r").getChannel();
+    }
+}
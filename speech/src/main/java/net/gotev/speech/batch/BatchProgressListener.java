@@ -0,0 +1,14 @@
+package net.gotev.speech.batch;
+
+/**
+ * Receives the progress of a {@link BatchTranscriber}, on the main thread.
+ */
+public interface BatchProgressListener {
+
+    /**
+     * Invoked every time a file has been transcribed, successfully or not.
+     * @param result transcription of the file
+     * @param stats statistics of the batch, including the given result
+     */
+    void onBatchProgress(BatchResult result, BatchStats stats);
+}
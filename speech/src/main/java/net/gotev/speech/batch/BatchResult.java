@@ -0,0 +1,72 @@
+package net.gotev.speech.batch;
+
+import java.io.File;
+
+/**
+ * Transcription of an audio file processed by a {@link BatchTranscriber}.
+ */
+public class BatchResult {
+
+    /**
+     * Error code of the files transcribed successfully.
+     */
+    public static final int NO_ERROR = 0;
+
+    private final File mFile;
+    private final String mText;
+    private final int mErrorCode;
+    private final long mAudioDuration;
+    private final long mProcessingTime;
+
+    public BatchResult(final File file, final String text, final int errorCode,
+                       final long audioDuration, final long processingTime) {
+        mFile = file;
+        mText = text;
+        mErrorCode = errorCode;
+        mAudioDuration = audioDuration;
+        mProcessingTime = processingTime;
+    }
+
+    public File getFile() {
+        return mFile;
+    }
+
+    /**
+     * @return recognized text. In case of error, it contains the partial results recognized
+     * before the error, if any. It's never null
+     */
+    public String getText() {
+        return mText;
+    }
+
+    /**
+     * @return {@link #NO_ERROR} or one of the SpeechRecognizer ERROR_ constants
+     */
+    public int getErrorCode() {
+        return mErrorCode;
+    }
+
+    public boolean isSuccessful() {
+        return mErrorCode == NO_ERROR;
+    }
+
+    /**
+     * @return duration of the audio in milliseconds
+     */
+    public long getAudioDuration() {
+        return mAudioDuration;
+    }
+
+    /**
+     * @return milliseconds elapsed between the start of the transcription and its result
+     */
+    public long getProcessingTime() {
+        return mProcessingTime;
+    }
+
+    @Override
+    public String toString() {
+        return "BatchResult{file=" + mFile + ", errorCode=" + mErrorCode
+                + ", audioDuration=" + mAudioDuration + ", processingTime=" + mProcessingTime + "}";
+    }
+}
@@ -0,0 +1,113 @@
+package net.gotev.speech.batch;
+
+/**
+ * Snapshot of the progress and throughput of a {@link BatchTranscriber}.
+ * All the times are expressed in milliseconds.
+ */
+public class BatchStats {
+
+    private final int mSubmitted;
+    private final int mCompleted;
+    private final int mFailed;
+    private final int mCancelled;
+    private final long mAudioTime;
+    private final long mProcessingTime;
+    private final long mElapsedTime;
+
+    public BatchStats(final int submitted, final int completed, final int failed, final int cancelled,
+                      final long audioTime, final long processingTime, final long elapsedTime) {
+        mSubmitted = submitted;
+        mCompleted = completed;
+        mFailed = failed;
+        mCancelled = cancelled;
+        mAudioTime = audioTime;
+        mProcessingTime = processingTime;
+        mElapsedTime = elapsedTime;
+    }
+
+    /**
+     * @return number of files submitted
+     */
+    public int getSubmitted() {
+        return mSubmitted;
+    }
+
+    /**
+     * @return number of files transcribed successfully
+     */
+    public int getCompleted() {
+        return mCompleted;
+    }
+
+    /**
+     * @return number of files whose transcription failed
+     */
+    public int getFailed() {
+        return mFailed;
+    }
+
+    /**
+     * @return number of files cancelled before their transcription started
+     */
+    public int getCancelled() {
+        return mCancelled;
+    }
+
+    /**
+     * @return number of files still to transcribe, including the one in progress
+     */
+    public int getPending() {
+        return mSubmitted - mCompleted - mFailed - mCancelled;
+    }
+
+    /**
+     * @return fraction of the submitted files which have been processed, between 0 and 1
+     */
+    public float getProgress() {
+        return mSubmitted == 0 ? 1f : (float) (mSubmitted - getPending()) / mSubmitted;
+    }
+
+    /**
+     * @return total duration of the processed audio
+     */
+    public long getAudioTime() {
+        return mAudioTime;
+    }
+
+    /**
+     * @return sum of the processing times of the files
+     */
+    public long getProcessingTime() {
+        return mProcessingTime;
+    }
+
+    /**
+     * @return time elapsed since the first file started, including the time spent
+     * waiting for the speech recognizer
+     */
+    public long getElapsedTime() {
+        return mElapsedTime;
+    }
+
+    /**
+     * @return seconds of audio transcribed per second of processing. Values greater than 1
+     * mean faster than real time
+     */
+    public float getRealTimeFactor() {
+        return mProcessingTime == 0 ? 0 : (float) mAudioTime / mProcessingTime;
+    }
+
+    /**
+     * @return files processed per minute, since the first file started
+     */
+    public float getFilesPerMinute() {
+        return mElapsedTime == 0 ? 0 : (mCompleted + mFailed) * 60000f / mElapsedTime;
+    }
+
+    @Override
+    public String toString() {
+        return "BatchStats{submitted=" + mSubmitted + ", completed=" + mCompleted
+                + ", failed=" + mFailed + ", cancelled=" + mCancelled
+                + ", realTimeFactor=" + getRealTimeFactor() + ", filesPerMinute=" + getFilesPerMinute() + "}";
+    }
+}
@@ -0,0 +1,608 @@
+package net.gotev.speech.batch;
+
+import android.os.ParcelFileDescriptor;
+import android.os.SystemClock;
+import android.speech.SpeechRecognizer;
+
+import net.gotev.speech.ErrorSpeechDelegate;
+import net.gotev.speech.GoogleVoiceTypingDisabledException;
+import net.gotev.speech.Logger;
+import net.gotev.speech.MainThreadSpeechDelegate;
+import net.gotev.speech.RecognitionProfile;
+import net.gotev.speech.RecoveryAction;
+import net.gotev.speech.SharedHandler;
+import net.gotev.speech.SpeechRecognitionNotAvailable;
+import net.gotev.speech.engine.BaseSpeechRecognitionEngine;
+import net.gotev.speech.engine.RecognitionState;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Transcribes recorded audio files one after the other, streaming each one to the speech
+ * recognizer through a pipe, instead of recording the microphone.
+ * <p>
+ * The files can be 16 bit PCM WAV files, like the ones written by
+ * {@link net.gotev.speech.audio.AudioFileSink}, or raw 16 bit mono PCM files. They are read
+ * on a background thread, while the sessions run on the main thread and the speech recognizer
+ * is kept bound between them. Each file is transcribed by a segmented session, so pauses in
+ * the audio don't end it: the text of the segments is collected until the end of the file.
+ * When the engine is busy with a live session, the batch waits for it to end.
+ * <p>
+ * Every file gets a {@link Future}, and the progress is notified to a
+ * {@link BatchProgressListener}. Don't wait for the futures on the main thread, since that's
+ * where the results are delivered. It requires Android 13 (API 33) or newer.
+ */
+public class BatchTranscriber {
+
+    private static final String LOG_TAG = BatchTranscriber.class.getSimpleName();
+
+    private static final long BUSY_RETRY_DELAY = 250;
+
+    private static final Platform ANDROID = new Platform() {
+        @Override
+        public void post(final Runnable runnable, final long delayMillis) {
+            SharedHandler.get().postDelayed(runnable, delayMillis);
+        }
+
+        @Override
+        public long elapsedRealtime() {
+            return SystemClock.elapsedRealtime();
+        }
+
+        @Override
+        public AudioPipe createPipe() throws IOException {
+            final ParcelFileDescriptor[] pipe = ParcelFileDescriptor.createPipe();
+            final WritableByteChannel writeSide =
+                    new ParcelFileDescriptor.AutoCloseOutputStream(pipe[1]).getChannel();
+
+            return new AudioPipe() {
+                @Override
+                public ParcelFileDescriptor getReadSide() {
+                    return pipe[0];
+                }
+
+                @Override
+                public WritableByteChannel getWriteSide() {
+                    return writeSide;
+                }
+
+                @Override
+                public void closeReadSide() throws IOException {
+                    pipe[0].close();
+                }
+            };
+        }
+    };
+
+    private final BaseSpeechRecognitionEngine mEngine;
+    private final Platform mPlatform;
+    private final RecognitionProfile mProfile;
+    private final int mRawSampleRate;
+    private volatile BatchProgressListener mListener;
+
+    // guarded by mPending
+    private final ArrayDeque<Item> mPending = new ArrayDeque<>();
+    private int mSubmitted;
+    private int mCompleted;
+    private int mFailed;
+    private int mCancelled;
+    private long mAudioTime;
+    private long mProcessingTime;
+    private long mFirstStartTimestamp;
+    private boolean mShutdown;
+
+    // accessed only on the main thread
+    private Item mCurrent;
+    private int mCurrentError = BatchResult.NO_ERROR;
+
+    private final LinkedBlockingQueue<Item> mStreamQueue = new LinkedBlockingQueue<>();
+    private final Item mCloseStreamer = new Item(null);
+
+    private final Runnable mScheduleRunnable = new Runnable() {
+        @Override
+        public void run() {
+            startNext();
+        }
+    };
+
+    private final SessionDelegate mDelegate = new SessionDelegate();
+
+    /**
+     * Creates a batch transcriber with the dictation profile, in which raw PCM files
+     * are sampled at 16KHz.
+     * @param engine speech recognition engine which transcribes the files
+     */
+    public BatchTranscriber(final BaseSpeechRecognitionEngine engine) {
+        this(engine, RecognitionProfile.DICTATION, 16000);
+    }
+
+    /**
+     * Creates a new batch transcriber.
+     * @param engine speech recognition engine which transcribes the files
+     * @param profile recognition profile of the sessions
+     * @param rawSampleRate sample rate of raw PCM files, which are assumed to be mono
+     */
+    public BatchTranscriber(final BaseSpeechRecognitionEngine engine, final RecognitionProfile profile,
+                            final int rawSampleRate) {
+        this(engine, profile, rawSampleRate, ANDROID);
+    }
+
+    BatchTranscriber(final BaseSpeechRecognitionEngine engine, final RecognitionProfile profile,
+                     final int rawSampleRate, final Platform platform) {
+        if (engine == null)
+            throw new IllegalArgumentException("engine must be defined!");
+
+        if (profile == null)
+            throw new IllegalArgumentException("profile must be defined!");
+
+        if (rawSampleRate <= 0)
+            throw new IllegalArgumentException("rawSampleRate must be > 0");
+
+        mEngine = engine;
+        mProfile = profile;
+        mRawSampleRate = rawSampleRate;
+        mPlatform = platform;
+
+        final Thread streamer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                streamLoop();
+            }
+        }, "speech-batch-streamer");
+        streamer.setDaemon(true);
+        streamer.start();
+    }
+
+    public void setProgressListener(final BatchProgressListener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Adds a file to the queue.
+     * @param file audio file
+     * @return future which completes with the transcription of the file
+     */
+    public Future<BatchResult> submit(final File file) {
+        return submit(Collections.singletonList(file)).get(0);
+    }
+
+    /**
+     * Adds files to the queue. They are transcribed in order.
+     * @param files audio files
+     * @return futures which complete with the transcription of each file, in the same order
+     */
+    public List<Future<BatchResult>> submit(final Collection<File> files) {
+        if (files == null)
+            throw new IllegalArgumentException("files must be defined!");
+
+        for (final File file : files) {
+            if (file == null)
+                throw new IllegalArgumentException("files must not contain null");
+        }
+
+        final ArrayList<Future<BatchResult>> futures = new ArrayList<>(files.size());
+
+        synchronized (mPending) {
+            if (mShutdown)
+                throw new IllegalStateException("batch transcriber has been shut down");
+
+            for (final File file : files) {
+                final Item item = new Item(file);
+                mPending.add(item);
+                futures.add(item);
+            }
+
+            mSubmitted += futures.size();
+        }
+
+        mPlatform.post(mScheduleRunnable, 0);
+        return futures;
+    }
+
+    /**
+     * @return snapshot of the progress and throughput of the batch
+     */
+    public BatchStats getStats() {
+        synchronized (mPending) {
+            final long elapsed = mFirstStartTimestamp == 0 ? 0
+                    : mPlatform.elapsedRealtime() - mFirstStartTimestamp;
+
+            return new BatchStats(mSubmitted, mCompleted, mFailed, mCancelled,
+                    mAudioTime, mProcessingTime, elapsed);
+        }
+    }
+
+    /**
+     * Cancels the files which have not been started yet and stops the background thread.
+     * The file in progress is completed.
+     */
+    public void shutdown() {
+        final ArrayList<Item> pending;
+
+        synchronized (mPending) {
+            mShutdown = true;
+            pending = new ArrayList<>(mPending);
+        }
+
+        for (final Item item : pending) {
+            item.cancel(false);
+        }
+
+        mStreamQueue.offer(mCloseStreamer);
+    }
+
+    /**
+     * Starts the next file, if there isn't one in progress. Main thread only.
+     */
+    private void startNext() {
+        if (mCurrent != null)
+            return;
+
+        Item item;
+
+        synchronized (mPending) {
+            do {
+                item = mPending.poll();
+            } while (item != null && item.isCancelled());
+
+            if (item == null)
+                return;
+
+            // from now on the item can't be cancelled
+            item.mStarted = true;
+
+            if (mFirstStartTimestamp == 0)
+                mFirstStartTimestamp = mPlatform.elapsedRealtime();
+        }
+
+        mCurrent = item;
+        mCurrentError = BatchResult.NO_ERROR;
+        item.mStartTimestamp = mPlatform.elapsedRealtime();
+        mStreamQueue.offer(item);
+    }
+
+    /**
+     * Starts the recognition session of the given item, once its audio is ready to be
+     * streamed. Main thread only.
+     */
+    private void startSession(final Item item) {
+        if (mCurrent != item || item.isDone())
+            return;
+
+        // a live session is in progress
+        if (mEngine.getState() != RecognitionState.IDLE) {
+            mPlatform.post(new Runnable() {
+                @Override
+                public void run() {
+                    startSession(item);
+                }
+            }, BUSY_RETRY_DELAY);
+            return;
+        }
+
+        try {
+            item.mSessionStarted = true;
+            mEngine.startListening(item.mPipe.getReadSide(), item.mAudio.sampleRate, item.mAudio.channels,
+                    mDelegate, mProfile);
+        } catch (final SpeechRecognitionNotAvailable | GoogleVoiceTypingDisabledException exc) {
+            Logger.error(LOG_TAG, "Unable to transcribe " + item.mFile, exc);
+            complete(item, "", SpeechRecognizer.ERROR_CLIENT);
+            return;
+        }
+
+        if (mCurrent == item && mEngine.getState() == RecognitionState.IDLE)
+            complete(item, "", SpeechRecognizer.ERROR_CLIENT);
+    }
+
+    /**
+     * Completes the given item and starts the next one. Main thread only.
+     */
+    private void complete(final Item item, final String text, final int errorCode) {
+        if (mCurrent != item)
+            return;
+
+        mCurrent = null;
+        item.closeReadSide();
+
+        final long audioDuration = item.mAudio == null ? 0 : item.mAudio.getDurationMillis();
+        final long processingTime = mPlatform.elapsedRealtime() - item.mStartTimestamp;
+        final BatchResult result = new BatchResult(item.mFile, text == null ? "" : text,
+                errorCode, audioDuration, processingTime);
+
+        final BatchStats stats;
+
+        synchronized (mPending) {
+            if (result.isSuccessful()) {
+                mCompleted++;
+            } else {
+                mFailed++;
+            }
+
+            mAudioTime += audioDuration;
+            mProcessingTime += processingTime;
+        }
+
+        item.set(result);
+        stats = getStats();
+
+        final BatchProgressListener listener = mListener;
+
+        try {
+            if (listener != null)
+                listener.onBatchProgress(result, stats);
+        } catch (final Throwable exc) {
+            Logger.error(LOG_TAG, "Unhandled exception in listener onBatchProgress", exc);
+        }
+
+        startNext();
+    }
+
+    private void streamLoop() {
+        while (true) {
+            final Item item;
+
+            try {
+                item = mStreamQueue.take();
+            } catch (final InterruptedException exc) {
+                return;
+            }
+
+            if (item == mCloseStreamer)
+                return;
+
+            stream(item);
+        }
+    }
+
+    /**
+     * Opens the audio file of the given item and writes its samples into a pipe, which is
+     * read by the speech recognizer. Writing blocks until the recognizer reads, so it's done
+     * on the streamer thread.
+     */
+    private void stream(final Item item) {
+        try (FileChannel channel = AudioFile.open(item.mFile)) {
+            item.mAudio = AudioFile.read(channel, mRawSampleRate);
+            item.mPipe = mPlatform.createPipe();
+
+            mPlatform.post(new Runnable() {
+                @Override
+                public void run() {
+                    startSession(item);
+                }
+            }, 0);
+
+            try (WritableByteChannel pipeChannel = item.mPipe.getWriteSide()) {
+                long position = item.mAudio.dataOffset;
+                final long end = position + item.mAudio.dataLength;
+
+                while (position < end) {
+                    position += channel.transferTo(position, end - position, pipeChannel);
+                }
+            } catch (final IOException exc) {
+                // the recognizer stopped reading, e.g. because of an error
+                Logger.debug(LOG_TAG, "Stopped streaming " + item.mFile + ": " + exc.getMessage());
+            }
+        } catch (final IOException exc) {
+            Logger.error(LOG_TAG, "Unable to read " + item.mFile, exc);
+
+            mPlatform.post(new Runnable() {
+                @Override
+                public void run() {
+                    complete(item, "", SpeechRecognizer.ERROR_AUDIO);
+                }
+            }, 0);
+        }
+    }
+
+    /**
+     * Delegate of the sessions, which must be called on the main thread.
+     */
+    private final class SessionDelegate implements ErrorSpeechDelegate, MainThreadSpeechDelegate {
+        @Override
+        public void onStartOfSpeech() {
+        }
+
+        @Override
+        public void onSpeechRmsChanged(final float value) {
+        }
+
+        @Override
+        public void onSpeechPartialResults(final List<String> results) {
+        }
+
+        @Override
+        public void onSpeechResult(final String result) {
+            final Item item = mCurrent;
+
+            if (item == null || !item.mSessionStarted)
+                return;
+
+            item.appendText(result);
+
+            // the results of the segments are followed by the last one, delivered once
+            // the engine has ended the session
+            if (!mEngine.isListening())
+                complete(item, item.mText.toString(), mCurrentError);
+        }
+
+        @Override
+        public void onSpeechError(final int code, final RecoveryAction action) {
+            mCurrentError = code;
+        }
+    }
+
+    /**
+     * File in the queue and its future.
+     */
+    private final class Item implements Future<BatchResult> {
+        private final File mFile;
+
+        // written by the streamer thread before posting the session start
+        private volatile AudioFile mAudio;
+        private volatile AudioPipe mPipe;
+
+        // accessed only on the main thread
+        private long mStartTimestamp;
+        private boolean mSessionStarted;
+        private final StringBuilder mText = new StringBuilder();
+
+        // guarded by mPending
+        private boolean mStarted;
+
+        // guarded by this
+        private BatchResult mResult;
+        private boolean mCancelled;
+
+        Item(final File file) {
+            mFile = file;
+        }
+
+        void appendText(final String text) {
+            if (text == null || text.trim().isEmpty())
+                return;
+
+            if (mText.length() > 0)
+                mText.append(' ');
+
+            mText.append(text.trim());
+        }
+
+        void closeReadSide() {
+            final AudioPipe pipe = mPipe;
+
+            if (pipe == null)
+                return;
+
+            mPipe = null;
+
+            try {
+                pipe.closeReadSide();
+            } catch (final IOException exc) {
+                Logger.error(LOG_TAG, "Unable to close the audio pipe", exc);
+            }
+        }
+
+        synchronized void set(final BatchResult result) {
+            mResult = result;
+            notifyAll();
+        }
+
+        @Override
+        public boolean cancel(final boolean mayInterruptIfRunning) {
+            synchronized (mPending) {
+                if (mStarted || isCancelled())
+                    return false;
+
+                mPending.remove(this);
+                BatchTranscriber.this.mCancelled++;
+            }
+
+            synchronized (this) {
+                mCancelled = true;
+                notifyAll();
+            }
+
+            return true;
+        }
+
+        @Override
+        public synchronized boolean isCancelled() {
+            return mCancelled;
+        }
+
+        @Override
+        public synchronized boolean isDone() {
+            return mResult != null || mCancelled;
+        }
+
+        @Override
+        public synchronized BatchResult get() throws InterruptedException {
+            while (!isDone()) {
+                wait();
+            }
+
+            return getDoneResult();
+        }
+
+        @Override
+        public synchronized BatchResult get(final long timeout, final TimeUnit unit)
+                throws InterruptedException, TimeoutException {
+            final long deadline = mPlatform.elapsedRealtime() + unit.toMillis(timeout);
+
+            while (!isDone()) {
+                final long remaining = deadline - mPlatform.elapsedRealtime();
+
+                if (remaining <= 0)
+                    throw new TimeoutException();
+
+                wait(remaining);
+            }
+
+            return getDoneResult();
+        }
+
+        private BatchResult getDoneResult() {
+            if (mCancelled)
+                throw new CancellationException();
+
+            return mResult;
+        }
+    }
+
+    /**
+     * Main thread, clock and audio pipes used by the transcriber, which the tests replace
+     * with plain JVM ones.
+     */
+    interface Platform {
+
+        /**
+         * Runs the given runnable on the main thread.
+         * @param runnable runnable to run
+         * @param delayMillis delay in milliseconds
+         */
+        void post(Runnable runnable, long delayMillis);
+
+        /**
+         * @return milliseconds since boot
+         */
+        long elapsedRealtime();
+
+        /**
+         * Creates the pipe through which a file is streamed to the recognizer.
+         * @return new pipe
+         * @throws IOException if the pipe can't be created
+         */
+        AudioPipe createPipe() throws IOException;
+    }
+
+    /**
+     * Pipe through which a file is streamed to the recognizer.
+     */
+    interface AudioPipe {
+
+        /**
+         * @return read side, passed to the recognizer
+         */
+        ParcelFileDescriptor getReadSide();
+
+        /**
+         * @return write side, which is closed at the end of the file
+         */
+        WritableByteChannel getWriteSide();
+
+        void closeReadSide() throws IOException;
+    }
+}
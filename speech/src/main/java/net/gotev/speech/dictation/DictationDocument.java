@@ -0,0 +1,492 @@
+package net.gotev.speech.dictation;
+
+import java.io.IOException;
+import java.nio.CharBuffer;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Text document which collects the results of consecutive speech recognition sessions,
+ * for long-form dictation.
+ * <p>
+ * The text is stored in a rope: a treap of character chunks ordered by position, in which
+ * every node knows the length of its subtree. Inserting, deleting and reading a character
+ * at any offset take O(log n), and appending to the end fills the last chunk in place, so
+ * hours of dictation don't require reallocating or copying the whole text. Deleting the end of
+ * the text truncates the last chunks in place, so replacing the provisional text doesn't
+ * allocate new chunks as long as the new text fits in the last one.
+ * <p>
+ * The end of the document may hold provisional text, which shows the partial results of the
+ * current session and gets replaced by the final results. Every change is notified to the
+ * registered {@link DocumentChangeListener}s. This class is thread safe.
+ */
+public class DictationDocument implements CharSequence {
+
+    private static final int CHUNK_SIZE = 1024;
+
+    private static final class Node {
+        char[] chars;
+        int length;
+        int size;
+        final int priority;
+        Node left;
+        Node right;
+
+        Node(final char[] chars, final int length, final int priority) {
+            this.chars = chars;
+            this.length = length;
+            this.size = length;
+            this.priority = priority;
+        }
+    }
+
+    private final CopyOnWriteArrayList<DocumentChangeListener> mListeners = new CopyOnWriteArrayList<>();
+
+    private Node mRoot;
+    private int mSeed = 0x2545F491;
+    private int mCommittedLength;
+    private long mRevision;
+
+    // split and merge results, to avoid allocating pairs
+    private Node mSplitLeft;
+    private Node mSplitRight;
+
+    public void addChangeListener(final DocumentChangeListener listener) {
+        mListeners.addIfAbsent(listener);
+    }
+
+    public void removeChangeListener(final DocumentChangeListener listener) {
+        mListeners.remove(listener);
+    }
+
+    @Override
+    public synchronized int length() {
+        return size(mRoot);
+    }
+
+    /**
+     * @return number of characters at the beginning of the document which are not provisional
+     */
+    public synchronized int getCommittedLength() {
+        return mCommittedLength;
+    }
+
+    /**
+     * @return revision of the document, which increases at every change
+     */
+    public synchronized long getRevision() {
+        return mRevision;
+    }
+
+    @Override
+    public synchronized char charAt(int index) {
+        if (index < 0 || index >= size(mRoot))
+            throw new IndexOutOfBoundsException("index: " + index + ", length: " + size(mRoot));
+
+        Node node = mRoot;
+
+        while (true) {
+            final int leftSize = size(node.left);
+
+            if (index < leftSize) {
+                node = node.left;
+            } else if (index < leftSize + node.length) {
+                return node.chars[index - leftSize];
+            } else {
+                index -= leftSize + node.length;
+                node = node.right;
+            }
+        }
+    }
+
+    @Override
+    public synchronized String subSequence(final int start, final int end) {
+        if (start < 0 || end > size(mRoot) || start > end)
+            throw new IndexOutOfBoundsException("start: " + start + ", end: " + end);
+
+        return build(start, end);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return build(0, size(mRoot));
+    }
+
+    private String build(final int start, final int end) {
+        final StringBuilder builder = new StringBuilder(end - start);
+
+        try {
+            appendRange(mRoot, start, end, builder);
+        } catch (final IOException exc) {
+            // StringBuilder doesn't throw
+            throw new IllegalStateException(exc);
+        }
+
+        return builder.toString();
+    }
+
+    /**
+     * Writes the whole document, chunk by chunk, without building a single string.
+     * @param out destination
+     * @throws IOException if the destination can't be written
+     */
+    public synchronized void writeTo(final Appendable out) throws IOException {
+        appendRange(mRoot, 0, size(mRoot), out);
+    }
+
+    /**
+     * Appends committed text, before the provisional text if there is any.
+     * @param text text to append
+     */
+    public void append(final CharSequence text) {
+        final DocumentChange change;
+
+        synchronized (this) {
+            final int offset = mCommittedLength;
+            insertText(offset, text);
+            mCommittedLength += text.length();
+            change = newChange(offset, 0, text, false);
+        }
+
+        notifyChange(change);
+    }
+
+    /**
+     * Inserts text at the given offset.
+     * @param offset offset at which to insert the text
+     * @param text text to insert
+     */
+    public void insert(final int offset, final CharSequence text) {
+        replace(offset, 0, text);
+    }
+
+    /**
+     * Deletes characters.
+     * @param offset offset of the first character to delete
+     * @param length number of characters to delete
+     */
+    public void delete(final int offset, final int length) {
+        replace(offset, length, "");
+    }
+
+    /**
+     * Replaces characters with the given text.
+     * @param offset offset of the first character to replace
+     * @param length number of characters to replace
+     * @param text replacement text
+     */
+    public void replace(final int offset, final int length, final CharSequence text) {
+        final DocumentChange change;
+
+        synchronized (this) {
+            if (offset < 0 || length < 0 || offset + length > size(mRoot))
+                throw new IndexOutOfBoundsException("offset: " + offset + ", length: " + length);
+
+            deleteText(offset, length);
+            insertText(offset, text);
+
+            // edits of the committed text shift the provisional text
+            if (offset < mCommittedLength) {
+                final int committedEnd = Math.min(mCommittedLength, offset + length);
+                mCommittedLength += text.length() - (committedEnd - offset);
+            }
+
+            change = newChange(offset, length, text, offset >= mCommittedLength);
+        }
+
+        notifyChange(change);
+    }
+
+    /**
+     * Replaces the provisional text at the end of the document. A space is put between
+     * the committed text and the provisional text, if needed.
+     * @param text new provisional text, or null to remove it
+     */
+    public void setProvisional(final CharSequence text) {
+        final DocumentChange change;
+
+        synchronized (this) {
+            change = replaceProvisional(text, true);
+        }
+
+        if (change != null)
+            notifyChange(change);
+    }
+
+    /**
+     * Replaces the provisional text with the given final text and commits it.
+     * A space is put between the previously committed text and the final text, if needed.
+     * @param text final text, or null to just remove the provisional text
+     */
+    public void commitProvisional(final CharSequence text) {
+        final DocumentChange change;
+
+        synchronized (this) {
+            change = replaceProvisional(text, false);
+            mCommittedLength = size(mRoot);
+        }
+
+        if (change != null)
+            notifyChange(change);
+    }
+
+    /**
+     * Removes all the text.
+     */
+    public void clear() {
+        final DocumentChange change;
+
+        synchronized (this) {
+            final int length = size(mRoot);
+            mRoot = null;
+            mCommittedLength = 0;
+            change = newChange(0, length, "", false);
+        }
+
+        notifyChange(change);
+    }
+
+    private DocumentChange replaceProvisional(final CharSequence text, final boolean provisional) {
+        final int length = size(mRoot);
+        final int removed = length - mCommittedLength;
+
+        CharSequence inserted = text == null ? "" : text;
+
+        if (inserted.length() > 0 && mCommittedLength > 0
+                && !Character.isWhitespace(charAt(mCommittedLength - 1))
+                && !Character.isWhitespace(inserted.charAt(0))) {
+            inserted = new StringBuilder(inserted.length() + 1).append(' ').append(inserted);
+        }
+
+        if (removed == 0 && inserted.length() == 0)
+            return null;
+
+        if (removed == inserted.length() && removed > 0 && contentEquals(mCommittedLength, inserted))
+            return provisional ? null : newChange(mCommittedLength, 0, "", false);
+
+        deleteText(mCommittedLength, removed);
+        insertText(mCommittedLength, inserted);
+        return newChange(mCommittedLength, removed, inserted, provisional);
+    }
+
+    private boolean contentEquals(final int offset, final CharSequence text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (charAt(offset + i) != text.charAt(i))
+                return false;
+        }
+
+        return true;
+    }
+
+    private DocumentChange newChange(final int offset, final int removed, final CharSequence text,
+                                     final boolean provisional) {
+        mRevision++;
+        return new DocumentChange(mRevision, offset, removed, text.toString(), provisional);
+    }
+
+    private void notifyChange(final DocumentChange change) {
+        for (final DocumentChangeListener listener : mListeners) {
+            listener.onDocumentChanged(this, change);
+        }
+    }
+
+    private void insertText(final int offset, final CharSequence text) {
+        final int length = text.length();
+
+        if (length == 0)
+            return;
+
+        if (offset == size(mRoot) && appendInPlace(text))
+            return;
+
+        // only the chunks at the end of the document get spare room for appending
+        final boolean atEnd = offset == size(mRoot);
+
+        Node inserted = null;
+        for (int start = 0; start < length; start += CHUNK_SIZE) {
+            final int end = Math.min(length, start + CHUNK_SIZE);
+            final char[] chars = new char[atEnd ? CHUNK_SIZE : end - start];
+
+            for (int i = start; i < end; i++) {
+                chars[i - start] = text.charAt(i);
+            }
+
+            inserted = merge(inserted, new Node(chars, end - start, nextPriority()));
+        }
+
+        split(mRoot, offset);
+        final Node right = mSplitRight;
+        mRoot = merge(merge(mSplitLeft, inserted), right);
+    }
+
+    /**
+     * Appends the text in the free space of the last chunk, updating the sizes along
+     * the right spine of the tree.
+     * @return false if the text doesn't fit in the last chunk
+     */
+    private boolean appendInPlace(final CharSequence text) {
+        if (mRoot == null)
+            return false;
+
+        Node last = mRoot;
+        while (last.right != null) {
+            last = last.right;
+        }
+
+        final int length = text.length();
+
+        if (last.chars.length - last.length < length)
+            return false;
+
+        for (int i = 0; i < length; i++) {
+            last.chars[last.length + i] = text.charAt(i);
+        }
+
+        last.length += length;
+
+        for (Node node = mRoot; node != null; node = node.right) {
+            node.size += length;
+        }
+
+        return true;
+    }
+
+    private void deleteText(final int offset, final int length) {
+        if (length == 0)
+            return;
+
+        if (offset + length == size(mRoot)) {
+            mRoot = truncate(mRoot, offset);
+            return;
+        }
+
+        split(mRoot, offset);
+        final Node left = mSplitLeft;
+        split(mSplitRight, length);
+        mRoot = merge(left, mSplitRight);
+    }
+
+    /**
+     * Drops the characters from the given offset to the end, shortening the chunk which
+     * contains the offset in place, so it stays the last chunk and keeps its spare room.
+     * @return new root of the subtree
+     */
+    private Node truncate(final Node node, final int offset) {
+        if (node == null)
+            return null;
+
+        final int leftSize = size(node.left);
+
+        if (offset <= leftSize)
+            return truncate(node.left, offset);
+
+        if (offset < leftSize + node.length) {
+            node.length = offset - leftSize;
+            node.right = null;
+        } else {
+            node.right = truncate(node.right, offset - leftSize - node.length);
+        }
+
+        update(node);
+        return node;
+    }
+
+    /**
+     * Splits the tree so that the first offset characters are in {@link #mSplitLeft}
+     * and the others in {@link #mSplitRight}. A chunk containing the offset is split in two.
+     */
+    private void split(final Node node, final int offset) {
+        if (node == null) {
+            mSplitLeft = null;
+            mSplitRight = null;
+            return;
+        }
+
+        final int leftSize = size(node.left);
+
+        if (offset <= leftSize) {
+            split(node.left, offset);
+            node.left = mSplitRight;
+            update(node);
+            mSplitRight = node;
+        } else if (offset >= leftSize + node.length) {
+            split(node.right, offset - leftSize - node.length);
+            node.right = mSplitLeft;
+            update(node);
+            mSplitLeft = node;
+        } else {
+            // the left part keeps the chunk array, so it can still be appended in place
+            final int cut = offset - leftSize;
+            final char[] tail = new char[node.length - cut];
+            System.arraycopy(node.chars, cut, tail, 0, node.length - cut);
+
+            // same priority of the original node, which is higher than its right subtree
+            final Node right = new Node(tail, node.length - cut, node.priority);
+            right.right = node.right;
+            update(right);
+
+            node.length = cut;
+            node.right = null;
+            update(node);
+
+            mSplitLeft = node;
+            mSplitRight = right;
+        }
+    }
+
+    private Node merge(final Node left, final Node right) {
+        if (left == null)
+            return right;
+
+        if (right == null)
+            return left;
+
+        if (left.priority > right.priority) {
+            left.right = merge(left.right, right);
+            update(left);
+            return left;
+        }
+
+        right.left = merge(left, right.left);
+        update(right);
+        return right;
+    }
+
+    private void appendRange(final Node node, final int start, final int end,
+                             final Appendable out) throws IOException {
+        if (node == null || start >= end)
+            return;
+
+        final int leftSize = size(node.left);
+
+        if (start < leftSize)
+            appendRange(node.left, start, Math.min(end, leftSize), out);
+
+        final int chunkStart = Math.max(start - leftSize, 0);
+        final int chunkEnd = Math.min(end - leftSize, node.length);
+
+        if (chunkStart < chunkEnd)
+            out.append(CharBuffer.wrap(node.chars, chunkStart, chunkEnd - chunkStart));
+
+        final int rightStart = leftSize + node.length;
+        if (end > rightStart)
+            appendRange(node.right, Math.max(start - rightStart, 0), end - rightStart, out);
+    }
+
+    private int nextPriority() {
+        // xorshift, good enough to keep the treap balanced
+        int x = mSeed;
+        x ^= x << 13;
+        x ^= x >>> 17;
+        x ^= x << 5;
+        mSeed = x;
+        return x;
+    }
+
+    private static int size(final Node node) {
+        return node == null ? 0 : node.size;
+    }
+
+    private static void update(final Node node) {
+        node.size = size(node.left) + node.length + size(node.right);
+    }
+}
@@ -0,0 +1,68 @@
+package net.gotev.speech.dictation;
+
+/**
+ * Describes an edit of a {@link DictationDocument}: the characters from {@link #getOffset()}
+ * to {@link #getOffset()} + {@link #getRemovedLength()} have been replaced by
+ * {@link #getInsertedText()}. Applying the changes in revision order to a copy of the
+ * document keeps it in sync.
+ */
+public class DocumentChange {
+
+    private final long mRevision;
+    private final int mOffset;
+    private final int mRemovedLength;
+    private final String mInsertedText;
+    private final boolean mProvisional;
+
+    public DocumentChange(final long revision, final int offset, final int removedLength,
+                          final String insertedText, final boolean provisional) {
+        mRevision = revision;
+        mOffset = offset;
+        mRemovedLength = removedLength;
+        mInsertedText = insertedText;
+        mProvisional = provisional;
+    }
+
+    /**
+     * @return revision of the document after this change
+     */
+    public long getRevision() {
+        return mRevision;
+    }
+
+    /**
+     * @return offset of the first changed character
+     */
+    public int getOffset() {
+        return mOffset;
+    }
+
+    /**
+     * @return number of removed characters
+     */
+    public int getRemovedLength() {
+        return mRemovedLength;
+    }
+
+    /**
+     * @return inserted text. This is ensured to be non null.
+     */
+    public String getInsertedText() {
+        return mInsertedText;
+    }
+
+    /**
+     * @return true if the change affects only the provisional text at the end of the document,
+     * which may still be replaced by the speech recognizer
+     */
+    public boolean isProvisional() {
+        return mProvisional;
+    }
+
+    @Override
+    public String toString() {
+        return "DocumentChange{revision=" + mRevision + ", offset=" + mOffset
+                + ", removed=" + mRemovedLength + ", inserted='" + mInsertedText
+                + "', provisional=" + mProvisional + "}";
+    }
+}
@@ -0,0 +1,14 @@
+package net.gotev.speech.dictation;
+
+/**
+ * Receives the incremental changes of a {@link DictationDocument}.
+ */
+public interface DocumentChangeListener {
+
+    /**
+     * Invoked after every change, on the thread which performed it.
+     * @param document changed document
+     * @param change change description
+     */
+    void onDocumentChanged(DictationDocument document, DocumentChange change);
+}
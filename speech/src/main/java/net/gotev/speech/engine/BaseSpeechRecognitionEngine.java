@@ -1,50 +1,157 @@
 package net.gotev.speech.engine;
 
+import android.annotation.SuppressLint;
+import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
+import android.media.AudioFormat;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
+import android.os.SystemClock;
 import android.speech.RecognizerIntent;
 import android.speech.SpeechRecognizer;
 import android.widget.LinearLayout;
 
+import net.gotev.speech.CommandMatch;
+import net.gotev.speech.CommandSpeechDelegate;
+import net.gotev.speech.CommitSpeechDelegate;
+import net.gotev.speech.DebouncedSpeechDelegate;
 import net.gotev.speech.DelayedOperation;
+import net.gotev.speech.DeltaSpeechDelegate;
+import net.gotev.speech.ErrorSpeechDelegate;
+import net.gotev.speech.SessionTimeout;
+import net.gotev.speech.SharedHandler;
+import net.gotev.speech.SpeechCapabilities;
 import net.gotev.speech.SpeechDelegate;
 import net.gotev.speech.GoogleVoiceTypingDisabledException;
+import net.gotev.speech.KeywordSpeechDelegate;
 import net.gotev.speech.SpeechRecognitionException;
 import net.gotev.speech.SpeechRecognitionNotAvailable;
 import net.gotev.speech.Logger;
+import net.gotev.speech.RecognitionProfile;
+import net.gotev.speech.RecoveryAction;
+import net.gotev.speech.RecoveryPolicy;
+import net.gotev.speech.SpeechMetrics;
+import net.gotev.speech.SpeechPartialDelta;
+import net.gotev.speech.TimeoutSpeechDelegate;
+import net.gotev.speech.audio.AudioTap;
+import net.gotev.speech.audio.PreRollListener;
+import net.gotev.speech.audio.PreRollRecorder;
+import net.gotev.speech.dictation.DictationDocument;
+import net.gotev.speech.journal.TranscriptJournal;
 import net.gotev.speech.ui.SpeechProgressView;
 
-import java.util.ArrayList;
-import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.Executor;
 
 public class BaseSpeechRecognitionEngine implements SpeechRecognitionEngine {
     private static final String LOG_TAG = BaseSpeechRecognitionEngine.class.getSimpleName();
 
+    private static final int PENDING_NONE = 0;
+    private static final int PENDING_START = 1;
+    private static final int PENDING_STOP = 2;
+
+    private static final int COMMAND_MAX_RESULTS = 5;
+
     private Context mContext;
 
     private SpeechRecognizer mSpeechRecognizer;
-    private SpeechDelegate mDelegate;
-    private SpeechProgressView mProgressView;
+    private volatile SpeechDelegate mDelegate;
+    private volatile SpeechProgressView mProgressView;
     private String mCallingPackage;
 
-    private String mUnstableData;
-
     private DelayedOperation mDelayedStopListening;
-    private final List<String> mPartialData = new ArrayList<>();
+    private final TranscriptBuffer mTranscript = new TranscriptBuffer();
     private List<String> mLastPartialResults = null;
+    private final PartialResultsDiffer mPartialResultsDiffer = new PartialResultsDiffer();
+    private StablePrefixTracker mStablePrefixTracker = new StablePrefixTracker();
+    // words committed in the previous segments of the session, since the tracker restarts
+    // at every segment
+    private int mCommittedWordOffset = 0;
+    private KeywordSpotter mKeywordSpotter;
+    private boolean mStopOnKeyword = false;
+    private CommandMatcher mCommandMatcher;
+    private float mCommandEarlyStopScore = 2f;
+    private String mLastMatchedPartial;
+    private String[] mHypotheses = new String[5];
+    private volatile DictationDocument mDictationDocument;
+    private volatile TranscriptJournal mJournal;
 
     private Locale mLocale = Locale.getDefault();
     private boolean mPreferOffline = false;
     private boolean mGetPartialResults = true;
-    private boolean mIsListening = false;
     private long mLastActionTimestamp;
     private long mStopListeningDelayInMs = 4000;
     private long mTransitionMinimumDelay = 1200;
 
+    private boolean mReuseRecognizer = false;
+    private boolean mRecognizerUsed = false;
+    private long mStartListeningTimestamp;
+    private final SpeechMetrics mMetrics = new SpeechMetrics();
+    private final DelegateDispatcher mDispatcher = new DelegateDispatcher();
+    private final RecognitionStateMachine mState = new RecognitionStateMachine();
+
+    private boolean mDebounceTransitions = false;
+    private int mPendingAction = PENDING_NONE;
+    private long mPendingActionTimestamp;
+    private SpeechProgressView mPendingProgressView;
+    private SpeechDelegate mPendingDelegate;
+    private RecognitionProfile mPendingProfile;
+    private boolean mContinuousListening = false;
+    private boolean mContinuousSessionActive = false;
+    private boolean mSegmentedSession = false;
+    private long mSessionEndTimestamp;
+    private EndpointDetector mEndpointDetector;
+    private RecognitionProfile mSessionProfile = RecognitionProfile.DEFAULT;
+    private final HashMap<RecognitionProfile, Intent> mRecognizerIntents = new HashMap<>();
+    private boolean mOnDeviceRecognition = false;
+    private boolean mUsingOnDeviceRecognizer = false;
+    private final OnDeviceModelCache mOnDeviceModels = new OnDeviceModelCache();
+    private RecognitionServiceSelector mServiceSelector;
+    private ComponentName mRecognitionService;
+    private volatile AudioTap mAudioTap;
+    private boolean mAudioTapSessionStarted = false;
+    private volatile PreRollRecorder mPreRollRecorder;
+    private boolean mPreRollSessionStarted = false;
+    private int mPreRollSessionId = 0;
+    private boolean mPreRollFallback = false;
+    private ParcelFileDescriptor mAudioSource;
+    private int mAudioSourceSampleRate;
+    private int mAudioSourceChannels;
+    private boolean mAudioSourceSession = false;
+    private long mPreparedListeningTimeout = 5000;
+    private DelayedOperation mPreparedListeningExpiry;
+    private boolean mPreparedListening = false;
+    private boolean mPreRollArmed = false;
+    private final ErrorRecovery mErrorRecovery = new ErrorRecovery();
+    private boolean mOfflineFallback = false;
+    private boolean mRetryScheduled = false;
+
+    private final SessionWatchdog mWatchdog = new SessionWatchdog(new SessionWatchdog.Listener() {
+        @Override
+        public void onSessionTimeout(final SessionTimeout timeout, final long elapsedMillis) {
+            onSessionStuck(timeout, elapsedMillis);
+        }
+    });
+
+    private final Runnable mRetryRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mRetryScheduled = false;
+            restartSession();
+        }
+    };
+
+    private final Runnable mPendingActionRunnable = new Runnable() {
+        @Override
+        public void run() {
+            executePendingAction();
+        }
+    };
+
     @Override
     public void init(Context context) {
         initDelayedStopListening(context);
@@ -52,21 +159,66 @@ public class BaseSpeechRecognitionEngine implements SpeechRecognitionEngine {
 
     @Override
     public void clear() {
-        mPartialData.clear();
-        mUnstableData = null;
+        mTranscript.clear();
+        mPartialResultsDiffer.reset();
+        mCommittedWordOffset += mStablePrefixTracker.getCommittedWords().size();
+        mStablePrefixTracker.reset();
+        mLastMatchedPartial = null;
+
+        if (mKeywordSpotter != null)
+            mKeywordSpotter.reset();
     }
 
     @Override
     public void onReadyForSpeech(final Bundle bundle) {
-        mPartialData.clear();
-        mUnstableData = null;
+        mState.compareAndSet(RecognitionState.STARTING, RecognitionState.READY);
+        mTranscript.clear();
+        mStablePrefixTracker.reset();
+        mCommittedWordOffset = 0;
+
+        if (mKeywordSpotter != null)
+            mKeywordSpotter.reset();
+
+        if (mWatchdog.complete(SessionTimeout.READY_FOR_SPEECH) >= 0)
+            mWatchdog.watch(SessionTimeout.FIRST_AUDIO);
+
+        if (mStartListeningTimestamp > 0) {
+            final long latency = SystemClock.elapsedRealtime() - mStartListeningTimestamp;
+            mMetrics.getReadyForSpeechLatency().record(latency);
+            mStartListeningTimestamp = 0;
+
+            if (mServiceSelector != null)
+                mServiceSelector.recordReadyForSpeech(mRecognitionService, latency);
+        }
+
+        if (mSessionEndTimestamp > 0) {
+            mMetrics.getSessionGap().record(SystemClock.elapsedRealtime() - mSessionEndTimestamp);
+            mSessionEndTimestamp = 0;
+        }
+
+        final PreRollRecorder preRollRecorder = mPreRollRecorder;
+        if (mPreRollSessionStarted && preRollRecorder != null) {
+            final long preRoll = preRollRecorder.markReady();
+            if (preRoll >= 0)
+                mMetrics.getPreRollDuration().record(preRoll);
+        }
     }
 
     @Override
     public void onBeginningOfSpeech() {
+        if (mWatchdog.getStage() == SessionTimeout.FIRST_AUDIO)
+            mMetrics.getFirstAudioLatency().record(mWatchdog.complete(SessionTimeout.FIRST_AUDIO));
+
+        if (!mState.compareAndSet(RecognitionState.READY, RecognitionState.SPEAKING))
+            mState.compareAndSet(RecognitionState.STARTING, RecognitionState.SPEAKING);
+
         if (mProgressView != null)
             mProgressView.onBeginningOfSpeech();
 
+        // segmented sessions are split by the recognizer on silence, so they don't time out
+        if (mSegmentedSession)
+            return;
+
         mDelayedStopListening.start(new DelayedOperation.Operation() {
             @Override
             public void onDelayedOperation() {
@@ -75,54 +227,223 @@ public class BaseSpeechRecognitionEngine implements SpeechRecognitionEngine {
 
             @Override
             public boolean shouldExecuteDelayedOperation() {
-                return true;
+                return mState.isListening();
             }
         });
     }
 
     @Override
     public void onRmsChanged(final float v) {
-        try {
-            if (mDelegate != null)
-                mDelegate.onSpeechRmsChanged(v);
-        } catch (final Throwable exc) {
-            Logger.error(getClass().getSimpleName(),
-                    "Unhandled exception in delegate onSpeechRmsChanged", exc);
-        }
+        if (mWatchdog.getStage() == SessionTimeout.FIRST_AUDIO)
+            mMetrics.getFirstAudioLatency().record(mWatchdog.complete(SessionTimeout.FIRST_AUDIO));
+
+        if (mDelegate != null)
+            mDispatcher.onSpeechRmsChanged(mDelegate, v);
 
         if (mProgressView != null)
             mProgressView.onRmsChanged(v);
+
+        detectEndpoint(v);
+    }
+
+    private void detectEndpoint(final float rmsDb) {
+        final EndpointDetector detector = mEndpointDetector;
+
+        if (detector == null || mSegmentedSession || !mState.isListening())
+            return;
+
+        if (detector.onRmsChanged(rmsDb, SystemClock.elapsedRealtime()) && !mTranscript.isEmpty()) {
+            Logger.debug(getClass().getSimpleName(), "End of utterance detected after "
+                    + detector.getTrailingSilence() + "ms of silence");
+            returnPartialResultsAndRecreateSpeechRecognizer();
+        }
     }
 
     @Override
     public void onPartialResults(final Bundle bundle) {
         mDelayedStopListening.resetTimer();
 
+        // the lists held by the bundle are returned without copying them
         final List<String> partialResults = bundle.getStringArrayList(SpeechRecognizer.RESULTS_RECOGNITION);
         final List<String> unstableData = bundle.getStringArrayList("android.speech.extra.UNSTABLE_TEXT");
 
         if (partialResults != null && !partialResults.isEmpty()) {
-            mPartialData.clear();
-            mPartialData.addAll(partialResults);
-            mUnstableData = unstableData != null && !unstableData.isEmpty()
-                    ? unstableData.get(0) : null;
-            try {
-                if (mLastPartialResults == null || !mLastPartialResults.equals(partialResults)) {
-                    if (mDelegate != null)
-                        mDelegate.onSpeechPartialResults(partialResults);
-                    mLastPartialResults = partialResults;
-                }
-            } catch (final Throwable exc) {
-                Logger.error(getClass().getSimpleName(),
-                        "Unhandled exception in delegate onSpeechPartialResults", exc);
+            mTranscript.setStable(partialResults);
+            mTranscript.setUnstable(unstableData != null && !unstableData.isEmpty()
+                    ? unstableData.get(0) : null);
+            if (!sameResults(mLastPartialResults, partialResults)) {
+                if (mDelegate != null)
+                    mDispatcher.onSpeechPartialResults(mDelegate, partialResults);
+                mLastPartialResults = partialResults;
             }
+
+            notifyPartialDelta();
+            notifyCommittedWords(unstableData != null && !unstableData.isEmpty()
+                    && unstableData.get(0) != null && !unstableData.get(0).isEmpty());
+            final DictationDocument document = mDictationDocument;
+            if (document != null)
+                document.setProvisional(mTranscript.getText());
+
+            final TranscriptJournal journal = mJournal;
+            if (journal != null)
+                journal.appendPartial(mTranscript.getText());
+
+            spotKeywords();
+            matchPartialCommand(partialResults.get(0));
         }
     }
 
+    /**
+     * Compares the results by index, since {@link List#equals(Object)} allocates iterators.
+     */
+    private static boolean sameResults(final List<String> previous, final List<String> current) {
+        if (previous == null || previous.size() != current.size())
+            return false;
+
+        for (int i = 0; i < current.size(); i++) {
+            final String result = current.get(i);
+
+            if (result == null ? previous.get(i) != null : !result.equals(previous.get(i)))
+                return false;
+        }
+
+        return true;
+    }
+
+    private void matchPartialCommand(final String partial) {
+        final CommandMatcher matcher = mCommandMatcher;
+
+        if (matcher == null || mCommandEarlyStopScore > 1 || partial == null
+                || partial.equals(mLastMatchedPartial) || !mState.isListening())
+            return;
+
+        mLastMatchedPartial = partial;
+
+        final CommandMatch match = matcher.match(partial);
+
+        if (match == null || match.getScore() < mCommandEarlyStopScore)
+            return;
+
+        Logger.debug(getClass().getSimpleName(), "Early command match " + match);
+        notifyCommand(match, true);
+        stopListeningEarly();
+    }
+
+    private void matchFinalCommand(final List<String> results, final float[] confidences) {
+        final CommandMatcher matcher = mCommandMatcher;
+
+        if (matcher == null || !(mDelegate instanceof CommandSpeechDelegate))
+            return;
+
+        CommandMatch match = null;
+
+        if (results != null && !results.isEmpty()) {
+            if (mHypotheses.length < results.size())
+                mHypotheses = new String[results.size()];
+
+            for (int i = 0; i < results.size(); i++) {
+                mHypotheses[i] = results.get(i);
+            }
+
+            match = matcher.match(mHypotheses, confidences, results.size());
+        } else if (!mTranscript.isEmpty()) {
+            match = matcher.match(getPartialResultsAsString());
+        }
+
+        notifyCommand(match, false);
+    }
+
+    private void notifyCommand(final CommandMatch match, final boolean early) {
+        if (mDelegate instanceof CommandSpeechDelegate)
+            mDispatcher.onSpeechCommand((CommandSpeechDelegate) mDelegate, match, early);
+    }
+
+    /**
+     * Ends the session delivering the partial results, because the recognized speech already
+     * contains what the app is waiting for. Continuous listening is stopped as well.
+     */
+    private void stopListeningEarly() {
+        if (!mState.isListening())
+            return;
+
+        mContinuousSessionActive = false;
+        cancelPendingAction(mPendingAction);
+        mDelayedStopListening.cancel();
+        updateLastActionTimestamp();
+        returnPartialResults(false);
+    }
+
+    private void spotKeywords() {
+        final KeywordSpotter spotter = mKeywordSpotter;
+
+        if (spotter == null || !mState.isListening())
+            return;
+
+        final List<String> keywords = spotter.scan(mTranscript.getText());
+
+        if (keywords.isEmpty())
+            return;
+
+        final SpeechDelegate delegate = mDelegate;
+
+        if (delegate instanceof KeywordSpeechDelegate) {
+            for (int i = 0; i < keywords.size(); i++) {
+                mDispatcher.onSpeechKeywordSpotted((KeywordSpeechDelegate) delegate, keywords.get(i));
+            }
+        }
+
+        if (mStopOnKeyword && mState.isListening()) {
+            Logger.debug(getClass().getSimpleName(), "Keyword spotted, stopping listening");
+            stopListeningEarly();
+        }
+    }
+
+    private void notifyCommittedWords(final boolean hasUnstable) {
+        final SpeechDelegate delegate = mDelegate;
+
+        if (!(delegate instanceof CommitSpeechDelegate))
+            return;
+
+        final int committed = mStablePrefixTracker.update(mTranscript.getStableText(), hasUnstable);
+
+        if (committed == 0)
+            return;
+
+        final List<String> words = mStablePrefixTracker.getCommittedWords();
+
+        for (int i = words.size() - committed; i < words.size(); i++) {
+            mDispatcher.onSpeechWordCommitted((CommitSpeechDelegate) delegate, words.get(i),
+                    mCommittedWordOffset + i);
+        }
+    }
+
+    private void notifyPartialDelta() {
+        final SpeechDelegate delegate = mDelegate;
+
+        if (!(delegate instanceof DeltaSpeechDelegate))
+            return;
+
+        final SpeechPartialDelta delta = mPartialResultsDiffer.diff(mTranscript.getText());
+
+        if (delta == null)
+            return;
+
+        mDispatcher.onSpeechPartialDelta((DeltaSpeechDelegate) delegate, delta);
+    }
+
     @Override
     public void onResults(final Bundle bundle) {
         mDelayedStopListening.cancel();
 
+        final long resultLatency = mWatchdog.complete(SessionTimeout.RESULT);
+        if (resultLatency >= 0)
+            mMetrics.getResultLatency().record(resultLatency);
+
+        if (!mState.transitionFromListening(RecognitionState.FINALIZING)) {
+            Logger.debug(getClass().getSimpleName(), "Ignoring results of an already finished session");
+            return;
+        }
+
         final List<String> results = bundle.getStringArrayList(SpeechRecognizer.RESULTS_RECOGNITION);
 
         final String result;
@@ -135,37 +456,215 @@ public class BaseSpeechRecognitionEngine implements SpeechRecognitionEngine {
             result = getPartialResultsAsString();
         }
 
-        mIsListening = false;
+        mErrorRecovery.onSuccess();
+        matchFinalCommand(results, bundle.getFloatArray(SpeechRecognizer.CONFIDENCE_SCORES));
+        deliverResultAndReset(result.trim(), false, false);
+    }
 
-        try {
-            if (mDelegate != null)
-                mDelegate.onSpeechResult(result.trim());
-        } catch (final Throwable exc) {
-            Logger.error(getClass().getSimpleName(),
-                    "Unhandled exception in delegate onSpeechResult", exc);
+    @Override
+    public void onSegmentResults(final Bundle bundle) {
+        if (!mState.isListening())
+            return;
+
+        final List<String> results = bundle.getStringArrayList(SpeechRecognizer.RESULTS_RECOGNITION);
+
+        final String result;
+
+        if (results != null && !results.isEmpty()
+                && results.get(0) != null && !results.get(0).isEmpty()) {
+            result = results.get(0);
+        } else {
+            result = getPartialResultsAsString();
         }
 
-        if (mProgressView != null)
-            mProgressView.onResultOrOnError();
+        mErrorRecovery.onSuccess();
+        clear();
+
+        final DictationDocument document = mDictationDocument;
+        if (document != null)
+            document.commitProvisional(result.trim());
+
+        final TranscriptJournal journal = mJournal;
+        if (journal != null)
+            journal.appendFinal(result.trim());
+
+        if (result.trim().isEmpty())
+            return;
+
+        if (mDelegate != null)
+            mDispatcher.onSpeechResult(mDelegate, result.trim());
+    }
+
+    @Override
+    public void onEndOfSegmentedSession() {
+        if (!mState.transitionFromListening(RecognitionState.FINALIZING))
+            return;
+
+        final String remaining = getPartialResultsAsString();
+
+        // the delegate of an audio source session is always told that the session ended
+        if (remaining.isEmpty() && !mAudioSourceSession) {
+            final SpeechProgressView progressView = mProgressView;
 
-        initSpeechRecognizer(mContext);
+            if (progressView != null)
+                progressView.onResultOrOnError();
+
+            markSessionEnd();
+            recycleOrResetSpeechRecognizer(false);
+            rearmContinuousSession();
+        } else {
+            deliverResultAndReset(remaining, false, false);
+        }
     }
 
     @Override
     public void onError(final int code) {
         Logger.error(LOG_TAG, "Speech recognition error", new SpeechRecognitionException(code));
-        returnPartialResultsAndRecreateSpeechRecognizer();
+        final boolean recoverable = isRecoverableError(code);
+
+        if (mServiceSelector != null && mState.isListening())
+            mServiceSelector.recordError(mRecognitionService, code);
+
+        if (mUsingOnDeviceRecognizer && (code == SpeechRecognizer.ERROR_LANGUAGE_NOT_SUPPORTED
+                || code == SpeechRecognizer.ERROR_LANGUAGE_UNAVAILABLE)) {
+            Logger.info(getClass().getSimpleName(), "On-device model not available for "
+                    + mLocale + ", falling back to network recognizer");
+            mOnDeviceModels.markUnsupported(mLocale);
+        }
+
+        if (!mState.isListening()) {
+            // late error of an already finished session, only the recognizer may need a recycle
+            returnPartialResults(!recoverable);
+            return;
+        }
+
+        // the audio of an external source can't be read again, so its sessions are not retried
+        RecoveryAction action = mAudioSourceSession ? RecoveryAction.DELIVER
+                : mErrorRecovery.onError(code, SystemClock.elapsedRealtime());
+
+        if (action == RecoveryAction.PREFER_OFFLINE_AND_RETRY && Build.VERSION.SDK_INT < Build.VERSION_CODES.M)
+            action = RecoveryAction.RETRY_WITH_BACKOFF;
+
+        Logger.debug(getClass().getSimpleName(), "Recovering from error " + code + " with " + action);
+
+        if (mDelegate instanceof ErrorSpeechDelegate)
+            mDispatcher.onSpeechError((ErrorSpeechDelegate) mDelegate, code, action);
+
+        if (action.isRetry()) {
+            retrySession(action, !recoverable);
+            return;
+        }
+
+        if (!recoverable || action == RecoveryAction.CIRCUIT_OPEN)
+            mContinuousSessionActive = false;
+
+        returnPartialResults(!recoverable);
+    }
+
+    /**
+     * Called by the session watchdog when the speech recognizer didn't call back in time.
+     * Delivers the partial results and recreates the speech recognizer.
+     */
+    private void onSessionStuck(final SessionTimeout timeout, final long elapsedMillis) {
+        if (!mState.isListening())
+            return;
+
+        Logger.error(getClass().getSimpleName(), "Session stuck waiting for " + timeout
+                + " for " + elapsedMillis + "ms, recycling speech recognizer");
+        mMetrics.recordSessionTimeout(timeout);
+
+        if (mDelegate instanceof TimeoutSpeechDelegate)
+            mDispatcher.onSpeechTimeout((TimeoutSpeechDelegate) mDelegate, timeout, elapsedMillis);
+
+        mDelayedStopListening.cancel();
+        returnPartialResults(true);
+    }
+
+    /**
+     * Ends the failed session without delivering results and starts it again,
+     * immediately or after the backoff delay, with the same delegate and profile.
+     * @param action retry action
+     * @param unrecoverable true to recreate the speech recognizer also in reuse mode
+     */
+    private void retrySession(final RecoveryAction action, final boolean unrecoverable) {
+        if (!mState.transitionFromListening(RecognitionState.FINALIZING))
+            return;
+
+        final SpeechProgressView progressView = mProgressView;
+
+        if (progressView != null)
+            progressView.onResultOrOnError();
+
+        mDelayedStopListening.cancel();
+        recycleOrResetSpeechRecognizer(unrecoverable);
+
+        if (action == RecoveryAction.PREFER_OFFLINE_AND_RETRY)
+            mOfflineFallback = true;
+
+        if (action == RecoveryAction.RETRY_WITH_BACKOFF) {
+            final long delay = mErrorRecovery.getBackoffDelay();
+            Logger.debug(getClass().getSimpleName(), "Retrying session in " + delay + "ms");
+            mRetryScheduled = true;
+            SharedHandler.get().postDelayed(mRetryRunnable, delay);
+        } else {
+            restartSession();
+        }
+    }
+
+    private void restartSession() {
+        if (mDelegate == null || !mState.compareAndSet(RecognitionState.IDLE, RecognitionState.STARTING))
+            return;
+
+        try {
+            startRecognizer();
+        } catch (final GoogleVoiceTypingDisabledException exc) {
+            Logger.error(getClass().getSimpleName(), "Unable to retry session", exc);
+        }
+
+        if (mState.get() == RecognitionState.IDLE) {
+            mContinuousSessionActive = false;
+            deliverAbandonedRetry();
+        } else {
+            updateLastActionTimestamp();
+        }
+    }
+
+    /**
+     * Cancels a scheduled retry, if any.
+     * @param deliver true to end the session delivering an empty result to the delegate
+     */
+    private void cancelScheduledRetry(final boolean deliver) {
+        if (!mRetryScheduled)
+            return;
+
+        SharedHandler.get().removeCallbacks(mRetryRunnable);
+        mRetryScheduled = false;
+
+        if (deliver)
+            deliverAbandonedRetry();
+    }
+
+    private void deliverAbandonedRetry() {
+        if (mDelegate != null)
+            mDispatcher.onSpeechResult(mDelegate, "");
     }
 
     @Override
     public void onBufferReceived(final byte[] bytes) {
+        final AudioTap audioTap = mAudioTap;
 
+        if (audioTap != null)
+            audioTap.write(bytes);
     }
 
     @Override
     public void onEndOfSpeech() {
         if (mProgressView != null)
             mProgressView.onEndOfSpeech();
+
+        // segmented sessions keep listening after the end of every segment
+        if (mState.isListening() && !mSegmentedSession)
+            mWatchdog.watch(SessionTimeout.RESULT);
     }
 
     @Override
@@ -175,21 +674,29 @@ public class BaseSpeechRecognitionEngine implements SpeechRecognitionEngine {
 
     @Override
     public String getPartialResultsAsString() {
-        final StringBuilder out = new StringBuilder("");
-
-        for (final String partial : mPartialData) {
-            out.append(partial).append(" ");
-        }
-
-        if (mUnstableData != null && !mUnstableData.isEmpty())
-            out.append(mUnstableData);
+        return mTranscript.toTrimmedString();
+    }
 
-        return out.toString().trim();
+    /**
+     * Gets the text recognized so far in the current session, without copying it.
+     * The returned view reflects the following partial results, so it must not be retained.
+     * @return view of the partial results text
+     */
+    public CharSequence getPartialResultsText() {
+        return mTranscript.getText();
     }
 
     @Override
     public void startListening(SpeechProgressView progressView, SpeechDelegate delegate) throws SpeechRecognitionNotAvailable, GoogleVoiceTypingDisabledException {
-        if (mIsListening) return;
+        startListening(progressView, delegate, RecognitionProfile.DEFAULT);
+    }
+
+    public void startListening(SpeechProgressView progressView, SpeechDelegate delegate, RecognitionProfile profile) throws SpeechRecognitionNotAvailable, GoogleVoiceTypingDisabledException {
+        if (mState.isListening()) {
+            // the latest intent is to keep listening, so a held stop request is obsolete
+            cancelPendingAction(PENDING_STOP);
+            return;
+        }
 
         if (mSpeechRecognizer == null)
             throw new SpeechRecognitionNotAvailable();
@@ -197,22 +704,300 @@ public class BaseSpeechRecognitionEngine implements SpeechRecognitionEngine {
         if (delegate == null)
             throw new IllegalArgumentException("delegate must be defined!");
 
+        if (profile == null)
+            throw new IllegalArgumentException("profile must be defined!");
+
+        // validated before holding, since a held start has no caller to throw to
+        if (progressView != null && !(progressView.getParent() instanceof LinearLayout))
+            throw new IllegalArgumentException("progressView must be put inside a LinearLayout!");
+
         if (throttleAction()) {
+            if (mDebounceTransitions) {
+                holdAction(PENDING_START, progressView, delegate, profile);
+                return;
+            }
+
             Logger.debug(getClass().getSimpleName(), "Hey man calm down! Throttling start to prevent disaster!");
             return;
         }
 
+        cancelPendingAction(PENDING_START);
+
+        if (!mState.compareAndSet(RecognitionState.IDLE, RecognitionState.STARTING)) {
+            Logger.debug(getClass().getSimpleName(), "Can't start listening while in state " + mState.get());
+            return;
+        }
+
+        // the delegate of the session waiting to be retried gets its final result
+        cancelScheduledRetry(true);
+        mErrorRecovery.onSessionRequested();
+        mOfflineFallback = false;
+
         mProgressView = progressView;
         mDelegate = delegate;
+        mSessionProfile = profile;
 
-        if (progressView != null && !(progressView.getParent() instanceof LinearLayout))
-            throw new IllegalArgumentException("progressView must be put inside a LinearLayout!");
+        // while the circuit breaker is open, sessions are not chained automatically
+        mContinuousSessionActive = mContinuousListening
+                && !mErrorRecovery.isCircuitOpen(SystemClock.elapsedRealtime());
+
+        if (mContinuousListening && !mContinuousSessionActive)
+            Logger.debug(getClass().getSimpleName(), "Circuit breaker open, continuous listening suspended");
+        mSessionEndTimestamp = 0;
+
+        startRecognizer();
+        updateLastActionTimestamp();
+
+        // the delegate is told about the start only if there is a session to wait for
+        if (!mState.isListening())
+            throw new SpeechRecognitionNotAvailable();
+
+        // chained, retried and audio source sessions don't use up the preparation
+        consumePreparedListening();
+
+        if (mDelegate != null)
+            mDispatcher.onStartOfSpeech(mDelegate);
+    }
+
+    /**
+     * Starts a session which transcribes the given audio instead of the microphone.
+     * It's a segmented session which lasts until the end of the audio: a result is delivered
+     * for every segment, then a last one, possibly empty, when the session ends, after which
+     * the engine is no longer listening. Requires Android 13 (API 33) or newer.
+     * @param audioSource read side of a pipe or file with 16 bit PCM audio
+     * @param sampleRate sample rate of the audio in Hz
+     * @param channels number of channels of the audio
+     * @param delegate delegate which receives the results
+     * @param profile recognition profile of the session
+     */
+    public void startListening(ParcelFileDescriptor audioSource, int sampleRate, int channels, SpeechDelegate delegate, RecognitionProfile profile) throws SpeechRecognitionNotAvailable, GoogleVoiceTypingDisabledException {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.TIRAMISU || mSpeechRecognizer == null)
+            throw new SpeechRecognitionNotAvailable();
+
+        if (audioSource == null)
+            throw new IllegalArgumentException("audioSource must be defined!");
+
+        if (sampleRate <= 0 || channels <= 0)
+            throw new IllegalArgumentException("sampleRate and channels must be > 0");
+
+        if (delegate == null)
+            throw new IllegalArgumentException("delegate must be defined!");
+
+        if (profile == null)
+            throw new IllegalArgumentException("profile must be defined!");
+
+        // not a user action, so it's neither throttled nor debounced
+        if (!mState.compareAndSet(RecognitionState.IDLE, RecognitionState.STARTING)) {
+            Logger.debug(getClass().getSimpleName(), "Can't start listening while in state " + mState.get());
+            return;
+        }
+
+        cancelScheduledRetry(true);
+        mOfflineFallback = false;
+
+        mProgressView = null;
+        mDelegate = delegate;
+        mSessionProfile = profile;
+        mContinuousSessionActive = false;
+        mSessionEndTimestamp = 0;
+
+        mAudioSource = audioSource;
+        mAudioSourceSampleRate = sampleRate;
+        mAudioSourceChannels = channels;
+
+        startRecognizer();
+        // not consumed if the speech recognizer couldn't be started
+        mAudioSource = null;
+
+        if (!mState.isListening())
+            throw new SpeechRecognitionNotAvailable();
+
+        if (mDelegate != null)
+            mDispatcher.onStartOfSpeech(mDelegate);
+    }
+
+    /**
+     * Builds the recognizer intent and starts the speech recognizer.
+     * It has to be called in STARTING state, to which the engine returns to IDLE
+     * if the speech recognizer can't be started.
+     */
+    private void startRecognizer() throws GoogleVoiceTypingDisabledException {
+        updateSpeechRecognizer();
+
+        if (mSpeechRecognizer == null) {
+            Logger.error(getClass().getSimpleName(), "Speech recognizer not available");
+            mState.set(RecognitionState.IDLE);
+            return;
+        }
+
+        // an audio source is transcribed until its end, not only up to the first pause
+        mSegmentedSession = (mContinuousSessionActive || mAudioSource != null)
+                && Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU;
+
+        Intent intent = getRecognizerIntent(mSessionProfile);
+
+        if (mOfflineFallback && !mPreferOffline && Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            intent = new Intent(intent).putExtra(RecognizerIntent.EXTRA_PREFER_OFFLINE, true);
+        }
+
+        if (mAudioSource != null) {
+            intent = withAudioSource(intent, mAudioSource, mAudioSourceSampleRate, mAudioSourceChannels);
+            mAudioSource = null;
+            mAudioSourceSession = true;
+        } else {
+            intent = startPreRollSession(intent);
+        }
+
+        if (mSegmentedSession) {
+            intent = withSegmentedSession(intent);
+        }
+
+        if (mEndpointDetector != null)
+            mEndpointDetector.reset();
+
+        startAudioTapSession();
+
+        mStartListeningTimestamp = SystemClock.elapsedRealtime();
+
+        try {
+            mSpeechRecognizer.startListening(intent);
+        } catch (final SecurityException exc) {
+            mStartListeningTimestamp = 0;
+            mAudioSourceSession = false;
+            endAudioTapSession();
+            endPreRollSession(false);
+            mState.set(RecognitionState.IDLE);
+            throw new GoogleVoiceTypingDisabledException();
+        }
+
+        mWatchdog.watch(SessionTimeout.READY_FOR_SPEECH);
+
+        if (mRecognizerUsed)
+            mMetrics.recordRecognizerReuse();
+
+        if (mServiceSelector != null)
+            mServiceSelector.recordSessionStarted(mRecognitionService);
+
+        mRecognizerUsed = true;
+    }
+
+    /**
+     * Recreates the speech recognizer if it has to switch between on-device and network
+     * recognition, or to another recognition service. While the recognizer is being reused,
+     * a better service is picked only when the recognizer is recreated anyway, so that
+     * the services exploration doesn't recreate it on every session.
+     */
+    private void updateSpeechRecognizer() {
+        // a model downloaded in the meantime is used from the next session on,
+        // also while the recognizer is reused
+        if (mContext != null && mOnDeviceRecognition)
+            mOnDeviceModels.refresh(mContext, mLocale);
+
+        if (mContext != null && mUsingOnDeviceRecognizer != shouldUseOnDeviceRecognizer(mContext)) {
+            Logger.debug(getClass().getSimpleName(), "Switching between on-device and network recognizer");
+            initSpeechRecognizer(mContext);
+        } else if (mContext != null && !mUsingOnDeviceRecognizer && mServiceSelector != null
+                && !isReusingRecognizer() && !equals(mServiceSelector.selectService(), mRecognitionService)) {
+            Logger.debug(getClass().getSimpleName(), "Switching recognition service");
+            initSpeechRecognizer(mContext);
+        }
+    }
+
+    public void prepareListening(final RecognitionProfile profile) {
+        if (profile == null)
+            throw new IllegalArgumentException("profile must be defined!");
+
+        if (mContext == null || mState.get() != RecognitionState.IDLE)
+            return;
+
+        if (mSpeechRecognizer == null) {
+            initSpeechRecognizer(mContext);
+        } else {
+            updateSpeechRecognizer();
+        }
+
+        // cached until the settings change
+        getRecognizerIntent(profile);
+
+        // the words said from now on are fed to the session
+        final PreRollRecorder preRollRecorder = mPreRollRecorder;
+        if (preRollRecorder != null && !mPreRollArmed
+                && Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
+            preRollRecorder.arm();
+            mPreRollArmed = true;
+        }
+
+        if (mPreparedListeningExpiry == null) {
+            mPreparedListeningExpiry = new DelayedOperation(mContext, "preparedListeningExpiry",
+                    mPreparedListeningTimeout);
+        }
+
+        mPreparedListening = true;
+        mPreparedListeningExpiry.start(new DelayedOperation.Operation() {
+            @Override
+            public void onDelayedOperation() {
+                Logger.debug(LOG_TAG, "Prepared listening expired");
+                mMetrics.recordPreparation(false);
+                releasePreparedListening();
+            }
+
+            @Override
+            public boolean shouldExecuteDelayedOperation() {
+                return mPreparedListening;
+            }
+        });
+    }
+
+    /**
+     * Called when the user starts a session, to stop the expiry of a previous preparation.
+     */
+    private void consumePreparedListening() {
+        if (!mPreparedListening)
+            return;
 
-        final Intent intent = new Intent(RecognizerIntent.ACTION_RECOGNIZE_SPEECH)
-                .putExtra(RecognizerIntent.EXTRA_MAX_RESULTS, 1)
+        mMetrics.recordPreparation(true);
+        releasePreparedListening();
+    }
+
+    private void releasePreparedListening() {
+        mPreparedListening = false;
+
+        if (mPreparedListeningExpiry != null)
+            mPreparedListeningExpiry.cancel();
+
+        // an armed recorder keeps recording until the end of the current session, if any
+        final PreRollRecorder preRollRecorder = mPreRollRecorder;
+        if (preRollRecorder != null && mPreRollArmed)
+            preRollRecorder.disarm();
+
+        mPreRollArmed = false;
+    }
+
+    public void setPreparedListeningTimeout(long milliseconds) {
+        if (milliseconds <= 0)
+            throw new IllegalArgumentException("milliseconds must be > 0");
+
+        releasePreparedListening();
+        mPreparedListeningTimeout = milliseconds;
+        mPreparedListeningExpiry = null;
+    }
+
+    /**
+     * Gets the recognizer intent for the given profile, combined with the engine settings.
+     * The intents are cached until one of the engine settings changes, so they must not be
+     * modified.
+     * @param profile recognition profile
+     * @return recognizer intent
+     */
+    protected Intent getRecognizerIntent(final RecognitionProfile profile) {
+        Intent intent = mRecognizerIntents.get(profile);
+
+        if (intent != null)
+            return intent;
+
+        intent = profile.createRecognizerIntent()
                 .putExtra(RecognizerIntent.EXTRA_PARTIAL_RESULTS, mGetPartialResults)
-                .putExtra(RecognizerIntent.EXTRA_LANGUAGE, mLocale.getLanguage())
-                .putExtra(RecognizerIntent.EXTRA_LANGUAGE_MODEL, RecognizerIntent.LANGUAGE_MODEL_FREE_FORM);
+                .putExtra(RecognizerIntent.EXTRA_LANGUAGE, OnDeviceModelCache.getLanguageTag(mLocale));
 
         if (mCallingPackage != null && !mCallingPackage.isEmpty()) {
             intent.putExtra(RecognizerIntent.EXTRA_CALLING_PACKAGE, mCallingPackage);
@@ -222,27 +1007,56 @@ public class BaseSpeechRecognitionEngine implements SpeechRecognitionEngine {
             intent.putExtra(RecognizerIntent.EXTRA_PREFER_OFFLINE, mPreferOffline);
         }
 
-        try {
-            mSpeechRecognizer.startListening(intent);
-        } catch (final SecurityException exc) {
-            throw new GoogleVoiceTypingDisabledException();
+        // the command matcher benefits from the alternative hypotheses
+        if (mCommandMatcher != null && profile.getMaxResults() < COMMAND_MAX_RESULTS) {
+            intent.putExtra(RecognizerIntent.EXTRA_MAX_RESULTS, COMMAND_MAX_RESULTS);
         }
 
-        mIsListening = true;
-        updateLastActionTimestamp();
+        mRecognizerIntents.put(profile, intent);
+        return intent;
+    }
+
+    /**
+     * In continuous listening mode, immediately starts the next session with the same
+     * delegate and progress view, without going through the transitions throttling.
+     */
+    private void rearmContinuousSession() {
+        if (!mContinuousSessionActive || mSpeechRecognizer == null)
+            return;
+
+        if (!mState.compareAndSet(RecognitionState.IDLE, RecognitionState.STARTING)) {
+            // the delegate already started a new session by itself
+            return;
+        }
 
         try {
-            if (mDelegate != null)
-                mDelegate.onStartOfSpeech();
-        } catch (final Throwable exc) {
-            Logger.error(getClass().getSimpleName(),
-                    "Unhandled exception in delegate onStartOfSpeech", exc);
+            startRecognizer();
+        } catch (final GoogleVoiceTypingDisabledException exc) {
+            Logger.error(getClass().getSimpleName(), "Unable to continue listening", exc);
+            mContinuousSessionActive = false;
+            return;
         }
+
+        if (mDelegate != null)
+            mDispatcher.onStartOfSpeech(mDelegate);
+    }
+
+    private void markSessionEnd() {
+        if (mContinuousSessionActive)
+            mSessionEndTimestamp = SystemClock.elapsedRealtime();
     }
 
     @Override
     public boolean isListening() {
-        return mIsListening;
+        return mState.isListening();
+    }
+
+    public RecognitionState getState() {
+        return mState.get();
+    }
+
+    public void setStateListener(RecognitionStateListener listener) {
+        mState.setListener(listener);
     }
 
     @Override
@@ -253,18 +1067,36 @@ public class BaseSpeechRecognitionEngine implements SpeechRecognitionEngine {
     @Override
     public void setLocale(Locale locale) {
         mLocale = locale;
+        mRecognizerIntents.clear();
+
+        if (mOnDeviceRecognition && mContext != null) {
+            mOnDeviceModels.prefetch(mContext, locale);
+        }
     }
 
     @Override
     public void stopListening() {
-        if (!mIsListening) return;
+        mContinuousSessionActive = false;
+
+        if (!mState.isListening()) {
+            // the latest intent is to not listen, so a held start request is obsolete
+            cancelPendingAction(PENDING_START);
+            cancelScheduledRetry(true);
+            return;
+        }
 
         if (throttleAction()) {
+            if (mDebounceTransitions) {
+                holdAction(PENDING_STOP, null, null, null);
+                return;
+            }
+
             Logger.debug(getClass().getSimpleName(), "Hey man calm down! Throttling stop to prevent disaster!");
             return;
         }
 
-        mIsListening = false;
+        cancelPendingAction(PENDING_STOP);
+
         updateLastActionTimestamp();
         returnPartialResultsAndRecreateSpeechRecognizer();
     }
@@ -275,7 +1107,9 @@ public class BaseSpeechRecognitionEngine implements SpeechRecognitionEngine {
 
         mContext = context;
 
-        if (SpeechRecognizer.isRecognitionAvailable(context)) {
+        final boolean onDevice = shouldUseOnDeviceRecognizer(context);
+
+        if (onDevice || SpeechCapabilities.get(context).isRecognitionAvailable()) {
             if (mSpeechRecognizer != null) {
                 try {
                     mSpeechRecognizer.destroy();
@@ -287,37 +1121,298 @@ public class BaseSpeechRecognitionEngine implements SpeechRecognitionEngine {
                 }
             }
 
-            mSpeechRecognizer = SpeechRecognizer.createSpeechRecognizer(context);
+            mSpeechRecognizer = createSpeechRecognizer(context, onDevice);
+            mUsingOnDeviceRecognizer = onDevice;
             mSpeechRecognizer.setRecognitionListener(this);
+            mRecognizerUsed = false;
+            mMetrics.recordRecognizerCreation();
             init(context);
 
         } else {
             mSpeechRecognizer = null;
         }
 
+        if (mOnDeviceRecognition && mOnDeviceModels.isStale(mLocale, true)) {
+            mOnDeviceModels.prefetch(context, mLocale);
+        }
+
         clear();
     }
 
+    /**
+     * Creates a new speech recognizer.
+     * @param context application context
+     * @param onDevice true to create an on-device speech recognizer
+     * @return speech recognizer
+     */
+    @SuppressLint("NewApi")
+    protected SpeechRecognizer createSpeechRecognizer(final Context context, final boolean onDevice) {
+        mRecognitionService = null;
+
+        if (onDevice)
+            return SpeechRecognizer.createOnDeviceSpeechRecognizer(context);
+
+        if (mServiceSelector != null) {
+            mRecognitionService = mServiceSelector.selectService();
+
+            if (mRecognitionService != null)
+                return SpeechRecognizer.createSpeechRecognizer(context, mRecognitionService);
+        }
+
+        return SpeechRecognizer.createSpeechRecognizer(context);
+    }
+
+    private static boolean equals(final ComponentName first, final ComponentName second) {
+        return first == null ? second == null : first.equals(second);
+    }
+
+    private boolean shouldUseOnDeviceRecognizer(final Context context) {
+        return mOnDeviceRecognition
+                && OnDeviceModelCache.isOnDeviceRecognitionAvailable(context)
+                && mOnDeviceModels.isUsable(mLocale);
+    }
+
     @Override
     public void returnPartialResultsAndRecreateSpeechRecognizer() {
-        mIsListening = false;
-        try {
-            if (mDelegate != null)
-                mDelegate.onSpeechResult(getPartialResultsAsString());
-        } catch (final Throwable exc) {
-            Logger.error(getClass().getSimpleName(),
-                    "Unhandled exception in delegate onSpeechResult", exc);
+        returnPartialResults(false);
+    }
+
+    /**
+     * Delivers the partial results to the delegate and prepares the speech recognizer
+     * for the next session.
+     * @param unrecoverable true if the speech recognizer is in a state from which it
+     *                      can't recover, so it has to be recreated even in reuse mode
+     */
+    private void returnPartialResults(final boolean unrecoverable) {
+        if (!mState.transitionFromListening(RecognitionState.FINALIZING)) {
+            // the session already delivered its results, but the recognizer may still need a recycle
+            if (unrecoverable && mState.compareAndSet(RecognitionState.IDLE, RecognitionState.FINALIZING)) {
+                recycleOrResetSpeechRecognizer(true);
+            }
+            return;
         }
 
-        if (mProgressView != null)
-            mProgressView.onResultOrOnError();
+        deliverResultAndReset(getPartialResultsAsString(), unrecoverable, true);
+    }
+
+    /**
+     * Ends the session in FINALIZING state, prepares the speech recognizer for the next session
+     * and then delivers the result, so the delegate is free to start listening again.
+     * @param result result to deliver
+     * @param unrecoverable true to recreate the speech recognizer also in reuse mode
+     * @param cancel true if the speech recognizer may still be listening and has to be cancelled
+     */
+    private void deliverResultAndReset(final String result, final boolean unrecoverable,
+                                       final boolean cancel) {
+        final SpeechDelegate delegate = mDelegate;
+        final SpeechProgressView progressView = mProgressView;
+
+        if (progressView != null)
+            progressView.onResultOrOnError();
+
+        if (cancel && isReusingRecognizer() && !unrecoverable && mSpeechRecognizer != null) {
+            try {
+                mSpeechRecognizer.cancel();
+            } catch (final Throwable exc) {
+                Logger.debug(getClass().getSimpleName(),
+                        "Non-Fatal error while cancelling speech. " + exc.getMessage());
+            }
+        }
+
+        markSessionEnd();
+        recycleOrResetSpeechRecognizer(unrecoverable);
 
-        initSpeechRecognizer(mContext);
+        final DictationDocument document = mDictationDocument;
+        if (document != null)
+            document.commitProvisional(result);
+
+        final TranscriptJournal journal = mJournal;
+        if (journal != null)
+            journal.appendFinal(result);
+
+        if (delegate != null)
+            mDispatcher.onSpeechResult(delegate, result);
+
+        rearmContinuousSession();
+    }
+
+    /**
+     * In recognizer reuse mode, keeps the bound speech recognizer and only clears the session
+     * state, otherwise destroys and recreates the speech recognizer.
+     * @param unrecoverable true to recreate the speech recognizer also in reuse mode
+     */
+    private void recycleOrResetSpeechRecognizer(final boolean unrecoverable) {
+        mSegmentedSession = false;
+        mWatchdog.disarm();
+        endAudioTapSession();
+        // chained sessions get the audio recorded in between
+        endPreRollSession(mContinuousSessionActive);
+
+        final boolean reuse = isReusingRecognizer();
+        mAudioSourceSession = false;
+
+        if (reuse && !unrecoverable && mSpeechRecognizer != null) {
+            mDelayedStopListening.cancel();
+            mStartListeningTimestamp = 0;
+            clear();
+        } else {
+            mState.set(RecognitionState.RECYCLING);
+            initSpeechRecognizer(mContext);
+        }
+
+        mState.set(RecognitionState.IDLE);
+    }
+
+    private void startAudioTapSession() {
+        final AudioTap audioTap = mAudioTap;
+
+        if (audioTap == null)
+            return;
+
+        audioTap.startSession();
+        mAudioTapSessionStarted = true;
+    }
+
+    /**
+     * @return true if the speech recognizer is kept bound at the end of the session.
+     * It's always kept between chained continuous sessions and for external audio sources,
+     * which are usually transcribed in batches
+     */
+    private boolean isReusingRecognizer() {
+        return mReuseRecognizer || mContinuousSessionActive || mAudioSourceSession;
+    }
+
+    private void endAudioTapSession() {
+        final AudioTap audioTap = mAudioTap;
+
+        if (audioTap == null || !mAudioTapSessionStarted)
+            return;
+
+        audioTap.endSession();
+        mAudioTapSessionStarted = false;
+    }
+
+    /**
+     * Makes the speech recognizer read the audio from the pre-roll recorder, if there is one.
+     * @param intent recognizer intent
+     * @return intent to use to start the session
+     */
+    private Intent startPreRollSession(final Intent intent) {
+        final PreRollRecorder preRollRecorder = mPreRollRecorder;
+
+        // a segmented session keeps reading from the same source
+        if (preRollRecorder == null || mPreRollSessionStarted
+                || Build.VERSION.SDK_INT < Build.VERSION_CODES.TIRAMISU)
+            return intent;
+
+        // the retry of a session whose pre-roll couldn't be recorded
+        if (mPreRollFallback) {
+            mPreRollFallback = false;
+            return intent;
+        }
+
+        final int sessionId = ++mPreRollSessionId;
+        final ParcelFileDescriptor audioSource = preRollRecorder.startSession(new PreRollListener() {
+            @Override
+            public void onRecordingFailed() {
+                SharedHandler.get().post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onPreRollFailed(sessionId);
+                    }
+                });
+            }
+        });
+
+        if (audioSource == null)
+            return intent;
+
+        mPreRollSessionStarted = true;
+        return withAudioSource(intent, audioSource, preRollRecorder.getSampleRate(), 1);
+    }
+
+    /**
+     * Called when the pre-roll recorder couldn't record the microphone for a session.
+     * Starts the session again, letting the speech recognizer record the microphone by itself.
+     * @param sessionId id of the pre-roll session, to ignore the sessions already ended
+     */
+    private void onPreRollFailed(final int sessionId) {
+        if (!mPreRollSessionStarted || sessionId != mPreRollSessionId || !mState.isListening())
+            return;
+
+        Logger.info(getClass().getSimpleName(), "Unable to record the pre-roll, "
+                + "restarting the session with the speech recognizer recording the microphone");
+        mPreRollFallback = true;
+        // the speech recognizer is still in the session reading the closed pipe
+        retrySession(RecoveryAction.RETRY_IMMEDIATELY, true);
+    }
+
+    /**
+     * Makes the speech recognizer read 16 bit PCM audio from the given source, instead of
+     * recording the microphone.
+     */
+    private static Intent withAudioSource(final Intent intent, final ParcelFileDescriptor audioSource,
+                                          final int sampleRate, final int channels) {
+        return new Intent(intent)
+                .putExtra(RecognizerIntent.EXTRA_AUDIO_SOURCE, audioSource)
+                .putExtra(RecognizerIntent.EXTRA_AUDIO_SOURCE_ENCODING, AudioFormat.ENCODING_PCM_16BIT)
+                .putExtra(RecognizerIntent.EXTRA_AUDIO_SOURCE_CHANNEL_COUNT, channels)
+                .putExtra(RecognizerIntent.EXTRA_AUDIO_SOURCE_SAMPLING_RATE, sampleRate);
+    }
+
+    /**
+     * Makes the session segmented. A session reading from an audio source ends with it,
+     * otherwise it ends after the inactivity timeout of silence.
+     * @param intent recognizer intent
+     * @return intent to use to start the session
+     */
+    private Intent withSegmentedSession(final Intent intent) {
+        if (mAudioSourceSession || mPreRollSessionStarted) {
+            return new Intent(intent).putExtra(RecognizerIntent.EXTRA_SEGMENTED_SESSION,
+                    RecognizerIntent.EXTRA_AUDIO_SOURCE);
+        }
+
+        return new Intent(intent)
+                .putExtra(RecognizerIntent.EXTRA_SEGMENTED_SESSION,
+                        RecognizerIntent.EXTRA_SPEECH_INPUT_POSSIBLY_COMPLETE_SILENCE_LENGTH_MILLIS)
+                .putExtra(RecognizerIntent.EXTRA_SPEECH_INPUT_POSSIBLY_COMPLETE_SILENCE_LENGTH_MILLIS,
+                        mStopListeningDelayInMs);
+    }
+
+    private void endPreRollSession(final boolean keepRecording) {
+        final PreRollRecorder preRollRecorder = mPreRollRecorder;
+
+        if (preRollRecorder == null || !mPreRollSessionStarted)
+            return;
+
+        preRollRecorder.endSession(keepRecording);
+        mPreRollSessionStarted = false;
+    }
+
+    /**
+     * Tells if the speech recognizer can be used for another session after the given error.
+     * @param code error code received in {@link #onError(int)}
+     * @return true if the error is bound to the session only, false if the speech recognizer
+     * has to be recreated
+     */
+    protected boolean isRecoverableError(final int code) {
+        switch (code) {
+            case SpeechRecognizer.ERROR_NO_MATCH:
+            case SpeechRecognizer.ERROR_SPEECH_TIMEOUT:
+            case SpeechRecognizer.ERROR_NETWORK:
+            case SpeechRecognizer.ERROR_NETWORK_TIMEOUT:
+            case SpeechRecognizer.ERROR_SERVER:
+                return true;
+
+            default:
+                return false;
+        }
     }
 
     @Override
     public void setPartialResults(boolean getPartialResults) {
         this.mGetPartialResults = getPartialResults;
+        mRecognizerIntents.clear();
     }
 
     @Override
@@ -329,6 +1424,7 @@ public class BaseSpeechRecognitionEngine implements SpeechRecognitionEngine {
     @Override
     public void setPreferOffline(boolean preferOffline) {
         mPreferOffline = preferOffline;
+        mRecognizerIntents.clear();
     }
 
     private void initDelayedStopListening(final Context context) {
@@ -346,16 +1442,102 @@ public class BaseSpeechRecognitionEngine implements SpeechRecognitionEngine {
     }
 
     private void updateLastActionTimestamp() {
-        mLastActionTimestamp = new Date().getTime();
+        mLastActionTimestamp = SystemClock.elapsedRealtime();
     }
 
     private boolean throttleAction() {
-        return (new Date().getTime() <= (mLastActionTimestamp + mTransitionMinimumDelay));
+        return (SystemClock.elapsedRealtime() <= (mLastActionTimestamp + mTransitionMinimumDelay));
+    }
+
+    /**
+     * Remembers the latest start or stop request received within the transition minimum delay,
+     * to execute it as soon as the delay expires.
+     */
+    private void holdAction(final int action, final SpeechProgressView progressView,
+                            final SpeechDelegate delegate, final RecognitionProfile profile) {
+        final long now = SystemClock.elapsedRealtime();
+
+        if (mPendingAction != action) {
+            mPendingActionTimestamp = now;
+        }
+
+        mPendingAction = action;
+        mPendingProgressView = progressView;
+        mPendingDelegate = delegate;
+        mPendingProfile = profile;
+
+        Logger.debug(getClass().getSimpleName(), "Holding " + (action == PENDING_START ? "start" : "stop")
+                + " until the transition minimum delay expires");
+        schedulePendingAction(now);
+    }
+
+    private void schedulePendingAction(final long now) {
+        SharedHandler.get().removeCallbacks(mPendingActionRunnable);
+        SharedHandler.get().postDelayed(mPendingActionRunnable,
+                Math.max(0, mLastActionTimestamp + mTransitionMinimumDelay - now) + 1);
+    }
+
+    private void cancelPendingAction(final int action) {
+        if (mPendingAction != action)
+            return;
+
+        SharedHandler.get().removeCallbacks(mPendingActionRunnable);
+        mPendingAction = PENDING_NONE;
+        mPendingProgressView = null;
+        mPendingDelegate = null;
+        mPendingProfile = null;
+    }
+
+    private void executePendingAction() {
+        if (mPendingAction == PENDING_NONE)
+            return;
+
+        final long now = SystemClock.elapsedRealtime();
+
+        if (throttleAction()) {
+            schedulePendingAction(now);
+            return;
+        }
+
+        final int action = mPendingAction;
+        final long held = now - mPendingActionTimestamp;
+        final SpeechProgressView progressView = mPendingProgressView;
+        final SpeechDelegate delegate = action == PENDING_START ? mPendingDelegate : mDelegate;
+        final RecognitionProfile profile = mPendingProfile;
+
+        final boolean wasListening = mState.isListening();
+
+        cancelPendingAction(action);
+
+        if (action == PENDING_START) {
+            try {
+                startListening(progressView, delegate, profile);
+            } catch (final SpeechRecognitionNotAvailable | GoogleVoiceTypingDisabledException exc) {
+                Logger.error(getClass().getSimpleName(), "Unable to execute held start listening", exc);
+                return;
+            }
+        } else {
+            stopListening();
+        }
+
+        // e.g. a held start when a session is already in progress
+        if (wasListening == mState.isListening()) {
+            Logger.debug(getClass().getSimpleName(), "Held " + (action == PENDING_START ? "start" : "stop")
+                    + " had no effect");
+            return;
+        }
+
+        Logger.debug(getClass().getSimpleName(), "Executed held " + (action == PENDING_START ? "start" : "stop")
+                + " after " + held + "ms");
+
+        if (delegate instanceof DebouncedSpeechDelegate)
+            mDispatcher.onSpeechRequestDebounced((DebouncedSpeechDelegate) delegate, action == PENDING_START, held);
     }
 
     @Override
     public void setCallingPackage(String callingPackage) {
         this.mCallingPackage = callingPackage;
+        mRecognizerIntents.clear();
     }
 
     @Override
@@ -368,8 +1550,132 @@ public class BaseSpeechRecognitionEngine implements SpeechRecognitionEngine {
         this.mStopListeningDelayInMs = milliseconds;
     }
 
+    public void setOnDeviceRecognition(boolean onDevice) {
+        this.mOnDeviceRecognition = onDevice;
+
+        if (onDevice && mContext != null) {
+            mOnDeviceModels.prefetch(mContext, mLocale);
+        }
+    }
+
+    public void prefetchOnDeviceModel(Locale locale) {
+        if (mContext != null) {
+            mOnDeviceModels.prefetch(mContext, locale);
+        }
+    }
+
+    public void setRecognitionServiceSelector(RecognitionServiceSelector selector) {
+        this.mServiceSelector = selector;
+    }
+
+    public void setTranscriptJournal(TranscriptJournal journal) {
+        mJournal = journal;
+    }
+
+    public void setDelegateExecutor(Executor executor, boolean coalesceRms, boolean coalescePartialResults) {
+        mDispatcher.setExecutor(executor, coalesceRms, coalescePartialResults);
+    }
+
+    public void setDictationDocument(DictationDocument document) {
+        mDictationDocument = document;
+    }
+
+    public void setCommandMatcher(CommandMatcher matcher, float earlyStopScore) {
+        mCommandMatcher = matcher;
+        mCommandEarlyStopScore = earlyStopScore;
+        mLastMatchedPartial = null;
+        mRecognizerIntents.clear();
+    }
+
+    public void setKeywordSpotter(KeywordSpotter spotter, boolean stopOnMatch) {
+        mKeywordSpotter = spotter;
+        mStopOnKeyword = stopOnMatch;
+    }
+
+    public void setWordCommitRepetitions(int repetitions) {
+        mStablePrefixTracker = new StablePrefixTracker(repetitions);
+    }
+
+    public void setSessionTimeout(SessionTimeout stage, long milliseconds) {
+        mWatchdog.setDeadline(stage, milliseconds);
+    }
+
+    public void setRecoveryPolicy(RecoveryPolicy policy) {
+        mErrorRecovery.setPolicy(policy);
+    }
+
+    public void setPreRollRecorder(PreRollRecorder recorder) {
+        if (mPreRollArmed) {
+            mPreRollRecorder.disarm();
+            mPreRollArmed = false;
+        }
+
+        endPreRollSession(false);
+        this.mPreRollRecorder = recorder;
+    }
+
+    /**
+     * Sets the audio tap, which is owned by the engine from now on: the previous one is closed
+     * when replaced, and the current one when the engine is shut down.
+     * @param audioTap audio tap, or null to remove it
+     */
+    public void setAudioTap(AudioTap audioTap) {
+        final AudioTap previous = mAudioTap;
+
+        endAudioTapSession();
+        this.mAudioTap = audioTap;
+
+        // stops its dispatch thread
+        if (previous != null && previous != audioTap)
+            previous.close();
+    }
+
+    public void setEndpointDetector(EndpointDetector detector) {
+        this.mEndpointDetector = detector;
+    }
+
+    public void setContinuousListening(boolean continuous) {
+        this.mContinuousListening = continuous;
+
+        if (!continuous) {
+            mContinuousSessionActive = false;
+        }
+    }
+
+    public void setDebounceTransitions(boolean debounce) {
+        this.mDebounceTransitions = debounce;
+
+        if (!debounce) {
+            cancelPendingAction(mPendingAction);
+        }
+    }
+
+    public void setRecognizerReuse(boolean reuse) {
+        this.mReuseRecognizer = reuse;
+    }
+
+    public SpeechMetrics getMetrics() {
+        return mMetrics;
+    }
+
+    /**
+     * @return dispatcher which delivers the events to the delegates, honoring the delegate
+     * executor set with {@link #setDelegateExecutor(Executor, boolean, boolean)}
+     */
+    public DelegateDispatcher getDelegateDispatcher() {
+        return mDispatcher;
+    }
+
     @Override
     public void shutdown() {
+        cancelPendingAction(mPendingAction);
+        cancelScheduledRetry(false);
+        mWatchdog.disarm();
+        mContinuousSessionActive = false;
+        releasePreparedListening();
+        endPreRollSession(false);
+        setAudioTap(null);
+
         if (mSpeechRecognizer != null) {
             try {
                 mSpeechRecognizer.stopListening();
@@ -0,0 +1,282 @@
+package net.gotev.speech.engine;
+
+import net.gotev.speech.CommandMatch;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Matches recognition hypotheses against a catalog of voice commands, tolerating
+ * recognition errors.
+ * <p>
+ * The commands are indexed in a BK-tree keyed by the Levenshtein distance, stored in
+ * parallel arrays, so a lookup visits only the commands within the tolerated distance
+ * instead of the whole catalog. Every hypothesis is searched with a tolerance proportional
+ * to its length, and the match score is the text similarity multiplied by the hypothesis
+ * confidence. This class is not thread safe.
+ */
+public class CommandMatcher {
+
+    private static final int NONE = -1;
+
+    private final String[] mCommands;
+    private final String[] mTerms;
+
+    // BK-tree nodes, one per distinct normalized command
+    private final int[] mNodeTerm;
+    private final int[] mFirstChild;
+    private final int[] mNextSibling;
+    private final int[] mEdge;
+    private int mNodes;
+
+    private final float mMaxDistanceRatio;
+
+    private int[] mStack = new int[64];
+    private int[] mPreviousRow = new int[64];
+    private int[] mCurrentRow = new int[64];
+
+    private int mBestNode;
+    private int mBestDistance;
+
+    /**
+     * Indexes the given commands, tolerating an edit distance up to a third of the
+     * hypothesis length.
+     * @param commands commands catalog
+     */
+    public CommandMatcher(final Collection<String> commands) {
+        this(commands, 0.34f);
+    }
+
+    /**
+     * Indexes the given commands.
+     * @param commands commands catalog
+     * @param maxDistanceRatio maximum edit distance, as a fraction of the hypothesis length.
+     *                         A distance of 1 is always tolerated
+     */
+    public CommandMatcher(final Collection<String> commands, final float maxDistanceRatio) {
+        if (commands == null || commands.isEmpty())
+            throw new IllegalArgumentException("commands must be defined!");
+
+        if (maxDistanceRatio < 0 || maxDistanceRatio >= 1)
+            throw new IllegalArgumentException("maxDistanceRatio must be between 0 and 1");
+
+        mMaxDistanceRatio = maxDistanceRatio;
+        mCommands = commands.toArray(new String[0]);
+        mTerms = new String[mCommands.length];
+
+        mNodeTerm = new int[mCommands.length];
+        mFirstChild = new int[mCommands.length];
+        mNextSibling = new int[mCommands.length];
+        mEdge = new int[mCommands.length];
+
+        for (int i = 0; i < mCommands.length; i++) {
+            mTerms[i] = normalize(mCommands[i]);
+            insert(i);
+        }
+    }
+
+    /**
+     * @return number of commands in the catalog
+     */
+    public int size() {
+        return mCommands.length;
+    }
+
+    /**
+     * Finds the command which best matches a single text, with full confidence.
+     * @param text recognized text
+     * @return best match, or null if no command is similar enough
+     */
+    public CommandMatch match(final String text) {
+        return match(new String[]{text}, null, 1);
+    }
+
+    /**
+     * Finds the command which best matches the N-best recognition hypotheses.
+     * @param hypotheses recognition hypotheses, from the most to the least likely
+     * @param confidences confidence of every hypothesis between 0 and 1, or null if not
+     *                    available, in which case every hypothesis has full confidence
+     * @param count number of hypotheses to consider
+     * @return best match, or null if no command is similar enough
+     */
+    public CommandMatch match(final String[] hypotheses, final float[] confidences, final int count) {
+        CommandMatch best = null;
+
+        for (int h = 0; h < count && h < hypotheses.length; h++) {
+            if (hypotheses[h] == null)
+                continue;
+
+            final float confidence = confidences != null && h < confidences.length && confidences[h] >= 0
+                    ? confidences[h] : 1f;
+
+            // a hypothesis can't score more than its confidence
+            if (best != null && confidence <= best.getScore())
+                continue;
+
+            final String text = normalize(hypotheses[h]);
+            if (text.isEmpty())
+                continue;
+
+            final int tolerance = Math.max(1, (int) (text.length() * mMaxDistanceRatio));
+
+            // small radii visit few nodes, so when a close command exists it's found quickly
+            boolean found = false;
+            for (int radius = 1; !found; radius = radius < 2 ? Math.min(2, tolerance) : tolerance) {
+                found = search(text, radius);
+
+                if (radius == tolerance)
+                    break;
+            }
+
+            if (!found)
+                continue;
+
+            final int term = mNodeTerm[mBestNode];
+            final int length = Math.max(text.length(), mTerms[term].length());
+            final float score = confidence * (1f - (float) mBestDistance / length);
+
+            if (best == null || score > best.getScore())
+                best = new CommandMatch(mCommands[term], term, h, mBestDistance, score);
+        }
+
+        return best;
+    }
+
+    private void insert(final int term) {
+        if (mNodes == 0) {
+            addNode(term, 0);
+            return;
+        }
+
+        int node = 0;
+
+        while (true) {
+            final int distance = distance(mTerms[term], mTerms[mNodeTerm[node]]);
+
+            // duplicate commands are indexed once, keeping the first one
+            if (distance == 0)
+                return;
+
+            int child = mFirstChild[node];
+            while (child != NONE && mEdge[child] != distance) {
+                child = mNextSibling[child];
+            }
+
+            if (child == NONE) {
+                final int added = addNode(term, distance);
+                mNextSibling[added] = mFirstChild[node];
+                mFirstChild[node] = added;
+                return;
+            }
+
+            node = child;
+        }
+    }
+
+    private int addNode(final int term, final int edge) {
+        final int node = mNodes++;
+        mNodeTerm[node] = term;
+        mFirstChild[node] = NONE;
+        mNextSibling[node] = NONE;
+        mEdge[node] = edge;
+        return node;
+    }
+
+    /**
+     * Searches the closest command within the tolerance, storing it in
+     * {@link #mBestNode} and {@link #mBestDistance}.
+     * @return true if a command has been found
+     */
+    private boolean search(final String text, final int tolerance) {
+        mBestNode = NONE;
+        mBestDistance = tolerance + 1;
+
+        int top = 0;
+        mStack[top++] = 0;
+
+        while (top > 0) {
+            final int node = mStack[--top];
+            final int distance = distance(text, mTerms[mNodeTerm[node]]);
+
+            if (distance < mBestDistance) {
+                mBestNode = node;
+                mBestDistance = distance;
+
+                if (distance == 0)
+                    return true;
+            }
+
+            // by the triangle inequality, only children closer than the best match can improve it
+            for (int child = mFirstChild[node]; child != NONE; child = mNextSibling[child]) {
+                if (Math.abs(mEdge[child] - distance) < mBestDistance) {
+                    if (top == mStack.length)
+                        mStack = Arrays.copyOf(mStack, top * 2);
+
+                    mStack[top++] = child;
+                }
+            }
+        }
+
+        return mBestNode != NONE;
+    }
+
+    /**
+     * Computes the Levenshtein distance with two reused rows.
+     * The BK-tree needs the exact distance of every visited node to prune its children.
+     */
+    private int distance(final String first, final String second) {
+        final int firstLength = first.length();
+        final int secondLength = second.length();
+
+        if (mPreviousRow.length <= secondLength) {
+            mPreviousRow = new int[secondLength + 1];
+            mCurrentRow = new int[secondLength + 1];
+        }
+
+        int[] previous = mPreviousRow;
+        int[] current = mCurrentRow;
+
+        for (int j = 0; j <= secondLength; j++) {
+            previous[j] = j;
+        }
+
+        for (int i = 1; i <= firstLength; i++) {
+            current[0] = i;
+            final char c = first.charAt(i - 1);
+
+            for (int j = 1; j <= secondLength; j++) {
+                final int cost = c == second.charAt(j - 1) ? 0 : 1;
+                current[j] = Math.min(Math.min(current[j - 1] + 1, previous[j] + 1), previous[j - 1] + cost);
+            }
+
+            final int[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+
+        return previous[secondLength];
+    }
+
+    private static String normalize(final String text) {
+        final StringBuilder builder = new StringBuilder(text.length());
+        boolean space = false;
+
+        for (int i = 0; i < text.length(); i++) {
+            final char c = text.charAt(i);
+
+            if (Character.isWhitespace(c)) {
+                space = builder.length() > 0;
+                continue;
+            }
+
+            if (space) {
+                builder.append(' ');
+                space = false;
+            }
+
+            builder.append(Character.toLowerCase(c));
+        }
+
+        return builder.toString();
+    }
+}
@@ -0,0 +1,388 @@
+package net.gotev.speech.engine;
+
+import net.gotev.speech.CommandMatch;
+import net.gotev.speech.CommandSpeechDelegate;
+import net.gotev.speech.CommitSpeechDelegate;
+import net.gotev.speech.DebouncedSpeechDelegate;
+import net.gotev.speech.DeltaSpeechDelegate;
+import net.gotev.speech.ErrorSpeechDelegate;
+import net.gotev.speech.KeywordSpeechDelegate;
+import net.gotev.speech.Logger;
+import net.gotev.speech.MainThreadSpeechDelegate;
+import net.gotev.speech.RecoveryAction;
+import net.gotev.speech.SessionTimeout;
+import net.gotev.speech.SpeechDelegate;
+import net.gotev.speech.SpeechPartialDelta;
+import net.gotev.speech.TimeoutSpeechDelegate;
+
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Delivers the events to the speech delegate, either directly on the calling thread
+ * or on an executor.
+ * <p>
+ * With an executor, the events are appended to a single queue, which is drained by one
+ * task at a time, so they are delivered in order even on a thread pool. The sound level and
+ * the partial results can be coalesced: a new event of those types supersedes the queued one
+ * which has not been delivered yet, so a slow delegate receives only the latest value instead
+ * of a growing backlog. When the queued event is the last one, its value is replaced,
+ * otherwise it's dropped and the new event is queued, so the events keep the order in which
+ * they happened. Coalescing never crosses any other event, so the values of a session are
+ * never delivered after its result. The queued events are pooled, so enqueueing doesn't
+ * allocate memory.
+ * <p>
+ * The events of a {@link MainThreadSpeechDelegate} are always delivered on the calling thread.
+ * <p>
+ * Components which relay the events of a session to other delegates, like
+ * {@link net.gotev.speech.SpeechArbiter}, get the dispatcher of the engine with
+ * {@link BaseSpeechRecognitionEngine#getDelegateDispatcher()}, so that those delegates
+ * receive the events in the same way and in the same queue as the engine delegate.
+ */
+public class DelegateDispatcher {
+
+    private static final String LOG_TAG = DelegateDispatcher.class.getSimpleName();
+
+    private static final int START_OF_SPEECH = 0;
+    private static final int RMS_CHANGED = 1;
+    private static final int PARTIAL_RESULTS = 2;
+    private static final int RESULT = 3;
+    private static final int ERROR = 4;
+    private static final int TIMEOUT = 5;
+    private static final int PARTIAL_DELTA = 6;
+    private static final int WORD_COMMITTED = 7;
+    private static final int KEYWORD_SPOTTED = 8;
+    private static final int COMMAND = 9;
+    private static final int REQUEST_DEBOUNCED = 10;
+    private static final int SUPERSEDED = 11;
+
+    private static final int MAX_POOLED_EVENTS = 64;
+
+    private static final class Event {
+        int type;
+        SpeechDelegate delegate;
+        float floatValue;
+        long longValue;
+        int intValue;
+        boolean booleanValue;
+        Object object;
+        Event next;
+    }
+
+    private volatile Executor mExecutor;
+    private volatile boolean mCoalesceRms;
+    private volatile boolean mCoalescePartialResults;
+
+    // all the following fields are guarded by this
+    private Event mHead;
+    private Event mTail;
+    private Event mPool;
+    private int mPoolSize;
+    private Event mQueuedRms;
+    private Event mQueuedPartialResults;
+    private boolean mDraining;
+
+    private final Runnable mDrainRunnable = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+
+    DelegateDispatcher() {
+    }
+
+    /**
+     * @param executor executor on which to deliver the events, or null to deliver them
+     *                 on the calling thread
+     * @param coalesceRms true to deliver only the latest queued sound level
+     * @param coalescePartialResults true to deliver only the latest queued partial results
+     */
+    void setExecutor(final Executor executor, final boolean coalesceRms, final boolean coalescePartialResults) {
+        mExecutor = executor;
+        mCoalesceRms = coalesceRms;
+        mCoalescePartialResults = coalescePartialResults;
+    }
+
+    public void onStartOfSpeech(final SpeechDelegate delegate) {
+        dispatch(obtain(START_OF_SPEECH, delegate));
+    }
+
+    public void onSpeechRmsChanged(final SpeechDelegate delegate, final float value) {
+        if (isDirect(delegate)) {
+            deliver(RMS_CHANGED, delegate, value, 0, 0, false, null);
+            return;
+        }
+
+        synchronized (this) {
+            if (mCoalesceRms && mQueuedRms != null && mQueuedRms.delegate == delegate) {
+                if (mQueuedRms == mTail) {
+                    mQueuedRms.floatValue = value;
+                    return;
+                }
+
+                mQueuedRms.type = SUPERSEDED;
+            }
+        }
+
+        final Event event = obtain(RMS_CHANGED, delegate);
+        event.floatValue = value;
+        dispatch(event);
+    }
+
+    public void onSpeechPartialResults(final SpeechDelegate delegate, final List<String> results) {
+        if (isDirect(delegate)) {
+            deliver(PARTIAL_RESULTS, delegate, 0, 0, 0, false, results);
+            return;
+        }
+
+        synchronized (this) {
+            if (mCoalescePartialResults && mQueuedPartialResults != null
+                    && mQueuedPartialResults.delegate == delegate) {
+                if (mQueuedPartialResults == mTail) {
+                    mQueuedPartialResults.object = results;
+                    return;
+                }
+
+                mQueuedPartialResults.type = SUPERSEDED;
+            }
+        }
+
+        final Event event = obtain(PARTIAL_RESULTS, delegate);
+        event.object = results;
+        dispatch(event);
+    }
+
+    public void onSpeechResult(final SpeechDelegate delegate, final String result) {
+        final Event event = obtain(RESULT, delegate);
+        event.object = result;
+        dispatch(event);
+    }
+
+    public void onSpeechError(final ErrorSpeechDelegate delegate, final int code, final RecoveryAction action) {
+        final Event event = obtain(ERROR, delegate);
+        event.intValue = code;
+        event.object = action;
+        dispatch(event);
+    }
+
+    public void onSpeechTimeout(final TimeoutSpeechDelegate delegate, final SessionTimeout timeout, final long elapsedMillis) {
+        final Event event = obtain(TIMEOUT, delegate);
+        event.object = timeout;
+        event.longValue = elapsedMillis;
+        dispatch(event);
+    }
+
+    public void onSpeechPartialDelta(final DeltaSpeechDelegate delegate, final SpeechPartialDelta delta) {
+        final Event event = obtain(PARTIAL_DELTA, delegate);
+        event.object = delta;
+        dispatch(event);
+    }
+
+    public void onSpeechWordCommitted(final CommitSpeechDelegate delegate, final String word, final int index) {
+        final Event event = obtain(WORD_COMMITTED, delegate);
+        event.object = word;
+        event.intValue = index;
+        dispatch(event);
+    }
+
+    public void onSpeechKeywordSpotted(final KeywordSpeechDelegate delegate, final String keyword) {
+        final Event event = obtain(KEYWORD_SPOTTED, delegate);
+        event.object = keyword;
+        dispatch(event);
+    }
+
+    public void onSpeechCommand(final CommandSpeechDelegate delegate, final CommandMatch match, final boolean early) {
+        final Event event = obtain(COMMAND, delegate);
+        event.object = match;
+        event.booleanValue = early;
+        dispatch(event);
+    }
+
+    public void onSpeechRequestDebounced(final DebouncedSpeechDelegate delegate, final boolean start, final long heldMillis) {
+        final Event event = obtain(REQUEST_DEBOUNCED, delegate);
+        event.booleanValue = start;
+        event.longValue = heldMillis;
+        dispatch(event);
+    }
+
+    private boolean isDirect(final SpeechDelegate delegate) {
+        return mExecutor == null || delegate instanceof MainThreadSpeechDelegate;
+    }
+
+    private synchronized Event obtain(final int type, final SpeechDelegate delegate) {
+        Event event = mPool;
+
+        if (event != null) {
+            mPool = event.next;
+            mPoolSize--;
+            event.next = null;
+        } else {
+            event = new Event();
+        }
+
+        event.type = type;
+        event.delegate = delegate;
+        return event;
+    }
+
+    private synchronized void recycle(final Event event) {
+        event.delegate = null;
+        event.object = null;
+
+        if (mPoolSize < MAX_POOLED_EVENTS) {
+            event.next = mPool;
+            mPool = event;
+            mPoolSize++;
+        }
+    }
+
+    private void dispatch(final Event event) {
+        final Executor executor = mExecutor;
+
+        if (executor == null || event.delegate instanceof MainThreadSpeechDelegate) {
+            deliver(event);
+            recycle(event);
+            return;
+        }
+
+        synchronized (this) {
+            if (mTail == null) {
+                mHead = event;
+            } else {
+                mTail.next = event;
+            }
+
+            mTail = event;
+
+            // the following events of the same type can supersede this one, also after
+            // an event of the other coalesced type, while the other types are barriers
+            mQueuedRms = event.type == RMS_CHANGED ? event : event.type == PARTIAL_RESULTS ? mQueuedRms : null;
+            mQueuedPartialResults = event.type == PARTIAL_RESULTS ? event : event.type == RMS_CHANGED ? mQueuedPartialResults : null;
+
+            if (mDraining)
+                return;
+
+            mDraining = true;
+        }
+
+        try {
+            executor.execute(mDrainRunnable);
+        } catch (final RejectedExecutionException exc) {
+            Logger.error(LOG_TAG, "Delegate executor rejected the events, delivering them on the calling thread", exc);
+            drain();
+        }
+    }
+
+    private void drain() {
+        while (true) {
+            final Event event;
+
+            synchronized (this) {
+                event = mHead;
+
+                if (event == null) {
+                    mDraining = false;
+                    return;
+                }
+
+                mHead = event.next;
+
+                if (mHead == null)
+                    mTail = null;
+
+                // from now on its value can't be replaced
+                if (mQueuedRms == event)
+                    mQueuedRms = null;
+
+                if (mQueuedPartialResults == event)
+                    mQueuedPartialResults = null;
+
+                event.next = null;
+            }
+
+            if (event.type != SUPERSEDED)
+                deliver(event);
+
+            recycle(event);
+        }
+    }
+
+    private void deliver(final Event event) {
+        deliver(event.type, event.delegate, event.floatValue, event.longValue, event.intValue,
+                event.booleanValue, event.object);
+    }
+
+    private void deliver(final int type, final SpeechDelegate delegate, final float floatValue,
+                         final long longValue, final int intValue, final boolean booleanValue,
+                         final Object object) {
+        try {
+            switch (type) {
+                case START_OF_SPEECH:
+                    delegate.onStartOfSpeech();
+                    break;
+
+                case RMS_CHANGED:
+                    delegate.onSpeechRmsChanged(floatValue);
+                    break;
+
+                case PARTIAL_RESULTS:
+                    @SuppressWarnings("unchecked")
+                    final List<String> results = (List<String>) object;
+                    delegate.onSpeechPartialResults(results);
+                    break;
+
+                case RESULT:
+                    delegate.onSpeechResult((String) object);
+                    break;
+
+                case ERROR:
+                    ((ErrorSpeechDelegate) delegate).onSpeechError(intValue, (RecoveryAction) object);
+                    break;
+
+                case TIMEOUT:
+                    ((TimeoutSpeechDelegate) delegate).onSpeechTimeout((SessionTimeout) object, longValue);
+                    break;
+
+                case PARTIAL_DELTA:
+                    ((DeltaSpeechDelegate) delegate).onSpeechPartialDelta((SpeechPartialDelta) object);
+                    break;
+
+                case WORD_COMMITTED:
+                    ((CommitSpeechDelegate) delegate).onSpeechWordCommitted((String) object, intValue);
+                    break;
+
+                case KEYWORD_SPOTTED:
+                    ((KeywordSpeechDelegate) delegate).onSpeechKeywordSpotted((String) object);
+                    break;
+
+                case COMMAND:
+                    ((CommandSpeechDelegate) delegate).onSpeechCommand((CommandMatch) object, booleanValue);
+                    break;
+
+                case REQUEST_DEBOUNCED:
+                    ((DebouncedSpeechDelegate) delegate).onSpeechRequestDebounced(booleanValue, longValue);
+                    break;
+            }
+        } catch (final Throwable exc) {
+            Logger.error(LOG_TAG, "Unhandled exception in delegate " + getMethodName(type), exc);
+        }
+    }
+
+    private static String getMethodName(final int type) {
+        switch (type) {
+            case START_OF_SPEECH: return "onStartOfSpeech";
+            case RMS_CHANGED: return "onSpeechRmsChanged";
+            case PARTIAL_RESULTS: return "onSpeechPartialResults";
+            case RESULT: return "onSpeechResult";
+            case ERROR: return "onSpeechError";
+            case TIMEOUT: return "onSpeechTimeout";
+            case PARTIAL_DELTA: return "onSpeechPartialDelta";
+            case WORD_COMMITTED: return "onSpeechWordCommitted";
+            case KEYWORD_SPOTTED: return "onSpeechKeywordSpotted";
+            case COMMAND: return "onSpeechCommand";
+            default: return "onSpeechRequestDebounced";
+        }
+    }
+}
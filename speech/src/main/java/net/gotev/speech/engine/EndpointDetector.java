@@ -0,0 +1,191 @@
+package net.gotev.speech.engine;
+
+/**
+ * Voice activity and end of utterance detector, driven by the RMS values received in
+ * {@link android.speech.RecognitionListener#onRmsChanged(float)}.
+ * <p>
+ * It tracks the noise floor while the user is not speaking and the speech energy while the
+ * user speaks, deriving an adaptive threshold with hysteresis between the two. It also learns
+ * the length of the pauses between words, so the trailing silence needed to consider the
+ * utterance finished adapts to how the user speaks.
+ * <p>
+ * It does not depend on Android classes and receives the timestamps from the caller, so it can
+ * be used also in plain JVM tests. It's not thread safe, so it has to be fed by a single thread.
+ */
+public class EndpointDetector {
+
+    /**
+     * Waits for long pauses before ending the utterance.
+     */
+    public static final float SENSITIVITY_LOW = 0.2f;
+
+    /**
+     * Default sensitivity.
+     */
+    public static final float SENSITIVITY_MEDIUM = 0.5f;
+
+    /**
+     * Ends the utterance as soon as possible, which is good for short commands.
+     */
+    public static final float SENSITIVITY_HIGH = 0.8f;
+
+    private static final float NOISE_FALL_RATE = 0.5f;
+    private static final float NOISE_RISE_RATE = 0.02f;
+    private static final float SPEECH_RATE = 0.1f;
+    private static final float PAUSE_RATE = 0.3f;
+    private static final float MIN_MARGIN_DB = 2f;
+    private static final int ONSET_FRAMES = 2;
+    private static final long INITIAL_PAUSE = 250;
+
+    private final float mSensitivity;
+    private final long mMinTrailingSilence;
+    private final long mMaxTrailingSilence;
+    private final float mPauseMultiplier;
+
+    private boolean mInitialized;
+    private float mNoiseFloor;
+    private float mSpeechLevel;
+    private boolean mSpeechDetected;
+    private boolean mInSpeech;
+    private int mOnsetFrames;
+    private long mSilenceStart = -1;
+    private float mAveragePause = INITIAL_PAUSE;
+
+    /**
+     * Creates a detector with {@link #SENSITIVITY_MEDIUM}.
+     */
+    public EndpointDetector() {
+        this(SENSITIVITY_MEDIUM);
+    }
+
+    /**
+     * Creates a new detector.
+     * @param sensitivity value between 0 and 1. The higher the value, the shorter the
+     *                    trailing silence after which the utterance is considered finished
+     */
+    public EndpointDetector(final float sensitivity) {
+        if (sensitivity < 0 || sensitivity > 1)
+            throw new IllegalArgumentException("sensitivity must be between 0 and 1");
+
+        mSensitivity = sensitivity;
+        mMinTrailingSilence = (long) lerp(700, 250, sensitivity);
+        mMaxTrailingSilence = (long) lerp(2500, 900, sensitivity);
+        mPauseMultiplier = lerp(3.5f, 1.5f, sensitivity);
+    }
+
+    /**
+     * Resets the state, to be called at the beginning of every session.
+     * The learned pause length is kept, since it depends on the user.
+     */
+    public void reset() {
+        mInitialized = false;
+        mSpeechDetected = false;
+        mInSpeech = false;
+        mOnsetFrames = 0;
+        mSilenceStart = -1;
+    }
+
+    /**
+     * Feeds a new RMS value.
+     * @param rmsDb RMS value in dB
+     * @param timestamp monotonic timestamp of the value in milliseconds
+     * @return true if the user spoke and then has been silent for the trailing silence,
+     * so the utterance can be considered finished
+     */
+    public boolean onRmsChanged(final float rmsDb, final long timestamp) {
+        if (!mInitialized) {
+            mNoiseFloor = rmsDb;
+            mSpeechLevel = rmsDb + MIN_MARGIN_DB * 2;
+            mInitialized = true;
+            return false;
+        }
+
+        final float margin = Math.max(MIN_MARGIN_DB, (mSpeechLevel - mNoiseFloor) * lerp(0.5f, 0.3f, mSensitivity));
+        final float onsetThreshold = mNoiseFloor + margin;
+        final float offsetThreshold = mNoiseFloor + margin / 2;
+
+        if (mInSpeech) {
+            mSpeechLevel += SPEECH_RATE * (rmsDb - mSpeechLevel);
+
+            if (rmsDb < offsetThreshold) {
+                mInSpeech = false;
+                mSilenceStart = timestamp;
+            }
+        } else {
+            if (rmsDb < mNoiseFloor) {
+                mNoiseFloor += NOISE_FALL_RATE * (rmsDb - mNoiseFloor);
+            } else if (rmsDb < onsetThreshold) {
+                mNoiseFloor += NOISE_RISE_RATE * (rmsDb - mNoiseFloor);
+            }
+
+            if (rmsDb >= onsetThreshold) {
+                mOnsetFrames++;
+
+                if (mOnsetFrames >= ONSET_FRAMES) {
+                    onSpeechResumed(timestamp);
+                }
+            } else {
+                mOnsetFrames = 0;
+            }
+        }
+
+        return mSpeechDetected && !mInSpeech && mSilenceStart >= 0
+                && timestamp - mSilenceStart >= getTrailingSilence();
+    }
+
+    private void onSpeechResumed(final long timestamp) {
+        if (mSilenceStart >= 0) {
+            final long pause = timestamp - mSilenceStart;
+
+            // only the pauses between words are used to learn the user's pace
+            if (pause < mMaxTrailingSilence) {
+                mAveragePause += PAUSE_RATE * (pause - mAveragePause);
+            }
+        }
+
+        mInSpeech = true;
+        mSpeechDetected = true;
+        mOnsetFrames = 0;
+        mSilenceStart = -1;
+    }
+
+    /**
+     * @return true if the user started to speak since the last reset
+     */
+    public boolean isSpeechDetected() {
+        return mSpeechDetected;
+    }
+
+    /**
+     * @return true if the user is speaking right now
+     */
+    public boolean isInSpeech() {
+        return mInSpeech;
+    }
+
+    /**
+     * @return current estimate of the background noise level in dB
+     */
+    public float getNoiseFloor() {
+        return mNoiseFloor;
+    }
+
+    /**
+     * @return current estimate of the speech level in dB
+     */
+    public float getSpeechLevel() {
+        return mSpeechLevel;
+    }
+
+    /**
+     * @return silence in milliseconds after which the utterance is considered finished
+     */
+    public long getTrailingSilence() {
+        final long trailingSilence = (long) (mAveragePause * mPauseMultiplier);
+        return Math.min(mMaxTrailingSilence, Math.max(mMinTrailingSilence, trailingSilence));
+    }
+
+    private static float lerp(final float from, final float to, final float fraction) {
+        return from + (to - from) * fraction;
+    }
+}
@@ -0,0 +1,88 @@
+package net.gotev.speech.engine;
+
+import android.speech.SpeechRecognizer;
+
+import net.gotev.speech.RecoveryAction;
+import net.gotev.speech.RecoveryPolicy;
+
+/**
+ * Keeps track of the retries and of the circuit breaker state, deciding the recovery action
+ * for every error according to the configured {@link RecoveryPolicy}.
+ */
+class ErrorRecovery {
+
+    private RecoveryPolicy mPolicy = RecoveryPolicy.DEFAULT;
+    private int mRetries;
+    private int mConsecutiveFailures;
+    private long mCircuitOpenUntil;
+
+    void setPolicy(final RecoveryPolicy policy) {
+        mPolicy = policy == null ? RecoveryPolicy.DEFAULT : policy;
+        mRetries = 0;
+        mConsecutiveFailures = 0;
+        mCircuitOpenUntil = 0;
+    }
+
+    /**
+     * Decides the recovery action for an error.
+     * @param code error code
+     * @param now current monotonic time in milliseconds
+     * @return action to take
+     */
+    RecoveryAction onError(final int code, final long now) {
+        if (code != SpeechRecognizer.ERROR_NO_MATCH && code != SpeechRecognizer.ERROR_SPEECH_TIMEOUT) {
+            mConsecutiveFailures++;
+
+            final int threshold = mPolicy.getFailureThreshold();
+            if (threshold > 0 && mConsecutiveFailures >= threshold && now >= mCircuitOpenUntil) {
+                mCircuitOpenUntil = now + mPolicy.getOpenCircuitDuration();
+                mConsecutiveFailures = 0;
+            }
+        }
+
+        final RecoveryAction action = mPolicy.getAction(code);
+
+        if (!action.isRetry())
+            return action;
+
+        if (now < mCircuitOpenUntil)
+            return RecoveryAction.CIRCUIT_OPEN;
+
+        if (mRetries >= mPolicy.getMaxRetries())
+            return RecoveryAction.DELIVER;
+
+        mRetries++;
+        return action;
+    }
+
+    /**
+     * @return delay in milliseconds before the current retry attempt
+     */
+    long getBackoffDelay() {
+        return mPolicy.getBackoffDelay(mRetries);
+    }
+
+    /**
+     * Called when a session delivers results, closing the circuit breaker.
+     */
+    void onSuccess() {
+        mRetries = 0;
+        mConsecutiveFailures = 0;
+        mCircuitOpenUntil = 0;
+    }
+
+    /**
+     * Called when a new session is requested, to reset the retries count.
+     */
+    void onSessionRequested() {
+        mRetries = 0;
+    }
+
+    /**
+     * @param now current monotonic time in milliseconds
+     * @return true if the circuit breaker is open, so no sessions must be restarted automatically
+     */
+    boolean isCircuitOpen(final long now) {
+        return now < mCircuitOpenUntil;
+    }
+}
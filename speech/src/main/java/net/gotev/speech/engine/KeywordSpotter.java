@@ -0,0 +1,300 @@
+package net.gotev.speech.engine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Spots keywords and phrases in the partial results while the user is still speaking.
+ * <p>
+ * The phrases are compiled once into an Aho-Corasick automaton. The automaton state after
+ * every character of the last scanned text is kept, so when the next partial results share
+ * a prefix with the previous ones, the scan resumes from the end of the common prefix and
+ * only the new text is processed.
+ * <p>
+ * Matching is case insensitive and only whole words are matched. The words of the phrases
+ * are separated by single spaces, so they match texts with a single whitespace character
+ * between the words, as the recognizers return them. A phrase at the very end of
+ * the text is matched right away, without waiting for the following character, so "stop" is
+ * spotted as soon as it's recognized, even if the recognizer later extends it.
+ * Every occurrence is reported only once per session. This class is not thread safe.
+ */
+public class KeywordSpotter {
+
+    private static final int ROOT = 0;
+
+    private final List<String> mPhrases;
+
+    // trie nodes, stored in parallel arrays
+    private char[][] mLabels = new char[16][];
+    private int[][] mTargets = new int[16][];
+    private int[] mChildren = new int[16];
+    private int[] mFail = new int[16];
+    private int[] mOutput = new int[16];
+    private int[] mOutputLink = new int[16];
+    private int[] mDepth = new int[16];
+    private int mNodes;
+
+    // scan state
+    private char[] mText = new char[256];
+    private int[] mStates = new int[257];
+    private boolean[] mReported = new boolean[257];
+    private int mLength;
+    private final ArrayList<String> mMatches = new ArrayList<>();
+
+    /**
+     * Compiles the given phrases.
+     * @param phrases keywords or phrases to spot
+     */
+    public KeywordSpotter(final String... phrases) {
+        this(Arrays.asList(phrases));
+    }
+
+    /**
+     * Compiles the given phrases.
+     * @param phrases keywords or phrases to spot
+     */
+    public KeywordSpotter(final Collection<String> phrases) {
+        if (phrases == null || phrases.isEmpty())
+            throw new IllegalArgumentException("phrases must be defined!");
+
+        final ArrayList<String> normalized = new ArrayList<>(phrases.size());
+        newNode(0);
+
+        for (final String phrase : phrases) {
+            final String text = normalize(phrase);
+
+            if (text.isEmpty())
+                throw new IllegalArgumentException("phrases must not be empty");
+
+            normalized.add(text);
+            insert(text, normalized.size() - 1);
+        }
+
+        mPhrases = Collections.unmodifiableList(normalized);
+        buildFailureLinks();
+        mStates[0] = ROOT;
+    }
+
+    /**
+     * @return the compiled phrases, lowercase and with single spaces between words
+     */
+    public List<String> getPhrases() {
+        return mPhrases;
+    }
+
+    /**
+     * Scans the text of new partial results.
+     * @param text partial results text
+     * @return phrases found in the new part of the text, in order of appearance. The list is
+     * reused by the next scan, so it must not be retained
+     */
+    public List<String> scan(final CharSequence text) {
+        mMatches.clear();
+
+        final int length = text.length();
+        ensureCapacity(length);
+
+        int common = 0;
+        final int maxCommon = Math.min(mLength, length);
+        while (common < maxCommon && mText[common] == fold(text.charAt(common))) {
+            common++;
+        }
+
+        int state = mStates[common];
+
+        for (int i = common; i < length; i++) {
+            final char c = fold(text.charAt(i));
+            mText[i] = c;
+            state = next(state, c);
+            mStates[i + 1] = state;
+            mReported[i + 1] = false;
+        }
+
+        mLength = length;
+
+        // matches ending before the common prefix end have already been evaluated with the
+        // same surrounding characters, while the one ending right at it may now be followed
+        // by a different character
+        for (int end = Math.max(common, 1); end <= length; end++) {
+            if (mReported[end])
+                continue;
+
+            for (int node = mStates[end]; node != ROOT; node = mOutputLink[node]) {
+                if (mOutput[node] >= 0 && isBoundary(end - mDepth[node] - 1) && isBoundary(end)) {
+                    mMatches.add(mPhrases.get(mOutput[node]));
+                    mReported[end] = true;
+                }
+            }
+        }
+
+        return mMatches;
+    }
+
+    /**
+     * Forgets the previously scanned text, so that phrases will be reported again.
+     */
+    public void reset() {
+        mLength = 0;
+    }
+
+    private boolean isBoundary(final int position) {
+        if (position < 0 || position >= mLength)
+            return true;
+
+        return !Character.isLetterOrDigit(mText[position]);
+    }
+
+    private int next(int state, final char c) {
+        while (true) {
+            final int target = child(state, c);
+
+            if (target >= 0)
+                return target;
+
+            if (state == ROOT)
+                return ROOT;
+
+            state = mFail[state];
+        }
+    }
+
+    private int child(final int node, final char c) {
+        final char[] labels = mLabels[node];
+
+        for (int i = 0; i < mChildren[node]; i++) {
+            if (labels[i] == c)
+                return mTargets[node][i];
+        }
+
+        return -1;
+    }
+
+    private void insert(final String phrase, final int index) {
+        int node = ROOT;
+
+        for (int i = 0; i < phrase.length(); i++) {
+            final char c = phrase.charAt(i);
+            int target = child(node, c);
+
+            if (target < 0) {
+                target = newNode(mDepth[node] + 1);
+                addChild(node, c, target);
+            }
+
+            node = target;
+        }
+
+        if (mOutput[node] < 0)
+            mOutput[node] = index;
+    }
+
+    private void buildFailureLinks() {
+        final int[] queue = new int[mNodes];
+        int head = 0;
+        int tail = 0;
+
+        for (int i = 0; i < mChildren[ROOT]; i++) {
+            final int child = mTargets[ROOT][i];
+            mFail[child] = ROOT;
+            mOutputLink[child] = ROOT;
+            queue[tail++] = child;
+        }
+
+        while (head < tail) {
+            final int node = queue[head++];
+
+            for (int i = 0; i < mChildren[node]; i++) {
+                final char c = mLabels[node][i];
+                final int child = mTargets[node][i];
+
+                int fail = mFail[node];
+                while (fail != ROOT && child(fail, c) < 0) {
+                    fail = mFail[fail];
+                }
+
+                final int target = child(fail, c);
+                mFail[child] = target >= 0 ? target : ROOT;
+
+                final int failNode = mFail[child];
+                mOutputLink[child] = mOutput[failNode] >= 0 ? failNode : mOutputLink[failNode];
+                queue[tail++] = child;
+            }
+        }
+    }
+
+    private int newNode(final int depth) {
+        if (mNodes == mLabels.length) {
+            final int size = mNodes * 2;
+            mLabels = Arrays.copyOf(mLabels, size);
+            mTargets = Arrays.copyOf(mTargets, size);
+            mChildren = Arrays.copyOf(mChildren, size);
+            mFail = Arrays.copyOf(mFail, size);
+            mOutput = Arrays.copyOf(mOutput, size);
+            mOutputLink = Arrays.copyOf(mOutputLink, size);
+            mDepth = Arrays.copyOf(mDepth, size);
+        }
+
+        final int node = mNodes++;
+        mLabels[node] = new char[2];
+        mTargets[node] = new int[2];
+        mOutput[node] = -1;
+        mDepth[node] = depth;
+        return node;
+    }
+
+    private void addChild(final int node, final char c, final int target) {
+        final int count = mChildren[node];
+
+        if (count == mLabels[node].length) {
+            mLabels[node] = Arrays.copyOf(mLabels[node], count * 2);
+            mTargets[node] = Arrays.copyOf(mTargets[node], count * 2);
+        }
+
+        mLabels[node][count] = c;
+        mTargets[node][count] = target;
+        mChildren[node] = count + 1;
+    }
+
+    private void ensureCapacity(final int length) {
+        if (length <= mText.length)
+            return;
+
+        final int size = Math.max(length, mText.length * 2);
+        mText = Arrays.copyOf(mText, size);
+        mStates = Arrays.copyOf(mStates, size + 1);
+        mReported = Arrays.copyOf(mReported, size + 1);
+    }
+
+    private static char fold(final char c) {
+        return Character.isWhitespace(c) ? ' ' : Character.toLowerCase(c);
+    }
+
+    private static String normalize(final String phrase) {
+        if (phrase == null)
+            return "";
+
+        final StringBuilder builder = new StringBuilder(phrase.length());
+        boolean space = false;
+
+        for (int i = 0; i < phrase.length(); i++) {
+            final char c = fold(phrase.charAt(i));
+
+            if (c == ' ') {
+                space = builder.length() > 0;
+                continue;
+            }
+
+            if (space) {
+                builder.append(' ');
+                space = false;
+            }
+
+            builder.append(c);
+        }
+
+        return builder.toString();
+    }
+}
@@ -0,0 +1,294 @@
+package net.gotev.speech.engine;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Build;
+import android.os.SystemClock;
+import android.speech.RecognitionSupport;
+import android.speech.RecognitionSupportCallback;
+import android.speech.RecognizerIntent;
+import android.speech.SpeechRecognizer;
+
+import net.gotev.speech.Logger;
+import net.gotev.speech.SharedHandler;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+
+/**
+ * Caches the availability of the on-device speech recognition models for each locale,
+ * and downloads the missing models ahead of time, so that the first on-device session
+ * never waits for them. Checking and downloading require Android 13 or newer.
+ * On Android 12, the models availability can't be checked, so it's
+ * {@link ModelStatus#UNKNOWN} until a session fails because the model is missing.
+ */
+public class OnDeviceModelCache {
+
+    private static final String LOG_TAG = OnDeviceModelCache.class.getSimpleName();
+
+    /**
+     * Time after which a model which is being downloaded or which can be downloaded
+     * is checked again.
+     */
+    private static final long STATUS_MAX_AGE_MILLIS = 60 * 1000;
+
+    public enum ModelStatus {
+        /**
+         * The availability of the model has not been checked yet.
+         */
+        UNKNOWN,
+
+        /**
+         * The model is installed and ready to be used.
+         */
+        INSTALLED,
+
+        /**
+         * The model is being downloaded.
+         */
+        DOWNLOADING,
+
+        /**
+         * The model can be downloaded, but it's not installed.
+         */
+        DOWNLOADABLE,
+
+        /**
+         * The locale is not supported by the on-device recognizer.
+         */
+        UNSUPPORTED
+    }
+
+    private static final Executor MAIN_THREAD_EXECUTOR = new Executor() {
+        @Override
+        public void execute(final Runnable command) {
+            SharedHandler.get().post(command);
+        }
+    };
+
+    private final ConcurrentHashMap<String, ModelStatus> mStatuses = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Long> mCheckTimes = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Boolean> mChecksInProgress = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Boolean> mDownloadOnCheck = new ConcurrentHashMap<>();
+
+    /**
+     * Tells if on-device recognition can be used on this device.
+     * @param context application context
+     * @return true on Android 12 and newer devices which provide an on-device recognizer
+     */
+    public static boolean isOnDeviceRecognitionAvailable(final Context context) {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.S
+                && SpeechRecognizer.isOnDeviceRecognitionAvailable(context);
+    }
+
+    public ModelStatus getStatus(final Locale locale) {
+        final ModelStatus status = mStatuses.get(getLanguageTag(locale));
+        return status == null ? ModelStatus.UNKNOWN : status;
+    }
+
+    /**
+     * Tells if a session in the given locale can be performed on-device without waiting
+     * for a model to be downloaded.
+     * @param locale recognition locale
+     * @return true if the model is installed, or if its availability can't be checked
+     */
+    public boolean isUsable(final Locale locale) {
+        final ModelStatus status = getStatus(locale);
+
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.TIRAMISU)
+            return status == ModelStatus.UNKNOWN || status == ModelStatus.INSTALLED;
+
+        return status == ModelStatus.INSTALLED;
+    }
+
+    /**
+     * Marks the model of the given locale as not usable, for example after the on-device
+     * recognizer reported that the language is not supported or not available.
+     * @param locale recognition locale
+     */
+    public void markUnsupported(final Locale locale) {
+        mStatuses.put(getLanguageTag(locale), ModelStatus.UNSUPPORTED);
+    }
+
+    /**
+     * Forgets all the cached statuses.
+     */
+    public void clear() {
+        mStatuses.clear();
+        mCheckTimes.clear();
+    }
+
+    /**
+     * Tells if the status of the model for the given locale has to be checked, because it
+     * has never been checked or because the model was not installed yet when it was checked
+     * more than a minute ago.
+     * @param locale recognition locale
+     * @param download true if the model is going to be downloaded when it's missing
+     * @return true if the status is missing or stale
+     */
+    boolean isStale(final Locale locale, final boolean download) {
+        final ModelStatus status = getStatus(locale);
+
+        if (status == ModelStatus.UNKNOWN)
+            return true;
+
+        if (status == ModelStatus.INSTALLED || status == ModelStatus.UNSUPPORTED)
+            return false;
+
+        if (status == ModelStatus.DOWNLOADABLE && download)
+            return true;
+
+        final Long checkTime = mCheckTimes.get(getLanguageTag(locale));
+        return checkTime == null
+                || SystemClock.elapsedRealtime() - checkTime >= STATUS_MAX_AGE_MILLIS;
+    }
+
+    /**
+     * Asynchronously checks the availability of the model for the given locale, if its cached
+     * status is missing or stale. It must be called on the main thread.
+     * @param context application context
+     * @param locale recognition locale
+     */
+    public void refresh(final Context context, final Locale locale) {
+        refresh(context, locale, false);
+    }
+
+    /**
+     * Asynchronously checks the availability of the model for the given locale, if its cached
+     * status is missing or stale, and starts downloading it if it's supported but not installed.
+     * It must be called on the main thread.
+     * @param context application context
+     * @param locale recognition locale
+     */
+    public void prefetch(final Context context, final Locale locale) {
+        refresh(context, locale, true);
+    }
+
+    private void refresh(final Context context, final Locale locale, final boolean download) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.TIRAMISU
+                || !isOnDeviceRecognitionAvailable(context))
+            return;
+
+        if (!isStale(locale, download))
+            return;
+
+        if (download)
+            mDownloadOnCheck.put(getLanguageTag(locale), Boolean.TRUE);
+
+        if (mChecksInProgress.putIfAbsent(getLanguageTag(locale), Boolean.TRUE) != null)
+            return;
+
+        checkRecognitionSupport(context.getApplicationContext(), locale);
+    }
+
+    @TargetApi(Build.VERSION_CODES.TIRAMISU)
+    private void checkRecognitionSupport(final Context context, final Locale locale) {
+        final String key = getLanguageTag(locale);
+        final SpeechRecognizer recognizer;
+
+        try {
+            recognizer = SpeechRecognizer.createOnDeviceSpeechRecognizer(context);
+        } catch (final Throwable exc) {
+            Logger.error(LOG_TAG, "Unable to create on-device recognizer", exc);
+            mChecksInProgress.remove(key);
+            return;
+        }
+
+        final Intent intent = new Intent(RecognizerIntent.ACTION_RECOGNIZE_SPEECH)
+                .putExtra(RecognizerIntent.EXTRA_LANGUAGE, key);
+
+        recognizer.checkRecognitionSupport(intent, MAIN_THREAD_EXECUTOR, new RecognitionSupportCallback() {
+            @Override
+            public void onSupportResult(final RecognitionSupport recognitionSupport) {
+                ModelStatus status;
+
+                if (contains(recognitionSupport.getInstalledOnDeviceLanguages(), locale)) {
+                    status = ModelStatus.INSTALLED;
+                } else if (contains(recognitionSupport.getPendingOnDeviceLanguages(), locale)) {
+                    status = ModelStatus.DOWNLOADING;
+                } else if (contains(recognitionSupport.getSupportedOnDeviceLanguages(), locale)) {
+                    status = ModelStatus.DOWNLOADABLE;
+                } else {
+                    status = ModelStatus.UNSUPPORTED;
+                }
+
+                if (status == ModelStatus.DOWNLOADABLE && mDownloadOnCheck.remove(key) != null) {
+                    Logger.info(LOG_TAG, "Downloading on-device model for " + key);
+                    recognizer.triggerModelDownload(intent);
+                    status = ModelStatus.DOWNLOADING;
+                }
+
+                Logger.debug(LOG_TAG, "On-device model for " + key + ": " + status);
+                mStatuses.put(key, status);
+                mCheckTimes.put(key, SystemClock.elapsedRealtime());
+                release(recognizer, key);
+            }
+
+            @Override
+            public void onError(final int error) {
+                Logger.error(LOG_TAG, "Unable to check on-device support for " + key + ", error " + error);
+                release(recognizer, key);
+            }
+        });
+    }
+
+    private void release(final SpeechRecognizer recognizer, final String key) {
+        mChecksInProgress.remove(key);
+
+        try {
+            recognizer.destroy();
+        } catch (final Throwable exc) {
+            Logger.debug(LOG_TAG, "Non-Fatal error while destroying speech. " + exc.getMessage());
+        }
+    }
+
+    /**
+     * Tells if the model of the given locale is in the list of languages reported by the
+     * on-device recognizer.
+     * @param languages language tags, e.g. en-US
+     * @param locale recognition locale
+     * @return true if the list has the locale, or any country of its language for a locale
+     * without country
+     */
+    static boolean contains(final List<String> languages, final Locale locale) {
+        if (languages == null)
+            return false;
+
+        final String tag = getLanguageTag(locale);
+
+        for (final String language : languages) {
+            if (language.equalsIgnoreCase(tag))
+                return true;
+        }
+
+        // a locale without country matches any country, e.g. en-US for en,
+        // while en-GB must not match en-US
+        if (!locale.getCountry().isEmpty())
+            return false;
+
+        for (final String language : languages) {
+            if (language.equalsIgnoreCase(locale.getLanguage())
+                    || language.toLowerCase(Locale.US).startsWith(locale.getLanguage() + "-"))
+                return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Gets the language tag of the given locale, which is used both in the recognizer intents
+     * and to check the models, so that they always refer to the same model.
+     * @param locale recognition locale
+     * @return IETF language tag, e.g. en-US
+     */
+    static String getLanguageTag(final Locale locale) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP)
+            return locale.toLanguageTag();
+
+        return locale.getCountry().isEmpty()
+                ? locale.getLanguage() : locale.getLanguage() + "-" + locale.getCountry();
+    }
+}
@@ -0,0 +1,103 @@
+package net.gotev.speech.engine;
+
+import net.gotev.speech.SpeechPartialDelta;
+
+/**
+ * Computes the {@link SpeechPartialDelta} between successive partial results texts.
+ * It keeps the FNV-1a hash of every prefix of the previous text, so the fingerprint of the
+ * new text is computed by hashing only the characters after the stable prefix.
+ */
+public class PartialResultsDiffer {
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private char[] mText = new char[256];
+    private long[] mPrefixHashes = new long[257];
+    private int mLength;
+    private boolean mEmpty = true;
+
+    public PartialResultsDiffer() {
+        mPrefixHashes[0] = FNV_OFFSET_BASIS;
+    }
+
+    /**
+     * Computes the changes between the previous text and the given one, which becomes
+     * the new previous text.
+     * @param text new partial results text
+     * @return delta, or null if the text did not change
+     */
+    public SpeechPartialDelta diff(final CharSequence text) {
+        final int newLength = text.length();
+        final int maxCommon = Math.min(mLength, newLength);
+
+        int common = 0;
+        while (common < maxCommon && mText[common] == text.charAt(common)) {
+            common++;
+        }
+
+        if (!mEmpty && common == mLength && common == newLength)
+            return null;
+
+        // back off to the last word boundary, so only whole words are replaced
+        int prefix = common;
+        while (prefix > 0 && !isWordBoundary(text, prefix)) {
+            prefix--;
+        }
+
+        final int removed = mLength - prefix;
+
+        ensureCapacity(newLength);
+
+        long hash = mPrefixHashes[prefix];
+        for (int i = prefix; i < newLength; i++) {
+            final char c = text.charAt(i);
+            mText[i] = c;
+            hash = (hash ^ c) * FNV_PRIME;
+            mPrefixHashes[i + 1] = hash;
+        }
+
+        mLength = newLength;
+        mEmpty = false;
+
+        return new SpeechPartialDelta(prefix, removed,
+                text.subSequence(prefix, newLength).toString(), hash);
+    }
+
+    /**
+     * Tells if the given position, which is within the common prefix of the previous and the
+     * new text, separates two words in both of them.
+     */
+    private boolean isWordBoundary(final CharSequence text, final int position) {
+        if (Character.isWhitespace(mText[position - 1]))
+            return true;
+
+        final boolean previousBoundary = position == mLength || Character.isWhitespace(mText[position]);
+        final boolean newBoundary = position == text.length() || Character.isWhitespace(text.charAt(position));
+
+        return previousBoundary && newBoundary;
+    }
+
+    /**
+     * Forgets the previous text, so the next one will be notified as a whole.
+     */
+    public void reset() {
+        mLength = 0;
+        mEmpty = true;
+    }
+
+    private void ensureCapacity(final int length) {
+        if (length <= mText.length)
+            return;
+
+        final int newCapacity = Math.max(length, mText.length * 2);
+
+        final char[] text = new char[newCapacity];
+        System.arraycopy(mText, 0, text, 0, mLength);
+        mText = text;
+
+        final long[] hashes = new long[newCapacity + 1];
+        System.arraycopy(mPrefixHashes, 0, hashes, 0, mLength + 1);
+        mPrefixHashes = hashes;
+    }
+}
@@ -0,0 +1,345 @@
+package net.gotev.speech.engine;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.content.pm.ResolveInfo;
+import android.speech.RecognitionService;
+import android.speech.SpeechRecognizer;
+
+import net.gotev.speech.Logger;
+import net.gotev.speech.SharedHandler;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Chooses which of the recognition services installed on the device to use.
+ * <p>
+ * For every service, it records the time needed to be ready for speech and the error rate,
+ * persisting them across process restarts. Every service is tried for a few sessions first,
+ * then the fastest service with an acceptable error rate is selected. A service can also be
+ * pinned explicitly, in which case it's always used as long as it's installed.
+ * <p>
+ * The statistics are recorded in memory and written to the preferences in a single batch
+ * a few seconds after the last change, so that recording them doesn't schedule a disk write
+ * for every session.
+ */
+public class RecognitionServiceSelector {
+
+    private static final String LOG_TAG = RecognitionServiceSelector.class.getSimpleName();
+    private static final String PREFERENCES = "net.gotev.speech.recognition_services";
+    private static final String KEY_PINNED = "pinned";
+    private static final String KEY_SELECTED = "selected";
+    private static final String SUFFIX_SESSIONS = ".sessions";
+    private static final String SUFFIX_ERRORS = ".errors";
+    private static final String SUFFIX_READY_COUNT = ".ready_count";
+    private static final String SUFFIX_LATENCY = ".latency";
+
+    private static final float LATENCY_RATE = 0.2f;
+    private static final long FLUSH_DELAY_MILLIS = 5000;
+
+    private final Context mContext;
+    private final SharedPreferences mPreferences;
+    private final int mMinSessions;
+    private final float mMaxErrorRate;
+    private List<ComponentName> mServices;
+
+    // values not written to the preferences yet, a null value means a removed key
+    private final Map<String, Object> mPendingValues = new HashMap<>();
+    private boolean mPendingClear;
+
+    private final Runnable mFlushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    /**
+     * Creates a selector which tries every service for 3 sessions and accepts
+     * services with an error rate up to 20%.
+     * @param context application context
+     */
+    public RecognitionServiceSelector(final Context context) {
+        this(context, 3, 0.2f);
+    }
+
+    /**
+     * Creates a new selector.
+     * @param context application context
+     * @param minSessions number of sessions to try every service for, before comparing them
+     * @param maxErrorRate maximum error rate, between 0 and 1, for a service to be selected
+     */
+    public RecognitionServiceSelector(final Context context, final int minSessions, final float maxErrorRate) {
+        if (context == null)
+            throw new IllegalArgumentException("context must be defined!");
+
+        mContext = context.getApplicationContext();
+        mPreferences = mContext.getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE);
+        mMinSessions = minSessions;
+        mMaxErrorRate = maxErrorRate;
+    }
+
+    /**
+     * Gets the recognition services installed on the device. The list is read once and cached,
+     * call {@link #refreshServices()} to read it again.
+     * @return list of recognition services
+     */
+    public synchronized List<ComponentName> getAvailableServices() {
+        if (mServices == null) {
+            final List<ComponentName> services = new ArrayList<>();
+            final List<ResolveInfo> infos = mContext.getPackageManager()
+                    .queryIntentServices(new Intent(RecognitionService.SERVICE_INTERFACE), 0);
+
+            if (infos != null) {
+                for (final ResolveInfo info : infos) {
+                    if (info.serviceInfo != null) {
+                        services.add(new ComponentName(info.serviceInfo.packageName, info.serviceInfo.name));
+                    }
+                }
+            }
+
+            mServices = services;
+        }
+
+        return mServices;
+    }
+
+    /**
+     * Forgets the cached list of installed recognition services.
+     */
+    public synchronized void refreshServices() {
+        mServices = null;
+    }
+
+    /**
+     * Always use the given service, as long as it's installed.
+     * @param service recognition service, or null to select it automatically
+     */
+    public synchronized void pin(final ComponentName service) {
+        put(KEY_PINNED, service == null ? null : service.flattenToString());
+        flush();
+    }
+
+    /**
+     * Selects the service to use for the next speech recognizer.
+     * @return recognition service, or null to use the system default one
+     */
+    public synchronized ComponentName selectService() {
+        final List<ComponentName> services = getAvailableServices();
+
+        if (services.isEmpty())
+            return null;
+
+        final ComponentName pinned = ComponentName.unflattenFromString(getString(KEY_PINNED));
+        if (pinned != null && services.contains(pinned))
+            return pinned;
+
+        if (services.size() == 1)
+            return services.get(0);
+
+        ComponentName selected = null;
+
+        // try the services which have not been evaluated enough first
+        int leastSessions = Integer.MAX_VALUE;
+        for (final ComponentName service : services) {
+            final int sessions = getSessions(service);
+
+            if (sessions < mMinSessions && sessions < leastSessions) {
+                leastSessions = sessions;
+                selected = service;
+            }
+        }
+
+        if (selected == null) {
+            float bestLatency = Float.MAX_VALUE;
+
+            for (final ComponentName service : services) {
+                final float latency = getAverageReadyLatency(service);
+
+                if (getErrorRate(service) <= mMaxErrorRate && latency >= 0 && latency < bestLatency) {
+                    bestLatency = latency;
+                    selected = service;
+                }
+            }
+        }
+
+        if (selected == null) {
+            float bestErrorRate = Float.MAX_VALUE;
+
+            for (final ComponentName service : services) {
+                final float errorRate = getErrorRate(service);
+
+                if (errorRate < bestErrorRate) {
+                    bestErrorRate = errorRate;
+                    selected = service;
+                }
+            }
+        }
+
+        final String flattened = selected.flattenToString();
+        if (!flattened.equals(getString(KEY_SELECTED))) {
+            Logger.info(LOG_TAG, "Selected recognition service " + flattened);
+            put(KEY_SELECTED, flattened);
+        }
+
+        return selected;
+    }
+
+    /**
+     * @return the last selected service, or null if no service has been selected yet
+     */
+    public synchronized ComponentName getSelectedService() {
+        return ComponentName.unflattenFromString(getString(KEY_SELECTED));
+    }
+
+    /**
+     * Records that a session has been started on the given service.
+     * @param service recognition service
+     */
+    public synchronized void recordSessionStarted(final ComponentName service) {
+        if (service == null)
+            return;
+
+        final String key = service.flattenToString();
+        put(key + SUFFIX_SESSIONS, getSessions(service) + 1);
+    }
+
+    /**
+     * Records the time the given service needed to be ready for speech.
+     * @param service recognition service
+     * @param milliseconds time elapsed between the start listening request and onReadyForSpeech
+     */
+    public synchronized void recordReadyForSpeech(final ComponentName service, final long milliseconds) {
+        if (service == null)
+            return;
+
+        final String key = service.flattenToString();
+        final int count = getInt(key + SUFFIX_READY_COUNT);
+        final float latency = count == 0 ? milliseconds
+                : getAverageReadyLatency(service) + LATENCY_RATE * (milliseconds - getAverageReadyLatency(service));
+
+        put(key + SUFFIX_READY_COUNT, count + 1);
+        put(key + SUFFIX_LATENCY, latency);
+    }
+
+    /**
+     * Records an error of the given service. Errors caused by the user, like no match or
+     * no speech input, are ignored.
+     * @param service recognition service
+     * @param code error code
+     */
+    public synchronized void recordError(final ComponentName service, final int code) {
+        if (service == null || code == SpeechRecognizer.ERROR_NO_MATCH
+                || code == SpeechRecognizer.ERROR_SPEECH_TIMEOUT)
+            return;
+
+        final String key = service.flattenToString();
+        put(key + SUFFIX_ERRORS, getInt(key + SUFFIX_ERRORS) + 1);
+    }
+
+    /**
+     * @param service recognition service
+     * @return number of sessions started on the service
+     */
+    public synchronized int getSessions(final ComponentName service) {
+        return getInt(service.flattenToString() + SUFFIX_SESSIONS);
+    }
+
+    /**
+     * @param service recognition service
+     * @return errors per session, between 0 and 1
+     */
+    public synchronized float getErrorRate(final ComponentName service) {
+        final int sessions = getSessions(service);
+
+        if (sessions == 0)
+            return 0;
+
+        final int errors = getInt(service.flattenToString() + SUFFIX_ERRORS);
+        return Math.min(1f, (float) errors / sessions);
+    }
+
+    /**
+     * @param service recognition service
+     * @return exponential moving average of the time to be ready for speech in milliseconds,
+     * or -1 if the service never got ready
+     */
+    public synchronized float getAverageReadyLatency(final ComponentName service) {
+        final String key = service.flattenToString() + SUFFIX_LATENCY;
+
+        if (mPendingValues.containsKey(key))
+            return (Float) mPendingValues.get(key);
+
+        return mPendingClear ? -1 : mPreferences.getFloat(key, -1);
+    }
+
+    /**
+     * Forgets all the recorded statistics, the pinned and the selected service.
+     */
+    public synchronized void reset() {
+        mPendingValues.clear();
+        mPendingClear = true;
+        flush();
+    }
+
+    /**
+     * Writes the recorded statistics to the preferences now, instead of waiting for
+     * the pending batch to be written.
+     */
+    public synchronized void flush() {
+        SharedHandler.get().removeCallbacks(mFlushRunnable);
+
+        if (!mPendingClear && mPendingValues.isEmpty())
+            return;
+
+        final SharedPreferences.Editor editor = mPreferences.edit();
+
+        if (mPendingClear)
+            editor.clear();
+
+        for (final Map.Entry<String, Object> entry : mPendingValues.entrySet()) {
+            final Object value = entry.getValue();
+
+            if (value == null) {
+                editor.remove(entry.getKey());
+            } else if (value instanceof Integer) {
+                editor.putInt(entry.getKey(), (Integer) value);
+            } else if (value instanceof Float) {
+                editor.putFloat(entry.getKey(), (Float) value);
+            } else {
+                editor.putString(entry.getKey(), (String) value);
+            }
+        }
+
+        editor.apply();
+        mPendingValues.clear();
+        mPendingClear = false;
+    }
+
+    private void put(final String key, final Object value) {
+        mPendingValues.put(key, value);
+        SharedHandler.get().removeCallbacks(mFlushRunnable);
+        SharedHandler.get().postDelayed(mFlushRunnable, FLUSH_DELAY_MILLIS);
+    }
+
+    private int getInt(final String key) {
+        if (mPendingValues.containsKey(key))
+            return (Integer) mPendingValues.get(key);
+
+        return mPendingClear ? 0 : mPreferences.getInt(key, 0);
+    }
+
+    private String getString(final String key) {
+        if (mPendingValues.containsKey(key)) {
+            final String value = (String) mPendingValues.get(key);
+            return value == null ? "" : value;
+        }
+
+        return mPendingClear ? "" : mPreferences.getString(key, "");
+    }
+}
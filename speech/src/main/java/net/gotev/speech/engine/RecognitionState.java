@@ -0,0 +1,45 @@
+package net.gotev.speech.engine;
+
+/**
+ * Lifecycle states of a speech recognition engine.
+ * A session goes through IDLE, STARTING, READY, SPEAKING and FINALIZING, then returns to IDLE,
+ * passing through RECYCLING when the speech recognizer has to be recreated.
+ */
+public enum RecognitionState {
+    /**
+     * No session is active and the engine can start listening.
+     */
+    IDLE,
+
+    /**
+     * The speech recognizer has been asked to start listening.
+     */
+    STARTING,
+
+    /**
+     * The speech recognizer is ready to receive speech.
+     */
+    READY,
+
+    /**
+     * The user started to speak.
+     */
+    SPEAKING,
+
+    /**
+     * The session is ending and the results are being delivered.
+     */
+    FINALIZING,
+
+    /**
+     * The speech recognizer is being destroyed and recreated.
+     */
+    RECYCLING;
+
+    /**
+     * @return true if a session is in progress and the engine is listening
+     */
+    public boolean isListening() {
+        return this == STARTING || this == READY || this == SPEAKING;
+    }
+}
@@ -0,0 +1,14 @@
+package net.gotev.speech.engine;
+
+/**
+ * Receives the lifecycle state transitions of a speech recognition engine.
+ */
+public interface RecognitionStateListener {
+
+    /**
+     * Invoked after a state transition happened, on the thread which performed it.
+     * @param from previous state
+     * @param to new state
+     */
+    void onStateChanged(RecognitionState from, RecognitionState to);
+}
@@ -0,0 +1,95 @@
+package net.gotev.speech.engine;
+
+import net.gotev.speech.Logger;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Lock-free holder of the {@link RecognitionState} of a speech recognition engine.
+ * Transitions are performed with compare and set, so when multiple threads try to perform
+ * the same transition, only one of them wins.
+ */
+public class RecognitionStateMachine {
+
+    private static final String LOG_TAG = RecognitionStateMachine.class.getSimpleName();
+
+    private final AtomicReference<RecognitionState> mState =
+            new AtomicReference<>(RecognitionState.IDLE);
+
+    private volatile RecognitionStateListener mListener;
+
+    public RecognitionState get() {
+        return mState.get();
+    }
+
+    /**
+     * @return true if a session is in progress and the engine is listening
+     */
+    public boolean isListening() {
+        return mState.get().isListening();
+    }
+
+    /**
+     * Moves to the given state only if the current state is the expected one.
+     * @param expected expected current state
+     * @param next new state
+     * @return true if the transition has been performed
+     */
+    public boolean compareAndSet(final RecognitionState expected, final RecognitionState next) {
+        if (!mState.compareAndSet(expected, next))
+            return false;
+
+        notifyListener(expected, next);
+        return true;
+    }
+
+    /**
+     * Moves to the given state only if a session is in progress.
+     * @param next new state
+     * @return true if the transition has been performed, false if no session was in progress
+     */
+    public boolean transitionFromListening(final RecognitionState next) {
+        while (true) {
+            final RecognitionState current = mState.get();
+
+            if (!current.isListening())
+                return false;
+
+            if (mState.compareAndSet(current, next)) {
+                notifyListener(current, next);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Moves to the given state, whatever the current state is.
+     * @param next new state
+     * @return previous state
+     */
+    public RecognitionState set(final RecognitionState next) {
+        final RecognitionState previous = mState.getAndSet(next);
+
+        if (previous != next)
+            notifyListener(previous, next);
+
+        return previous;
+    }
+
+    public void setListener(final RecognitionStateListener listener) {
+        mListener = listener;
+    }
+
+    private void notifyListener(final RecognitionState from, final RecognitionState to) {
+        final RecognitionStateListener listener = mListener;
+
+        if (listener == null)
+            return;
+
+        try {
+            listener.onStateChanged(from, to);
+        } catch (final Throwable exc) {
+            Logger.error(LOG_TAG, "Unhandled exception in listener onStateChanged", exc);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package net.gotev.speech.engine;
+
+import android.os.SystemClock;
+
+import net.gotev.speech.SessionTimeout;
+import net.gotev.speech.SharedHandler;
+
+/**
+ * Detects recognition sessions in which the speech recognizer stopped calling back.
+ * Every stage of the session has its own deadline, and only one stage at a time is watched,
+ * using a single runnable on the main thread. Must be used from the main thread.
+ */
+class SessionWatchdog {
+
+    interface Listener {
+        void onSessionTimeout(SessionTimeout timeout, long elapsedMillis);
+    }
+
+    private final Listener mListener;
+    private final long[] mDeadlines = new long[SessionTimeout.values().length];
+    private SessionTimeout mStage;
+    private long mStageStart;
+    private boolean mPosted;
+
+    private final Runnable mRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mPosted = false;
+
+            final SessionTimeout stage = mStage;
+            if (stage == null)
+                return;
+
+            final long elapsed = SystemClock.elapsedRealtime() - mStageStart;
+            mStage = null;
+            mListener.onSessionTimeout(stage, elapsed);
+        }
+    };
+
+    SessionWatchdog(final Listener listener) {
+        mListener = listener;
+        mDeadlines[SessionTimeout.READY_FOR_SPEECH.ordinal()] = 8000;
+        mDeadlines[SessionTimeout.FIRST_AUDIO.ordinal()] = 5000;
+        mDeadlines[SessionTimeout.RESULT.ordinal()] = 8000;
+    }
+
+    /**
+     * Sets the deadline of a stage.
+     * @param stage session stage
+     * @param milliseconds deadline in milliseconds, 0 to not watch the stage
+     */
+    void setDeadline(final SessionTimeout stage, final long milliseconds) {
+        if (milliseconds < 0)
+            throw new IllegalArgumentException("deadline must not be negative");
+
+        mDeadlines[stage.ordinal()] = milliseconds;
+    }
+
+    /**
+     * Starts watching a stage, replacing the one being watched.
+     * @param stage session stage
+     */
+    void watch(final SessionTimeout stage) {
+        disarm();
+
+        final long deadline = mDeadlines[stage.ordinal()];
+        if (deadline > 0) {
+            mStage = stage;
+            mStageStart = SystemClock.elapsedRealtime();
+            mPosted = true;
+            SharedHandler.get().postDelayed(mRunnable, deadline);
+        }
+    }
+
+    /**
+     * Stops watching the given stage, if it's the one being watched.
+     * @param stage session stage
+     * @return elapsed milliseconds since the stage began, or -1 if it wasn't being watched
+     */
+    long complete(final SessionTimeout stage) {
+        if (mStage != stage)
+            return -1;
+
+        final long elapsed = SystemClock.elapsedRealtime() - mStageStart;
+        disarm();
+        return elapsed;
+    }
+
+    /**
+     * @return the stage being watched, or null
+     */
+    SessionTimeout getStage() {
+        return mStage;
+    }
+
+    void disarm() {
+        mStage = null;
+
+        if (mPosted) {
+            SharedHandler.get().removeCallbacks(mRunnable);
+            mPosted = false;
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package net.gotev.speech.engine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tracks the longest stable prefix of words across successive partial results and commits
+ * the words as soon as they become stable, so they can be processed before the final result.
+ * <p>
+ * A word becomes stable when it has been seen at the same position, preceded by the same
+ * words, in a number of consecutive partial results. Words which the recognizer reports
+ * outside of its unstable text need one repetition less. The last word is never committed
+ * while it's at the end of the text, because the recognizer may still be extending it.
+ * <p>
+ * Committed words are never retracted: if the recognizer later revises them, the final
+ * result is the authoritative text.
+ */
+public class StablePrefixTracker {
+
+    private final int mMinRepetitions;
+
+    private final StringBuilder mPrevious = new StringBuilder(256);
+    private int[] mPrevStarts = new int[32];
+    private int[] mPrevEnds = new int[32];
+    private int[] mPrevCounts = new int[32];
+    private int mPrevWords;
+
+    private int[] mStarts = new int[32];
+    private int[] mEnds = new int[32];
+    private int[] mCounts = new int[32];
+
+    private final List<String> mCommitted = new ArrayList<>();
+    private final StringBuilder mCommittedText = new StringBuilder(256);
+
+    /**
+     * Creates a tracker which commits a word after seeing it in 2 consecutive partial results.
+     */
+    public StablePrefixTracker() {
+        this(2);
+    }
+
+    /**
+     * Creates a new tracker.
+     * @param minRepetitions number of consecutive partial results in which a word has to be
+     *                       seen at the same position to be committed
+     */
+    public StablePrefixTracker(final int minRepetitions) {
+        if (minRepetitions < 1)
+            throw new IllegalArgumentException("minRepetitions must be at least 1");
+
+        mMinRepetitions = minRepetitions;
+    }
+
+    /**
+     * Updates the tracker with new partial results.
+     * @param stable text which the recognizer considers stable, or the whole partial results
+     *               text if the recognizer doesn't report unstable text
+     * @param hasUnstable true if the recognizer reported unstable text after the stable one
+     * @return number of newly committed words, which are the last ones of
+     * {@link #getCommittedWords()}
+     */
+    public int update(final CharSequence stable, final boolean hasUnstable) {
+        final int words = tokenize(stable);
+
+        boolean samePrefix = true;
+        for (int i = 0; i < words; i++) {
+            samePrefix = samePrefix && i < mPrevWords && sameWord(stable, i);
+            mCounts[i] = samePrefix ? mPrevCounts[i] + 1 : 1;
+        }
+
+        final int required = hasUnstable ? Math.max(1, mMinRepetitions - 1) : mMinRepetitions;
+        final int candidates = hasUnstable ? words : words - 1;
+        final int committedBefore = mCommitted.size();
+
+        while (mCommitted.size() < candidates && mCounts[mCommitted.size()] >= required) {
+            final int index = mCommitted.size();
+            final String word = stable.subSequence(mStarts[index], mEnds[index]).toString();
+
+            if (mCommittedText.length() > 0)
+                mCommittedText.append(' ');
+
+            mCommittedText.append(word);
+            mCommitted.add(word);
+        }
+
+        mPrevious.setLength(0);
+        mPrevious.append(stable);
+        swapBuffers();
+        mPrevWords = words;
+
+        return mCommitted.size() - committedBefore;
+    }
+
+    /**
+     * @return committed words, in order. The list must not be modified
+     */
+    public List<String> getCommittedWords() {
+        return mCommitted;
+    }
+
+    /**
+     * @return committed words separated by a space. It's a live view which must not be
+     * retained across updates
+     */
+    public CharSequence getCommittedText() {
+        return mCommittedText;
+    }
+
+    /**
+     * Forgets the committed words and the previous partial results.
+     */
+    public void reset() {
+        mPrevious.setLength(0);
+        mPrevWords = 0;
+        mCommitted.clear();
+        mCommittedText.setLength(0);
+    }
+
+    private int tokenize(final CharSequence text) {
+        final int length = text.length();
+        int words = 0;
+        int i = 0;
+
+        while (i < length) {
+            while (i < length && Character.isWhitespace(text.charAt(i))) {
+                i++;
+            }
+
+            if (i == length)
+                break;
+
+            if (words == mStarts.length) {
+                mStarts = Arrays.copyOf(mStarts, words * 2);
+                mEnds = Arrays.copyOf(mEnds, words * 2);
+                mCounts = Arrays.copyOf(mCounts, words * 2);
+            }
+
+            mStarts[words] = i;
+
+            while (i < length && !Character.isWhitespace(text.charAt(i))) {
+                i++;
+            }
+
+            mEnds[words] = i;
+            words++;
+        }
+
+        return words;
+    }
+
+    private boolean sameWord(final CharSequence text, final int index) {
+        final int length = mEnds[index] - mStarts[index];
+
+        if (length != mPrevEnds[index] - mPrevStarts[index])
+            return false;
+
+        for (int i = 0; i < length; i++) {
+            if (text.charAt(mStarts[index] + i) != mPrevious.charAt(mPrevStarts[index] + i))
+                return false;
+        }
+
+        return true;
+    }
+
+    private void swapBuffers() {
+        int[] tmp = mPrevStarts;
+        mPrevStarts = mStarts;
+        mStarts = tmp;
+
+        tmp = mPrevEnds;
+        mPrevEnds = mEnds;
+        mEnds = tmp;
+
+        tmp = mPrevCounts;
+        mPrevCounts = mCounts;
+        mCounts = tmp;
+
+        if (mStarts.length < mPrevStarts.length) {
+            mStarts = new int[mPrevStarts.length];
+            mEnds = new int[mPrevStarts.length];
+            mCounts = new int[mPrevStarts.length];
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package net.gotev.speech.engine;
+
+import java.util.List;
+
+/**
+ * Reusable buffer which holds the text recognized so far in a session, made of a stable
+ * segment (the partial results) followed by an unstable segment (the text which the
+ * recognizer may still change). Both segments are kept in a single growable char array,
+ * so updating them does not allocate memory once the array is big enough.
+ * The text can be read through {@link CharSequence} views which do not copy it, and which
+ * reflect the current content of the buffer, so they must not be retained across updates.
+ * A {@link String} is built only when explicitly requested.
+ */
+public class TranscriptBuffer {
+
+    private char[] mChars = new char[256];
+    private int mStableLength;
+    private int mLength;
+
+    private final Segment mStableView = new Segment(Segment.STABLE);
+    private final Segment mUnstableView = new Segment(Segment.UNSTABLE);
+    private final Segment mTextView = new Segment(Segment.ALL);
+
+    /**
+     * Replaces the stable segment with the given partial results, separated by a space.
+     * The unstable segment is cleared.
+     * @param partials partial results
+     */
+    public void setStable(final List<String> partials) {
+        mLength = 0;
+
+        for (int i = 0; i < partials.size(); i++) {
+            final String partial = partials.get(i);
+
+            if (partial == null || partial.isEmpty())
+                continue;
+
+            if (mLength > 0)
+                append(' ');
+
+            append(partial);
+        }
+
+        mStableLength = mLength;
+    }
+
+    /**
+     * Replaces the unstable segment.
+     * @param unstable unstable text, or null to clear it
+     */
+    public void setUnstable(final CharSequence unstable) {
+        mLength = mStableLength;
+
+        if (unstable == null || unstable.length() == 0)
+            return;
+
+        if (mLength > 0)
+            append(' ');
+
+        append(unstable);
+    }
+
+    public void clear() {
+        mStableLength = 0;
+        mLength = 0;
+    }
+
+    public boolean isEmpty() {
+        return mLength == 0;
+    }
+
+    /**
+     * @return view of the stable segment
+     */
+    public CharSequence getStableText() {
+        return mStableView;
+    }
+
+    /**
+     * @return view of the unstable segment, without the separator from the stable one
+     */
+    public CharSequence getUnstableText() {
+        return mUnstableView;
+    }
+
+    /**
+     * @return view of the whole text
+     */
+    public CharSequence getText() {
+        return mTextView;
+    }
+
+    /**
+     * Builds a string of the whole text, without leading and trailing whitespace.
+     * @return text
+     */
+    public String toTrimmedString() {
+        int start = 0;
+        int end = mLength;
+
+        while (start < end && mChars[start] <= ' ') {
+            start++;
+        }
+
+        while (end > start && mChars[end - 1] <= ' ') {
+            end--;
+        }
+
+        return new String(mChars, start, end - start);
+    }
+
+    @Override
+    public String toString() {
+        return new String(mChars, 0, mLength);
+    }
+
+    private void append(final char c) {
+        ensureCapacity(mLength + 1);
+        mChars[mLength++] = c;
+    }
+
+    private void append(final CharSequence text) {
+        final int length = text.length();
+        ensureCapacity(mLength + length);
+
+        if (text instanceof String) {
+            ((String) text).getChars(0, length, mChars, mLength);
+        } else {
+            for (int i = 0; i < length; i++) {
+                mChars[mLength + i] = text.charAt(i);
+            }
+        }
+
+        mLength += length;
+    }
+
+    private void ensureCapacity(final int capacity) {
+        if (capacity <= mChars.length)
+            return;
+
+        final char[] chars = new char[Math.max(capacity, mChars.length * 2)];
+        System.arraycopy(mChars, 0, chars, 0, mLength);
+        mChars = chars;
+    }
+
+    private int unstableStart() {
+        return mLength > mStableLength && mStableLength > 0 ? mStableLength + 1 : mStableLength;
+    }
+
+    /**
+     * Live view of a segment of the buffer.
+     */
+    private class Segment implements CharSequence {
+        static final int STABLE = 0;
+        static final int UNSTABLE = 1;
+        static final int ALL = 2;
+
+        private final int mType;
+
+        Segment(final int type) {
+            mType = type;
+        }
+
+        private int start() {
+            return mType == UNSTABLE ? unstableStart() : 0;
+        }
+
+        private int end() {
+            return mType == STABLE ? mStableLength : mLength;
+        }
+
+        @Override
+        public int length() {
+            return end() - start();
+        }
+
+        @Override
+        public char charAt(final int index) {
+            if (index < 0 || index >= length())
+                throw new IndexOutOfBoundsException("index: " + index + ", length: " + length());
+
+            return mChars[start() + index];
+        }
+
+        @Override
+        public CharSequence subSequence(final int start, final int end) {
+            if (start < 0 || end > length() || start > end)
+                throw new IndexOutOfBoundsException("start: " + start + ", end: " + end + ", length: " + length());
+
+            return new String(mChars, start() + start, end - start);
+        }
+
+        @Override
+        public String toString() {
+            return new String(mChars, start(), length());
+        }
+    }
+}
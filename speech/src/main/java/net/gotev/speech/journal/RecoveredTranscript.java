@@ -0,0 +1,66 @@
+package net.gotev.speech.journal;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Transcript recovered from a {@link TranscriptJournal} written by a previous process.
+ */
+public class RecoveredTranscript {
+
+    private final List<String> mFinalResults;
+    private final String mPendingPartial;
+
+    public RecoveredTranscript(final List<String> finalResults, final String pendingPartial) {
+        mFinalResults = Collections.unmodifiableList(finalResults);
+        mPendingPartial = pendingPartial;
+    }
+
+    /**
+     * @return final results of the sessions, in order
+     */
+    public List<String> getFinalResults() {
+        return mFinalResults;
+    }
+
+    /**
+     * @return partial results of the session which was interrupted, or null if the last
+     * session delivered its final results
+     */
+    public String getPendingPartial() {
+        return mPendingPartial;
+    }
+
+    /**
+     * @return final results followed by the pending partial results, separated by a space
+     */
+    public String getText() {
+        final StringBuilder builder = new StringBuilder();
+
+        for (final String result : mFinalResults) {
+            append(builder, result);
+        }
+
+        append(builder, mPendingPartial);
+        return builder.toString();
+    }
+
+    public boolean isEmpty() {
+        return mFinalResults.isEmpty() && (mPendingPartial == null || mPendingPartial.isEmpty());
+    }
+
+    private static void append(final StringBuilder builder, final String text) {
+        if (text == null || text.isEmpty())
+            return;
+
+        if (builder.length() > 0)
+            builder.append(' ');
+
+        builder.append(text);
+    }
+
+    @Override
+    public String toString() {
+        return getText();
+    }
+}
@@ -0,0 +1,12 @@
+package net.gotev.speech.journal;
+
+/**
+ * Receives the transcript recovered from a {@link TranscriptJournal} written by a previous process.
+ */
+public interface RecoveredTranscriptListener {
+    /**
+     * Called on the main thread when the recovery is complete.
+     * @param transcript recovered transcript, or null if there was nothing to recover
+     */
+    void onTranscriptRecovered(RecoveredTranscript transcript);
+}
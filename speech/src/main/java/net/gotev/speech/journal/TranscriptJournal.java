@@ -0,0 +1,621 @@
+package net.gotev.speech.journal;
+
+import net.gotev.speech.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Journal which persists the partial and final results of the speech recognition sessions,
+ * so that the transcript can be recovered if the process dies, with {@link #recover(File)}
+ * or {@link #recoverInBackground(File)}.
+ * <p>
+ * Events are copied into a fixed pool of reusable slots and written by a background thread
+ * into a memory-mapped segment file, as length-prefixed records with a checksum. The length
+ * is written last, so a record is either complete or ignored on recovery. Being memory-mapped,
+ * written records survive a process crash; {@link MappedByteBuffer#force()} is called
+ * periodically and after every final result to survive a device crash too.
+ * <p>
+ * When a segment is full, a new one is started with a snapshot of the transcript (the final
+ * results and the last partial results) and the older segments are deleted, so superseded
+ * partial results don't accumulate. Call {@link #clear()} once the app saved the transcript.
+ * <p>
+ * Appending partial results never blocks nor allocates: when all the slots are in use, they are
+ * dropped and counted in {@link #getDroppedEvents()}, since the next ones supersede them.
+ * Final results are never dropped and never make the caller wait: when all the slots are in
+ * use a new one is allocated, and if the writer thread is far behind, they are kept in an
+ * unbounded overflow queue, which the writer drains after the events queued before them.
+ */
+public class TranscriptJournal {
+
+    private static final String LOG_TAG = TranscriptJournal.class.getSimpleName();
+
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private static final byte TYPE_PARTIAL = 1;
+    private static final byte TYPE_FINAL = 2;
+    private static final byte TYPE_CLEAR = 3;
+    private static final byte TYPE_CLOSE = 4;
+
+    // record: int length of the rest, byte type, int checksum, int chars count, chars
+    private static final int HEADER_SIZE = 4 + 1 + 4 + 4;
+
+    private static final class Event {
+        byte type;
+        char[] chars;
+        int length;
+
+        Event(final byte type, final int capacity) {
+            this.type = type;
+            this.chars = new char[capacity];
+        }
+    }
+
+    // markers don't come from the pool, so they are never dropped for lack of slots
+    private static final Event CLEAR = new Event(TYPE_CLEAR, 0);
+    private static final Event CLOSE = new Event(TYPE_CLOSE, 0);
+
+    private final File mDirectory;
+    private final int mSegmentSize;
+    private final long mForceInterval;
+    private final Future<?> mRecovery;
+
+    private final ArrayBlockingQueue<Event> mFreeEvents;
+    private final ArrayBlockingQueue<Event> mPendingEvents;
+    // events which must not be dropped, enqueued while the pending events queue was full
+    private final ConcurrentLinkedQueue<Event> mOverflowEvents = new ConcurrentLinkedQueue<>();
+    private final AtomicLong mDroppedEvents = new AtomicLong();
+    private final Thread mThread;
+    private volatile boolean mClosed;
+
+    // accessed only by the writer thread
+    private RandomAccessFile mFile;
+    private MappedByteBuffer mSegment;
+    private long mSegmentNumber;
+    private boolean mDirty;
+    private long mLastForce;
+    private final ArrayList<String> mFinalResults = new ArrayList<>();
+    private char[] mPartial = new char[256];
+    private int mPartialLength;
+
+    /**
+     * Creates a journal with 256KB segments, forced to disk every second.
+     * Existing segments in the directory are deleted, so recover them first.
+     * @param directory directory in which to keep the segments
+     */
+    public TranscriptJournal(final File directory) {
+        this(directory, 256 * 1024, 1000, 64, null);
+    }
+
+    /**
+     * Creates a journal with 256KB segments, forced to disk every second, which starts writing
+     * only when the given recovery of the previous transcript is complete, since it deletes
+     * the existing segments.
+     * @param directory directory in which to keep the segments
+     * @param recovery pending recovery, as returned by {@link #recoverInBackground(File)}
+     */
+    public TranscriptJournal(final File directory, final Future<?> recovery) {
+        this(directory, 256 * 1024, 1000, 64, recovery);
+    }
+
+    /**
+     * Creates a new journal. Existing segments in the directory are deleted, so recover them first.
+     * @param directory directory in which to keep the segments
+     * @param segmentSize size in bytes of each segment
+     * @param forceIntervalMillis maximum time for which written records are not forced to disk
+     * @param slots number of pooled event slots
+     */
+    public TranscriptJournal(final File directory, final int segmentSize,
+                             final long forceIntervalMillis, final int slots) {
+        this(directory, segmentSize, forceIntervalMillis, slots, null);
+    }
+
+    /**
+     * Creates a new journal, which starts writing only when the given recovery of the previous
+     * transcript is complete, since it deletes the existing segments.
+     * @param directory directory in which to keep the segments
+     * @param segmentSize size in bytes of each segment
+     * @param forceIntervalMillis maximum time for which written records are not forced to disk
+     * @param slots number of pooled event slots
+     * @param recovery pending recovery, as returned by {@link #recoverInBackground(File)},
+     *                 or null if the segments have already been recovered
+     */
+    public TranscriptJournal(final File directory, final int segmentSize,
+                             final long forceIntervalMillis, final int slots,
+                             final Future<?> recovery) {
+        if (directory == null)
+            throw new IllegalArgumentException("directory must be defined!");
+
+        if (segmentSize < 4096 || forceIntervalMillis <= 0 || slots <= 0)
+            throw new IllegalArgumentException("invalid journal settings");
+
+        mDirectory = directory;
+        mSegmentSize = segmentSize;
+        mForceInterval = forceIntervalMillis;
+        mRecovery = recovery;
+        mFreeEvents = new ArrayBlockingQueue<>(slots);
+        // leave room for the final results allocated when the slots are over and the markers,
+        // so that the overflow queue is rarely needed
+        mPendingEvents = new ArrayBlockingQueue<>(slots * 2 + 2);
+
+        for (int i = 0; i < slots; i++) {
+            mFreeEvents.add(new Event(TYPE_PARTIAL, 256));
+        }
+
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeLoop();
+            }
+        }, "speech-transcript-journal");
+        mThread.setDaemon(true);
+        mThread.start();
+    }
+
+    /**
+     * Appends the partial results of the current session, which replace the previous ones.
+     * @param text partial results text
+     */
+    public void appendPartial(final CharSequence text) {
+        enqueue(TYPE_PARTIAL, text);
+    }
+
+    /**
+     * Appends the final results of a session.
+     * @param text final results text
+     */
+    public void appendFinal(final CharSequence text) {
+        enqueue(TYPE_FINAL, text);
+    }
+
+    /**
+     * Forgets the journaled transcript, for example after the app saved it.
+     */
+    public void clear() {
+        enqueueMarker(CLEAR);
+    }
+
+    /**
+     * Writes the pending events, forces them to disk and stops the writer thread.
+     * The segments are kept, so they can be recovered.
+     */
+    public void close() {
+        if (mClosed)
+            return;
+
+        enqueueMarker(CLOSE);
+        mClosed = true;
+    }
+
+    /**
+     * @return number of partial results dropped because all the slots were in use
+     */
+    public long getDroppedEvents() {
+        return mDroppedEvents.get();
+    }
+
+    /**
+     * Reads the transcript journaled by a previous process.
+     * @param directory directory containing the segments
+     * @return recovered transcript, or null if there is nothing to recover
+     */
+    public static RecoveredTranscript recover(final File directory) {
+        final File[] segments = listSegments(directory);
+
+        if (segments.length == 0)
+            return null;
+
+        final ArrayList<String> finals = new ArrayList<>();
+        String partial = null;
+
+        for (final File segment : segments) {
+            try (RandomAccessFile file = new RandomAccessFile(segment, "r")) {
+                final MappedByteBuffer buffer = file.getChannel()
+                        .map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+
+                while (buffer.remaining() >= HEADER_SIZE) {
+                    final int start = buffer.position();
+                    final int length = buffer.getInt();
+
+                    if (length < HEADER_SIZE - 4 || length > buffer.remaining())
+                        break;
+
+                    final byte type = buffer.get();
+                    final int checksum = buffer.getInt();
+                    final int chars = buffer.getInt();
+
+                    if (chars < 0 || chars * 2 != length - (HEADER_SIZE - 4))
+                        break;
+
+                    final char[] text = new char[chars];
+                    for (int i = 0; i < chars; i++) {
+                        text[i] = buffer.getChar();
+                    }
+
+                    if (checksum(type, text, chars) != checksum) {
+                        Logger.error(LOG_TAG, "Corrupted record at " + start + " in " + segment.getName());
+                        break;
+                    }
+
+                    if (type == TYPE_PARTIAL) {
+                        partial = new String(text);
+                    } else if (type == TYPE_FINAL) {
+                        if (chars > 0)
+                            finals.add(new String(text));
+                        partial = null;
+                    } else if (type == TYPE_CLEAR) {
+                        finals.clear();
+                        partial = null;
+                    }
+                }
+            } catch (final IOException exc) {
+                Logger.error(LOG_TAG, "Unable to read " + segment.getName(), exc);
+            }
+        }
+
+        final RecoveredTranscript transcript = new RecoveredTranscript(finals,
+                partial == null || partial.isEmpty() ? null : partial);
+        return transcript.isEmpty() ? null : transcript;
+    }
+
+    /**
+     * Reads the transcript journaled by a previous process on a background thread.
+     * @param directory directory containing the segments
+     * @return pending recovery, whose result is the recovered transcript, or null if there
+     * is nothing to recover
+     */
+    public static Future<RecoveredTranscript> recoverInBackground(final File directory) {
+        final FutureTask<RecoveredTranscript> task = new FutureTask<>(new Callable<RecoveredTranscript>() {
+            @Override
+            public RecoveredTranscript call() {
+                return recover(directory);
+            }
+        });
+
+        final Thread thread = new Thread(task, "speech-transcript-recovery");
+        thread.setDaemon(true);
+        thread.start();
+        return task;
+    }
+
+    /**
+     * Deletes the segments in the given directory. Don't call it while a journal is using it.
+     * @param directory directory containing the segments
+     */
+    public static void delete(final File directory) {
+        for (final File segment : listSegments(directory)) {
+            if (!segment.delete())
+                Logger.error(LOG_TAG, "Unable to delete " + segment.getName());
+        }
+    }
+
+    private void enqueue(final byte type, final CharSequence text) {
+        if (mClosed)
+            return;
+
+        final int length = text == null ? 0 : text.length();
+        Event event = mFreeEvents.poll();
+
+        if (event == null) {
+            if (type != TYPE_FINAL) {
+                mDroppedEvents.incrementAndGet();
+                return;
+            }
+
+            // final results are rare, and they can't be superseded like the partial ones
+            event = new Event(type, length);
+        }
+
+        if (event.chars.length < length)
+            event.chars = new char[Math.max(length, event.chars.length * 2)];
+
+        for (int i = 0; i < length; i++) {
+            event.chars[i] = text.charAt(i);
+        }
+
+        event.type = type;
+        event.length = length;
+
+        if (type == TYPE_FINAL) {
+            put(event);
+        } else if (!mOverflowEvents.isEmpty() || !mPendingEvents.offer(event)) {
+            mFreeEvents.offer(event);
+            mDroppedEvents.incrementAndGet();
+        }
+    }
+
+    private void enqueueMarker(final Event marker) {
+        if (mClosed)
+            return;
+
+        put(marker);
+    }
+
+    /**
+     * Enqueues an event which must not be dropped, without waiting for the writer thread.
+     * While there are overflow events, the new ones follow them, to keep the order.
+     */
+    private void put(final Event event) {
+        if (!mOverflowEvents.isEmpty() || !mPendingEvents.offer(event))
+            mOverflowEvents.offer(event);
+    }
+
+    /**
+     * Waits for the next event. The overflow events always follow the pending ones, since
+     * they are enqueued only while the pending events queue is full or other overflow events
+     * are waiting, and the writer never waits while there are overflow events.
+     * @return next event, or null if no event arrived within the force interval
+     */
+    private Event nextEvent() throws InterruptedException {
+        Event event = mPendingEvents.poll();
+
+        if (event == null)
+            event = mOverflowEvents.poll();
+
+        if (event != null)
+            return event;
+
+        return mDirty ? mPendingEvents.poll(mForceInterval, TimeUnit.MILLISECONDS)
+                : mPendingEvents.take();
+    }
+
+    private void writeLoop() {
+        // the existing segments are deleted when starting, so they must have been recovered
+        if (mRecovery != null) {
+            try {
+                mRecovery.get();
+            } catch (final InterruptedException exc) {
+                mClosed = true;
+                return;
+            } catch (final ExecutionException | CancellationException exc) {
+                Logger.error(LOG_TAG, "Transcript recovery failed", exc);
+            }
+        }
+
+        try {
+            startSegment();
+        } catch (final IOException exc) {
+            Logger.error(LOG_TAG, "Unable to open transcript journal", exc);
+            mClosed = true;
+            return;
+        }
+
+        while (true) {
+            final Event event;
+
+            try {
+                event = nextEvent();
+            } catch (final InterruptedException exc) {
+                break;
+            }
+
+            if (event == null) {
+                force();
+                continue;
+            }
+
+            try {
+                if (!handle(event))
+                    break;
+            } catch (final IOException exc) {
+                Logger.error(LOG_TAG, "Unable to write transcript journal", exc);
+            } finally {
+                if (event != CLEAR && event != CLOSE)
+                    mFreeEvents.offer(event);
+            }
+
+            if (mDirty && System.currentTimeMillis() - mLastForce >= mForceInterval)
+                force();
+        }
+
+        force();
+        closeSegment();
+    }
+
+    /**
+     * @return false if the journal has been closed
+     */
+    private boolean handle(final Event event) throws IOException {
+        switch (event.type) {
+            // written before updating the snapshot, since writing may rotate the segment,
+            // which starts with the snapshot
+            case TYPE_PARTIAL:
+                write(TYPE_PARTIAL, event.chars, event.length);
+
+                if (mPartial.length < event.length)
+                    mPartial = Arrays.copyOf(event.chars, Math.max(event.length, mPartial.length * 2));
+                else
+                    System.arraycopy(event.chars, 0, mPartial, 0, event.length);
+
+                mPartialLength = event.length;
+                return true;
+
+            case TYPE_FINAL:
+                write(TYPE_FINAL, event.chars, event.length);
+
+                if (event.length > 0)
+                    mFinalResults.add(new String(event.chars, 0, event.length));
+
+                mPartialLength = 0;
+                force();
+                return true;
+
+            case TYPE_CLEAR:
+                mFinalResults.clear();
+                mPartialLength = 0;
+                // a new segment starting with a clear record makes the older ones obsolete
+                rotate();
+                return true;
+
+            default:
+                return false;
+        }
+    }
+
+    private void write(final byte type, final char[] chars, final int length) throws IOException {
+        if (mSegment.remaining() < HEADER_SIZE + length * 2)
+            rotate();
+
+        if (mSegment.remaining() < HEADER_SIZE + length * 2) {
+            Logger.error(LOG_TAG, "Record of " + length + " chars too big, skipping it");
+            return;
+        }
+
+        final int start = mSegment.position();
+        mSegment.position(start + 4);
+        mSegment.put(type);
+        mSegment.putInt(checksum(type, chars, length));
+        mSegment.putInt(length);
+
+        for (int i = 0; i < length; i++) {
+            mSegment.putChar(chars[i]);
+        }
+
+        // the length is written last, so an interrupted record is never considered valid
+        mSegment.putInt(start, mSegment.position() - start - 4);
+        mDirty = true;
+    }
+
+    /**
+     * Starts a new segment with a snapshot of the transcript and deletes the older segments.
+     */
+    private void rotate() throws IOException {
+        int snapshotSize = HEADER_SIZE * (mFinalResults.size() + 2) + mPartialLength * 2;
+        for (final String result : mFinalResults) {
+            snapshotSize += result.length() * 2;
+        }
+
+        force();
+        closeSegment();
+        startSegment(Math.max(mSegmentSize, snapshotSize * 2));
+
+        write(TYPE_CLEAR, mPartial, 0);
+
+        for (final String result : mFinalResults) {
+            final char[] chars = result.toCharArray();
+            write(TYPE_FINAL, chars, chars.length);
+        }
+
+        if (mPartialLength > 0)
+            write(TYPE_PARTIAL, mPartial, mPartialLength);
+
+        force();
+        deleteSegmentsBefore(mSegmentNumber);
+    }
+
+    private void startSegment() throws IOException {
+        if (!mDirectory.exists() && !mDirectory.mkdirs())
+            throw new IOException("Unable to create " + mDirectory);
+
+        // a new journal forgets the previous process transcript, which has been recovered
+        final File[] segments = listSegments(mDirectory);
+        mSegmentNumber = segments.length == 0 ? 0 : segmentNumber(segments[segments.length - 1]);
+        startSegment(mSegmentSize);
+        write(TYPE_CLEAR, mPartial, 0);
+        force();
+        deleteSegmentsBefore(mSegmentNumber);
+    }
+
+    private void startSegment(final int size) throws IOException {
+        mSegmentNumber++;
+        final File file = new File(mDirectory, SEGMENT_PREFIX + mSegmentNumber + SEGMENT_SUFFIX);
+        mFile = new RandomAccessFile(file, "rw");
+        mSegment = mFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+    }
+
+    private void closeSegment() {
+        mSegment = null;
+
+        if (mFile == null)
+            return;
+
+        try {
+            mFile.close();
+        } catch (final IOException exc) {
+            Logger.error(LOG_TAG, "Unable to close journal segment", exc);
+        }
+
+        mFile = null;
+    }
+
+    private void force() {
+        if (!mDirty || mSegment == null)
+            return;
+
+        mSegment.force();
+        mDirty = false;
+        mLastForce = System.currentTimeMillis();
+    }
+
+    private void deleteSegmentsBefore(final long number) {
+        for (final File segment : listSegments(mDirectory)) {
+            if (segmentNumber(segment) < number && !segment.delete()) {
+                Logger.error(LOG_TAG, "Unable to delete " + segment.getName());
+            }
+        }
+    }
+
+    private static File[] listSegments(final File directory) {
+        final File[] files = directory.listFiles();
+
+        if (files == null)
+            return new File[0];
+
+        final ArrayList<File> segments = new ArrayList<>(files.length);
+        for (final File file : files) {
+            if (segmentNumber(file) >= 0)
+                segments.add(file);
+        }
+
+        final File[] sorted = segments.toArray(new File[0]);
+        Arrays.sort(sorted, new Comparator<File>() {
+            @Override
+            public int compare(final File first, final File second) {
+                return Long.compare(segmentNumber(first), segmentNumber(second));
+            }
+        });
+
+        return sorted;
+    }
+
+    private static long segmentNumber(final File file) {
+        final String name = file.getName();
+
+        if (!name.startsWith(SEGMENT_PREFIX) || !name.endsWith(SEGMENT_SUFFIX))
+            return -1;
+
+        try {
+            return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+        } catch (final NumberFormatException exc) {
+            return -1;
+        }
+    }
+
+    private static int checksum(final byte type, final char[] chars, final int length) {
+        // FNV-1a over the type and the chars
+        int hash = 0x811c9dc5;
+        hash = (hash ^ type) * 0x01000193;
+
+        for (int i = 0; i < length; i++) {
+            hash = (hash ^ chars[i]) * 0x01000193;
+        }
+
+        return hash;
+    }
+}
@@ -0,0 +1,78 @@
+package net.gotev.speech;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class RecognitionProfileTest {
+
+    private static final SpeechDelegate DELEGATE = new SpeechDelegate() {
+        @Override
+        public void onStartOfSpeech() {
+        }
+
+        @Override
+        public void onSpeechRmsChanged(final float value) {
+        }
+
+        @Override
+        public void onSpeechPartialResults(final List<String> results) {
+        }
+
+        @Override
+        public void onSpeechResult(final String result) {
+        }
+    };
+
+    private static RecognitionProfile.Builder command() {
+        return new RecognitionProfile.Builder("command")
+                .setMaxResults(5)
+                .setCompleteSilenceLength(600)
+                .setPossiblyCompleteSilenceLength(400);
+    }
+
+    @Test
+    public void profilesBuiltSeparatelyAreEqual() throws Exception {
+        final RecognitionProfile profile = command().build();
+
+        assertEquals(RecognitionProfile.COMMAND, profile);
+        assertEquals(RecognitionProfile.COMMAND.hashCode(), profile.hashCode());
+        assertEquals(RecognitionProfile.DEFAULT, new RecognitionProfile.Builder("default").build());
+    }
+
+    @Test
+    public void profilesWithDifferentSettingsAreNotEqual() throws Exception {
+        assertNotEquals(RecognitionProfile.COMMAND, command().setMaxResults(3).build());
+        assertNotEquals(RecognitionProfile.COMMAND, command().setMinimumLength(1000).build());
+        assertNotEquals(RecognitionProfile.COMMAND, command().setLanguageModel(null).build());
+        assertNotEquals(RecognitionProfile.COMMAND, new RecognitionProfile.Builder("other")
+                .setMaxResults(5)
+                .setCompleteSilenceLength(600)
+                .setPossiblyCompleteSilenceLength(400)
+                .build());
+        assertNotEquals(RecognitionProfile.COMMAND, null);
+    }
+
+    @Test
+    public void requestsWithEqualProfilesShareTheSession() throws Exception {
+        final ListeningRequest first = new ListeningRequest.Builder("first", DELEGATE)
+                .setProfile(command().build())
+                .setShareable(true)
+                .build();
+
+        final ListeningRequest second = new ListeningRequest.Builder("second", DELEGATE)
+                .setProfile(command().build())
+                .setShareable(true)
+                .build();
+
+        final ListeningRequest other = new ListeningRequest.Builder("other", DELEGATE)
+                .setProfile(RecognitionProfile.DICTATION)
+                .setShareable(true)
+                .build();
+
+        assertTrue(first.canShareWith(second));
+        assertFalse(first.canShareWith(other));
+    }
+}
@@ -0,0 +1,432 @@
+package net.gotev.speech;
+
+import android.speech.SpeechRecognizer;
+
+import net.gotev.speech.engine.BaseSpeechRecognitionEngine;
+import net.gotev.speech.engine.RecognitionState;
+import net.gotev.speech.ui.SpeechProgressView;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+public class SpeechArbiterTest {
+
+    private final List<String> mLog = new ArrayList<>();
+    private ManualPlatform mPlatform;
+    private FakeEngine mEngine;
+    private SpeechArbiter mArbiter;
+
+    @Before
+    public void setUp() throws Exception {
+        Logger.setLogLevel(Logger.LogLevel.OFF);
+        mPlatform = new ManualPlatform();
+        mEngine = new FakeEngine();
+        mArbiter = new SpeechArbiter(mEngine, mPlatform);
+    }
+
+    private ListeningTicket request(final String callerId, final int priority) {
+        return mArbiter.request(new ListeningRequest.Builder(callerId, new RecordingDelegate(callerId))
+                .setPriority(priority)
+                .build());
+    }
+
+    private ListeningTicket request(final ListeningRequest.Builder builder) {
+        return mArbiter.request(builder.build());
+    }
+
+    private ListeningRequest.Builder builder(final String callerId) {
+        return new ListeningRequest.Builder(callerId, new RecordingDelegate(callerId));
+    }
+
+    /**
+     * @return events of the given type, in the order in which they have been delivered
+     */
+    private List<String> events(final String type) {
+        final List<String> events = new ArrayList<>();
+
+        for (final String entry : mLog) {
+            if (entry.endsWith(" " + type))
+                events.add(entry.substring(0, entry.length() - type.length() - 1));
+        }
+
+        return events;
+    }
+
+    @Test
+    public void servesTheRequestsByPriority() throws Exception {
+        request("busy", 0);
+        final ListeningTicket low = request("low", 1);
+        request("high", 5);
+        request("mid", 3);
+
+        assertEquals(ListeningTicket.State.QUEUED, low.getState());
+        assertEquals(3, mArbiter.getQueueSize());
+        assertEquals(Arrays.asList("low", "high", "mid"), events("queued"));
+
+        mEngine.finish("");
+        mEngine.finish("");
+        mEngine.finish("");
+        mEngine.finish("");
+
+        assertEquals(Arrays.asList("busy", "high", "mid", "low"), events("start"));
+        assertEquals(ListeningTicket.State.FINISHED, low.getState());
+        assertEquals(0, mArbiter.getQueueSize());
+    }
+
+    @Test
+    public void doesNotLetACallerStarveTheOthers() throws Exception {
+        request(builder("busy"));
+        request(new ListeningRequest.Builder("a", new RecordingDelegate("a first")));
+        request(new ListeningRequest.Builder("a", new RecordingDelegate("a second")));
+        request(new ListeningRequest.Builder("b", new RecordingDelegate("b first")));
+        request(new ListeningRequest.Builder("a", new RecordingDelegate("a third")));
+
+        for (int i = 0; i < 5; i++) {
+            mEngine.finish("");
+        }
+
+        // once a has been served, b goes before its next requests, which keep their order
+        assertEquals(Arrays.asList("busy", "a first", "b first", "a second", "a third"), events("start"));
+    }
+
+    @Test
+    public void preemptsARequestNotStartedYet() throws Exception {
+        mEngine.mThrottled = true;
+        final ListeningTicket low = request("low", 1);
+        assertEquals(ListeningTicket.State.QUEUED, low.getState());
+
+        final ListeningTicket high = request(builder("high").setPriority(5).setPreemptive(true));
+        mEngine.mThrottled = false;
+        mPlatform.runPending();
+
+        assertEquals(ListeningTicket.State.ACTIVE, high.getState());
+        assertEquals(ListeningTicket.State.QUEUED, low.getState());
+        assertTrue(events("preempted").isEmpty());
+        assertEquals(3, mEngine.mStarts);
+
+        mEngine.finish("high");
+        assertEquals(ListeningTicket.State.ACTIVE, low.getState());
+        assertEquals(Arrays.asList("high", "low"), events("start"));
+    }
+
+    @Test
+    public void preemptsAStartedRequest() throws Exception {
+        final ListeningTicket low = request("low", 1);
+        mEngine.mState = RecognitionState.SPEAKING;
+        assertEquals(ListeningTicket.State.ACTIVE, low.getState());
+
+        final ListeningTicket high = request(builder("high").setPriority(5).setPreemptive(true));
+
+        assertEquals(Collections.singletonList("low"), events("preempted"));
+        assertEquals(1, mEngine.mPartialResultsReturned);
+        assertEquals(0, mEngine.mStops);
+        assertEquals(ListeningTicket.State.FINISHED, low.getState());
+        assertEquals(ListeningTicket.State.ACTIVE, high.getState());
+        assertEquals(Arrays.asList("low", "high"), events("start"));
+        assertTrue(events("queued").isEmpty());
+    }
+
+    @Test
+    public void stopsAStartedRequestWhichIsNotListeningYet() throws Exception {
+        request("low", 1);
+        request(builder("high").setPriority(5).setPreemptive(true));
+
+        // the recognizer is still starting, so there are no partial results to return
+        assertEquals(Collections.singletonList("low"), events("preempted"));
+        assertEquals(0, mEngine.mPartialResultsReturned);
+        assertEquals(1, mEngine.mStops);
+    }
+
+    @Test
+    public void doesNotPreemptWithoutPreemptiveRequests() throws Exception {
+        final ListeningTicket low = request("low", 1);
+        final ListeningTicket high = request("high", 5);
+        final ListeningTicket equal = request(builder("equal").setPriority(1).setPreemptive(true));
+
+        assertTrue(events("preempted").isEmpty());
+        assertEquals(ListeningTicket.State.ACTIVE, low.getState());
+        assertEquals(ListeningTicket.State.QUEUED, high.getState());
+        assertEquals(ListeningTicket.State.QUEUED, equal.getState());
+    }
+
+    @Test
+    public void joinsASharedSessionWhichHasNotHeardSpeechYet() throws Exception {
+        final ListeningTicket first = request(builder("first")
+                .setProfile(RecognitionProfile.COMMAND).setShareable(true));
+        final ListeningTicket second = request(builder("second")
+                .setProfile(RecognitionProfile.COMMAND).setShareable(true));
+        final ListeningTicket other = request(builder("other")
+                .setProfile(RecognitionProfile.DICTATION).setShareable(true));
+        final ListeningTicket exclusive = request(builder("exclusive")
+                .setProfile(RecognitionProfile.COMMAND));
+
+        assertEquals(ListeningTicket.State.ACTIVE, first.getState());
+        assertEquals(ListeningTicket.State.ACTIVE, second.getState());
+        assertEquals(ListeningTicket.State.QUEUED, other.getState());
+        assertEquals(ListeningTicket.State.QUEUED, exclusive.getState());
+        assertEquals(1, mEngine.mStarts);
+
+        mEngine.mState = RecognitionState.SPEAKING;
+        final ListeningTicket late = request(builder("late")
+                .setProfile(RecognitionProfile.COMMAND).setShareable(true));
+        final ListeningTicket together = request(builder("together")
+                .setProfile(RecognitionProfile.DICTATION).setShareable(true));
+        assertEquals(ListeningTicket.State.QUEUED, late.getState());
+
+        mEngine.finish("hello");
+        assertEquals(Arrays.asList("first", "second"), events("result hello"));
+        assertEquals(ListeningTicket.State.FINISHED, second.getState());
+
+        // the queued requests which can share the next session are started with it
+        assertEquals(ListeningTicket.State.ACTIVE, other.getState());
+        assertEquals(ListeningTicket.State.ACTIVE, together.getState());
+        assertEquals(2, mEngine.mStarts);
+
+        mEngine.finish("");
+        mEngine.finish("");
+        assertEquals(Arrays.asList("first", "second", "other", "together", "exclusive", "late"),
+                events("start"));
+    }
+
+    @Test
+    public void retriesWhileAnotherSessionIsInProgress() throws Exception {
+        mEngine.mState = RecognitionState.SPEAKING;
+        final ListeningTicket ticket = request("caller", 0);
+
+        assertEquals(ListeningTicket.State.QUEUED, ticket.getState());
+        assertEquals(0, mEngine.mStarts);
+        assertEquals(Collections.singletonList(250L), mPlatform.mDelays);
+
+        // still busy
+        mPlatform.runPending();
+        assertEquals(0, mEngine.mStarts);
+        assertEquals(1, mPlatform.mPending.size());
+
+        mEngine.mState = RecognitionState.IDLE;
+        mPlatform.runPending();
+
+        assertEquals(ListeningTicket.State.ACTIVE, ticket.getState());
+        assertEquals(1, mEngine.mStarts);
+        assertTrue(mPlatform.mPending.isEmpty());
+    }
+
+    @Test
+    public void retriesAThrottledStart() throws Exception {
+        mEngine.mThrottled = true;
+        final ListeningTicket ticket = request("caller", 0);
+
+        assertEquals(ListeningTicket.State.QUEUED, ticket.getState());
+        assertEquals(1, mPlatform.mPending.size());
+
+        mEngine.mThrottled = false;
+        mPlatform.runPending();
+
+        assertEquals(ListeningTicket.State.ACTIVE, ticket.getState());
+        assertEquals(2, mEngine.mStarts);
+        assertTrue(mPlatform.mPending.isEmpty());
+    }
+
+    @Test
+    public void failsTheRequestsWhichCannotStart() throws Exception {
+        mEngine.mUnavailable = true;
+        final ListeningTicket ticket = request("caller", 0);
+
+        assertEquals(ListeningTicket.State.FINISHED, ticket.getState());
+        assertEquals(Arrays.asList("caller error " + SpeechRecognizer.ERROR_CLIENT, "caller result "), mLog);
+
+        assertEquals(1, mPlatform.mPending.size());
+
+        // the next requests are started once the recognizer is available again
+        mEngine.mUnavailable = false;
+        request("next", 0);
+        mPlatform.runPending();
+        assertEquals(Collections.singletonList("next"), events("start"));
+        assertEquals(2, mEngine.mStarts);
+    }
+
+    @Test
+    public void cancelsQueuedAndActiveRequests() throws Exception {
+        final ListeningTicket active = request("active", 0);
+        final ListeningTicket queued = request("queued", 0);
+
+        queued.cancel();
+        assertEquals(ListeningTicket.State.FINISHED, queued.getState());
+        assertEquals(0, mArbiter.getQueueSize());
+
+        active.cancel();
+        assertEquals(ListeningTicket.State.FINISHED, active.getState());
+        assertEquals(1, mEngine.mStops);
+    }
+
+    @Test
+    public void forwardsTheEventsOnTheDelegateExecutor() throws Exception {
+        final List<Runnable> tasks = new ArrayList<>();
+        mEngine.setDelegateExecutor(new Executor() {
+            @Override
+            public void execute(final Runnable command) {
+                tasks.add(command);
+            }
+        }, true, true);
+
+        final ListeningTicket ticket = request("caller", 0);
+        mEngine.mDelegate.onSpeechRmsChanged(1);
+        mEngine.mDelegate.onSpeechRmsChanged(2);
+        mEngine.finish("hello");
+
+        // the bookkeeping of the arbiter happens on the main thread
+        assertEquals(ListeningTicket.State.FINISHED, ticket.getState());
+        assertTrue(mLog.isEmpty());
+
+        while (!tasks.isEmpty()) {
+            tasks.remove(0).run();
+        }
+
+        assertEquals(Arrays.asList("caller start", "caller rms 2", "caller result hello"), mLog);
+    }
+
+    /**
+     * Main thread which runs the posted runnables only when asked to.
+     */
+    private static final class ManualPlatform implements SpeechArbiter.Platform {
+        final List<Runnable> mPending = new ArrayList<>();
+        final List<Long> mDelays = new ArrayList<>();
+
+        @Override
+        public void post(final Runnable runnable, final long delayMillis) {
+            mPending.add(runnable);
+            mDelays.add(delayMillis);
+        }
+
+        @Override
+        public void removeCallbacks(final Runnable runnable) {
+            for (int i = mPending.size() - 1; i >= 0; i--) {
+                if (mPending.get(i) == runnable) {
+                    mPending.remove(i);
+                    mDelays.remove(i);
+                }
+            }
+        }
+
+        void runPending() {
+            final List<Runnable> pending = new ArrayList<>(mPending);
+            mPending.clear();
+            mDelays.clear();
+
+            for (final Runnable runnable : pending) {
+                runnable.run();
+            }
+        }
+    }
+
+    /**
+     * Delegate which logs its events, prefixed by its name.
+     */
+    private final class RecordingDelegate implements ArbitratedSpeechDelegate, ErrorSpeechDelegate {
+        private final String mName;
+
+        RecordingDelegate(final String name) {
+            mName = name;
+        }
+
+        @Override
+        public void onStartOfSpeech() {
+            mLog.add(mName + " start");
+        }
+
+        @Override
+        public void onSpeechRmsChanged(final float value) {
+            mLog.add(mName + " rms " + (int) value);
+        }
+
+        @Override
+        public void onSpeechPartialResults(final List<String> results) {
+            mLog.add(mName + " partial " + results.get(0));
+        }
+
+        @Override
+        public void onSpeechResult(final String result) {
+            mLog.add(mName + " result " + result);
+        }
+
+        @Override
+        public void onSpeechError(final int code, final RecoveryAction action) {
+            mLog.add(mName + " error " + code);
+        }
+
+        @Override
+        public void onSpeechRequestQueued(final ListeningTicket ticket) {
+            mLog.add(mName + " queued");
+        }
+
+        @Override
+        public void onSpeechPreempted(final ListeningTicket ticket) {
+            mLog.add(mName + " preempted");
+        }
+    }
+
+    /**
+     * Engine which starts the sessions synchronously, like the real one, and ends them
+     * when asked to.
+     */
+    private static final class FakeEngine extends BaseSpeechRecognitionEngine {
+        RecognitionState mState = RecognitionState.IDLE;
+        SpeechDelegate mDelegate;
+        boolean mThrottled;
+        boolean mUnavailable;
+        int mStarts;
+        int mStops;
+        int mPartialResultsReturned;
+
+        void finish(final String result) {
+            mState = RecognitionState.IDLE;
+            getDelegateDispatcher().onSpeechResult(mDelegate, result);
+        }
+
+        @Override
+        public RecognitionState getState() {
+            return mState;
+        }
+
+        @Override
+        public boolean isListening() {
+            return mState == RecognitionState.SPEAKING;
+        }
+
+        @Override
+        public void startListening(final SpeechProgressView progressView, final SpeechDelegate delegate,
+                                   final RecognitionProfile profile) throws SpeechRecognitionNotAvailable {
+            assertEquals(RecognitionState.IDLE, mState);
+            mStarts++;
+
+            if (mUnavailable)
+                throw new SpeechRecognitionNotAvailable();
+
+            if (mThrottled)
+                return;
+
+            mState = RecognitionState.STARTING;
+            mDelegate = delegate;
+            getDelegateDispatcher().onStartOfSpeech(delegate);
+        }
+
+        @Override
+        public void stopListening() {
+            mStops++;
+            finish("");
+        }
+
+        @Override
+        public void returnPartialResultsAndRecreateSpeechRecognizer() {
+            mPartialResultsReturned++;
+            finish("");
+        }
+    }
+}
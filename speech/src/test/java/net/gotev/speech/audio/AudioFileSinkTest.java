@@ -0,0 +1,110 @@
+package net.gotev.speech.audio;
+
+import net.gotev.speech.Logger;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+public class AudioFileSinkTest {
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private File mDirectory;
+
+    @Before
+    public void setUp() throws Exception {
+        Logger.setLogLevel(Logger.LogLevel.OFF);
+        mDirectory = new File(mFolder.getRoot(), "audio");
+    }
+
+    private static ByteBuffer direct(final byte... bytes) {
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+        buffer.put(bytes).flip();
+        return buffer;
+    }
+
+    private static void record(final AudioFileSink sink, final byte[]... chunks) {
+        sink.onAudioSessionStarted();
+
+        for (final byte[] chunk : chunks) {
+            sink.onAudioBuffer(direct(chunk));
+        }
+
+        sink.onAudioSessionEnded();
+    }
+
+    @Test
+    public void completesTheWavHeaderAtTheEndOfTheSession() throws Exception {
+        final AudioFileSink sink = new AudioFileSink(mDirectory, 16000, 1);
+        record(sink, new byte[]{1, 2, 3, 4}, new byte[]{5, 6});
+
+        final File file = sink.getLastFile();
+        assertTrue(file.getName().endsWith(".wav"));
+
+        final ByteBuffer wav = ByteBuffer.wrap(Files.readAllBytes(file.toPath())).order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals(44 + 6, wav.capacity());
+        assertEquals(0x46464952, wav.getInt(0));
+        assertEquals(36 + 6, wav.getInt(4));
+        assertEquals(1, wav.getShort(22));
+        assertEquals(16000, wav.getInt(24));
+        assertEquals(32000, wav.getInt(28));
+        assertEquals(16, wav.getShort(34));
+        assertEquals(0x61746164, wav.getInt(36));
+        assertEquals(6, wav.getInt(40));
+        assertEquals(1, wav.get(44));
+        assertEquals(6, wav.get(49));
+    }
+
+    @Test
+    public void writesRawPcmFiles() throws Exception {
+        final AudioFileSink sink = new AudioFileSink(mDirectory, 16000, 1, false);
+        record(sink, new byte[]{1, 2, 3, 4});
+
+        final File file = sink.getLastFile();
+        assertTrue(file.getName().endsWith(".pcm"));
+        assertArrayEquals(new byte[]{1, 2, 3, 4}, Files.readAllBytes(file.toPath()));
+    }
+
+    @Test
+    public void writesEverySessionToItsOwnFile() throws Exception {
+        final AudioFileSink sink = new AudioFileSink(mDirectory, 16000, 1, false);
+        assertNull(sink.getLastFile());
+
+        // chained sessions, possibly within the same millisecond
+        record(sink, new byte[]{1});
+        final File first = sink.getLastFile();
+        record(sink, new byte[]{2});
+        final File second = sink.getLastFile();
+
+        assertNotEquals(first, second);
+        assertArrayEquals(new byte[]{1}, Files.readAllBytes(first.toPath()));
+        assertArrayEquals(new byte[]{2}, Files.readAllBytes(second.toPath()));
+        assertEquals(2, mDirectory.listFiles().length);
+    }
+
+    @Test
+    public void completesTheFileWhenANewSessionStarts() throws Exception {
+        final AudioFileSink sink = new AudioFileSink(mDirectory, 8000, 2);
+
+        // the end of the first session never arrived
+        sink.onAudioSessionStarted();
+        sink.onAudioBuffer(direct(new byte[8]));
+        final File first = sink.getLastFile();
+        record(sink);
+
+        final ByteBuffer wav = ByteBuffer.wrap(Files.readAllBytes(first.toPath())).order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals(8, wav.getInt(40));
+        assertEquals(2, wav.getShort(22));
+        assertEquals(44, Files.readAllBytes(sink.getLastFile().toPath()).length);
+    }
+}
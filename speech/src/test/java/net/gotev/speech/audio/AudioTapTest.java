@@ -0,0 +1,177 @@
+package net.gotev.speech.audio;
+
+import net.gotev.speech.Logger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class AudioTapTest {
+
+    private static final long TIMEOUT = 5000;
+
+    /**
+     * Records the events, optionally blocking at the start of the first session.
+     */
+    private static final class RecordingListener implements AudioTapListener {
+        final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+        final Map<ByteBuffer, Boolean> buffers = Collections.synchronizedMap(new IdentityHashMap<ByteBuffer, Boolean>());
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch blocked = new CountDownLatch(1);
+        volatile boolean block;
+
+        @Override
+        public void onAudioSessionStarted() {
+            events.add("start");
+
+            if (block) {
+                block = false;
+                blocked.countDown();
+
+                try {
+                    release.await(TIMEOUT, TimeUnit.MILLISECONDS);
+                } catch (final InterruptedException exc) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        @Override
+        public void onAudioBuffer(final ByteBuffer buffer) {
+            buffers.put(buffer, Boolean.TRUE);
+            final StringBuilder audio = new StringBuilder("audio");
+
+            while (buffer.hasRemaining()) {
+                audio.append(' ').append(buffer.get());
+            }
+
+            events.add(audio.toString());
+        }
+
+        @Override
+        public void onAudioSessionEnded() {
+            events.add("end");
+        }
+
+        void awaitEvents(final int count) throws InterruptedException {
+            final long deadline = System.currentTimeMillis() + TIMEOUT;
+
+            while (events.size() < count && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5);
+            }
+
+            assertEquals(count, events.size());
+        }
+    }
+
+    private RecordingListener mListener;
+
+    @Before
+    public void setUp() throws Exception {
+        Logger.setLogLevel(Logger.LogLevel.OFF);
+        mListener = new RecordingListener();
+    }
+
+    @Test
+    public void deliversTheAudioBetweenTheSessionMarkers() throws Exception {
+        final AudioTap tap = new AudioTap(mListener, 4, 4);
+
+        tap.startSession();
+        tap.write(new byte[]{1, 2, 3});
+        tap.write(new byte[]{4, 5, 6, 7, 8, 9});
+        tap.endSession();
+        tap.close();
+
+        mListener.awaitEvents(5);
+        assertEquals(Arrays.asList("start", "audio 1 2 3", "audio 4 5 6 7", "audio 8 9", "end"),
+                mListener.events);
+        assertEquals(0, tap.getDroppedBytes());
+    }
+
+    @Test
+    public void reusesThePooledBuffers() throws Exception {
+        final AudioTap tap = new AudioTap(mListener, 2, 4);
+
+        tap.startSession();
+
+        for (int i = 0; i < 10; i++) {
+            tap.write(new byte[]{(byte) i, (byte) i});
+            mListener.awaitEvents(i + 2);
+        }
+
+        tap.close();
+
+        assertEquals(2, mListener.buffers.size());
+        assertEquals(0, tap.getDroppedBytes());
+    }
+
+    @Test
+    public void dropsTheAudioWhenAllTheBuffersAreInUse() throws Exception {
+        mListener.block = true;
+        final AudioTap tap = new AudioTap(mListener, 2, 4);
+
+        tap.startSession();
+        assertTrue(mListener.blocked.await(TIMEOUT, TimeUnit.MILLISECONDS));
+
+        tap.write(new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 9, 10});
+        tap.write(new byte[]{11, 12});
+        assertEquals(4, tap.getDroppedBytes());
+
+        mListener.release.countDown();
+        mListener.awaitEvents(3);
+        assertEquals(Arrays.asList("start", "audio 1 2 3 4", "audio 5 6 7 8"), mListener.events);
+
+        // the buffers are back in the pool
+        tap.write(new byte[]{13});
+        tap.close();
+
+        mListener.awaitEvents(4);
+        assertEquals("audio 13", mListener.events.get(3));
+        assertEquals(4, tap.getDroppedBytes());
+    }
+
+    @Test
+    public void neverDropsTheSessionMarkers() throws Exception {
+        mListener.block = true;
+        final AudioTap tap = new AudioTap(mListener, 1, 4);
+
+        tap.startSession();
+        assertTrue(mListener.blocked.await(TIMEOUT, TimeUnit.MILLISECONDS));
+
+        // many more markers than the queue can hold while the listener is busy
+        tap.write(new byte[]{1});
+        tap.endSession();
+
+        for (int i = 0; i < 50; i++) {
+            tap.startSession();
+            tap.endSession();
+        }
+
+        tap.close();
+        mListener.release.countDown();
+
+        mListener.awaitEvents(3 + 100);
+        assertEquals(Arrays.asList("start", "audio 1", "end"), mListener.events.subList(0, 3));
+
+        for (int i = 3; i < mListener.events.size(); i += 2) {
+            assertEquals("start", mListener.events.get(i));
+            assertEquals("end", mListener.events.get(i + 1));
+        }
+
+        // the markers written after the close are ignored
+        tap.startSession();
+        Thread.sleep(50);
+        assertEquals(103, mListener.events.size());
+    }
+}
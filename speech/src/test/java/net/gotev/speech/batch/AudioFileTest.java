@@ -0,0 +1,129 @@
+package net.gotev.speech.batch;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class AudioFileTest {
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private File write(final byte[] bytes) throws IOException {
+        final File file = mFolder.newFile();
+
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(bytes);
+        }
+
+        return file;
+    }
+
+    private AudioFile read(final byte[] bytes) throws IOException {
+        try (FileChannel channel = AudioFile.open(write(bytes))) {
+            return AudioFile.read(channel, 16000);
+        }
+    }
+
+    /**
+     * Builds a WAV file.
+     * @param format audio format, 1 for PCM
+     * @param channels number of channels
+     * @param sampleRate sample rate
+     * @param bits bits per sample
+     * @param declaredDataLength length of the data chunk written in its header
+     * @param dataLength bytes of samples actually written
+     * @param extraChunk true to add a chunk between the format and the data chunks
+     */
+    private static byte[] wav(final int format, final int channels, final int sampleRate, final int bits,
+                              final int declaredDataLength, final int dataLength, final boolean extraChunk) {
+        final ByteBuffer buffer = ByteBuffer.allocate(12 + 24 + (extraChunk ? 12 : 0) + 8 + dataLength)
+                .order(ByteOrder.LITTLE_ENDIAN);
+
+        buffer.putInt(0x46464952).putInt(buffer.capacity() - 8).putInt(0x45564157);
+
+        buffer.putInt(0x20746d66).putInt(16)
+                .putShort((short) format).putShort((short) channels)
+                .putInt(sampleRate).putInt(sampleRate * channels * bits / 8)
+                .putShort((short) (channels * bits / 8)).putShort((short) bits);
+
+        if (extraChunk) {
+            // odd length chunks are padded to a word
+            buffer.putInt(0x5453494c /* LIST */).putInt(3).put(new byte[4]);
+        }
+
+        buffer.putInt(0x61746164).putInt(declaredDataLength);
+        return buffer.array();
+    }
+
+    @Test
+    public void readsTheFormatOfWavFiles() throws Exception {
+        final AudioFile audio = read(wav(1, 2, 44100, 16, 17640, 17640, false));
+
+        assertEquals(44100, audio.sampleRate);
+        assertEquals(2, audio.channels);
+        assertEquals(44, audio.dataOffset);
+        assertEquals(17640, audio.dataLength);
+        assertEquals(100, audio.getDurationMillis());
+    }
+
+    @Test
+    public void skipsTheOtherChunks() throws Exception {
+        final AudioFile audio = read(wav(1, 1, 16000, 16, 3200, 3200, true));
+
+        assertEquals(16000, audio.sampleRate);
+        assertEquals(1, audio.channels);
+        assertEquals(44 + 12, audio.dataOffset);
+        assertEquals(3200, audio.dataLength);
+    }
+
+    @Test
+    public void readsTheSamplesWrittenToTruncatedWavFiles() throws Exception {
+        // e.g. a recording interrupted before the header could be updated
+        final AudioFile audio = read(wav(1, 1, 16000, 16, 32000, 3201, false));
+
+        assertEquals(44, audio.dataOffset);
+        assertEquals(3200, audio.dataLength);
+        assertEquals(100, audio.getDurationMillis());
+    }
+
+    @Test
+    public void treatsFilesWithoutHeaderAsRawPcm() throws Exception {
+        final AudioFile audio = read(new byte[16001]);
+
+        assertEquals(16000, audio.sampleRate);
+        assertEquals(1, audio.channels);
+        assertEquals(0, audio.dataOffset);
+        assertEquals(16000, audio.dataLength);
+        assertEquals(500, audio.getDurationMillis());
+    }
+
+    @Test
+    public void treatsFilesShorterThanTheHeaderAsRawPcm() throws Exception {
+        final AudioFile audio = read(new byte[]{0x52, 0x49, 0x46, 0x46, 1, 2});
+
+        assertEquals(0, audio.dataOffset);
+        assertEquals(6, audio.dataLength);
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsCompressedWavFiles() throws Exception {
+        read(wav(3, 1, 16000, 32, 3200, 3200, false));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsWavFilesWithoutData() throws Exception {
+        // only the RIFF header and the format chunk
+        read(Arrays.copyOf(wav(1, 1, 16000, 16, 0, 0, false), 36));
+    }
+}
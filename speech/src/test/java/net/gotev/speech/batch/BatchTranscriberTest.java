@@ -0,0 +1,361 @@
+package net.gotev.speech.batch;
+
+import android.os.ParcelFileDescriptor;
+import android.speech.SpeechRecognizer;
+
+import net.gotev.speech.ErrorSpeechDelegate;
+import net.gotev.speech.Logger;
+import net.gotev.speech.RecognitionProfile;
+import net.gotev.speech.RecoveryAction;
+import net.gotev.speech.SpeechDelegate;
+import net.gotev.speech.engine.BaseSpeechRecognitionEngine;
+import net.gotev.speech.engine.RecognitionState;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Pipe;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class BatchTranscriberTest {
+
+    private static final long TIMEOUT = 5000;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private ScheduledExecutorService mMainThread;
+    private JvmPlatform mPlatform;
+    private FakeEngine mEngine;
+
+    @Before
+    public void setUp() throws Exception {
+        Logger.setLogLevel(Logger.LogLevel.OFF);
+        mMainThread = new ScheduledThreadPoolExecutor(1);
+        mPlatform = new JvmPlatform();
+        mEngine = new FakeEngine();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mMainThread.shutdownNow();
+    }
+
+    private BatchTranscriber newTranscriber() {
+        return new BatchTranscriber(mEngine, RecognitionProfile.DICTATION, 16000, mPlatform);
+    }
+
+    /**
+     * Writes a raw PCM file with the given number of bytes of samples.
+     */
+    private File rawFile(final int bytes) throws IOException {
+        final File file = mFolder.newFile();
+
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(new byte[bytes]);
+        }
+
+        return file;
+    }
+
+    @Test
+    public void transcribesTheFilesInOrder() throws Exception {
+        mEngine.script(Collections.<String>emptyList(), "first");
+        mEngine.script(Collections.<String>emptyList(), "second");
+
+        final BatchTranscriber transcriber = newTranscriber();
+        final File first = rawFile(16000);
+        final File second = rawFile(32000);
+        final List<Future<BatchResult>> futures = transcriber.submit(Arrays.asList(first, second));
+
+        BatchResult result = futures.get(0).get(TIMEOUT, TimeUnit.MILLISECONDS);
+        assertEquals(first, result.getFile());
+        assertEquals("first", result.getText());
+        assertTrue(result.isSuccessful());
+        assertEquals(500, result.getAudioDuration());
+
+        result = futures.get(1).get(TIMEOUT, TimeUnit.MILLISECONDS);
+        assertEquals(second, result.getFile());
+        assertEquals("second", result.getText());
+        assertEquals(1000, result.getAudioDuration());
+
+        assertEquals(Arrays.asList(16000L, 32000L), mEngine.mStreamedBytes);
+
+        final BatchStats stats = transcriber.getStats();
+        assertEquals(2, stats.getSubmitted());
+        assertEquals(2, stats.getCompleted());
+        assertEquals(0, stats.getFailed());
+    }
+
+    @Test
+    public void collectsTheSegmentsUntilTheEndOfTheFile() throws Exception {
+        mEngine.script(Arrays.asList("hello", "", "how are you"), "");
+
+        final BatchTranscriber transcriber = newTranscriber();
+        final BatchResult result = transcriber.submit(rawFile(64000)).get(TIMEOUT, TimeUnit.MILLISECONDS);
+
+        assertEquals("hello how are you", result.getText());
+        assertEquals(Collections.singletonList(64000L), mEngine.mStreamedBytes);
+    }
+
+    @Test
+    public void reportsRecognitionErrors() throws Exception {
+        mEngine.script(Collections.singletonList("hello"), "world", SpeechRecognizer.ERROR_NETWORK);
+
+        final BatchTranscriber transcriber = newTranscriber();
+        final BatchResult result = transcriber.submit(rawFile(16000)).get(TIMEOUT, TimeUnit.MILLISECONDS);
+
+        assertFalse(result.isSuccessful());
+        assertEquals(SpeechRecognizer.ERROR_NETWORK, result.getErrorCode());
+        assertEquals("hello world", result.getText());
+        assertEquals(1, transcriber.getStats().getFailed());
+    }
+
+    @Test
+    public void reportsUnreadableFiles() throws Exception {
+        mEngine.script(Collections.<String>emptyList(), "second");
+
+        final BatchTranscriber transcriber = newTranscriber();
+        final List<Future<BatchResult>> futures = transcriber.submit(Arrays.asList(
+                new File(mFolder.getRoot(), "missing.wav"), rawFile(16000)));
+
+        final BatchResult result = futures.get(0).get(TIMEOUT, TimeUnit.MILLISECONDS);
+        assertEquals(SpeechRecognizer.ERROR_AUDIO, result.getErrorCode());
+        assertEquals("", result.getText());
+
+        // the batch goes on with the next file
+        assertEquals("second", futures.get(1).get(TIMEOUT, TimeUnit.MILLISECONDS).getText());
+    }
+
+    @Test
+    public void waitsForTheLiveSessionToEnd() throws Exception {
+        mEngine.script(Collections.<String>emptyList(), "batch");
+        mEngine.mState = RecognitionState.SPEAKING;
+
+        final BatchTranscriber transcriber = newTranscriber();
+        final Future<BatchResult> future = transcriber.submit(rawFile(16000));
+
+        Thread.sleep(600);
+        assertFalse(future.isDone());
+        assertTrue(mEngine.mStreamedBytes.isEmpty());
+
+        mMainThread.execute(new Runnable() {
+            @Override
+            public void run() {
+                mEngine.mState = RecognitionState.IDLE;
+            }
+        });
+
+        assertEquals("batch", future.get(TIMEOUT, TimeUnit.MILLISECONDS).getText());
+    }
+
+    @Test
+    public void cancelsTheFilesNotStartedOnShutdown() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        mEngine.mRelease = release;
+        mEngine.script(Collections.<String>emptyList(), "first");
+
+        final BatchTranscriber transcriber = newTranscriber();
+        final List<Future<BatchResult>> futures = transcriber.submit(Arrays.asList(
+                rawFile(16000), rawFile(16000), rawFile(16000)));
+
+        mEngine.awaitSessionStart();
+        transcriber.shutdown();
+        release.countDown();
+
+        // the file in progress is completed
+        assertEquals("first", futures.get(0).get(TIMEOUT, TimeUnit.MILLISECONDS).getText());
+
+        for (final Future<BatchResult> future : futures.subList(1, 3)) {
+            assertTrue(future.isCancelled());
+
+            try {
+                future.get();
+                fail("cancelled file transcribed");
+            } catch (final CancellationException exc) {
+                // expected
+            }
+        }
+
+        assertEquals(2, transcriber.getStats().getCancelled());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void rejectsFilesAfterShutdown() throws Exception {
+        final BatchTranscriber transcriber = newTranscriber();
+        transcriber.shutdown();
+        transcriber.submit(rawFile(16000));
+    }
+
+    /**
+     * Runs the main thread callbacks on a single thread and streams the files through
+     * plain JVM pipes.
+     */
+    private final class JvmPlatform implements BatchTranscriber.Platform {
+        final LinkedBlockingQueue<Pipe> mPipes = new LinkedBlockingQueue<>();
+
+        @Override
+        public void post(final Runnable runnable, final long delayMillis) {
+            mMainThread.schedule(runnable, delayMillis, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public long elapsedRealtime() {
+            return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+        }
+
+        @Override
+        public BatchTranscriber.AudioPipe createPipe() throws IOException {
+            final Pipe pipe = Pipe.open();
+            mPipes.add(pipe);
+
+            return new BatchTranscriber.AudioPipe() {
+                @Override
+                public ParcelFileDescriptor getReadSide() {
+                    return null;
+                }
+
+                @Override
+                public WritableByteChannel getWriteSide() {
+                    return pipe.sink();
+                }
+
+                @Override
+                public void closeReadSide() throws IOException {
+                    pipe.source().close();
+                }
+            };
+        }
+    }
+
+    /**
+     * Engine which reads the whole audio of every session, then delivers the scripted
+     * segment results followed by the last result of the session.
+     */
+    private final class FakeEngine extends BaseSpeechRecognitionEngine {
+        final List<Long> mStreamedBytes = Collections.synchronizedList(new ArrayList<Long>());
+        final LinkedBlockingQueue<Object[]> mScripts = new LinkedBlockingQueue<>();
+        final CountDownLatch mSessionStarted = new CountDownLatch(1);
+        volatile RecognitionState mState = RecognitionState.IDLE;
+        volatile CountDownLatch mRelease;
+
+        void script(final List<String> segments, final String last) {
+            script(segments, last, 0);
+        }
+
+        void script(final List<String> segments, final String last, final int errorCode) {
+            mScripts.add(new Object[]{segments, last, errorCode});
+        }
+
+        void awaitSessionStart() throws InterruptedException {
+            assertTrue(mSessionStarted.await(TIMEOUT, TimeUnit.MILLISECONDS));
+        }
+
+        @Override
+        public RecognitionState getState() {
+            return mState;
+        }
+
+        @Override
+        public boolean isListening() {
+            return mState == RecognitionState.SPEAKING;
+        }
+
+        @Override
+        public void startListening(final ParcelFileDescriptor audioSource, final int sampleRate,
+                                   final int channels, final SpeechDelegate delegate,
+                                   final RecognitionProfile profile) {
+            assertEquals(RecognitionState.IDLE, mState);
+            assertEquals(16000, sampleRate);
+            assertEquals(1, channels);
+
+            final Pipe pipe = mPlatform.mPipes.poll();
+            final Object[] script = mScripts.poll();
+            assertNotNull(pipe);
+            assertNotNull(script);
+
+            mState = RecognitionState.SPEAKING;
+            mSessionStarted.countDown();
+
+            final Thread reader = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    mStreamedBytes.add(readAll(pipe));
+                    awaitRelease();
+
+                    mMainThread.execute(new Runnable() {
+                        @Override
+                        @SuppressWarnings("unchecked")
+                        public void run() {
+                            deliver(delegate, (List<String>) script[0], (String) script[1], (Integer) script[2]);
+                        }
+                    });
+                }
+            });
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        private void deliver(final SpeechDelegate delegate, final List<String> segments,
+                             final String last, final int errorCode) {
+            for (final String segment : segments) {
+                delegate.onSpeechResult(segment);
+            }
+
+            if (errorCode != 0)
+                ((ErrorSpeechDelegate) delegate).onSpeechError(errorCode, RecoveryAction.DELIVER);
+
+            mState = RecognitionState.IDLE;
+            delegate.onSpeechResult(last);
+        }
+
+        private long readAll(final Pipe pipe) {
+            final ByteBuffer buffer = ByteBuffer.allocate(4096);
+            long total = 0;
+
+            try {
+                int read;
+
+                while ((read = pipe.source().read(buffer)) >= 0) {
+                    total += read;
+                    buffer.clear();
+                }
+            } catch (final IOException exc) {
+                fail("unable to read the audio: " + exc);
+            }
+
+            return total;
+        }
+
+        private void awaitRelease() {
+            final CountDownLatch release = mRelease;
+
+            try {
+                if (release != null)
+                    release.await(TIMEOUT, TimeUnit.MILLISECONDS);
+            } catch (final InterruptedException exc) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
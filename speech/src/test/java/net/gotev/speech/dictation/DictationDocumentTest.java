@@ -0,0 +1,244 @@
+package net.gotev.speech.dictation;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class DictationDocumentTest {
+
+    private static final class RecordingListener implements DocumentChangeListener {
+        final List<DocumentChange> changes = new ArrayList<>();
+
+        @Override
+        public void onDocumentChanged(final DictationDocument document, final DocumentChange change) {
+            changes.add(change);
+        }
+    }
+
+    @Test
+    public void appendsCommittedText() throws Exception {
+        final DictationDocument document = new DictationDocument();
+
+        document.append("hello");
+        document.append(" world");
+
+        assertEquals("hello world", document.toString());
+        assertEquals(11, document.length());
+        assertEquals(11, document.getCommittedLength());
+        assertEquals('w', document.charAt(6));
+        assertEquals("lo wo", document.subSequence(3, 8));
+    }
+
+    @Test
+    public void editsTextAtAnyOffset() throws Exception {
+        final DictationDocument document = new DictationDocument();
+
+        document.append("hello world");
+        document.insert(5, " big");
+        assertEquals("hello big world", document.toString());
+
+        document.delete(0, 6);
+        assertEquals("big world", document.toString());
+
+        document.replace(0, 3, "small");
+        assertEquals("small world", document.toString());
+        assertEquals(11, document.getCommittedLength());
+    }
+
+    @Test
+    public void replacesTheProvisionalText() throws Exception {
+        final DictationDocument document = new DictationDocument();
+
+        document.append("hello");
+        document.setProvisional("wor");
+        assertEquals("hello wor", document.toString());
+        assertEquals(5, document.getCommittedLength());
+
+        document.setProvisional("world how");
+        assertEquals("hello world how", document.toString());
+        assertEquals(5, document.getCommittedLength());
+
+        document.commitProvisional("world, how are you");
+        assertEquals("hello world, how are you", document.toString());
+        assertEquals(document.length(), document.getCommittedLength());
+    }
+
+    @Test
+    public void removesTheProvisionalText() throws Exception {
+        final DictationDocument document = new DictationDocument();
+
+        document.append("hello");
+        document.setProvisional("world");
+        document.setProvisional(null);
+        assertEquals("hello", document.toString());
+
+        document.setProvisional("world");
+        document.commitProvisional(null);
+        assertEquals("hello", document.toString());
+        assertEquals(5, document.getCommittedLength());
+    }
+
+    @Test
+    public void appendsBeforeTheProvisionalText() throws Exception {
+        final DictationDocument document = new DictationDocument();
+
+        document.setProvisional("partial");
+        document.append("final ");
+
+        assertEquals("final partial", document.toString());
+        assertEquals(6, document.getCommittedLength());
+    }
+
+    @Test
+    public void editsOfTheCommittedTextShiftTheProvisionalText() throws Exception {
+        final DictationDocument document = new DictationDocument();
+
+        document.append("hello world");
+        document.setProvisional("again");
+
+        document.replace(0, 5, "hi");
+        assertEquals("hi world again", document.toString());
+        assertEquals(8, document.getCommittedLength());
+
+        // an edit across the boundary removes the committed part it covers
+        document.delete(3, 7);
+        assertEquals("hi gain", document.toString());
+        assertEquals(3, document.getCommittedLength());
+    }
+
+    @Test
+    public void notifiesEveryChange() throws Exception {
+        final DictationDocument document = new DictationDocument();
+        final RecordingListener listener = new RecordingListener();
+        document.addChangeListener(listener);
+
+        document.append("hello");
+        document.setProvisional("world");
+        document.setProvisional("world");
+        document.commitProvisional("world");
+
+        assertEquals(3, listener.changes.size());
+
+        DocumentChange change = listener.changes.get(0);
+        assertEquals(1, change.getRevision());
+        assertEquals(0, change.getOffset());
+        assertEquals(0, change.getRemovedLength());
+        assertEquals("hello", change.getInsertedText());
+        assertFalse(change.isProvisional());
+
+        change = listener.changes.get(1);
+        assertEquals(5, change.getOffset());
+        assertEquals(" world", change.getInsertedText());
+        assertTrue(change.isProvisional());
+
+        // the identical final text only commits the provisional one
+        change = listener.changes.get(2);
+        assertEquals(0, change.getRemovedLength());
+        assertEquals("", change.getInsertedText());
+        assertFalse(change.isProvisional());
+        assertEquals(3, document.getRevision());
+
+        document.removeChangeListener(listener);
+        document.clear();
+        assertEquals(3, listener.changes.size());
+        assertEquals(0, document.length());
+    }
+
+    @Test
+    public void writesTheWholeDocument() throws Exception {
+        final DictationDocument document = new DictationDocument();
+        final StringBuilder expected = new StringBuilder();
+
+        for (int i = 0; i < 1000; i++) {
+            final String sentence = "sentence number " + i + ". ";
+            document.append(sentence);
+            expected.append(sentence);
+        }
+
+        final StringBuilder out = new StringBuilder();
+        document.writeTo(out);
+
+        assertEquals(expected.toString(), out.toString());
+        assertEquals(expected.toString(), document.toString());
+    }
+
+    @Test
+    public void matchesAStringBuilderAfterRandomEdits() throws Exception {
+        final DictationDocument document = new DictationDocument();
+        final StringBuilder model = new StringBuilder();
+        final Random random = new Random(42);
+
+        for (int i = 0; i < 2000; i++) {
+            final int length = model.length();
+            final String text = randomText(random, random.nextInt(1500));
+
+            switch (random.nextInt(4)) {
+                case 0:
+                    // before the text inserted at the end by the replacements
+                    model.insert(document.getCommittedLength(), text);
+                    document.append(text);
+                    break;
+
+                case 1: {
+                    final int offset = random.nextInt(length + 1);
+                    document.insert(offset, text);
+                    model.insert(offset, text);
+                    break;
+                }
+
+                case 2: {
+                    final int offset = random.nextInt(length + 1);
+                    final int removed = random.nextInt(length - offset + 1);
+                    document.delete(offset, removed);
+                    model.delete(offset, offset + removed);
+                    break;
+                }
+
+                default: {
+                    // delete the end, like the provisional text replacements
+                    final int offset = random.nextInt(length + 1);
+                    document.replace(offset, length - offset, text);
+                    model.replace(offset, length, text);
+                    break;
+                }
+            }
+
+            assertEquals(model.length(), document.length());
+
+            if (model.length() > 0) {
+                final int index = random.nextInt(model.length());
+                assertEquals(model.charAt(index), document.charAt(index));
+            }
+        }
+
+        assertEquals(model.toString(), document.toString());
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void rejectsInvalidIndexes() throws Exception {
+        final DictationDocument document = new DictationDocument();
+        document.append("hello");
+        document.charAt(5);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void rejectsInvalidRanges() throws Exception {
+        final DictationDocument document = new DictationDocument();
+        document.append("hello");
+        document.delete(3, 3);
+    }
+
+    private static String randomText(final Random random, final int length) {
+        final char[] chars = new char[length];
+
+        for (int i = 0; i < length; i++) {
+            chars[i] = (char) ('a' + random.nextInt(26));
+        }
+
+        return new String(chars);
+    }
+}
@@ -0,0 +1,125 @@
+package net.gotev.speech.engine;
+
+import net.gotev.speech.CommandMatch;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class CommandMatcherTest {
+
+    private static final List<String> COMMANDS = Arrays.asList(
+            "turn on the lights", "turn off the lights", "play music");
+
+    @Test
+    public void matchesExactCommandsIgnoringCaseAndSpaces() throws Exception {
+        final CommandMatch match = new CommandMatcher(COMMANDS).match("  Play   MUSIC ");
+
+        assertNotNull(match);
+        assertEquals("play music", match.getCommand());
+        assertEquals(2, match.getCommandIndex());
+        assertEquals(0, match.getHypothesisIndex());
+        assertEquals(0, match.getDistance());
+        assertEquals(1f, match.getScore(), 0.0001f);
+    }
+
+    @Test
+    public void toleratesRecognitionErrors() throws Exception {
+        final CommandMatch match = new CommandMatcher(COMMANDS).match("turn off the light");
+
+        assertNotNull(match);
+        assertEquals("turn off the lights", match.getCommand());
+        assertEquals(1, match.getDistance());
+        assertEquals(1f - 1f / 19, match.getScore(), 0.0001f);
+    }
+
+    @Test
+    public void returnsNullForUnknownCommands() throws Exception {
+        final CommandMatcher matcher = new CommandMatcher(COMMANDS);
+
+        assertNull(matcher.match("what's the weather like"));
+        assertNull(matcher.match("   "));
+    }
+
+    @Test
+    public void honorsTheMaximumDistanceRatio() throws Exception {
+        assertNotNull(new CommandMatcher(COMMANDS).match("plai mujic"));
+        assertNull(new CommandMatcher(COMMANDS, 0.1f).match("plai mujic"));
+
+        // a single error is always tolerated
+        assertNotNull(new CommandMatcher(COMMANDS, 0).match("play mujic"));
+    }
+
+    @Test
+    public void weightsTheScoreByTheHypothesisConfidence() throws Exception {
+        final CommandMatcher matcher = new CommandMatcher(COMMANDS);
+        final String[] hypotheses = {"play musik", "play music"};
+
+        CommandMatch match = matcher.match(hypotheses, new float[]{0.9f, 0.6f}, 2);
+        assertEquals(0, match.getHypothesisIndex());
+        assertEquals(0.9f * (1f - 1f / 10), match.getScore(), 0.0001f);
+
+        match = matcher.match(hypotheses, new float[]{0.5f, 0.9f}, 2);
+        assertEquals(1, match.getHypothesisIndex());
+        assertEquals(0.9f, match.getScore(), 0.0001f);
+    }
+
+    @Test
+    public void considersOnlyTheGivenNumberOfHypotheses() throws Exception {
+        final CommandMatcher matcher = new CommandMatcher(COMMANDS);
+        final String[] hypotheses = {"what's the weather like", "play music"};
+
+        assertNull(matcher.match(hypotheses, null, 1));
+        assertEquals(1, matcher.match(hypotheses, null, 2).getHypothesisIndex());
+        assertEquals(1, matcher.match(hypotheses, null, 10).getHypothesisIndex());
+    }
+
+    @Test
+    public void skipsMissingHypotheses() throws Exception {
+        final CommandMatch match = new CommandMatcher(COMMANDS)
+                .match(new String[]{null, "", "play music"}, null, 3);
+
+        assertEquals(2, match.getHypothesisIndex());
+    }
+
+    @Test
+    public void indexesDuplicateCommandsOnce() throws Exception {
+        final CommandMatcher matcher = new CommandMatcher(Arrays.asList("stop", "Stop", "go"));
+
+        assertEquals(3, matcher.size());
+        assertEquals(0, matcher.match("stop").getCommandIndex());
+        assertEquals(2, matcher.match("go").getCommandIndex());
+    }
+
+    @Test
+    public void findsTheClosestCommandInALargeCatalog() throws Exception {
+        final List<String> commands = new ArrayList<>();
+
+        for (int i = 0; i < 500; i++) {
+            commands.add("command " + i);
+        }
+
+        final CommandMatcher matcher = new CommandMatcher(commands);
+
+        assertEquals(123, matcher.match("command 123").getCommandIndex());
+
+        final CommandMatch match = matcher.match("comand 321");
+        assertEquals(321, match.getCommandIndex());
+        assertEquals(1, match.getDistance());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsAnEmptyCatalog() throws Exception {
+        new CommandMatcher(Collections.<String>emptyList());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsAnInvalidDistanceRatio() throws Exception {
+        new CommandMatcher(COMMANDS, 1f);
+    }
+}
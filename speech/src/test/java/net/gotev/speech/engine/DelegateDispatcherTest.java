@@ -0,0 +1,189 @@
+package net.gotev.speech.engine;
+
+import net.gotev.speech.Logger;
+import net.gotev.speech.MainThreadSpeechDelegate;
+import net.gotev.speech.SpeechDelegate;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.junit.Assert.*;
+
+public class DelegateDispatcherTest {
+
+    /**
+     * Executor which runs the tasks only when asked to, like a busy thread.
+     */
+    private static final class ManualExecutor implements Executor {
+        final List<Runnable> tasks = new ArrayList<>();
+
+        @Override
+        public void execute(final Runnable command) {
+            tasks.add(command);
+        }
+
+        void runAll() {
+            while (!tasks.isEmpty()) {
+                tasks.remove(0).run();
+            }
+        }
+    }
+
+    private static class RecordingDelegate implements SpeechDelegate {
+        final List<String> events = new ArrayList<>();
+
+        @Override
+        public void onStartOfSpeech() {
+            events.add("start");
+        }
+
+        @Override
+        public void onSpeechRmsChanged(final float value) {
+            events.add("rms " + (int) value);
+        }
+
+        @Override
+        public void onSpeechPartialResults(final List<String> results) {
+            events.add("partial " + results.get(0));
+        }
+
+        @Override
+        public void onSpeechResult(final String result) {
+            events.add("result " + result);
+        }
+    }
+
+    private static final class MainThreadDelegate extends RecordingDelegate
+            implements MainThreadSpeechDelegate {
+    }
+
+    private DelegateDispatcher mDispatcher;
+    private ManualExecutor mExecutor;
+    private RecordingDelegate mDelegate;
+
+    @Before
+    public void setUp() throws Exception {
+        Logger.setLogLevel(Logger.LogLevel.OFF);
+        mDispatcher = new DelegateDispatcher();
+        mExecutor = new ManualExecutor();
+        mDelegate = new RecordingDelegate();
+    }
+
+    @Test
+    public void deliversOnTheCallingThreadWithoutExecutor() throws Exception {
+        mDispatcher.onStartOfSpeech(mDelegate);
+        mDispatcher.onSpeechRmsChanged(mDelegate, 1);
+        mDispatcher.onSpeechResult(mDelegate, "hello");
+
+        assertEquals(Arrays.asList("start", "rms 1", "result hello"), mDelegate.events);
+    }
+
+    @Test
+    public void deliversInOrderOnTheExecutor() throws Exception {
+        mDispatcher.setExecutor(mExecutor, false, false);
+
+        mDispatcher.onStartOfSpeech(mDelegate);
+        mDispatcher.onSpeechRmsChanged(mDelegate, 1);
+        mDispatcher.onSpeechRmsChanged(mDelegate, 2);
+        mDispatcher.onSpeechPartialResults(mDelegate, Collections.singletonList("hel"));
+        mDispatcher.onSpeechResult(mDelegate, "hello");
+
+        assertTrue(mDelegate.events.isEmpty());
+        assertEquals(1, mExecutor.tasks.size());
+
+        mExecutor.runAll();
+        assertEquals(Arrays.asList("start", "rms 1", "rms 2", "partial hel", "result hello"),
+                mDelegate.events);
+    }
+
+    @Test
+    public void coalescesTheQueuedValues() throws Exception {
+        mDispatcher.setExecutor(mExecutor, true, true);
+
+        mDispatcher.onSpeechRmsChanged(mDelegate, 1);
+        mDispatcher.onSpeechRmsChanged(mDelegate, 2);
+        mDispatcher.onSpeechRmsChanged(mDelegate, 3);
+        mDispatcher.onSpeechPartialResults(mDelegate, Collections.singletonList("hel"));
+        mDispatcher.onSpeechPartialResults(mDelegate, Collections.singletonList("hello"));
+
+        mExecutor.runAll();
+        assertEquals(Arrays.asList("rms 3", "partial hello"), mDelegate.events);
+    }
+
+    @Test
+    public void keepsTheOrderOfInterleavedValues() throws Exception {
+        mDispatcher.setExecutor(mExecutor, true, true);
+
+        mDispatcher.onSpeechRmsChanged(mDelegate, 1);
+        mDispatcher.onSpeechPartialResults(mDelegate, Collections.singletonList("hel"));
+        mDispatcher.onSpeechRmsChanged(mDelegate, 2);
+        mDispatcher.onSpeechPartialResults(mDelegate, Collections.singletonList("hello"));
+        mDispatcher.onSpeechRmsChanged(mDelegate, 3);
+
+        mExecutor.runAll();
+        assertEquals(Arrays.asList("partial hello", "rms 3"), mDelegate.events);
+    }
+
+    @Test
+    public void neverCoalescesAcrossOtherEvents() throws Exception {
+        mDispatcher.setExecutor(mExecutor, true, true);
+
+        mDispatcher.onSpeechRmsChanged(mDelegate, 1);
+        mDispatcher.onSpeechPartialResults(mDelegate, Collections.singletonList("hello"));
+        mDispatcher.onSpeechResult(mDelegate, "hello");
+        mDispatcher.onStartOfSpeech(mDelegate);
+        mDispatcher.onSpeechRmsChanged(mDelegate, 2);
+        mDispatcher.onSpeechPartialResults(mDelegate, Collections.singletonList("how"));
+
+        mExecutor.runAll();
+        assertEquals(Arrays.asList("rms 1", "partial hello", "result hello", "start", "rms 2",
+                "partial how"), mDelegate.events);
+    }
+
+    @Test
+    public void doesNotCoalesceTheValuesBeingDelivered() throws Exception {
+        mDispatcher.setExecutor(mExecutor, true, true);
+
+        mDispatcher.onSpeechRmsChanged(mDelegate, 1);
+        mExecutor.runAll();
+        mDispatcher.onSpeechRmsChanged(mDelegate, 2);
+        mExecutor.runAll();
+
+        assertEquals(Arrays.asList("rms 1", "rms 2"), mDelegate.events);
+    }
+
+    @Test
+    public void deliversToMainThreadDelegatesOnTheCallingThread() throws Exception {
+        final MainThreadDelegate delegate = new MainThreadDelegate();
+        mDispatcher.setExecutor(mExecutor, true, true);
+
+        mDispatcher.onStartOfSpeech(delegate);
+        mDispatcher.onSpeechRmsChanged(delegate, 1);
+        mDispatcher.onSpeechPartialResults(delegate, Collections.singletonList("hel"));
+        mDispatcher.onSpeechResult(delegate, "hello");
+
+        assertEquals(Arrays.asList("start", "rms 1", "partial hel", "result hello"), delegate.events);
+        assertTrue(mExecutor.tasks.isEmpty());
+    }
+
+    @Test
+    public void deliversOnTheCallingThreadWhenTheExecutorRejects() throws Exception {
+        mDispatcher.setExecutor(new Executor() {
+            @Override
+            public void execute(final Runnable command) {
+                throw new RejectedExecutionException();
+            }
+        }, false, false);
+
+        mDispatcher.onSpeechResult(mDelegate, "hello");
+
+        assertEquals(Collections.singletonList("result hello"), mDelegate.events);
+    }
+}
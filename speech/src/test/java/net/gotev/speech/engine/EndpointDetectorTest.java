@@ -0,0 +1,174 @@
+package net.gotev.speech.engine;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class EndpointDetectorTest {
+
+    private static final long FRAME = 50;
+    private static final float NOISE = -2f;
+    private static final float SPEECH = 8f;
+
+    private long mTime;
+
+    /**
+     * Feeds the same RMS value for the given number of frames.
+     * @return timestamp at which the end of utterance has been detected, or -1
+     */
+    private long feed(final EndpointDetector detector, final float rmsDb, final int frames) {
+        long endpoint = -1;
+
+        for (int i = 0; i < frames; i++) {
+            if (detector.onRmsChanged(rmsDb, mTime) && endpoint < 0)
+                endpoint = mTime;
+
+            mTime += FRAME;
+        }
+
+        return endpoint;
+    }
+
+    @Test
+    public void noiseFloorFollowsTheBackground() throws Exception {
+        final EndpointDetector detector = new EndpointDetector();
+        feed(detector, NOISE, 20);
+        assertEquals(NOISE, detector.getNoiseFloor(), 0.01f);
+
+        // a quieter background is followed quickly
+        feed(detector, NOISE - 4, 10);
+        assertEquals(NOISE - 4, detector.getNoiseFloor(), 0.01f);
+
+        // a slightly louder background is followed slowly
+        feed(detector, NOISE - 3, 10);
+        final float rising = detector.getNoiseFloor();
+        assertTrue(rising > NOISE - 4 && rising < NOISE - 3.5f);
+
+        feed(detector, NOISE - 3, 400);
+        assertEquals(NOISE - 3, detector.getNoiseFloor(), 0.01f);
+        assertFalse(detector.isSpeechDetected());
+    }
+
+    @Test
+    public void noiseAloneNeverEndsTheUtterance() throws Exception {
+        final EndpointDetector detector = new EndpointDetector();
+
+        assertEquals(-1, feed(detector, NOISE, 200));
+        assertFalse(detector.isSpeechDetected());
+    }
+
+    @Test
+    public void singleLoudFrameIsNotSpeech() throws Exception {
+        final EndpointDetector detector = new EndpointDetector();
+        feed(detector, NOISE, 20);
+        feed(detector, SPEECH, 1);
+
+        assertEquals(-1, feed(detector, NOISE, 100));
+        assertFalse(detector.isSpeechDetected());
+    }
+
+    @Test
+    public void utteranceEndsAfterTheTrailingSilence() throws Exception {
+        final EndpointDetector detector = new EndpointDetector();
+        feed(detector, NOISE, 20);
+        feed(detector, SPEECH, 20);
+
+        assertTrue(detector.isSpeechDetected());
+        assertTrue(detector.isInSpeech());
+        assertTrue(detector.getSpeechLevel() > NOISE + 4);
+
+        final long silenceStart = mTime;
+        final long endpoint = feed(detector, NOISE, 100);
+
+        assertFalse(detector.isInSpeech());
+        assertTrue(endpoint >= 0);
+        assertTrue(endpoint - silenceStart >= detector.getTrailingSilence());
+        assertTrue(endpoint - silenceStart < detector.getTrailingSilence() + FRAME);
+    }
+
+    @Test
+    public void pausesBetweenWordsDoNotEndTheUtterance() throws Exception {
+        final EndpointDetector detector = new EndpointDetector();
+        feed(detector, NOISE, 20);
+
+        for (int word = 0; word < 10; word++) {
+            assertEquals(-1, feed(detector, SPEECH, 6));
+            assertEquals(-1, feed(detector, NOISE, 4));
+        }
+
+        assertTrue(feed(detector, NOISE, 100) >= 0);
+    }
+
+    @Test
+    public void trailingSilenceAdaptsToTheUserPace() throws Exception {
+        final EndpointDetector fast = new EndpointDetector();
+        final EndpointDetector slow = new EndpointDetector();
+        final long initial = fast.getTrailingSilence();
+
+        feed(fast, NOISE, 20);
+
+        for (int word = 0; word < 20; word++) {
+            feed(fast, SPEECH, 6);
+            feed(fast, NOISE, 2);
+        }
+
+        feed(slow, NOISE, 20);
+
+        for (int word = 0; word < 20; word++) {
+            feed(slow, SPEECH, 6);
+            feed(slow, NOISE, 10);
+        }
+
+        assertTrue(fast.getTrailingSilence() < initial);
+        assertTrue(slow.getTrailingSilence() > initial);
+    }
+
+    @Test
+    public void higherSensitivityEndsSooner() throws Exception {
+        final EndpointDetector low = new EndpointDetector(EndpointDetector.SENSITIVITY_LOW);
+        final EndpointDetector high = new EndpointDetector(EndpointDetector.SENSITIVITY_HIGH);
+
+        assertTrue(high.getTrailingSilence() < low.getTrailingSilence());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void sensitivityOutOfRangeIsRejected() throws Exception {
+        new EndpointDetector(1.5f);
+    }
+
+    @Test
+    public void resetStartsANewUtterance() throws Exception {
+        final EndpointDetector detector = new EndpointDetector();
+        feed(detector, NOISE, 20);
+        feed(detector, SPEECH, 20);
+        assertTrue(feed(detector, NOISE, 100) >= 0);
+
+        detector.reset();
+
+        assertFalse(detector.isSpeechDetected());
+        assertFalse(detector.isInSpeech());
+
+        // the noise floor is learned again from the first value
+        assertEquals(-1, feed(detector, NOISE + 10, 1));
+        assertEquals(NOISE + 10, detector.getNoiseFloor(), 0.01f);
+        assertEquals(-1, feed(detector, NOISE + 10, 100));
+    }
+
+    @Test
+    public void learnedPaceSurvivesReset() throws Exception {
+        final EndpointDetector detector = new EndpointDetector();
+        final long initial = detector.getTrailingSilence();
+        feed(detector, NOISE, 20);
+
+        for (int word = 0; word < 20; word++) {
+            feed(detector, SPEECH, 6);
+            feed(detector, NOISE, 10);
+        }
+
+        final long learned = detector.getTrailingSilence();
+        detector.reset();
+
+        assertTrue(learned > initial);
+        assertEquals(learned, detector.getTrailingSilence());
+    }
+}
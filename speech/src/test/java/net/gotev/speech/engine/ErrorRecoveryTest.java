@@ -0,0 +1,137 @@
+package net.gotev.speech.engine;
+
+import android.speech.SpeechRecognizer;
+
+import net.gotev.speech.RecoveryAction;
+import net.gotev.speech.RecoveryPolicy;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ErrorRecoveryTest {
+
+    private static ErrorRecovery newRecovery(final int maxRetries, final int failureThreshold) {
+        final ErrorRecovery recovery = new ErrorRecovery();
+        recovery.setPolicy(new RecoveryPolicy.Builder()
+                .setAction(SpeechRecognizer.ERROR_SERVER, RecoveryAction.RETRY_WITH_BACKOFF)
+                .setAction(SpeechRecognizer.ERROR_NO_MATCH, RecoveryAction.RETRY_IMMEDIATELY)
+                .setMaxRetries(maxRetries)
+                .setBackoff(100, 350)
+                .setCircuitBreaker(failureThreshold, 1000)
+                .build());
+        return recovery;
+    }
+
+    @Test
+    public void defaultPolicyDeliversEveryError() throws Exception {
+        final ErrorRecovery recovery = new ErrorRecovery();
+
+        for (int code = SpeechRecognizer.ERROR_NETWORK_TIMEOUT; code <= SpeechRecognizer.ERROR_RECOGNIZER_BUSY; code++) {
+            assertEquals(RecoveryAction.DELIVER, recovery.onError(code, 0));
+        }
+
+        assertFalse(recovery.isCircuitOpen(0));
+    }
+
+    @Test
+    public void retriesUpToTheMaximumThenDelivers() throws Exception {
+        final ErrorRecovery recovery = newRecovery(2, 0);
+
+        assertEquals(RecoveryAction.RETRY_WITH_BACKOFF, recovery.onError(SpeechRecognizer.ERROR_SERVER, 0));
+        assertEquals(RecoveryAction.RETRY_WITH_BACKOFF, recovery.onError(SpeechRecognizer.ERROR_SERVER, 1));
+        assertEquals(RecoveryAction.DELIVER, recovery.onError(SpeechRecognizer.ERROR_SERVER, 2));
+    }
+
+    @Test
+    public void newSessionResetsTheRetries() throws Exception {
+        final ErrorRecovery recovery = newRecovery(1, 0);
+
+        assertEquals(RecoveryAction.RETRY_WITH_BACKOFF, recovery.onError(SpeechRecognizer.ERROR_SERVER, 0));
+        assertEquals(RecoveryAction.DELIVER, recovery.onError(SpeechRecognizer.ERROR_SERVER, 1));
+
+        recovery.onSessionRequested();
+        assertEquals(RecoveryAction.RETRY_WITH_BACKOFF, recovery.onError(SpeechRecognizer.ERROR_SERVER, 2));
+    }
+
+    @Test
+    public void backoffDelayDoublesUpToTheMaximum() throws Exception {
+        final ErrorRecovery recovery = newRecovery(5, 0);
+        final long[] expected = {100, 200, 350, 350};
+
+        for (final long delay : expected) {
+            recovery.onError(SpeechRecognizer.ERROR_SERVER, 0);
+            assertEquals(delay, recovery.getBackoffDelay());
+        }
+    }
+
+    @Test
+    public void circuitOpensAfterConsecutiveFailures() throws Exception {
+        final ErrorRecovery recovery = newRecovery(10, 3);
+
+        assertEquals(RecoveryAction.RETRY_WITH_BACKOFF, recovery.onError(SpeechRecognizer.ERROR_SERVER, 0));
+        assertEquals(RecoveryAction.RETRY_WITH_BACKOFF, recovery.onError(SpeechRecognizer.ERROR_SERVER, 1));
+        assertEquals(RecoveryAction.CIRCUIT_OPEN, recovery.onError(SpeechRecognizer.ERROR_SERVER, 2));
+
+        assertTrue(recovery.isCircuitOpen(500));
+        assertEquals(RecoveryAction.CIRCUIT_OPEN, recovery.onError(SpeechRecognizer.ERROR_SERVER, 500));
+
+        // errors which are not retried are delivered as usual
+        assertEquals(RecoveryAction.DELIVER, recovery.onError(SpeechRecognizer.ERROR_AUDIO, 600));
+    }
+
+    @Test
+    public void circuitClosesAfterTheOpenDuration() throws Exception {
+        final ErrorRecovery recovery = newRecovery(10, 3);
+
+        for (int i = 0; i < 3; i++) {
+            recovery.onError(SpeechRecognizer.ERROR_SERVER, i);
+        }
+
+        assertTrue(recovery.isCircuitOpen(1001));
+        assertFalse(recovery.isCircuitOpen(1002));
+        assertEquals(RecoveryAction.RETRY_WITH_BACKOFF, recovery.onError(SpeechRecognizer.ERROR_SERVER, 1002));
+    }
+
+    @Test
+    public void successClosesTheCircuit() throws Exception {
+        final ErrorRecovery recovery = newRecovery(10, 2);
+
+        recovery.onError(SpeechRecognizer.ERROR_SERVER, 0);
+        recovery.onError(SpeechRecognizer.ERROR_SERVER, 1);
+        assertTrue(recovery.isCircuitOpen(2));
+
+        recovery.onSuccess();
+        assertFalse(recovery.isCircuitOpen(2));
+
+        // the consecutive failures count starts again from zero
+        assertEquals(RecoveryAction.RETRY_WITH_BACKOFF, recovery.onError(SpeechRecognizer.ERROR_SERVER, 3));
+        assertFalse(recovery.isCircuitOpen(3));
+    }
+
+    @Test
+    public void userErrorsDoNotOpenTheCircuit() throws Exception {
+        final ErrorRecovery recovery = newRecovery(10, 2);
+
+        for (int i = 0; i < 5; i++) {
+            recovery.onSessionRequested();
+            assertEquals(RecoveryAction.RETRY_IMMEDIATELY, recovery.onError(SpeechRecognizer.ERROR_NO_MATCH, i));
+            assertEquals(RecoveryAction.DELIVER, recovery.onError(SpeechRecognizer.ERROR_SPEECH_TIMEOUT, i));
+        }
+
+        assertFalse(recovery.isCircuitOpen(5));
+    }
+
+    @Test
+    public void settingThePolicyResetsTheState() throws Exception {
+        final ErrorRecovery recovery = newRecovery(10, 2);
+
+        recovery.onError(SpeechRecognizer.ERROR_SERVER, 0);
+        recovery.onError(SpeechRecognizer.ERROR_SERVER, 1);
+        assertTrue(recovery.isCircuitOpen(2));
+
+        recovery.setPolicy(null);
+        assertFalse(recovery.isCircuitOpen(2));
+        assertEquals(RecoveryAction.DELIVER, recovery.onError(SpeechRecognizer.ERROR_SERVER, 3));
+    }
+}
@@ -0,0 +1,113 @@
+package net.gotev.speech.engine;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class KeywordSpotterTest {
+
+    @Test
+    public void spotsKeywordsIgnoringCase() throws Exception {
+        final KeywordSpotter spotter = new KeywordSpotter("stop");
+        assertEquals(Arrays.asList("stop"), spotter.scan("please STOP now"));
+    }
+
+    @Test
+    public void matchesOnlyWholeWords() throws Exception {
+        final KeywordSpotter spotter = new KeywordSpotter("stop");
+        assertTrue(spotter.scan("stopwatch nonstop").isEmpty());
+    }
+
+    @Test
+    public void matchesPhraseAtTheEndRightAway() throws Exception {
+        final KeywordSpotter spotter = new KeywordSpotter("stop");
+
+        assertEquals(Arrays.asList("stop"), spotter.scan("please stop"));
+
+        // the recognizer extends the word, but the match has already been reported
+        assertTrue(spotter.scan("please stopping").isEmpty());
+    }
+
+    @Test
+    public void reportsEveryOccurrenceOnce() throws Exception {
+        final KeywordSpotter spotter = new KeywordSpotter("go");
+
+        assertEquals(Arrays.asList("go"), spotter.scan("go"));
+        assertTrue(spotter.scan("go left").isEmpty());
+        assertEquals(Arrays.asList("go"), spotter.scan("go left go"));
+    }
+
+    @Test
+    public void scansOnlyTheNewText() throws Exception {
+        final KeywordSpotter spotter = new KeywordSpotter("left", "right");
+
+        assertTrue(spotter.scan("turn").isEmpty());
+        assertEquals(Arrays.asList("left"), spotter.scan("turn left"));
+        assertEquals(Arrays.asList("right"), spotter.scan("turn left and right"));
+    }
+
+    @Test
+    public void rescansRevisedText() throws Exception {
+        final KeywordSpotter spotter = new KeywordSpotter("stop");
+
+        assertTrue(spotter.scan("shop").isEmpty());
+        assertEquals(Arrays.asList("stop"), spotter.scan("stop"));
+    }
+
+    @Test
+    public void matchesMultiWordPhrases() throws Exception {
+        final KeywordSpotter spotter = new KeywordSpotter("Turn  on the\tLights");
+
+        assertEquals(Arrays.asList("turn on the lights"), spotter.getPhrases());
+        assertEquals(Arrays.asList("turn on the lights"), spotter.scan("please turn on the\nlights"));
+    }
+
+    @Test
+    public void matchesOverlappingPhrases() throws Exception {
+        final KeywordSpotter spotter = new KeywordSpotter("on", "turn on");
+        assertEquals(Arrays.asList("turn on", "on"), spotter.scan("turn on"));
+    }
+
+    @Test
+    public void matchesPhrasesInOrderOfAppearance() throws Exception {
+        final KeywordSpotter spotter = new KeywordSpotter("yes", "no");
+        assertEquals(Arrays.asList("no", "yes", "no"), spotter.scan("no yes maybe no"));
+    }
+
+    @Test
+    public void resetReportsThePhrasesAgain() throws Exception {
+        final KeywordSpotter spotter = new KeywordSpotter("stop");
+
+        spotter.scan("stop");
+        spotter.reset();
+
+        assertEquals(Arrays.asList("stop"), spotter.scan("stop"));
+    }
+
+    @Test
+    public void handlesLongTexts() throws Exception {
+        final KeywordSpotter spotter = new KeywordSpotter("stop");
+        final StringBuilder text = new StringBuilder();
+
+        for (int i = 0; i < 100; i++) {
+            text.append("blah ");
+        }
+
+        assertTrue(spotter.scan(text).isEmpty());
+        assertEquals(Arrays.asList("stop"), spotter.scan(text.append("stop")));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNoPhrases() throws Exception {
+        new KeywordSpotter(Collections.<String>emptyList());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsEmptyPhrases() throws Exception {
+        new KeywordSpotter(new ArrayList<>(Arrays.asList("stop", " ")));
+    }
+}
@@ -0,0 +1,36 @@
+package net.gotev.speech.engine;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import static org.junit.Assert.*;
+
+public class OnDeviceModelCacheTest {
+
+    private static final List<String> LANGUAGES = Arrays.asList("en-US", "it-IT", "de");
+
+    @Test
+    public void matchesTheExactLanguageTag() throws Exception {
+        assertTrue(OnDeviceModelCache.contains(LANGUAGES, Locale.US));
+        assertTrue(OnDeviceModelCache.contains(Arrays.asList("EN-us"), Locale.US));
+        assertTrue(OnDeviceModelCache.contains(LANGUAGES, Locale.GERMAN));
+    }
+
+    @Test
+    public void doesNotMatchOtherCountriesOfTheLanguage() throws Exception {
+        assertFalse(OnDeviceModelCache.contains(LANGUAGES, Locale.UK));
+        assertFalse(OnDeviceModelCache.contains(LANGUAGES, new Locale("it", "CH")));
+        assertFalse(OnDeviceModelCache.contains(LANGUAGES, Locale.GERMANY));
+    }
+
+    @Test
+    public void matchesAnyCountryForLocalesWithoutCountry() throws Exception {
+        assertTrue(OnDeviceModelCache.contains(LANGUAGES, Locale.ENGLISH));
+        assertTrue(OnDeviceModelCache.contains(LANGUAGES, Locale.ITALIAN));
+        assertFalse(OnDeviceModelCache.contains(LANGUAGES, Locale.FRENCH));
+        assertFalse(OnDeviceModelCache.contains(null, Locale.ENGLISH));
+    }
+}
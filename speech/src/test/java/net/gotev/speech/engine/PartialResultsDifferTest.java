@@ -0,0 +1,137 @@
+package net.gotev.speech.engine;
+
+import net.gotev.speech.SpeechPartialDelta;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PartialResultsDifferTest {
+
+    @Test
+    public void firstTextIsDeliveredAsAWhole() throws Exception {
+        final SpeechPartialDelta delta = new PartialResultsDiffer().diff("hello");
+
+        assertEquals(0, delta.getStablePrefixLength());
+        assertEquals(0, delta.getRemovedLength());
+        assertEquals("hello", delta.getText());
+        assertTrue(delta.isAppend());
+    }
+
+    @Test
+    public void unchangedTextHasNoDelta() throws Exception {
+        final PartialResultsDiffer differ = new PartialResultsDiffer();
+        differ.diff("hello world");
+
+        assertNull(differ.diff("hello world"));
+    }
+
+    @Test
+    public void appendedWordsKeepThePrefix() throws Exception {
+        final PartialResultsDiffer differ = new PartialResultsDiffer();
+        differ.diff("hello");
+
+        final SpeechPartialDelta delta = differ.diff("hello world");
+
+        assertEquals(5, delta.getStablePrefixLength());
+        assertEquals(0, delta.getRemovedLength());
+        assertEquals(" world", delta.getText());
+        assertTrue(delta.isAppend());
+        assertEquals(11, delta.getLength());
+    }
+
+    @Test
+    public void changedWordIsReplacedAsAWhole() throws Exception {
+        final PartialResultsDiffer differ = new PartialResultsDiffer();
+        differ.diff("hello world");
+
+        final SpeechPartialDelta delta = differ.diff("hello word");
+
+        assertEquals(6, delta.getStablePrefixLength());
+        assertEquals(5, delta.getRemovedLength());
+        assertEquals("word", delta.getText());
+        assertFalse(delta.isAppend());
+    }
+
+    @Test
+    public void grownWordIsReplacedAsAWhole() throws Exception {
+        final PartialResultsDiffer differ = new PartialResultsDiffer();
+        differ.diff("turn on the light");
+
+        final SpeechPartialDelta delta = differ.diff("turn on the lights");
+
+        assertEquals(12, delta.getStablePrefixLength());
+        assertEquals(5, delta.getRemovedLength());
+        assertEquals("lights", delta.getText());
+    }
+
+    @Test
+    public void resetDeliversTheNextTextAsAWhole() throws Exception {
+        final PartialResultsDiffer differ = new PartialResultsDiffer();
+        differ.diff("hello");
+        differ.reset();
+
+        final SpeechPartialDelta delta = differ.diff("hello");
+
+        assertNotNull(delta);
+        assertEquals(0, delta.getStablePrefixLength());
+        assertEquals(0, delta.getRemovedLength());
+        assertEquals("hello", delta.getText());
+    }
+
+    @Test
+    public void fingerprintDependsOnlyOnTheText() throws Exception {
+        final PartialResultsDiffer incremental = new PartialResultsDiffer();
+        incremental.diff("set an alarm");
+        incremental.diff("set an alarm for");
+        final SpeechPartialDelta last = incremental.diff("set an alarm at seven");
+
+        final SpeechPartialDelta whole = new PartialResultsDiffer().diff("set an alarm at seven");
+
+        assertEquals(whole.getFingerprint(), last.getFingerprint());
+        assertNotEquals(whole.getFingerprint(), new PartialResultsDiffer().diff("set an alarm at eight").getFingerprint());
+    }
+
+    @Test
+    public void deltasRebuildTheTexts() throws Exception {
+        final String[] texts = {
+                "the", "the quick", "the quick brown", "the quick brow", "the quick brown fox",
+                "a quick brown fox", "a quick brown fox jumps", "", "over the lazy dog"
+        };
+
+        final PartialResultsDiffer differ = new PartialResultsDiffer();
+        String rebuilt = "";
+
+        for (final String text : texts) {
+            final SpeechPartialDelta delta = differ.diff(text);
+
+            if (delta == null) {
+                assertEquals(text, rebuilt);
+                continue;
+            }
+
+            assertEquals(rebuilt.length(), delta.getStablePrefixLength() + delta.getRemovedLength());
+            rebuilt = rebuilt.substring(0, delta.getStablePrefixLength()) + delta.getText();
+            assertEquals(text, rebuilt);
+        }
+    }
+
+    @Test
+    public void textsLongerThanTheInitialCapacityAreSupported() throws Exception {
+        final StringBuilder text = new StringBuilder();
+        final PartialResultsDiffer differ = new PartialResultsDiffer();
+
+        for (int i = 0; i < 100; i++) {
+            final int previousLength = text.length();
+            text.append(" word").append(i);
+
+            final SpeechPartialDelta delta = differ.diff(text);
+
+            assertEquals(previousLength, delta.getStablePrefixLength());
+            assertEquals(text.substring(previousLength), delta.getText());
+        }
+
+        assertEquals(new PartialResultsDiffer().diff(text + " end").getFingerprint(),
+                differ.diff(text + " end").getFingerprint());
+    }
+}
@@ -0,0 +1,136 @@
+package net.gotev.speech.engine;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class StablePrefixTrackerTest {
+
+    @Test
+    public void commitsWordsSeenInTwoPartialResults() throws Exception {
+        final StablePrefixTracker tracker = new StablePrefixTracker();
+
+        assertEquals(0, tracker.update("hello", false));
+        assertEquals(1, tracker.update("hello world", false));
+        assertEquals(1, tracker.update("hello world how", false));
+
+        assertEquals(Arrays.asList("hello", "world"), tracker.getCommittedWords());
+        assertEquals("hello world", tracker.getCommittedText().toString());
+    }
+
+    @Test
+    public void lastWordIsNotCommittedWhileAtTheEnd() throws Exception {
+        final StablePrefixTracker tracker = new StablePrefixTracker();
+
+        for (int i = 0; i < 5; i++) {
+            tracker.update("hello world", false);
+        }
+
+        assertEquals(Arrays.asList("hello"), tracker.getCommittedWords());
+    }
+
+    @Test
+    public void wordsBeforeUnstableTextNeedOneRepetitionLess() throws Exception {
+        final StablePrefixTracker tracker = new StablePrefixTracker();
+
+        assertEquals(2, tracker.update("hello world", true));
+        assertEquals(Arrays.asList("hello", "world"), tracker.getCommittedWords());
+    }
+
+    @Test
+    public void changedWordRestartsItsCount() throws Exception {
+        final StablePrefixTracker tracker = new StablePrefixTracker();
+
+        tracker.update("hello word", false);
+        assertEquals(1, tracker.update("hello world how", false));
+        assertEquals(Arrays.asList("hello"), tracker.getCommittedWords());
+
+        assertEquals(2, tracker.update("hello world how are", false));
+        assertEquals(Arrays.asList("hello", "world", "how"), tracker.getCommittedWords());
+    }
+
+    @Test
+    public void wordsAfterAChangedWordRestartTheirCount() throws Exception {
+        final StablePrefixTracker tracker = new StablePrefixTracker();
+
+        tracker.update("a b c d", false);
+        tracker.update("a x c d", false);
+
+        // c and d are preceded by a different word, so they have been seen only once
+        assertEquals(Arrays.asList("a"), tracker.getCommittedWords());
+    }
+
+    @Test
+    public void committedWordsAreNotRetracted() throws Exception {
+        final StablePrefixTracker tracker = new StablePrefixTracker();
+
+        tracker.update("hello", false);
+        tracker.update("hello world", false);
+        assertEquals(0, tracker.update("yellow world", false));
+        assertEquals(Arrays.asList("hello"), tracker.getCommittedWords());
+
+        assertEquals(1, tracker.update("yellow world again", false));
+        assertEquals(Arrays.asList("hello", "world"), tracker.getCommittedWords());
+    }
+
+    @Test
+    public void honorsTheMinimumRepetitions() throws Exception {
+        final StablePrefixTracker tracker = new StablePrefixTracker(3);
+
+        assertEquals(0, tracker.update("one two", false));
+        assertEquals(0, tracker.update("one two", false));
+        assertEquals(1, tracker.update("one two", false));
+
+        // followed by unstable text, the last word can be committed too
+        assertEquals(1, tracker.update("one two three", true));
+        assertEquals(Arrays.asList("one", "two"), tracker.getCommittedWords());
+
+        // and two repetitions are enough
+        assertEquals(1, tracker.update("one two three", true));
+        assertEquals(Arrays.asList("one", "two", "three"), tracker.getCommittedWords());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsInvalidMinimumRepetitions() throws Exception {
+        new StablePrefixTracker(0);
+    }
+
+    @Test
+    public void ignoresExtraWhitespace() throws Exception {
+        final StablePrefixTracker tracker = new StablePrefixTracker();
+
+        tracker.update("  hello \t world ", false);
+        tracker.update("hello world  again", false);
+
+        assertEquals("hello world", tracker.getCommittedText().toString());
+    }
+
+    @Test
+    public void handlesLongTexts() throws Exception {
+        final StablePrefixTracker tracker = new StablePrefixTracker();
+        final StringBuilder text = new StringBuilder();
+
+        for (int i = 0; i < 100; i++) {
+            text.append("word").append(i).append(' ');
+        }
+
+        tracker.update(text, false);
+        assertEquals(100, tracker.update(text + "last", false));
+        assertEquals("word99", tracker.getCommittedWords().get(99));
+    }
+
+    @Test
+    public void resetForgetsEverything() throws Exception {
+        final StablePrefixTracker tracker = new StablePrefixTracker();
+
+        tracker.update("hello world", false);
+        tracker.update("hello world", false);
+        tracker.reset();
+
+        assertTrue(tracker.getCommittedWords().isEmpty());
+        assertEquals(0, tracker.getCommittedText().length());
+        assertEquals(0, tracker.update("hello world", false));
+    }
+}
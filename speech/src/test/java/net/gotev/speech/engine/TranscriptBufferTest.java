@@ -0,0 +1,131 @@
+package net.gotev.speech.engine;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+public class TranscriptBufferTest {
+
+    @Test
+    public void stableAndUnstableSegmentsAreJoined() throws Exception {
+        final TranscriptBuffer buffer = new TranscriptBuffer();
+        buffer.setStable(Arrays.asList("hello", "", "world"));
+        buffer.setUnstable("again");
+
+        assertEquals("hello world", buffer.getStableText().toString());
+        assertEquals("again", buffer.getUnstableText().toString());
+        assertEquals("hello world again", buffer.getText().toString());
+    }
+
+    @Test
+    public void settingTheStableSegmentClearsTheUnstableOne() throws Exception {
+        final TranscriptBuffer buffer = new TranscriptBuffer();
+        buffer.setStable(Arrays.asList("one"));
+        buffer.setUnstable("two");
+        buffer.setStable(Arrays.asList("three"));
+
+        assertEquals("three", buffer.getText().toString());
+        assertEquals(0, buffer.getUnstableText().length());
+    }
+
+    @Test
+    public void unstableSegmentWithoutStableOne() throws Exception {
+        final TranscriptBuffer buffer = new TranscriptBuffer();
+        buffer.setStable(Arrays.<String>asList());
+        buffer.setUnstable("maybe");
+
+        assertEquals("maybe", buffer.getText().toString());
+        assertEquals("maybe", buffer.getUnstableText().toString());
+        assertFalse(buffer.isEmpty());
+    }
+
+    @Test
+    public void viewsReflectTheLatestContent() throws Exception {
+        final TranscriptBuffer buffer = new TranscriptBuffer();
+        final CharSequence text = buffer.getText();
+
+        buffer.setStable(Arrays.asList("first"));
+        assertEquals("first", text.toString());
+
+        buffer.setStable(Arrays.asList("second"));
+        assertEquals(6, text.length());
+        assertEquals('s', text.charAt(0));
+        assertEquals("cond", text.subSequence(2, 6).toString());
+    }
+
+    @Test
+    public void trimmedStringHasNoSurroundingWhitespace() throws Exception {
+        final TranscriptBuffer buffer = new TranscriptBuffer();
+        buffer.setStable(Arrays.asList("  padded text "));
+
+        assertEquals("padded text", buffer.toTrimmedString());
+
+        buffer.clear();
+        assertTrue(buffer.isEmpty());
+        assertEquals("", buffer.toTrimmedString());
+    }
+
+    @Test
+    public void textsLongerThanTheInitialCapacityAreSupported() throws Exception {
+        final StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            expected.append("word").append(i).append(' ');
+        }
+
+        final TranscriptBuffer buffer = new TranscriptBuffer();
+        buffer.setStable(Arrays.asList(expected.toString().trim()));
+        buffer.setUnstable("tail");
+
+        assertEquals(expected + "tail", buffer.getText().toString());
+    }
+
+    @Test
+    public void updatesDoNotAllocateOnceTheBufferIsBigEnough() throws Exception {
+        final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        assumeTrue(threads instanceof com.sun.management.ThreadMXBean);
+
+        final com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+        assumeTrue(allocations.isThreadAllocatedMemorySupported());
+        allocations.setThreadAllocatedMemoryEnabled(true);
+
+        final List<String> first = Arrays.asList("turn on the", "lights");
+        final List<String> second = Arrays.asList("turn on the lights in the kitchen");
+        final TranscriptBuffer buffer = new TranscriptBuffer();
+        final CharSequence text = buffer.getText();
+
+        // warm up, so the buffer grows and the measure doesn't include class loading
+        long checksum = update(buffer, text, first, second, 1000);
+
+        final long threadId = Thread.currentThread().getId();
+        final long before = allocations.getThreadAllocatedBytes(threadId);
+        checksum += update(buffer, text, first, second, 10000);
+        final long allocated = allocations.getThreadAllocatedBytes(threadId) - before;
+
+        assertTrue(checksum > 0);
+        // a few bytes may be accounted to the measure itself, not to the 20000 updates
+        assertTrue("allocated " + allocated + " bytes", allocated < 1024);
+    }
+
+    private static long update(final TranscriptBuffer buffer, final CharSequence text,
+                               final List<String> first, final List<String> second, final int times) {
+        long checksum = 0;
+
+        for (int i = 0; i < times; i++) {
+            buffer.setStable(first);
+            buffer.setUnstable("kitchen");
+            checksum += text.charAt(text.length() - 1);
+
+            buffer.setStable(second);
+            buffer.setUnstable(null);
+            checksum += text.length();
+        }
+
+        return checksum;
+    }
+}
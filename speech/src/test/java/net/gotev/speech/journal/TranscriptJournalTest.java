@@ -0,0 +1,171 @@
+package net.gotev.speech.journal;
+
+import net.gotev.speech.Logger;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class TranscriptJournalTest {
+
+    private static final long TIMEOUT = 5000;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private File mDirectory;
+
+    @Before
+    public void setUp() throws Exception {
+        Logger.setLogLevel(Logger.LogLevel.OFF);
+        mDirectory = mFolder.newFolder("journal");
+    }
+
+    /**
+     * Waits for the writer thread to journal the given number of final results.
+     */
+    private RecoveredTranscript awaitFinalResults(final int count) throws Exception {
+        final long deadline = System.currentTimeMillis() + TIMEOUT;
+        RecoveredTranscript transcript = null;
+
+        while (System.currentTimeMillis() < deadline) {
+            transcript = TranscriptJournal.recover(mDirectory);
+
+            if (transcript != null && transcript.getFinalResults().size() >= count)
+                return transcript;
+
+            Thread.sleep(10);
+        }
+
+        fail("final results not journaled: " + (transcript == null ? null : transcript.getFinalResults()));
+        return null;
+    }
+
+    /**
+     * Waits for the writer thread to journal exactly the given final results.
+     */
+    private RecoveredTranscript awaitTranscript(final List<String> finalResults) throws Exception {
+        final long deadline = System.currentTimeMillis() + TIMEOUT;
+        RecoveredTranscript transcript = TranscriptJournal.recover(mDirectory);
+
+        while (System.currentTimeMillis() < deadline
+                && (transcript == null || !transcript.getFinalResults().equals(finalResults))) {
+            Thread.sleep(10);
+            transcript = TranscriptJournal.recover(mDirectory);
+        }
+
+        assertNotNull(transcript);
+        return transcript;
+    }
+
+    @Test
+    public void recoversFinalAndPartialResults() throws Exception {
+        final TranscriptJournal journal = new TranscriptJournal(mDirectory);
+
+        journal.appendPartial("hel");
+        journal.appendFinal("hello");
+        journal.appendFinal("world");
+        journal.appendPartial("how are");
+        journal.close();
+
+        final RecoveredTranscript transcript = awaitFinalResults(2);
+        assertEquals(Arrays.asList("hello", "world"), transcript.getFinalResults());
+    }
+
+    @Test
+    public void neverDropsFinalResults() throws Exception {
+        final TranscriptJournal journal = new TranscriptJournal(mDirectory, 4096, 1000, 1);
+
+        for (int i = 0; i < 500; i++) {
+            journal.appendPartial("partial " + i);
+            journal.appendFinal("final " + i);
+        }
+
+        journal.close();
+
+        final RecoveredTranscript transcript = awaitFinalResults(500);
+        assertEquals(500, transcript.getFinalResults().size());
+
+        for (int i = 0; i < 500; i++) {
+            assertEquals("final " + i, transcript.getFinalResults().get(i));
+        }
+    }
+
+    @Test
+    public void clearForgetsTheTranscript() throws Exception {
+        final TranscriptJournal journal = new TranscriptJournal(mDirectory);
+
+        journal.appendFinal("hello");
+        journal.clear();
+        journal.appendFinal("world");
+        journal.close();
+
+        assertEquals(Arrays.asList("world"), awaitFinalResults(1).getFinalResults());
+    }
+
+    @Test
+    public void newJournalStartsAfterTheRecovery() throws Exception {
+        final TranscriptJournal previous = new TranscriptJournal(mDirectory);
+        previous.appendFinal("hello");
+        previous.close();
+        awaitFinalResults(1);
+
+        final Future<RecoveredTranscript> recovery = TranscriptJournal.recoverInBackground(mDirectory);
+        final TranscriptJournal journal = new TranscriptJournal(mDirectory, recovery);
+
+        assertEquals(Arrays.asList("hello"), recovery.get().getFinalResults());
+
+        // the new journal replaces the previous transcript
+        journal.appendFinal("world");
+        journal.close();
+
+        assertEquals(Arrays.asList("world"), awaitTranscript(Arrays.asList("world")).getFinalResults());
+    }
+
+    @Test
+    public void neverWaitsForABusyWriter() throws Exception {
+        // the writer thread waits for the recovery, so the events pile up
+        final FutureTask<RecoveredTranscript> recovery = new FutureTask<>(new Callable<RecoveredTranscript>() {
+            @Override
+            public RecoveredTranscript call() {
+                return null;
+            }
+        });
+        final TranscriptJournal journal = new TranscriptJournal(mDirectory, 4096, 1000, 1, recovery);
+
+        final long start = System.nanoTime();
+
+        for (int i = 0; i < 20; i++) {
+            journal.appendPartial("partial " + i);
+            journal.appendFinal("final " + i);
+        }
+
+        journal.clear();
+        journal.appendFinal("last");
+        journal.appendPartial("after");
+
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 500);
+
+        recovery.run();
+        journal.close();
+
+        assertEquals(Arrays.asList("last"), awaitTranscript(Arrays.asList("last")).getFinalResults());
+    }
+
+    @Test
+    public void nothingToRecoverInAnEmptyDirectory() throws Exception {
+        assertNull(TranscriptJournal.recover(mDirectory));
+        assertNull(TranscriptJournal.recoverInBackground(mDirectory).get());
+    }
+}